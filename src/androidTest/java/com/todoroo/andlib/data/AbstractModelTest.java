@@ -0,0 +1,192 @@
+package com.todoroo.andlib.data;
+
+import android.content.ContentValues;
+import android.os.Debug;
+import android.os.Parcel;
+import android.test.AndroidTestCase;
+
+import com.todoroo.astrid.data.Task;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class AbstractModelTest extends AndroidTestCase {
+
+    private static final Logger log = LoggerFactory.getLogger(AbstractModelTest.class);
+
+    public void testSlotsMatchContentValues() {
+        Task slots = new Task();
+        Task contentValues = contentValuesTask();
+        for (Task task : new Task[] { slots, contentValues }) {
+            populate(task);
+        }
+
+        assertEquals(contentValues.getSetValues(), slots.getSetValues());
+        assertEquals(contentValues.getMergedValues(), slots.getMergedValues());
+        assertEquals(contentValues.getTitle(), slots.getTitle());
+        assertEquals(contentValues.getDueDate(), slots.getDueDate());
+        assertEquals(contentValues.getImportance(), slots.getImportance());
+        assertEquals(contentValues.getHideUntil(), slots.getHideUntil());
+        assertEquals(contentValues.getUuid(), slots.getUuid());
+        assertEquals(contentValues.getId(), slots.getId());
+    }
+
+    public void testMarkSaved() {
+        Task task = new Task();
+        populate(task);
+        task.markSaved();
+
+        assertNull(task.getSetValues());
+        assertEquals("title", task.getTitle());
+
+        task.setTitle("title");
+        assertEquals(0, task.getSetValues().size());
+
+        task.setTitle("new title");
+        assertEquals(1, task.getSetValues().size());
+        assertEquals("title", task.getDatabaseValues().getAsString(Task.TITLE.name));
+        assertEquals("new title", task.getTitle());
+    }
+
+    public void testInspectSetValues() {
+        Task task = new Task();
+        task.setTitle("title");
+        task.markSaved();
+        assertEquals(0, task.getSetValueCount());
+
+        task.setDueDate(5L);
+        assertEquals(1, task.getSetValueCount());
+        assertTrue(task.containsSetValue(Task.DUE_DATE));
+        assertFalse(task.containsSetValue(Task.TITLE));
+    }
+
+    public void testClearValue() {
+        Task task = new Task();
+        task.setDueDate(5L);
+        task.markSaved();
+
+        task.clearValue(Task.DUE_DATE);
+
+        assertFalse(task.containsValue(Task.DUE_DATE));
+        assertEquals(0L, (long) task.getDueDate());
+    }
+
+    public void testColumnOutsideSchema() {
+        Task task = new Task();
+        ContentValues values = new ContentValues();
+        values.put("extra", "value");
+        task.mergeWith(values);
+
+        assertEquals("value", task.getSetValues().getAsString("extra"));
+    }
+
+    public void testCloneIsIndependent() {
+        Task task = new Task();
+        populate(task);
+
+        Task clone = (Task) task.clone();
+        clone.setTitle("clone");
+
+        assertEquals("title", task.getTitle());
+        assertEquals("clone", clone.getTitle());
+    }
+
+    public void testParcel() {
+        Task task = new Task();
+        populate(task);
+        task.markSaved();
+        task.setNotes("notes");
+
+        Parcel parcel = Parcel.obtain();
+        try {
+            task.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            Task read = Task.CREATOR.createFromParcel(parcel);
+
+            assertEquals(task.getSetValues(), read.getSetValues());
+            assertEquals(task.getDatabaseValues(), read.getDatabaseValues());
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    public void testStorageBenchmark() {
+        Stats contentValues = benchmark(new Factory() {
+            @Override
+            public Task create() {
+                return contentValuesTask();
+            }
+        });
+        Stats slots = benchmark(new Factory() {
+            @Override
+            public Task create() {
+                return new Task();
+            }
+        });
+
+        log.info("content values: {}", contentValues);
+        log.info("slots: {}", slots);
+    }
+
+    @SuppressWarnings("deprecation")
+    private Stats benchmark(Factory factory) {
+        int iterations = 2000;
+        int reads = 20;
+        Stats stats = new Stats();
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            long start = System.nanoTime();
+            long checksum = 0;
+            for (int i = 0; i < iterations; i++) {
+                Task task = factory.create();
+                populate(task);
+                task.markSaved();
+                for (int j = 0; j < reads; j++) {
+                    checksum += task.getDueDate() + task.getImportance() + task.getCompletionDate()
+                            + task.getTitle().length();
+                }
+            }
+            stats.nanos = System.nanoTime() - start;
+            stats.allocations = Debug.getThreadAllocCount();
+            stats.bytes = Debug.getThreadAllocSize();
+            assertTrue(checksum > 0);
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        return stats;
+    }
+
+    private static void populate(Task task) {
+        task.setId(1L);
+        task.setUuid("1234");
+        task.setTitle("title");
+        task.setDueDate(1000L);
+        task.setImportance(Task.IMPORTANCE_MUST_DO);
+    }
+
+    private static Task contentValuesTask() {
+        return new Task() {
+            @Override
+            protected TableSchema getSchema() {
+                return null;
+            }
+        };
+    }
+
+    private interface Factory {
+        Task create();
+    }
+
+    private static class Stats {
+        long nanos;
+        int allocations;
+        int bytes;
+
+        @Override
+        public String toString() {
+            return nanos / 1000 + "us, " + allocations + " allocations, " + bytes + " bytes";
+        }
+    }
+}
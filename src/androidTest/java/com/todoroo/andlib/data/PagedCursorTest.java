@@ -0,0 +1,191 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.andlib.data;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.todoroo.andlib.sql.Query;
+import com.todoroo.astrid.core.SortHelper;
+import com.todoroo.astrid.dao.TaskDao;
+import com.todoroo.astrid.data.Task;
+import com.todoroo.astrid.test.DatabaseTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+public class PagedCursorTest extends DatabaseTestCase {
+
+    private static final Property<?>[] PROPERTIES = new Property<?>[] { Task.ID, Task.TITLE };
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Inject TaskDao taskDao;
+
+    @Override
+    protected void setUp() {
+        super.setUp();
+
+        for (int i = 0; i < 23; i++) {
+            Task task = new Task();
+            task.setTitle(i % 5 == 0 ? "" : "task " + (i % 4));
+            task.setImportance(i % 3);
+            task.setDueDate(i % 2 == 0 ? 0L : 1000L * (i % 6));
+            taskDao.save(task);
+        }
+    }
+
+    public void testPagesMatchSortOrder() {
+        for (int sort : new int[] { SortHelper.SORT_AUTO, SortHelper.SORT_ALPHA, SortHelper.SORT_DUE,
+                SortHelper.SORT_IMPORTANCE }) {
+            for (int flags : new int[] { 0, SortHelper.FLAG_REVERSE_SORT }) {
+                String template = SortHelper.adjustQueryForFlagsAndSort("WHERE 1", flags, sort);
+                assertEquals(template, readAll(template), readPaged(template));
+            }
+        }
+    }
+
+    public void testGroupedQuery() {
+        String template = "WHERE tasks.importance < 2 GROUP BY tasks._id ORDER BY tasks.title DESC";
+
+        assertEquals(readAll(template), readPaged(template));
+    }
+
+    public void testCannotPageLimit() {
+        assertNull(PagedCursor.create(database, Task.TABLE, PROPERTIES, "WHERE 1 LIMIT 5", 4, DIRECT, DIRECT));
+    }
+
+    public void testDropsDistantPages() {
+        PagedCursor cursor = PagedCursor.create(database, Task.TABLE, PROPERTIES,
+                "ORDER BY tasks.title", 4, DIRECT, DIRECT);
+        try {
+            List<Long> forward = new ArrayList<>();
+            for (int i = 0; cursor.moveToPosition(i); i++) {
+                forward.add(cursor.getLong(0));
+            }
+            assertEquals(23, cursor.getCount());
+
+            // the first pages were closed and are fetched again
+            for (int i = forward.size() - 1; i >= 0; i--) {
+                assertTrue(cursor.moveToPosition(i));
+                assertEquals((long) forward.get(i), cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testMainThreadReadsPlaceholder() throws InterruptedException {
+        final QueuedExecutor fetches = new QueuedExecutor();
+        final PagedCursor cursor = PagedCursor.create(database, Task.TABLE, PROPERTIES,
+                "ORDER BY tasks.title", 4, fetches, DIRECT);
+        try {
+            final List<Long> forward = new ArrayList<>();
+            for (int i = 0; cursor.moveToPosition(i); i++) {
+                forward.add(cursor.getLong(0));
+                fetches.runAll();
+            }
+            assertEquals(23, cursor.getCount());
+
+            // the first page was closed, the main thread does not wait for it
+            final boolean[] results = new boolean[4];
+            final long[] id = new long[1];
+            final CountDownLatch latch = new CountDownLatch(1);
+            new Handler(Looper.getMainLooper()).post(new Runnable() {
+                @Override
+                public void run() {
+                    results[0] = cursor.moveToPosition(0);
+                    results[1] = cursor.isPlaceholder();
+                    results[2] = cursor.isNull(0);
+                    fetches.runAll();
+                    results[3] = cursor.isPlaceholder();
+                    id[0] = cursor.getLong(0);
+                    latch.countDown();
+                }
+            });
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+            assertTrue(results[0]);
+            assertTrue(results[1]);
+            assertTrue(results[2]);
+            assertFalse(results[3]);
+            assertEquals((long) forward.get(0), id[0]);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testCannotMovePastCount() {
+        PagedCursor cursor = PagedCursor.create(database, Task.TABLE, PROPERTIES,
+                "ORDER BY tasks.title", 4, new QueuedExecutor(), DIRECT);
+        try {
+            assertEquals(4, cursor.getCount());
+            assertFalse(cursor.moveToPosition(4));
+            assertFalse(cursor.onMove(0, 8));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private List<Long> readAll(String template) {
+        List<Long> ids = new ArrayList<>();
+        // ties are broken by id, like the paged cursor does
+        TodorooCursor<Task> cursor = taskDao.query(Query.select(Task.ID)
+                .withQueryTemplate(template + ", tasks._id ASC"));
+        try {
+            for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                ids.add(cursor.get(Task.ID));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    private static class QueuedExecutor implements Executor {
+
+        private final List<Runnable> queue = new ArrayList<>();
+
+        @Override
+        public synchronized void execute(Runnable command) {
+            queue.add(command);
+        }
+
+        void runAll() {
+            Runnable command;
+            while ((command = next()) != null) {
+                command.run();
+            }
+        }
+
+        private synchronized Runnable next() {
+            return queue.isEmpty() ? null : queue.remove(0);
+        }
+    }
+
+    private List<Long> readPaged(String template) {
+        List<Long> ids = new ArrayList<>();
+        PagedCursor cursor = PagedCursor.create(database, Task.TABLE, PROPERTIES, template, 4, DIRECT, DIRECT);
+        try {
+            for (int i = 0; cursor.moveToPosition(i); i++) {
+                ids.add(cursor.getLong(cursor.getColumnIndexOrThrow(Task.ID.name)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,87 @@
+package com.todoroo.andlib.sql;
+
+import android.test.AndroidTestCase;
+
+import com.todoroo.astrid.data.Metadata;
+import com.todoroo.astrid.data.Task;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+
+public class QueryTest extends AndroidTestCase {
+
+    public void testInlineValues() {
+        Query query = Query.select(Task.ID).from(Task.TABLE).where(Task.TITLE.eq("it's"));
+
+        assertEquals("SELECT tasks._id AS _id FROM tasks WHERE (tasks.title='it''s') ", query.toString());
+    }
+
+    public void testBindValues() {
+        List<Object> args = new ArrayList<>();
+        Query query = Query.select(Task.ID).from(Task.TABLE).where(Criterion.and(
+                Task.TITLE.eq("it's"), Task.ID.gt(5L)));
+
+        assertEquals("SELECT tasks._id AS _id FROM tasks WHERE ((tasks.title=?) AND (tasks._id>?)) ", query.toSql(args));
+        assertEquals(asList((Object) "it's", 5L), args);
+    }
+
+    public void testSameShapeForDifferentValues() {
+        List<Object> first = new ArrayList<>();
+        List<Object> second = new ArrayList<>();
+
+        String firstSql = Query.select(Task.ID).where(Task.ID.eq(1L)).toSql(first);
+        String secondSql = Query.select(Task.ID).where(Task.ID.eq(2L)).toSql(second);
+
+        assertEquals(firstSql, secondSql);
+        assertFalse(first.equals(second));
+    }
+
+    public void testFieldsAreNotBound() {
+        List<Object> args = new ArrayList<>();
+
+        String sql = Query.select(Task.ID).where(Task.HIDE_UNTIL.lt(Functions.now())).toSql(args);
+
+        assertTrue(sql.contains("strftime"));
+        assertTrue(args.isEmpty());
+    }
+
+    public void testBindInJoinAndSubquery() {
+        List<Object> args = new ArrayList<>();
+        Query query = Query.select(Task.ID).from(Task.TABLE)
+                .join(Join.left(Metadata.TABLE, Criterion.and(Metadata.KEY.eq("gtasks"), Metadata.TASK.eq(Task.ID))))
+                .where(Criterion.not(Task.ID.in(Query.select(Metadata.TASK).from(Metadata.TABLE).where(Metadata.KEY.eq("tags")))));
+
+        String sql = query.toSql(args);
+
+        assertFalse(sql.contains("gtasks"));
+        assertFalse(sql.contains("tags"));
+        assertEquals(asList((Object) "gtasks", "tags"), args);
+    }
+
+    public void testLikeWithEscape() {
+        List<Object> args = new ArrayList<>();
+
+        String sql = Query.select(Task.ID).where(Task.TITLE.eqCaseInsensitive("a_b")).toSql(args);
+
+        assertTrue(sql.contains("LIKE ? ESCAPE '\\'"));
+        assertEquals(asList((Object) "a\\_b"), args);
+    }
+
+    public void testReorderLowercaseTemplate() {
+        SqlClauses clauses = SqlClauses.parse("where tasks.deleted = 0 order by tasks.title limit 10");
+
+        assertEquals("WHERE tasks.deleted = 0 ORDER BY first, tasks.title LIMIT 10",
+                clauses.withOrderBy("first, " + clauses.orderBy).toString());
+    }
+
+    public void testReorderIgnoresSubqueryOrder() {
+        SqlClauses clauses = SqlClauses.parse(
+                "WHERE tasks._id IN (SELECT task FROM metadata ORDER BY created LIMIT 5)");
+
+        assertNull(clauses.orderBy);
+        assertEquals("WHERE tasks._id IN (SELECT task FROM metadata ORDER BY created LIMIT 5) ORDER BY first",
+                clauses.withOrderBy("first").toString());
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.adapter;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+import com.todoroo.andlib.data.TodorooCursor;
+import com.todoroo.andlib.sql.Order;
+import com.todoroo.andlib.sql.Query;
+import com.todoroo.astrid.dao.TaskDao;
+import com.todoroo.astrid.data.Task;
+import com.todoroo.astrid.test.DatabaseTestCase;
+
+import javax.inject.Inject;
+
+public class TaskRowsTest extends DatabaseTestCase {
+
+    @Inject TaskDao taskDao;
+
+    @Override
+    protected void setUp() {
+        super.setUp();
+
+        for (int i = 0; i < 30; i++) {
+            Task task = new Task();
+            task.setTitle("task " + i);
+            taskDao.save(task);
+        }
+    }
+
+    public void testBindsRowsOfLaterPages() {
+        Cursor all = taskDao.query(Query.select(TaskAdapter.PROPERTIES).orderBy(Order.asc(Task.ID)));
+        // a paged cursor counts only the rows of the pages fetched so far
+        GrowingCursor pages = new GrowingCursor(all, 10);
+        TodorooCursor<Task> cursor = new TodorooCursor<>(pages, TaskAdapter.PROPERTIES, Task.class);
+        try {
+            TaskRows rows = new TaskRows(getContext(), cursor, null);
+            rows.load(0, 10);
+
+            pages.count = 30;
+            assertTrue(cursor.moveToPosition(25));
+            assertEquals("task 25", rows.current().title);
+            assertTrue(cursor.moveToPosition(5));
+            assertEquals("task 5", rows.current().title);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static class GrowingCursor extends CursorWrapper {
+
+        private int count;
+
+        GrowingCursor(Cursor cursor, int count) {
+            super(cursor);
+            this.count = count;
+        }
+
+        @Override
+        public int getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package com.todoroo.astrid.dao;
+
+import android.database.Cursor;
+
+import com.todoroo.andlib.sql.Query;
+import com.todoroo.andlib.utility.AndroidUtilities;
+import com.todoroo.astrid.data.Task;
+import com.todoroo.astrid.test.DatabaseTestCase;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tasks.BuildConfig;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.inject.Inject;
+
+public class DatabaseTests extends DatabaseTestCase {
+
+    private static final Logger log = LoggerFactory.getLogger(DatabaseTests.class);
+
+    @Inject TaskDao taskDao;
+
+    @Override
+    protected void tearDown() {
+        super.tearDown();
+        database.setWriteAheadLoggingEnabled(AndroidUtilities.atLeastJellybean());
+        database.setQueryPlanAuditingEnabled(BuildConfig.DEBUG);
+    }
+
+    public void testReadDuringWriteWithWriteAheadLogging() throws InterruptedException {
+        if (!AndroidUtilities.atLeastJellybean()) {
+            return;
+        }
+        reopen(true);
+        assertTrue(database.isWriteAheadLoggingEnabled());
+        createTask("existing");
+
+        final CountDownLatch inTransaction = new CountDownLatch(1);
+        final CountDownLatch finishTransaction = new CountDownLatch(1);
+        AtomicBoolean transactionDone = new AtomicBoolean();
+        Thread writer = startWriter(inTransaction, finishTransaction, transactionDone);
+        assertTrue(inTransaction.await(5, TimeUnit.SECONDS));
+
+        // the transaction is held open until the read completed
+        ReadResult read = startReader(transactionDone);
+        try {
+            assertTrue("reader waited for writer", read.done.await(5, TimeUnit.SECONDS));
+            assertFalse(read.afterWriter.get());
+        } finally {
+            finishTransaction.countDown();
+            writer.join();
+        }
+    }
+
+    public void testReadDuringWriteWithRollbackJournal() throws InterruptedException {
+        reopen(false);
+        assertFalse(database.isWriteAheadLoggingEnabled());
+        createTask("existing");
+
+        final CountDownLatch inTransaction = new CountDownLatch(1);
+        final CountDownLatch finishTransaction = new CountDownLatch(1);
+        AtomicBoolean transactionDone = new AtomicBoolean();
+        Thread writer = startWriter(inTransaction, finishTransaction, transactionDone);
+        assertTrue(inTransaction.await(5, TimeUnit.SECONDS));
+
+        ReadResult read = startReader(transactionDone);
+        assertTrue(read.started.await(5, TimeUnit.SECONDS));
+        finishTransaction.countDown();
+        writer.join();
+
+        // the transaction holds the only connection until it ends
+        assertTrue(read.done.await(5, TimeUnit.SECONDS));
+        assertTrue("reader did not wait for writer", read.afterWriter.get());
+    }
+
+    public void testReadsCommittedDataOnly() throws InterruptedException {
+        if (!AndroidUtilities.atLeastJellybean()) {
+            return;
+        }
+        reopen(true);
+        createTask("committed");
+
+        final CountDownLatch inTransaction = new CountDownLatch(1);
+        final CountDownLatch finishTransaction = new CountDownLatch(1);
+        Thread writer = startWriter(inTransaction, finishTransaction, new AtomicBoolean());
+
+        assertTrue(inTransaction.await(5, TimeUnit.SECONDS));
+        assertEquals(1, taskDao.count(Query.select(Task.ID)));
+        finishTransaction.countDown();
+        writer.join();
+        assertEquals(2, taskDao.count(Query.select(Task.ID)));
+    }
+
+    public void testBoundQueriesShareTheirSql() {
+        long first = createTask("first");
+        long second = createTask("second");
+
+        List<Object> firstArgs = new ArrayList<>();
+        List<Object> secondArgs = new ArrayList<>();
+        String firstSql = lookUpQuery(first).toSql(firstArgs);
+        String secondSql = lookUpQuery(second).toSql(secondArgs);
+
+        // one statement text, so SQLite prepares and caches it once
+        assertEquals(firstSql, secondSql);
+        assertFalse(firstSql.contains(Long.toString(first)));
+        assertEquals(Arrays.<Object>asList(first), firstArgs);
+        assertEquals(Arrays.<Object>asList(second), secondArgs);
+
+        assertEquals("first", readTitle(firstSql, firstArgs));
+        assertEquals("second", readTitle(secondSql, secondArgs));
+    }
+
+    /**
+     * Logs the time of bound and inlined lookups, for comparing on a device.
+     * Asserts nothing about it, timings vary too much between runs
+     */
+    public void testLogLookupTimings() {
+        database.setQueryPlanAuditingEnabled(false);
+        int count = 200;
+        long[] ids = new long[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = createTask("task " + i);
+        }
+
+        // best of a few rounds, the first ones warm up the caches
+        long inlined = Long.MAX_VALUE;
+        long bound = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            inlined = Math.min(inlined, lookUp(ids, false));
+            bound = Math.min(bound, lookUp(ids, true));
+        }
+
+        log.info("{} lookups: inlined {}us, bound {}us", count, inlined / 1000, bound / 1000);
+    }
+
+    private static Query lookUpQuery(long id) {
+        return Query.select(Task.PROPERTIES).from(Task.TABLE).where(Task.ID.eq(id));
+    }
+
+    private String readTitle(String sql, List<Object> args) {
+        Cursor cursor = database.rawQuery(sql, args.toArray());
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(cursor.getColumnIndexOrThrow(Task.TITLE.name));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return nanoseconds taken to read every task by id, with the id bound
+     *         to a shared statement or inlined into a statement of its own
+     */
+    private long lookUp(long[] ids, boolean bind) {
+        long start = System.nanoTime();
+        for (long id : ids) {
+            Query query = lookUpQuery(id);
+            Cursor cursor;
+            if (bind) {
+                List<Object> args = new ArrayList<>();
+                cursor = database.rawQuery(query.toSql(args), args.toArray());
+            } else {
+                cursor = database.rawQuery(query.toString());
+            }
+            try {
+                assertTrue(cursor.moveToFirst());
+            } finally {
+                cursor.close();
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    public void testChangesInTransactionArePublishedOnce() throws InterruptedException {
+        final List<DatabaseChange> changes = new ArrayList<>();
+        final CountDownLatch published = new CountDownLatch(1);
+        DatabaseUpdateListener listener = new DatabaseUpdateListener() {
+            @Override
+            public void onDatabaseUpdated(DatabaseChange change) {
+                changes.add(change);
+                published.countDown();
+            }
+        };
+        database.addListener(listener);
+        try {
+            database.runInTransaction(new Runnable() {
+                @Override
+                public void run() {
+                    createTask("one");
+                    createTask("two");
+                    createTask("three");
+                }
+            });
+            assertTrue(published.await(5, TimeUnit.SECONDS));
+            AndroidUtilities.sleepDeep(500L);
+        } finally {
+            database.removeListener(listener);
+        }
+
+        assertEquals(1, changes.size());
+        DatabaseChange change = changes.get(0);
+        assertTrue(change.affects(Task.TABLE));
+        assertEquals(3, change.getIds(Task.TABLE).size());
+        assertTrue(change.getColumns(Task.TABLE).contains(Task.TITLE.name));
+    }
+
+    public void testRolledBackChangesAreNotPublished() throws InterruptedException {
+        final List<DatabaseChange> changes = new ArrayList<>();
+        DatabaseUpdateListener listener = new DatabaseUpdateListener() {
+            @Override
+            public void onDatabaseUpdated(DatabaseChange change) {
+                changes.add(change);
+            }
+        };
+        database.addListener(listener);
+        try {
+            try {
+                database.runInTransaction(new Runnable() {
+                    @Override
+                    public void run() {
+                        createTask("one");
+                        throw new IllegalStateException();
+                    }
+                });
+                fail();
+            } catch (IllegalStateException expected) {
+            }
+            AndroidUtilities.sleepDeep(500L);
+        } finally {
+            database.removeListener(listener);
+        }
+
+        assertTrue(changes.isEmpty());
+    }
+
+    private static class ReadResult {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        /** true if the writer finished its transaction before the read completed */
+        final AtomicBoolean afterWriter = new AtomicBoolean();
+    }
+
+    /**
+     * Count the tasks on another thread
+     *
+     * @param transactionDone set by the writer at the end of its transaction
+     */
+    private ReadResult startReader(final AtomicBoolean transactionDone) {
+        final ReadResult result = new ReadResult();
+        new Thread() {
+            @Override
+            public void run() {
+                result.started.countDown();
+                taskDao.count(Query.select(Task.ID));
+                result.afterWriter.set(transactionDone.get());
+                result.done.countDown();
+            }
+        }.start();
+        return result;
+    }
+
+    /**
+     * @param transactionDone set as the last step of the transaction, before it ends
+     */
+    private Thread startWriter(final CountDownLatch inTransaction, final CountDownLatch finishTransaction,
+                               final AtomicBoolean transactionDone) {
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                database.runInTransaction(new Runnable() {
+                    @Override
+                    public void run() {
+                        createTask("uncommitted");
+                        inTransaction.countDown();
+                        try {
+                            finishTransaction.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            throw new RuntimeException(e);
+                        }
+                        transactionDone.set(true);
+                    }
+                });
+            }
+        };
+        writer.start();
+        return writer;
+    }
+
+    private long createTask(String title) {
+        Task task = new Task();
+        task.setTitle(title);
+        taskDao.createNew(task);
+        return task.getId();
+    }
+
+    private void reopen(boolean writeAheadLogging) {
+        database.close();
+        getContext().deleteDatabase(database.getName());
+        database.setWriteAheadLoggingEnabled(writeAheadLogging);
+        database.openForWriting();
+    }
+}
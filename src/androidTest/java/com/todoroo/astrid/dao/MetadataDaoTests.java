@@ -10,9 +10,12 @@ import com.todoroo.andlib.sql.Query;
 import com.todoroo.astrid.dao.MetadataDao.MetadataCriteria;
 import com.todoroo.astrid.data.Metadata;
 import com.todoroo.astrid.data.Task;
+import com.todoroo.astrid.tags.TaskToTagMetadata;
 import com.todoroo.astrid.test.DatabaseTestCase;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.regex.Pattern;
 
 import javax.inject.Inject;
 
@@ -75,6 +78,29 @@ public class MetadataDaoTests extends DatabaseTestCase {
         assertEquals("happy", metadataList.get(0).getKey());
     }
 
+    public void testPersistAll() {
+        List<Metadata> items = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Metadata item = new Metadata();
+            item.setTask(1L);
+            item.setKey("batch" + i);
+            items.add(item);
+        }
+
+        assertEquals(3, metadataDao.persistAll(items));
+
+        for (Metadata item : items) {
+            assertTrue(item.isSaved());
+            assertNull(item.getSetValues());
+        }
+        assertEquals(3, metadataDao.toList(Query.select(Metadata.ID)).size());
+
+        items.get(1).setKey("renamed");
+        assertEquals(1, metadataDao.persistAll(items));
+        assertEquals("renamed", metadataDao.fetch(items.get(1).getId(), KEYS).getKey());
+        assertEquals(3, metadataDao.toList(Query.select(Metadata.ID)).size());
+    }
+
     /**
      * Test metadata bound to task
      */
@@ -141,4 +167,26 @@ public class MetadataDaoTests extends DatabaseTestCase {
 
         assertNull(metadataDao.fetch(1));
     }
+
+    public void testMaintainsTagNames() {
+        Task task = new Task();
+        taskDao.save(task);
+        Metadata work = TaskToTagMetadata.newTagMetadata(task.getId(), task.getUuid(), "work", "1");
+        metadataDao.persist(work);
+        metadataDao.persist(TaskToTagMetadata.newTagMetadata(task.getId(), task.getUuid(), "home", "2"));
+
+        assertEquals(2, tagNames(task).split(Pattern.quote(TaskSummaries.TAG_SEPARATOR)).length);
+
+        Metadata deleted = new Metadata();
+        deleted.setDeletionDate(1L);
+        metadataDao.update(Metadata.ID.eq(work.getId()), deleted);
+        assertEquals("home", tagNames(task));
+
+        metadataDao.deleteWhere(MetadataCriteria.byTask(task.getId()));
+        assertNull(tagNames(task));
+    }
+
+    private String tagNames(Task task) {
+        return taskDao.fetch(task.getId(), Task.TAG_NAMES).getValue(Task.TAG_NAMES);
+    }
 }
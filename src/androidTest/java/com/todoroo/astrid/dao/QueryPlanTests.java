@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.dao;
+
+import com.todoroo.andlib.sql.Criterion;
+import com.todoroo.andlib.sql.Query;
+import com.todoroo.astrid.api.Filter;
+import com.todoroo.astrid.api.PermaSql;
+import com.todoroo.astrid.core.BuiltInFilterExposer;
+import com.todoroo.astrid.dao.TaskDao.TaskCriteria;
+import com.todoroo.astrid.data.Metadata;
+import com.todoroo.astrid.data.TagData;
+import com.todoroo.astrid.data.Task;
+import com.todoroo.astrid.gtasks.GtasksFilterExposer;
+import com.todoroo.astrid.gtasks.GtasksMetadata;
+import com.todoroo.astrid.tags.TagFilterExposer;
+import com.todoroo.astrid.tags.TaskToTagMetadata;
+import com.todoroo.astrid.test.DatabaseTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import static java.util.Arrays.asList;
+import static org.tasks.makers.GtaskListMaker.newGtaskList;
+
+public class QueryPlanTests extends DatabaseTestCase {
+
+    @Inject GtasksMetadata gtasksMetadata;
+
+    public void testDetectFullScans() {
+        assertEquals(asList("SCAN TABLE tasks", "SCAN metadata"), QueryPlanAuditor.findFullScans(asList(
+                "SCAN TABLE tasks",
+                "SEARCH TABLE metadata USING INDEX md_tid (task=?)",
+                "SCAN metadata",
+                "SCAN SUBQUERY 1",
+                "USE TEMP B-TREE FOR ORDER BY")));
+    }
+
+    public void testIndexOrderedScansAreNotFullScans() {
+        assertTrue(QueryPlanAuditor.findFullScans(asList(
+                "SCAN TABLE tasks USING INDEX t_sort_auto",
+                "SCAN metadata USING COVERING INDEX md_tkid")).isEmpty());
+    }
+
+    public void testMyTasksFilterUsesIndexes() {
+        assertUsesIndexes(BuiltInFilterExposer.getMyTasksFilter(getContext().getResources()));
+    }
+
+    public void testTagFilterUsesIndexes() {
+        TagData tag = new TagData();
+        tag.setName("tag");
+        tag.setUUID("1234");
+
+        assertUsesIndexes(TagFilterExposer.filterFromTag(getContext(), tag, TaskCriteria.activeAndVisible()));
+    }
+
+    public void testGtasksListFilterUsesIndexes() {
+        assertUsesIndexes(GtasksFilterExposer.filterFromList(gtasksMetadata, getContext(), newGtaskList()));
+    }
+
+    public void testGtasksIdLookupUsesIndex() {
+        assertUsesIndexes(Query.select(Metadata.PROPERTIES).from(Metadata.TABLE).where(Criterion.and(
+                Metadata.KEY.eq(GtasksMetadata.METADATA_KEY),
+                GtasksMetadata.ID.eq("1"))));
+    }
+
+    public void testTagsByTaskUuidUseIndex() {
+        assertUsesIndexes(Query.select(TaskToTagMetadata.TAG_UUID).from(Metadata.TABLE).where(Criterion.and(
+                Metadata.KEY.eq(TaskToTagMetadata.KEY),
+                TaskToTagMetadata.TASK_UUID.eq("1234"))));
+    }
+
+    private void assertUsesIndexes(Filter filter) {
+        assertUsesIndexes(Query.select(Task.ID).from(Task.TABLE)
+                .withQueryTemplate(PermaSql.replacePlaceholders(filter.getSqlQuery())));
+    }
+
+    private void assertUsesIndexes(Query query) {
+        List<Object> args = new ArrayList<>();
+        String sql = query.toSql(args);
+        List<String> plan = database.explainQueryPlan(sql, args.toArray());
+        assertTrue(sql + "\n" + plan, QueryPlanAuditor.findFullScans(plan).isEmpty());
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.dao;
+
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+public class QueryStatisticsTest extends AndroidTestCase {
+
+    private static final String DATABASE_NAME = "databasetest";
+
+    @Override
+    protected void tearDown() throws Exception {
+        getContext().deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testNormalizeLiterals() {
+        assertEquals("SELECT * FROM tasks WHERE title = ? AND importance > ? AND value1 = ?",
+                QueryStatistics.normalize("SELECT * FROM tasks WHERE title = 'it''s'  AND importance > 2 AND value1 = ?"));
+    }
+
+    public void testNormalizeCollapsesLists() {
+        assertEquals("SELECT * FROM tasks WHERE _id IN (?)",
+                QueryStatistics.normalize("SELECT * FROM tasks WHERE _id IN (1, 2, 3)"));
+        assertEquals("SELECT * FROM tasks WHERE _id IN (?)",
+                QueryStatistics.normalize("SELECT * FROM tasks WHERE _id IN (?,?)"));
+    }
+
+    public void testGroupsByShape() {
+        QueryStatistics statistics = new QueryStatistics(1000);
+        for (int i = 0; i < 10; i++) {
+            statistics.record("SELECT * FROM tasks WHERE _id = " + i, (i + 1) * 1000000L, 1);
+        }
+
+        String report = statistics.getReport();
+
+        assertTrue(report, report.contains(
+                "      10       55.0       5.00      10.00      10.00         10  SELECT * FROM tasks WHERE _id = ?"));
+    }
+
+    public void testSlowQueryLog() {
+        QueryStatistics statistics = new QueryStatistics(5);
+        statistics.record("SELECT * FROM tasks WHERE _id = 1", 1000000L, 1);
+        statistics.record("SELECT * FROM tasks WHERE _id = 2", 6000000L, 1);
+
+        String report = statistics.getReport();
+        String slow = report.substring(report.indexOf("Slow queries"));
+
+        assertFalse(slow.contains("_id = 1"));
+        assertTrue(slow.contains("_id = 2"));
+    }
+
+    public void testDatabaseRecordsQueries() {
+        Database database = new Database(getContext()) {
+            @Override
+            public String getName() {
+                return DATABASE_NAME;
+            }
+        };
+        QueryStatistics statistics = new QueryStatistics();
+        database.setQueryStatistics(statistics);
+        try {
+            Cursor cursor = database.rawQuery("SELECT * FROM tasks WHERE _id = 5");
+            try {
+                assertFalse(statistics.getReport().contains("SELECT * FROM tasks WHERE _id = ?"));
+                assertFalse(cursor.moveToFirst());
+                assertTrue(statistics.getReport().contains("SELECT * FROM tasks WHERE _id = ?"));
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            database.setQueryStatistics(null);
+            database.close();
+        }
+    }
+}
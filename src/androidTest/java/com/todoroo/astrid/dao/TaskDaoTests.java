@@ -6,12 +6,18 @@
 package com.todoroo.astrid.dao;
 
 import com.todoroo.andlib.data.Property;
+import com.todoroo.andlib.data.Property.LongProperty;
+import com.todoroo.andlib.data.TodorooCursor;
+import com.todoroo.andlib.sql.Order;
 import com.todoroo.andlib.sql.Query;
 import com.todoroo.andlib.utility.DateUtilities;
+import com.todoroo.astrid.core.SortHelper;
 import com.todoroo.astrid.dao.TaskDao.TaskCriteria;
+import com.todoroo.astrid.data.RemoteModel;
 import com.todoroo.astrid.data.Task;
 import com.todoroo.astrid.test.DatabaseTestCase;
 
+import java.util.Arrays;
 import java.util.List;
 
 import javax.inject.Inject;
@@ -156,6 +162,156 @@ public class TaskDaoTests extends DatabaseTestCase {
         assertEquals(0, taskDao.toList(Query.select(IDS)).size());
     }
 
+    public void testCursorModelIsReusedForEachRow() {
+        createTask("first");
+        createTask("second");
+
+        TodorooCursor<Task> cursor = taskDao.query(Query.select(TITLES).orderBy(Order.asc(Task.ID)));
+        try {
+            assertTrue(cursor.moveToFirst());
+            Task first = cursor.asModel();
+            assertEquals("first", first.getTitle());
+
+            assertTrue(cursor.moveToNext());
+            Task second = cursor.asModel();
+            assertSame(first, second);
+            assertEquals("second", second.getTitle());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testDetachedModelKeepsRow() {
+        createTask("first");
+        createTask("second");
+
+        TodorooCursor<Task> cursor = taskDao.query(Query.select(TITLES).orderBy(Order.asc(Task.ID)));
+        try {
+            assertTrue(cursor.moveToFirst());
+            Task first = cursor.asModel().detach();
+
+            assertTrue(cursor.moveToNext());
+            Task second = cursor.asModel();
+
+            assertNotSame(first, second);
+            assertEquals("first", first.getTitle());
+            assertSame(first, first.detach());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testStoredSortKeysMatchSortHelper() {
+        for (long dueDate : new long[] { 0L, 1388534400000L, 1388534401000L }) {
+            for (int importance = Task.IMPORTANCE_DO_OR_DIE; importance <= Task.IMPORTANCE_NONE; importance++) {
+                Task task = new Task();
+                task.setTitle("task");
+                task.setDueDate(dueDate);
+                task.setImportance(importance);
+                task.setCompletionDate(importance % 2 == 0 ? 0L : 1388534400000L);
+                taskDao.save(task);
+            }
+        }
+
+        // keys saved by the dao are recomputed in SQL
+        long epoch = taskDao.rolloverSortKeys();
+
+        TodorooCursor<Task> cursor = taskDao.query(Query.select(Task.PROPERTIES));
+        try {
+            assertEquals(12, cursor.getCount());
+            for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                Task stored = new Task(cursor);
+                Task expected = new Task();
+                SortHelper.setSortKeys(expected, stored.getDueDate(), stored.getImportance(),
+                        stored.getCompletionDate(), epoch);
+                for (LongProperty key : new LongProperty[] { Task.SORT_AUTO, Task.SORT_DUE,
+                        Task.SORT_IMPORTANCE, Task.SORT_WIDGET }) {
+                    assertEquals(key.name, expected.getValue(key), stored.getValue(key));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testPersistAllSetsTaskValues() {
+        Task task = new Task();
+        task.setTitle("task");
+        task.setDueDate(1388534400000L);
+        task.setImportance(Task.IMPORTANCE_MUST_DO);
+
+        assertEquals(1, taskDao.persistAll(Arrays.asList(task)));
+
+        Task stored = taskDao.fetch(task.getId(), Task.PROPERTIES);
+        assertTrue(stored.getCreationDate() > 0);
+        assertTrue(stored.getValue(Task.MODIFICATION_DATE) > 0);
+        assertFalse(RemoteModel.isUuidEmpty(stored.getUuid()));
+        assertTrue(stored.getValue(Task.SORT_AUTO) > 0);
+    }
+
+    public void testCopyDoesNotInheritSummaries() {
+        Task task = new Task();
+        task.setTitle("task");
+        taskDao.createNew(task);
+        database.getDatabase().execSQL("UPDATE " + Task.TABLE.name + " SET " + Task.TAG_NAMES.name + " = 'tag', "
+                + Task.HAS_ATTACHMENTS.name + " = 1 WHERE " + Task.ID.name + " = " + task.getId());
+
+        Task copy = taskDao.fetch(task.getId(), Task.PROPERTIES);
+        copy.clearValue(Task.ID);
+        copy.clearValue(Task.UUID);
+        taskDao.createNew(copy);
+
+        Task stored = taskDao.fetch(copy.getId(), Task.PROPERTIES);
+        assertNull(stored.getValue(Task.TAG_NAMES));
+        assertEquals(0, (int) stored.getValue(Task.HAS_ATTACHMENTS));
+    }
+
+    public void testNextTimeBoundary() {
+        long now = DateUtilities.now();
+        assertEquals(0, taskDao.nextTimeBoundary(now));
+
+        Task hidden = new Task();
+        hidden.setHideUntil(now + 3 * DateUtilities.ONE_HOUR);
+        taskDao.save(hidden);
+        Task due = new Task();
+        due.setDueDate(now + 2 * DateUtilities.ONE_HOUR);
+        taskDao.save(due);
+        Task deleted = new Task();
+        deleted.setDueDate(now + DateUtilities.ONE_HOUR);
+        deleted.setDeletionDate(now);
+        taskDao.save(deleted);
+
+        assertEquals(due.getDueDate().longValue(), taskDao.nextTimeBoundary(now));
+
+        Task completed = new Task();
+        completed.setCompletionDate(now - 1000);
+        taskDao.save(completed);
+
+        assertEquals(now - 1000 + DateUtilities.ONE_MINUTE, taskDao.nextTimeBoundary(now));
+    }
+
+    public void testSearchMatchesWordPrefixes() {
+        createTask("Buy milk");
+        Task notes = new Task();
+        notes.setTitle("errand");
+        notes.setNotes("buy milk on the way home");
+        taskDao.save(notes);
+        createTask("pay bill");
+
+        assertEquals(2, taskDao.count(Query.select(Task.ID).where(TaskSearch.matches("bu MIL"))));
+        assertEquals(0, taskDao.count(Query.select(Task.ID).where(TaskSearch.matches("ilk"))));
+
+        // the index follows edits
+        notes.setNotes("");
+        taskDao.save(notes);
+        assertEquals(1, taskDao.count(Query.select(Task.ID).where(TaskSearch.matches("milk"))));
+    }
+
+    private void createTask(String title) {
+        Task task = new Task();
+        task.setTitle(title);
+        taskDao.save(task);
+    }
+
     // TODO check eventing
 }
-
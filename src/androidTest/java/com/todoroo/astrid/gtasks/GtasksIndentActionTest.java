@@ -114,6 +114,32 @@ public class GtasksIndentActionTest extends DatabaseTestCase {
         thenExpectIndentationLevel(sibling, 0);
     }
 
+    public void testIndentTwiceInARow() {
+        Task parent = taskWithMetadata(0, 0);
+        givenTask(taskWithMetadata(1, 0));
+        Task sibling = taskWithMetadata(2, 0);
+
+        whenIncreaseIndent();
+        gtasksTaskListUpdater.indent(storeList, sibling.getId(), 1);
+
+        thenExpectIndentationLevel(1);
+        thenExpectIndentationLevel(sibling, 1);
+        thenExpectParent(sibling, parent);
+    }
+
+    public void testIndentSeesMetadataWrittenElsewhere() {
+        taskWithMetadata(0, 0);
+        givenTask(taskWithMetadata(1, 0));
+        whenIncreaseIndent();
+
+        // written after the tree of the list was cached
+        Task added = taskWithMetadata(2, 0);
+        gtasksTaskListUpdater.indent(storeList, added.getId(), 1);
+
+        thenExpectIndentationLevel(1);
+        thenExpectIndentationLevel(added, 1);
+    }
+
     public void disabled_testIndentWithChildrensChildren() {
         taskWithMetadata(0, 0);
         givenTask(taskWithMetadata(1, 0));
@@ -177,6 +203,12 @@ public class GtasksIndentActionTest extends DatabaseTestCase {
                 indentation == expected);
     }
 
+    private void thenExpectParent(Task targetTask, Task expectedParent) {
+        Metadata metadata = gtasksMetadataService.getTaskMetadata(targetTask.getId());
+        assertNotNull("task has metadata", metadata);
+        assertEquals("parent", expectedParent.getId(), metadata.getValue(GtasksMetadata.PARENT_TASK).longValue());
+    }
+
     private void givenTask(Task taskToTest) {
         task = taskToTest;
     }
@@ -10,6 +10,8 @@ import android.content.Context;
 import com.todoroo.astrid.dao.MetadataDao;
 import com.todoroo.astrid.data.Metadata;
 import com.todoroo.astrid.data.Task;
+import com.todoroo.astrid.gtasks.sync.GtasksIdResolver;
+import com.todoroo.astrid.gtasks.sync.GtasksIdResolver.Match;
 import com.todoroo.astrid.service.TaskService;
 import com.todoroo.astrid.test.DatabaseTestCase;
 
@@ -79,6 +81,65 @@ public class GtasksMetadataServiceTest extends DatabaseTestCase {
 
     // --- helpers
 
+    public void testLegacyTextValuesAreMovedToIntegers() {
+        givenTask(taskWithoutMetadata());
+        Metadata legacy = new Metadata();
+        legacy.setKey(GtasksMetadata.METADATA_KEY);
+        legacy.setTask(task.getId());
+        legacy.setValue(GtasksMetadata.LIST_ID, "list");
+        legacy.setValue(Metadata.VALUE3, "0");
+        legacy.setValue(Metadata.VALUE4, "1");
+        legacy.setValue(Metadata.VALUE5, "42");
+
+        GtasksMetadata.upgradeLegacyValues(legacy);
+        metadataDao.persist(legacy);
+
+        metadata = gtasksMetadataService.getTaskMetadata(task.getId());
+        assertEquals(0L, metadata.getValue(GtasksMetadata.PARENT_TASK).longValue());
+        assertEquals(1, metadata.getValue(GtasksMetadata.INDENT).intValue());
+        assertEquals(42L, metadata.getValue(GtasksMetadata.ORDER).longValue());
+        assertFalse(metadata.containsNonNullValue(Metadata.VALUE5));
+    }
+
+    public void testLegacySqlOrdersByInteger() {
+        String sql = "WHERE metadata.value2='list' ORDER BY CAST(metadata.value5 AS LONG) ASC";
+        assertEquals("WHERE metadata.value2='list' ORDER BY metadata.integer3 ASC",
+                GtasksMetadata.upgradeLegacySql(sql));
+    }
+
+    public void testIdResolverFindsTasksOfList() {
+        Task first = taskWithMetadata("remote-1");
+        Task second = taskWithMetadata("remote-2");
+
+        GtasksIdResolver resolver = gtasksMetadataService.getIdResolver("list");
+
+        assertEquals(first.getId(), resolver.localIdForGtasksId("remote-1"));
+        Match match = resolver.get("remote-2");
+        assertEquals(second.getId(), match.metadata.getTask().longValue());
+        assertEquals(second.getUuid(), match.task.getUuid());
+        assertEquals(Task.NO_ID, resolver.localIdForGtasksId("unknown"));
+    }
+
+    public void testIdResolverLooksUpOtherLists() {
+        Task task = taskWithMetadata("remote-1");
+
+        GtasksIdResolver resolver = gtasksMetadataService.getIdResolver("other list");
+
+        assertEquals(task.getId(), resolver.localIdForGtasksId("remote-1"));
+    }
+
+    public void testIdResolverMatchesMetadataOfDeletedTask() {
+        Metadata orphan = gtasksMetadata.createEmptyMetadata(12345L);
+        orphan.setValue(GtasksMetadata.ID, "remote-1");
+        orphan.setTask(12345L);
+        metadataDao.persist(orphan);
+
+        Match match = gtasksMetadataService.getIdResolver("list").get("remote-1");
+
+        assertEquals(12345L, match.metadata.getTask().longValue());
+        assertNull(match.task);
+    }
+
     private void thenExpectNoMetadataFound() {
         assertNull(metadata);
     }
@@ -0,0 +1,87 @@
+package com.todoroo.astrid.gtasks.api;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Answers batch requests like the Tasks API, updating the tasks it knows
+ * and not finding the others
+ */
+public class FakeTasksEndpoint extends MockHttpTransport {
+
+    private static final Pattern UPDATE = Pattern.compile(
+            "^PUT \\S*/lists/[^/]+/tasks/([^/?\\s]+)\\S* HTTP/1.1$", Pattern.MULTILINE);
+    private static final String BOUNDARY = "batch_response";
+
+    final Set<String> tasks;
+    final Set<String> failing = new HashSet<>();
+    int requests;
+
+    /** json body of the last update of each task */
+    public final Map<String, String> updates = new HashMap<>();
+
+    public FakeTasksEndpoint(String... tasks) {
+        this.tasks = new HashSet<>(Arrays.asList(tasks));
+    }
+
+    @Override
+    public LowLevelHttpRequest buildRequest(String method, String url) {
+        return new MockLowLevelHttpRequest(url) {
+            @Override
+            public LowLevelHttpResponse execute() throws IOException {
+                requests++;
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                getStreamingContent().writeTo(content);
+                String contentType = getContentType();
+                String boundary = contentType.substring(contentType.indexOf("boundary=") + 9);
+
+                StringBuilder body = new StringBuilder();
+                for (String part : content.toString("UTF-8").split(Pattern.quote("--" + boundary))) {
+                    Matcher matcher = UPDATE.matcher(part);
+                    if (matcher.find()) {
+                        String id = matcher.group(1);
+                        String json = part.substring(part.indexOf("\r\n\r\n", matcher.end()) + 4).trim();
+                        updates.put(id, json);
+                        body.append("--").append(BOUNDARY).append("\r\n")
+                                .append("Content-Type: application/http\r\n\r\n")
+                                .append(respond(id, json)).append("\r\n");
+                    }
+                }
+                body.append("--").append(BOUNDARY).append("--\r\n");
+
+                return new MockLowLevelHttpResponse()
+                        .setContentType("multipart/mixed; boundary=" + BOUNDARY)
+                        .setContent(body.toString());
+            }
+        };
+    }
+
+    private String respond(String id, String json) {
+        if (failing.contains(id)) {
+            return response("500 Internal Server Error", "{\"error\":{\"code\":500,\"message\":\"Backend Error\"}}");
+        } else if (tasks.contains(id)) {
+            return response("200 OK", json);
+        } else {
+            return response("404 Not Found", "{\"error\":{\"code\":404,\"message\":\"Not Found\"}}");
+        }
+    }
+
+    private static String response(String status, String json) {
+        return "HTTP/1.1 " + status + "\r\n" +
+                "Content-Type: application/json; charset=UTF-8\r\n\r\n" +
+                json + "\r\n";
+    }
+}
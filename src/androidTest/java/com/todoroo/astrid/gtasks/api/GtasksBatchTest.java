@@ -0,0 +1,152 @@
+package com.todoroo.astrid.gtasks.api;
+
+import android.test.AndroidTestCase;
+
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.util.DateTime;
+import com.google.api.services.tasks.model.Task;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+
+public class GtasksBatchTest extends AndroidTestCase {
+
+    private FakeTasksEndpoint endpoint;
+    private GtasksInvoker invoker;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        endpoint = new FakeTasksEndpoint("a", "b", "c");
+        invoker = new GtasksInvoker(getContext(), null, "token", endpoint);
+    }
+
+    public void testSendsOneRequestPerBatch() throws IOException {
+        GtasksBatch batch = new GtasksBatch(invoker, 2);
+        Results results = new Results();
+
+        update(batch, "a", results);
+        assertEquals(0, endpoint.requests);
+        update(batch, "b", results);
+        assertEquals(1, endpoint.requests);
+        update(batch, "c", results);
+        batch.execute();
+
+        assertEquals(2, endpoint.requests);
+        assertEquals(asList("a", "b", "c"), results.updated);
+        assertTrue(results.failures.isEmpty());
+    }
+
+    public void testMissingTaskFailsOnlyItsOperation() throws IOException {
+        GtasksBatch batch = invoker.newBatch();
+        Results results = new Results();
+
+        update(batch, "a", results);
+        update(batch, "gone", results);
+        update(batch, "c", results);
+        batch.execute();
+
+        assertEquals(1, endpoint.requests);
+        assertEquals(asList("a", "c"), results.updated);
+        assertEquals(1, results.failures.size());
+        assertTrue(results.failures.get("gone") instanceof HttpNotFoundException);
+    }
+
+    public void testServerErrorIsReportedPerOperation() throws IOException {
+        endpoint.failing.add("b");
+        GtasksBatch batch = invoker.newBatch();
+        Results results = new Results();
+
+        update(batch, "a", results);
+        update(batch, "b", results);
+        batch.execute();
+
+        assertEquals(asList("a"), results.updated);
+        assertTrue(results.failures.get("b") instanceof GoogleTasksException);
+        assertFalse(results.failures.get("b") instanceof HttpNotFoundException);
+    }
+
+    public void testResendsOnlyUnansweredOperations() throws IOException {
+        GtasksBatch batch = invoker.newBatch();
+        final Results results = new Results();
+
+        Task task = new Task();
+        task.setId("a");
+        batch.updateGtask("list", task, new GtasksBatch.Callback<Task>() {
+            @Override
+            public void onSuccess(Task result) throws IOException {
+                results.updated.add(result.getId());
+                // the batch request fails after this operation was answered
+                throw new IOException("connection reset");
+            }
+
+            @Override
+            public void onFailure(IOException e) {
+                results.failures.put("a", e);
+            }
+        });
+        update(batch, "b", results);
+        batch.execute();
+
+        assertEquals(2, endpoint.requests);
+        assertEquals(asList("a", "b"), results.updated);
+        assertTrue(results.failures.isEmpty());
+    }
+
+    public void testUpdateSendsFieldsNotChanged() throws IOException {
+        GtasksBatch batch = invoker.newBatch();
+        Results results = new Results();
+
+        Task task = new Task();
+        task.setId("a");
+        task.setTitle("renamed");
+        task.setNotes("notes");
+        task.setDue(new DateTime(true, 1400000000000L, 0));
+        task.setStatus("needsAction");
+        batch.updateGtask("list", task, callback("a", results));
+        batch.execute();
+
+        Task sent = new GsonFactory().fromString(endpoint.updates.get("a"), Task.class);
+        assertEquals("renamed", sent.getTitle());
+        assertEquals("notes", sent.getNotes());
+        assertEquals(task.getDue(), sent.getDue());
+        assertEquals("needsAction", sent.getStatus());
+    }
+
+    public void testExecuteWithoutOperationsSendsNothing() throws IOException {
+        invoker.newBatch().execute();
+
+        assertEquals(0, endpoint.requests);
+    }
+
+    private static void update(GtasksBatch batch, final String id, final Results results) throws IOException {
+        Task task = new Task();
+        task.setId(id);
+        task.setTitle("task " + id);
+        batch.updateGtask("list", task, callback(id, results));
+    }
+
+    private static GtasksBatch.Callback<Task> callback(final String id, final Results results) {
+        return new GtasksBatch.Callback<Task>() {
+            @Override
+            public void onSuccess(Task result) {
+                results.updated.add(result.getId());
+            }
+
+            @Override
+            public void onFailure(IOException e) {
+                results.failures.put(id, e);
+            }
+        };
+    }
+
+    private static class Results {
+        final List<String> updated = new ArrayList<>();
+        final Map<String, IOException> failures = new HashMap<>();
+    }
+}
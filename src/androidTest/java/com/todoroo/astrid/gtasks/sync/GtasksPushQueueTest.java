@@ -0,0 +1,83 @@
+package com.todoroo.astrid.gtasks.sync;
+
+import com.todoroo.andlib.utility.DateUtilities;
+import com.todoroo.astrid.gtasks.sync.GtasksPushQueue.Push;
+import com.todoroo.astrid.test.DatabaseTestCase;
+
+import java.util.Collections;
+import java.util.Set;
+
+import static java.util.Arrays.asList;
+
+public class GtasksPushQueueTest extends DatabaseTestCase {
+
+    private static final Set<Long> NONE = Collections.emptySet();
+
+    private GtasksPushQueue pushQueue;
+
+    @Override
+    public void setUp() {
+        super.setUp();
+        pushQueue = new GtasksPushQueue(database, 0);
+    }
+
+    public void testDropPushAfterMaxAttempts() {
+        pushQueue.add(1, asList("title"), false);
+
+        for (int i = 1 ; i < GtasksPushQueue.MAX_ATTEMPTS ; i++) {
+            assertFalse(pushQueue.fail(claim()));
+        }
+        assertTrue(pushQueue.fail(claim()));
+
+        assertNull(pushQueue.next(NONE));
+    }
+
+    public void testChangingTaskAgainResetsAttempts() {
+        pushQueue.add(1, asList("title"), false);
+        for (int i = 1 ; i < GtasksPushQueue.MAX_ATTEMPTS ; i++) {
+            assertFalse(pushQueue.fail(claim()));
+        }
+
+        pushQueue.add(1, asList("notes"), false);
+
+        assertFalse(pushQueue.fail(claim()));
+        Push push = claim();
+        assertEquals(1, push.task);
+        assertTrue(push.columns.containsAll(asList("title", "notes")));
+    }
+
+    public void testFailingStalePushKeepsNewerChange() {
+        pushQueue.add(1, asList("title"), false);
+        Push stale = pushQueue.next(NONE);
+        pushQueue.add(1, asList("notes"), false);
+
+        for (int i = 0 ; i < GtasksPushQueue.MAX_ATTEMPTS ; i++) {
+            assertFalse(pushQueue.fail(stale));
+        }
+        pushQueue.release(stale);
+
+        assertNotNull(claim());
+    }
+
+    public void testClaimPushOnlyOnceSettled() {
+        pushQueue = new GtasksPushQueue(database, 60000);
+        long start = DateUtilities.now();
+        pushQueue.add(1, asList("title"), false);
+
+        assertNull(pushQueue.next(NONE));
+        assertTrue(pushQueue.nextDue(NONE) >= start + 60000);
+    }
+
+    public void testNothingDueWhenSettled() {
+        pushQueue.add(1, asList("title"), false);
+
+        assertEquals(0, pushQueue.nextDue(NONE));
+    }
+
+    private Push claim() {
+        Push push = pushQueue.next(NONE);
+        assertNotNull(push);
+        pushQueue.release(push);
+        return push;
+    }
+}
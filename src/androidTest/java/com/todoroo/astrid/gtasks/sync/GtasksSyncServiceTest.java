@@ -0,0 +1,73 @@
+package com.todoroo.astrid.gtasks.sync;
+
+import android.content.ContentValues;
+
+import com.google.api.client.json.gson.GsonFactory;
+import com.todoroo.astrid.dao.MetadataDao;
+import com.todoroo.astrid.dao.TaskDao;
+import com.todoroo.astrid.data.Metadata;
+import com.todoroo.astrid.data.Task;
+import com.todoroo.astrid.gtasks.GtasksMetadata;
+import com.todoroo.astrid.gtasks.GtasksPreferenceService;
+import com.todoroo.astrid.gtasks.api.FakeTasksEndpoint;
+import com.todoroo.astrid.gtasks.api.GtasksBatch;
+import com.todoroo.astrid.gtasks.api.GtasksInvoker;
+import com.todoroo.astrid.test.DatabaseTestCase;
+
+import java.io.IOException;
+
+import javax.inject.Inject;
+
+public class GtasksSyncServiceTest extends DatabaseTestCase {
+
+    @Inject GtasksSyncService gtasksSyncService;
+    @Inject GtasksPreferenceService gtasksPreferenceService;
+    @Inject GtasksMetadata gtasksMetadata;
+    @Inject MetadataDao metadataDao;
+    @Inject TaskDao taskDao;
+
+    private FakeTasksEndpoint endpoint;
+    private GtasksInvoker invoker;
+
+    @Override
+    public void setUp() {
+        super.setUp();
+        endpoint = new FakeTasksEndpoint("a");
+        invoker = new GtasksInvoker(getContext(), null, "token", endpoint);
+        gtasksPreferenceService.setDefaultList("list");
+    }
+
+    @Override
+    protected void tearDown() {
+        gtasksPreferenceService.setDefaultList(null);
+        super.tearDown();
+    }
+
+    public void testTitleChangeKeepsNotesAndDueDate() throws IOException {
+        Task task = new Task();
+        task.setTitle("title");
+        task.setNotes("notes");
+        task.setDueDate(Task.createDueDate(Task.URGENCY_SPECIFIC_DAY, 1400000000000L));
+        taskDao.createNew(task);
+        Metadata metadata = gtasksMetadata.createEmptyMetadata(task.getId());
+        metadata.setValue(GtasksMetadata.ID, "a");
+        metadata.setValue(GtasksMetadata.LIST_ID, "list");
+        metadataDao.persist(metadata);
+
+        Task renamed = taskDao.fetch(task.getId(), Task.PROPERTIES);
+        renamed.setTitle("renamed");
+        taskDao.save(renamed);
+        ContentValues changed = new ContentValues();
+        changed.putNull(Task.TITLE.name);
+
+        GtasksBatch batch = invoker.newBatch();
+        gtasksSyncService.pushTaskOnSave(taskDao.fetch(task.getId(), Task.PROPERTIES), changed, invoker, batch);
+        batch.execute();
+
+        com.google.api.services.tasks.model.Task sent = new GsonFactory().fromString(
+                endpoint.updates.get("a"), com.google.api.services.tasks.model.Task.class);
+        assertEquals("renamed", sent.getTitle());
+        assertEquals("notes", sent.getNotes());
+        assertNotNull(sent.getDue());
+    }
+}
@@ -1,5 +1,6 @@
 package com.todoroo.astrid.subtasks;
 
+import com.todoroo.andlib.data.TodorooCursor;
 import com.todoroo.astrid.data.Task;
 import com.todoroo.astrid.data.TaskListMetadata;
 import com.todoroo.astrid.service.TaskService;
@@ -45,6 +46,67 @@ public class SubtasksHelperTest extends SubtasksTestCase {
         }
     }
 
+    public void testListIsOrderedByRanks() {
+        TaskListMetadata list = new TaskListMetadata();
+        list.setFilter(TaskListMetadata.FILTER_ID_ALL);
+        list.setTaskIDs(SubtasksHelper.convertTreeToRemoteIds(taskService, DEFAULT_SERIALIZED_TREE));
+        taskListMetadataDao.createNew(list);
+        updater.initialize(list, filter);
+        assertTitles("A", "B", "C", "D", "E", "F");
+
+        // move F before A
+        updater.moveTo(list, filter, "5", "6");
+        assertTitles("F", "A", "B", "C", "D", "E");
+    }
+
+    public void testTreeIsReadBackFromRanks() {
+        TaskListMetadata list = new TaskListMetadata();
+        list.setFilter(TaskListMetadata.FILTER_ID_ALL);
+        list.setTaskIDs(SubtasksHelper.convertTreeToRemoteIds(taskService, DEFAULT_SERIALIZED_TREE));
+        taskListMetadataDao.createNew(list);
+        updater.initialize(list, filter);
+
+        // move F before A, then outdent D from C
+        updater.moveTo(list, filter, "5", "6");
+        updater.indent(list, filter, "1", -1);
+
+        updater = new SubtasksFilterUpdater(taskListMetadataDao, taskService);
+        updater.initialize(list, filter);
+        assertEquals(0, updater.findNodeForTask("5").parent.children.indexOf(updater.findNodeForTask("5")));
+        assertEquals("6", updater.findNodeForTask("1").parent.uuid);
+        assertTitles("F", "A", "B", "C", "D", "E");
+    }
+
+    public void testSnapshotFollowsRanks() {
+        TaskListMetadata list = new TaskListMetadata();
+        list.setFilter(TaskListMetadata.FILTER_ID_ALL);
+        list.setTaskIDs(SubtasksHelper.convertTreeToRemoteIds(taskService, DEFAULT_SERIALIZED_TREE));
+        taskListMetadataDao.createNew(list);
+        updater.initialize(list, filter);
+
+        // move F before A, then leave the list
+        updater.moveTo(list, filter, "5", "6");
+        updater.writeSnapshot();
+
+        TaskListMetadata saved = taskListMetadataDao.fetchByTagId(TaskListMetadata.FILTER_ID_ALL,
+                TaskListMetadata.TASK_IDS);
+        updater = new SubtasksFilterUpdater(taskListMetadataDao, taskService);
+        updater.initializeFromSerializedTree(list, filter, saved.getTaskIDs());
+        assertEquals(0, updater.findNodeForTask("5").parent.children.indexOf(updater.findNodeForTask("5")));
+    }
+
+    private void assertTitles(String... titles) {
+        TodorooCursor<Task> tasks = taskService.fetchFiltered(filter.getSqlQuery(), null, Task.TITLE);
+        try {
+            for (String title : titles) {
+                assertTrue(tasks.moveToNext());
+                assertEquals(title, tasks.get(Task.TITLE));
+            }
+        } finally {
+            tasks.close();
+        }
+    }
+
     // Default order: "[-1, [1, 2, [3, 4]], 5, 6]"
 
     private static String EXPECTED_REMOTE = "[\"-1\", [\"6\", \"4\", [\"3\", \"1\"]], \"2\", \"5\"]".replaceAll("\\s", "");
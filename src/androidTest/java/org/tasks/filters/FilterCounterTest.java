@@ -0,0 +1,170 @@
+package org.tasks.filters;
+
+import com.todoroo.andlib.sql.Criterion;
+import com.todoroo.andlib.sql.Join;
+import com.todoroo.andlib.sql.Order;
+import com.todoroo.andlib.sql.Query;
+import com.todoroo.andlib.sql.QueryTemplate;
+import com.todoroo.astrid.api.Filter;
+import com.todoroo.astrid.dao.MetadataDao;
+import com.todoroo.astrid.dao.TaskDao;
+import com.todoroo.astrid.data.Metadata;
+import com.todoroo.astrid.data.Task;
+import com.todoroo.astrid.test.DatabaseTestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+public class FilterCounterTest extends DatabaseTestCase {
+
+    @Inject TaskDao taskDao;
+    @Inject MetadataDao metadataDao;
+
+    private ThreadPoolExecutor executor;
+    private FilterCounter filterCounter;
+
+    @Override
+    protected void setUp() {
+        super.setUp();
+
+        executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        filterCounter = new FilterCounter(database, executor);
+    }
+
+    @Override
+    protected void tearDown() {
+        executor.shutdown();
+
+        super.tearDown();
+    }
+
+    public void testSplitPlainWhere() {
+        FilterCounter.SplitTemplate template = FilterCounter.SplitTemplate.parse(
+                "WHERE (tasks.importance = 0) ORDER BY tasks.dueDate");
+
+        assertEquals("", template.joins);
+        assertEquals("(tasks.importance = 0)", template.predicate);
+    }
+
+    public void testSplitJoin() {
+        FilterCounter.SplitTemplate template = FilterCounter.SplitTemplate.parse(
+                "LEFT JOIN metadata ON (tasks._id = metadata.task) WHERE (metadata.key = 'a where b')");
+
+        assertEquals("LEFT JOIN metadata ON (tasks._id = metadata.task)", template.joins);
+        assertEquals("(metadata.key = 'a where b')", template.predicate);
+    }
+
+    public void testSplitIgnoresNestedClauses() {
+        FilterCounter.SplitTemplate template = FilterCounter.SplitTemplate.parse(
+                "WHERE tasks._id IN (SELECT task FROM metadata WHERE key = 'x' GROUP BY task LIMIT 5)");
+
+        assertEquals("tasks._id IN (SELECT task FROM metadata WHERE key = 'x' GROUP BY task LIMIT 5)",
+                template.predicate);
+    }
+
+    public void testCannotSplitGroupByOrLimit() {
+        assertNull(FilterCounter.SplitTemplate.parse("WHERE 1 GROUP BY tasks._id"));
+        assertNull(FilterCounter.SplitTemplate.parse("WHERE 1 ORDER BY tasks._id LIMIT 5"));
+    }
+
+    public void testCountsMatchFilterQueries() throws InterruptedException {
+        for (int i = 0; i < 10; i++) {
+            Task task = new Task();
+            task.setTitle("task " + i);
+            task.setImportance(i % 4);
+            taskDao.save(task);
+            if (i % 3 == 0) {
+                Metadata metadata = new Metadata();
+                metadata.setTask(task.getId());
+                metadata.setKey("key");
+                metadataDao.persist(metadata);
+            }
+        }
+
+        Filter[] filters = new Filter[] {
+                filter(new QueryTemplate()),
+                filter(new QueryTemplate().where(Task.IMPORTANCE.eq(Task.IMPORTANCE_DO_OR_DIE))
+                        .orderBy(Order.asc(Task.TITLE))),
+                filter(new QueryTemplate().where(Task.IMPORTANCE.eq(Task.IMPORTANCE_NONE))),
+                filter(new QueryTemplate().join(Join.inner(Metadata.TABLE, Task.ID.eq(Metadata.TASK)))
+                        .where(Metadata.KEY.eq("key"))),
+                filter(new QueryTemplate().where(Criterion.all).limit(3)),
+        };
+        for (Filter filter : filters) {
+            filterCounter.registerFilter(filter);
+        }
+
+        refresh();
+
+        for (Filter filter : filters) {
+            int expected = taskDao.count(Query.select(Task.ID).withQueryTemplate(filter.getSqlQuery()));
+            assertEquals(filter.getSqlQuery(), expected, (int) filterCounter.get(filter));
+        }
+    }
+
+    public void testBrokenFilterDoesNotAffectOthers() throws InterruptedException {
+        taskDao.save(new Task());
+        Filter valid = filter(new QueryTemplate());
+        Filter broken = new Filter("broken", "broken", "WHERE no_such_column = 1", null);
+        filterCounter.registerFilter(valid);
+        filterCounter.registerFilter(broken);
+
+        refresh();
+
+        assertEquals(1, (int) filterCounter.get(valid));
+    }
+
+    public void testRefreshRequestsAreCoalesced() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        final CountDownLatch completed = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            filterCounter.refreshFilterCounts(new Runnable() {
+                @Override
+                public void run() {
+                    completed.countDown();
+                }
+            });
+        }
+        release.countDown();
+
+        assertTrue(completed.await(5, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        // the blocking task and a single refresh
+        assertEquals(2, executor.getCompletedTaskCount());
+    }
+
+    private void refresh() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        filterCounter.refreshFilterCounts(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    private static Filter filter(QueryTemplate template) {
+        String sql = template.toString();
+        return new Filter(sql, sql, sql, null);
+    }
+}
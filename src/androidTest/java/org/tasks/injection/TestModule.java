@@ -2,14 +2,21 @@ package org.tasks.injection;
 
 import android.content.Context;
 
+import org.tasks.filters.FilterCounterTest;
+import com.todoroo.andlib.data.PagedCursorTest;
+import com.todoroo.astrid.adapter.TaskRowsTest;
 import org.tasks.scheduling.BackupServiceTests;
 import com.todoroo.astrid.dao.Database;
+import com.todoroo.astrid.dao.DatabaseTests;
 import com.todoroo.astrid.dao.MetadataDaoTests;
+import com.todoroo.astrid.dao.QueryPlanTests;
 import com.todoroo.astrid.dao.TaskDaoTests;
 import com.todoroo.astrid.gtasks.GtasksIndentActionTest;
 import com.todoroo.astrid.gtasks.GtasksListServiceTest;
 import com.todoroo.astrid.gtasks.GtasksTaskListUpdaterTest;
 import com.todoroo.astrid.gtasks.GtasksTaskMovingTest;
+import com.todoroo.astrid.gtasks.sync.GtasksPushQueueTest;
+import com.todoroo.astrid.gtasks.sync.GtasksSyncServiceTest;
 import com.todoroo.astrid.model.TaskTest;
 import com.todoroo.astrid.provider.Astrid3ProviderTests;
 import com.todoroo.astrid.reminders.ReminderServiceTest;
@@ -29,6 +36,7 @@ import dagger.Provides;
 
 @Module(injects = {
         BackupServiceTests.class,
+        DatabaseTests.class,
         MetadataDaoTests.class,
         TaskDaoTests.class,
         GtasksIndentActionTest.class,
@@ -45,7 +53,13 @@ import dagger.Provides;
         SubtasksHelperTest.class,
         SubtasksMovingTest.class,
         SyncModelTest.class,
-        GtasksListServiceTest.class
+        GtasksListServiceTest.class,
+        FilterCounterTest.class,
+        QueryPlanTests.class,
+        PagedCursorTest.class,
+        TaskRowsTest.class,
+        GtasksPushQueueTest.class,
+        GtasksSyncServiceTest.class
 })
 public class TestModule {
     private Context context;
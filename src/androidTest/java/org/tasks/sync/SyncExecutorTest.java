@@ -0,0 +1,80 @@
+package org.tasks.sync;
+
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SyncExecutorTest extends AndroidTestCase {
+
+    private final SyncExecutor executor = new SyncExecutor();
+
+    public void testPartsRunInParallel() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(SyncExecutor.PARALLELISM);
+        final AtomicInteger finished = new AtomicInteger();
+        List<Runnable> parts = new ArrayList<>();
+        for (int i = 0; i < SyncExecutor.PARALLELISM; i++) {
+            parts.add(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        // only returns if every part is running at once
+                        if (started.await(5, TimeUnit.SECONDS)) {
+                            finished.incrementAndGet();
+                        }
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        }
+
+        assertTrue(executor.runAll(parts));
+        assertEquals(SyncExecutor.PARALLELISM, finished.get());
+    }
+
+    public void testFailingPartDoesNotStopOthers() throws InterruptedException {
+        final AtomicInteger finished = new AtomicInteger();
+        List<Runnable> parts = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            final int part = i;
+            parts.add(new Runnable() {
+                @Override
+                public void run() {
+                    if (part == 3) {
+                        throw new IllegalStateException();
+                    }
+                    finished.incrementAndGet();
+                }
+            });
+        }
+
+        assertFalse(executor.runAll(parts));
+        assertEquals(9, finished.get());
+    }
+
+    public void testWaitsForEveryPart() throws InterruptedException {
+        final AtomicInteger finished = new AtomicInteger();
+        List<Runnable> parts = new ArrayList<>();
+        for (int i = 0; i < 3 * SyncExecutor.PARALLELISM; i++) {
+            parts.add(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    finished.incrementAndGet();
+                }
+            });
+        }
+
+        assertTrue(executor.runAll(parts));
+        assertEquals(3 * SyncExecutor.PARALLELISM, finished.get());
+    }
+}
@@ -12,6 +12,7 @@ import android.os.Parcelable;
 import com.todoroo.andlib.data.Property.IntegerProperty;
 import com.todoroo.andlib.data.Property.LongProperty;
 import com.todoroo.andlib.data.Property.PropertyVisitor;
+import com.todoroo.andlib.data.Property.StringProperty;
 import com.todoroo.andlib.utility.AndroidUtilities;
 
 import org.slf4j.Logger;
@@ -73,9 +74,18 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
     /** Values from database */
     protected ContentValues values = null;
 
+    /** User set values, replaces setValues when the model has a schema */
+    private ValueSlots setSlots = null;
+
+    /** Values from database, replaces values when the model has a schema */
+    private ValueSlots databaseSlots = null;
+
     /** Transitory Metadata (not saved in database) */
     protected HashMap<String, Object> transitoryData = null;
 
+    /** True if this model is reused by a cursor for every row */
+    private boolean flyweight = false;
+
     public AbstractModel() {
     }
 
@@ -83,16 +93,62 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
         readPropertiesFromCursor(cursor);
     }
 
-    /** Get database-read values for this object */
+    /**
+     * Models returning a schema keep their values in slots indexed by column
+     * instead of {@link ContentValues}, which are then only built when
+     * requested. Must always return the same schema for a given class
+     *
+     * @return schema for slot storage, or null to store content values
+     */
+    protected TableSchema getSchema() {
+        return null;
+    }
+
+    /**
+     * Get database-read values for this object. Models with a schema return
+     * a snapshot, changes to it are not written back to the model
+     */
     public ContentValues getDatabaseValues() {
+        if (getSchema() != null) {
+            return databaseSlots == null ? null : databaseSlots.toContentValues();
+        }
         return values;
     }
 
-    /** Get the user-set values for this object */
+    /**
+     * Get the user-set values for this object. Models with a schema return
+     * a snapshot, changes to it are not written back to the model. Use
+     * {@link #setValue} to change values, and {@link #getSetValueCount()} or
+     * {@link #containsSetValue} to inspect them without building a copy
+     */
     public ContentValues getSetValues() {
+        if (getSchema() != null) {
+            return setSlots == null ? null : setSlots.toContentValues();
+        }
         return setValues;
     }
 
+    /**
+     * @return number of user-set values
+     */
+    public int getSetValueCount() {
+        if (getSchema() != null) {
+            return setSlots == null ? 0 : setSlots.size();
+        }
+        return setValues == null ? 0 : setValues.size();
+    }
+
+    /**
+     * @return true if the user set a value for this property
+     */
+    public boolean containsSetValue(Property<?> property) {
+        TableSchema schema = getSchema();
+        if (schema != null) {
+            return contains(setSlots, schema.indexOf(property), property);
+        }
+        return setValues != null && setValues.containsKey(property.getColumnName());
+    }
+
     /** Get a list of all field/value pairs merged across data sources */
     public ContentValues getMergedValues() {
         ContentValues mergedValues = new ContentValues();
@@ -101,6 +157,15 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
         if(defaultValues != null) {
             mergedValues.putAll(defaultValues);
         }
+        if(getSchema() != null) {
+            if(databaseSlots != null) {
+                databaseSlots.writeTo(mergedValues);
+            }
+            if(setSlots != null) {
+                setSlots.writeTo(mergedValues);
+            }
+            return mergedValues;
+        }
         if(values != null) {
             mergedValues.putAll(values);
         }
@@ -117,6 +182,8 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
     public void clear() {
         values = null;
         setValues = null;
+        databaseSlots = null;
+        setSlots = null;
     }
 
     /**
@@ -124,6 +191,15 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
      * saved - future saves will not need to write all the data as before.
      */
     public void markSaved() {
+        if(getSchema() != null) {
+            if(databaseSlots == null) {
+                databaseSlots = setSlots;
+            } else if(setSlots != null) {
+                databaseSlots.putAll(setSlots);
+            }
+            setSlots = null;
+            return;
+        }
         if(values == null) {
             values = setValues;
         } else if(setValues != null) {
@@ -152,7 +228,7 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
 
     @Override
     public String toString() {
-        return getClass().getSimpleName() + "\n" + "set values:\n" + setValues + "\n" + "values:\n" + values + "\n";
+        return getClass().getSimpleName() + "\n" + "set values:\n" + getSetValues() + "\n" + "values:\n" + getDatabaseValues() + "\n";
     }
 
     @Override
@@ -169,13 +245,50 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
         if(values != null) {
             clone.values = new ContentValues(values);
         }
+        if(setSlots != null) {
+            clone.setSlots = new ValueSlots(setSlots);
+        }
+        if(databaseSlots != null) {
+            clone.databaseSlots = new ValueSlots(databaseSlots);
+        }
+        clone.flyweight = false;
         return clone;
     }
 
+    /**
+     * Models returned by {@link TodorooCursor#asModel()} are overwritten
+     * when the cursor moves. Detach to keep the values of the current row.
+     *
+     * @return a copy if this model belongs to a cursor, otherwise this model
+     */
+    public AbstractModel detach() {
+        return flyweight ? clone() : this;
+    }
+
+    /**
+     * Replaces all values with the current row, reusing this model's storage
+     */
+    void readFlyweightFromCursor(TodorooCursor<? extends AbstractModel> cursor) {
+        flyweight = true;
+        if (values != null) {
+            values.clear();
+        }
+        if (databaseSlots != null) {
+            databaseSlots.clear();
+        }
+        readPropertiesFromCursor(cursor);
+    }
+
     /**
      * Reads all properties from the supplied cursor and store
      */
     void readPropertiesFromCursor(TodorooCursor<? extends AbstractModel> cursor) {
+        TableSchema schema = getSchema();
+        if (schema != null) {
+            readSlotsFromCursor(schema, cursor);
+            return;
+        }
+
         if (values == null) {
             values = new ContentValues();
         }
@@ -194,21 +307,87 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
         }
     }
 
+    /**
+     * Reads properties into slots, reading integers and longs without boxing
+     */
+    private void readSlotsFromCursor(TableSchema schema, TodorooCursor<? extends AbstractModel> cursor) {
+        if (databaseSlots == null) {
+            databaseSlots = new ValueSlots(schema);
+        }
+
+        // clears user-set values
+        setSlots = null;
+        transitoryData = null;
+
+        Property<?>[] properties = cursor.getProperties();
+        for (int i = 0; i < properties.length; i++) {
+            Property<?> property = properties[i];
+            try {
+                int index = schema.indexOf(property);
+                if (index < 0) {
+                    Object value = cursor.get(property);
+                    if (value != null) {
+                        databaseSlots.putColumn(property.getColumnName(), value);
+                    }
+                    continue;
+                }
+
+                int column = cursor.getPropertyColumn(i);
+                if (property.checkFlag(Property.PROP_FLAG_NULLABLE) && cursor.isNull(column)) {
+                    continue;
+                }
+                if (property instanceof LongProperty) {
+                    long value = cursor.getLong(column);
+                    if (schema.getKind(index) == TableSchema.KIND_LONG) {
+                        databaseSlots.putLong(index, value);
+                    } else {
+                        databaseSlots.put(index, value);
+                    }
+                } else if (property instanceof IntegerProperty) {
+                    int value = cursor.getInt(column);
+                    if (schema.getKind(index) == TableSchema.KIND_INTEGER) {
+                        databaseSlots.putLong(index, value);
+                    } else {
+                        databaseSlots.put(index, value);
+                    }
+                } else if (property instanceof StringProperty) {
+                    String value = cursor.getString(column);
+                    if (value != null) {
+                        databaseSlots.put(index, value);
+                    }
+                } else {
+                    Object value = cursor.get(property);
+                    if (value != null) {
+                        databaseSlots.put(index, value);
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                // underlying cursor may have changed, suppress
+                log.error(e.getMessage(), e);
+            }
+        }
+    }
+
     /**
      * Reads the given property. Make sure this model has this property!
      */
     public synchronized <TYPE> TYPE getValue(Property<TYPE> property) {
         Object value;
-        String columnName = property.getColumnName();
-        if(setValues != null && setValues.containsKey(columnName)) {
-            value = setValues.get(columnName);
-        } else if(values != null && values.containsKey(columnName)) {
-            value = values.get(columnName);
-        } else if(getDefaultValues().containsKey(columnName)) {
-            value = getDefaultValues().get(columnName);
+        TableSchema schema = getSchema();
+        if (schema != null) {
+            value = getSlotValue(schema, property);
         } else {
-            throw new UnsupportedOperationException(
-                    "Model Error: Did not read property " + property.name); //$NON-NLS-1$
+            String columnName = property.getColumnName();
+            if(setValues != null && setValues.containsKey(columnName)) {
+                value = setValues.get(columnName);
+            } else if(values != null && values.containsKey(columnName)) {
+                value = values.get(columnName);
+            } else if(getDefaultValues().containsKey(columnName)) {
+                value = getDefaultValues().get(columnName);
+            } else {
+                throw new UnsupportedOperationException(
+                        "Model Error: Did not read property " + property.name); //$NON-NLS-1$
+            }
         }
 
         // resolve properties that were retrieved with a different type than accessed
@@ -227,6 +406,77 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
         }
     }
 
+    private Object getSlotValue(TableSchema schema, Property<?> property) {
+        int index = schema.indexOf(property);
+        if (index >= 0) {
+            if (setSlots != null && setSlots.contains(index)) {
+                return setSlots.get(index);
+            } else if (databaseSlots != null && databaseSlots.contains(index)) {
+                return databaseSlots.get(index);
+            }
+            ValueSlots defaults = schema.getDefaults(getDefaultValues());
+            if (defaults.contains(index)) {
+                return defaults.get(index);
+            }
+        } else {
+            String columnName = property.getColumnName();
+            if (setSlots != null && setSlots.containsColumn(columnName)) {
+                return setSlots.getColumn(columnName);
+            } else if (databaseSlots != null && databaseSlots.containsColumn(columnName)) {
+                return databaseSlots.getColumn(columnName);
+            } else if (getDefaultValues().containsKey(columnName)) {
+                return getDefaultValues().get(columnName);
+            }
+        }
+        throw new UnsupportedOperationException(
+                "Model Error: Did not read property " + property.name); //$NON-NLS-1$
+    }
+
+    /**
+     * @return the user-set or database value of the given property, ignoring
+     *         defaults. Null if the property has no value
+     */
+    protected synchronized Object getStoredValue(Property<?> property) {
+        String columnName = property.getColumnName();
+        TableSchema schema = getSchema();
+        if (schema != null) {
+            int index = schema.indexOf(property);
+            ValueSlots slots = contains(setSlots, index, property) ? setSlots : databaseSlots;
+            if (slots == null) {
+                return null;
+            }
+            return index >= 0 ? slots.get(index) : slots.getColumn(columnName);
+        }
+        if(setValues != null && setValues.containsKey(columnName)) {
+            return setValues.get(columnName);
+        } else if(values != null) {
+            return values.get(columnName);
+        }
+        return null;
+    }
+
+    /**
+     * Sets the given property without comparing it to the database value
+     */
+    protected synchronized void putStoredValue(Property<?> property, Object value) {
+        TableSchema schema = getSchema();
+        if (schema != null) {
+            if (setSlots == null) {
+                setSlots = new ValueSlots(schema);
+            }
+            setSlots.putColumn(property.getColumnName(), value);
+        } else {
+            if (setValues == null) {
+                setValues = new ContentValues();
+            }
+            if (value == null) {
+                setValues.putNull(property.getColumnName());
+            } else {
+                AndroidUtilities.putInto(setValues, property.getColumnName(), value);
+            }
+        }
+    }
+
     /**
      * Utility method to get the identifier of the model, if it exists.
      *
@@ -235,24 +485,23 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
     abstract public long getId();
 
     protected long getIdHelper(LongProperty id) {
-        if(setValues != null && setValues.containsKey(id.name)) {
-            return setValues.getAsLong(id.name);
-        } else if(values != null && values.containsKey(id.name)) {
-            return values.getAsLong(id.name);
-        } else {
+        if(!containsValue(id)) {
+            return NO_ID;
+        }
+        Object value = getStoredValue(id);
+        if(value == null) {
             return NO_ID;
+        } else if(value instanceof Number) {
+            return ((Number) value).longValue();
         }
+        return Long.valueOf(value.toString());
     }
 
     public void setId(long id) {
-        if (setValues == null) {
-            setValues = new ContentValues();
-        }
-
         if(id == NO_ID) {
             clearValue(ID_PROPERTY);
         } else {
-            setValues.put(ID_PROPERTY_NAME, id);
+            putStoredValue(ID_PROPERTY, id);
         }
     }
 
@@ -267,6 +516,11 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
      * @return true if setValues or values contains this property
      */
     public boolean containsValue(Property<?> property) {
+        TableSchema schema = getSchema();
+        if(schema != null) {
+            int index = schema.indexOf(property);
+            return contains(setSlots, index, property) || contains(databaseSlots, index, property);
+        }
         if(setValues != null && setValues.containsKey(property.getColumnName())) {
             return true;
         }
@@ -276,11 +530,21 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
         return false;
     }
 
+    private static boolean contains(ValueSlots slots, int index, Property<?> property) {
+        if (slots == null) {
+            return false;
+        }
+        return index >= 0 ? slots.contains(index) : slots.containsColumn(property.getColumnName());
+    }
+
     /**
      * @return true if setValues or values contains this property, and the value
      *         stored is not null
      */
     public boolean containsNonNullValue(Property<?> property) {
+        if(getSchema() != null) {
+            return containsValue(property) && getStoredValue(property) != null;
+        }
         if(setValues != null && setValues.containsKey(property.getColumnName())) {
             return setValues.get(property.getColumnName()) != null;
         }
@@ -299,13 +563,25 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
     protected synchronized <TYPE> boolean shouldSaveValue(
             Property<TYPE> property, TYPE newValue) {
 
+        boolean inSetValues;
+        boolean inValues;
+        TableSchema schema = getSchema();
+        if (schema != null) {
+            int index = schema.indexOf(property);
+            inSetValues = contains(setSlots, index, property);
+            inValues = contains(databaseSlots, index, property);
+        } else {
+            inSetValues = setValues.containsKey(property.getColumnName());
+            inValues = values != null && values.containsKey(property.getColumnName());
+        }
+
     	// we've already decided to save it, so overwrite old value
-        if (setValues.containsKey(property.getColumnName())) {
+        if (inSetValues) {
             return true;
         }
 
         // values contains this key, we should check it out
-        if(values != null && values.containsKey(property.getColumnName())) {
+        if(inValues) {
             TYPE value = getValue(property);
             if (value == null) {
                 if (newValue == null) {
@@ -325,6 +601,23 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
      */
     public synchronized <TYPE> void setValue(Property<TYPE> property,
             TYPE value) {
+        TableSchema schema = getSchema();
+        if (schema != null) {
+            if (setSlots == null) {
+                setSlots = new ValueSlots(schema);
+            }
+            if (value == null || !shouldSaveValue(property, value)) {
+                return;
+            }
+            int index = schema.indexOf(property);
+            if (index >= 0) {
+                setSlots.put(index, value);
+            } else {
+                setSlots.putColumn(property.getColumnName(), value);
+            }
+            return;
+        }
+
         if (setValues == null) {
             setValues = new ContentValues();
         }
@@ -339,6 +632,16 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
      * Merges content values with those coming from another source
      */
     public synchronized void mergeWith(ContentValues other) {
+        TableSchema schema = getSchema();
+        if (schema != null) {
+            if (setSlots == null) {
+                setSlots = new ValueSlots(schema);
+            }
+            for (Entry<String, Object> item : other.valueSet()) {
+                setSlots.putColumn(item.getKey(), item.getValue());
+            }
+            return;
+        }
         if (setValues == null) {
             setValues = new ContentValues();
         }
@@ -350,6 +653,18 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
      * keeping the existing value if one already exists
      */
     public synchronized void mergeWithoutReplacement(ContentValues other) {
+        TableSchema schema = getSchema();
+        if (schema != null) {
+            if (setSlots == null) {
+                setSlots = new ValueSlots(schema);
+            }
+            for (Entry<String, Object> item : other.valueSet()) {
+                if (!setSlots.containsColumn(item.getKey())) {
+                    setSlots.putColumn(item.getKey(), item.getValue());
+                }
+            }
+            return;
+        }
         if (setValues == null) {
             setValues = new ContentValues();
         }
@@ -365,6 +680,12 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
      * Clear the key for the given property
      */
     public synchronized void clearValue(Property<?> property) {
+        if(setSlots != null) {
+            setSlots.removeColumn(property.getColumnName());
+        }
+        if(databaseSlots != null) {
+            databaseSlots.removeColumn(property.getColumnName());
+        }
         if(setValues != null && setValues.containsKey(property.getColumnName())) {
             setValues.remove(property.getColumnName());
         }
@@ -495,8 +816,8 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
      */
     @Override
     public void writeToParcel(Parcel dest, int flags) {
-        dest.writeParcelable(setValues, 0);
-        dest.writeParcelable(values, 0);
+        dest.writeParcelable(getSetValues(), 0);
+        dest.writeParcelable(getDatabaseValues(), 0);
     }
 
    /**
@@ -523,8 +844,17 @@ public abstract class AbstractModel implements Parcelable, Cloneable {
             } catch (IllegalAccessException | InstantiationException e) {
                 throw new RuntimeException(e);
             }
-            model.setValues = source.readParcelable(ContentValues.class.getClassLoader());
-            model.values = source.readParcelable(ContentValues.class.getClassLoader());
+            ContentValues setValues = source.readParcelable(ContentValues.class.getClassLoader());
+            ContentValues values = source.readParcelable(ContentValues.class.getClassLoader());
+            AbstractModel target = model;
+            TableSchema schema = target.getSchema();
+            if (schema != null) {
+                target.setSlots = ValueSlots.fromContentValues(schema, setValues);
+                target.databaseSlots = ValueSlots.fromContentValues(schema, values);
+            } else {
+                target.setValues = setValues;
+                target.values = values;
+            }
             return model;
         }
 
@@ -7,16 +7,24 @@ package com.todoroo.andlib.data;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 
 import com.todoroo.andlib.sql.Criterion;
 import com.todoroo.andlib.sql.Query;
+import com.todoroo.andlib.utility.AndroidUtilities;
 import com.todoroo.astrid.dao.Database;
+import com.todoroo.astrid.dao.QueryStatistics;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -31,6 +39,8 @@ public class DatabaseDao<TYPE extends AbstractModel> {
 
     private static final Logger log = LoggerFactory.getLogger(DatabaseDao.class);
 
+    private static final String ID_SELECTION = AbstractModel.ID_PROPERTY.name + "=?";
+
     private final Class<TYPE> modelClass;
 
     private Table table;
@@ -125,8 +135,20 @@ public class DatabaseDao<TYPE extends AbstractModel> {
      */
     public TodorooCursor<TYPE> query(Query query) {
         query.from(table);
-        Cursor cursor = database.rawQuery(query.toString());
-        return new TodorooCursor<>(cursor, query.getFields());
+        List<Object> args = new ArrayList<>();
+        String sql = query.toSql(args);
+        Cursor cursor = database.rawQuery(sql, args.toArray());
+        return new TodorooCursor<>(cursor, query.getFields(), modelClass);
+    }
+
+    /**
+     * Construct a query that is read a page at a time, see {@link PagedCursor}
+     *
+     * @return cursor, or null if the query can not be paged
+     */
+    public TodorooCursor<TYPE> queryPaged(Property<?>[] properties, String queryTemplate, int pageSize) {
+        PagedCursor cursor = PagedCursor.create(database, table, properties, queryTemplate, pageSize);
+        return cursor == null ? null : new TodorooCursor<>(cursor, properties, modelClass);
     }
 
     /**
@@ -137,9 +159,9 @@ public class DatabaseDao<TYPE extends AbstractModel> {
         for(int i = 0; i < properties.length; i++) {
             fields[i] = properties[i].name;
         }
-        return new TodorooCursor<>(database.getDatabase().query(table.name,
-                fields, selection, selectionArgs, null, null, null),
-                properties);
+        String sql = SQLiteQueryBuilder.buildQueryString(false, table.name, fields, selection,
+                null, null, null, null);
+        return new TodorooCursor<>(database.rawQuery(sql, selectionArgs), properties, modelClass);
     }
 
     /**
@@ -159,8 +181,8 @@ public class DatabaseDao<TYPE extends AbstractModel> {
      * @return true if delete was successful
      */
     public boolean delete(long id) {
-        return database.delete(table.name,
-                AbstractModel.ID_PROPERTY.eq(id).toString(), null) > 0;
+        return database.delete(table.name, ID_SELECTION,
+                new String[] { Long.toString(id) }) > 0;
     }
 
     /**
@@ -202,9 +224,7 @@ public class DatabaseDao<TYPE extends AbstractModel> {
         if (item.getId() == AbstractModel.NO_ID) {
             return createNew(item);
         } else {
-            ContentValues values = item.getSetValues();
-
-            if (values.size() == 0) // nothing changed
+            if (item.getSetValueCount() == 0) // nothing changed
             {
                 return true;
             }
@@ -237,6 +257,7 @@ public class DatabaseDao<TYPE extends AbstractModel> {
      */
     public boolean createNew(final TYPE item) {
         item.clearValue(AbstractModel.ID_PROPERTY);
+        beforeCreateNew(item);
 
         DatabaseChangeOp insert = new DatabaseChangeOp() {
             @Override
@@ -268,13 +289,207 @@ public class DatabaseDao<TYPE extends AbstractModel> {
         DatabaseChangeOp update = new DatabaseChangeOp() {
             @Override
             public boolean makeChange() {
-                return database.update(table.name, values,
-                        AbstractModel.ID_PROPERTY.eq(item.getId()).toString()) > 0;
+                return database.update(table.name, values, ID_SELECTION,
+                        new String[] { Long.toString(item.getId()) }) > 0;
             }
         };
         return insertOrUpdateAndRecordChanges(item, update);
     }
 
+    /**
+     * Called before an item is inserted, either through {@link #createNew}
+     * or {@link #persistAll}
+     */
+    protected void beforeCreateNew(TYPE item) {
+    }
+
+    // --- batch operations
+
+    /**
+     * Run the given operations inside a single database transaction
+     */
+    public void batch(Runnable operations) {
+        database.runInTransaction(operations);
+    }
+
+    /**
+     * Save all given objects inside a single database transaction. Rows that
+     * write the same set of columns share one compiled statement. Listeners
+     * are notified after the transaction has been committed. Like
+     * {@link #createNew} and {@link #saveExisting}, this only writes rows:
+     * DAOs that set values or run hooks around those, like TaskDao, provide
+     * their own persistAll.
+     *
+     * @return number of items that were written
+     */
+    public int persistAll(final Collection<TYPE> items) {
+        synchronized (database) {
+            final List<TYPE> written = new ArrayList<>();
+            final List<TYPE> inserted = new ArrayList<>();
+            final StatementCache statements = new StatementCache();
+            try {
+                database.runInTransaction(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (TYPE item : items) {
+                            boolean result;
+                            if (item.getId() == AbstractModel.NO_ID) {
+                                item.clearValue(AbstractModel.ID_PROPERTY);
+                                beforeCreateNew(item);
+                                result = batchInsert(statements, item);
+                                if (result) {
+                                    inserted.add(item);
+                                }
+                            } else {
+                                ContentValues values = item.getSetValues();
+                                if (values == null || values.size() == 0) {
+                                    continue;
+                                }
+                                result = batchUpdate(statements, item, values);
+                            }
+                            if (result) {
+                                written.add(item);
+                            }
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                // transaction was rolled back, forget the ids we handed out
+                for (TYPE item : inserted) {
+                    item.setId(AbstractModel.NO_ID);
+                }
+                throw e;
+            } finally {
+                statements.close();
+            }
+
+            for (TYPE item : written) {
+                onModelUpdated(item);
+                item.markSaved();
+            }
+            return written.size();
+        }
+    }
+
+    private boolean batchInsert(StatementCache statements, TYPE item) {
+        ContentValues values = item.getMergedValues();
+        String[] columns = sortedColumns(values);
+        SQLiteStatement statement = statements.get(columns, true);
+        bindValues(statement, columns, values);
+        QueryStatistics statistics = database.getQueryStatistics();
+        long start = statistics == null ? 0 : System.nanoTime();
+        long newRow = statement.executeInsert();
+        if (statistics != null) {
+            statistics.record("INSERT INTO " + table.name, System.nanoTime() - start, newRow >= 0 ? 1 : 0);
+        }
+        if (newRow < 0) {
+            return false;
+        }
+        item.setId(newRow);
+        database.onDatabaseUpdated(table.name, newRow, values.keySet());
+        return true;
+    }
+
+    private boolean batchUpdate(StatementCache statements, TYPE item, ContentValues values) {
+        String[] columns = sortedColumns(values);
+        SQLiteStatement statement = statements.get(columns, false);
+        bindValues(statement, columns, values);
+        statement.bindLong(columns.length + 1, item.getId());
+        QueryStatistics statistics = database.getQueryStatistics();
+        long start = statistics == null ? 0 : System.nanoTime();
+        boolean result;
+        if (AndroidUtilities.atLeastHoneycomb()) {
+            result = statement.executeUpdateDelete() > 0;
+        } else {
+            statement.execute();
+            result = true;
+        }
+        if (statistics != null) {
+            statistics.record("UPDATE " + table.name + " WHERE " + AbstractModel.ID_PROPERTY.name + "=?",
+                    System.nanoTime() - start, result ? 1 : 0);
+        }
+        if (result) {
+            database.onDatabaseUpdated(table.name, item.getId(), values.keySet());
+        }
+        return result;
+    }
+
+    private static String[] sortedColumns(ContentValues values) {
+        String[] columns = values.keySet().toArray(new String[values.size()]);
+        Arrays.sort(columns);
+        return columns;
+    }
+
+    private static void bindValues(SQLiteStatement statement, String[] columns, ContentValues values) {
+        statement.clearBindings();
+        for (int i = 0; i < columns.length; i++) {
+            Object value = values.get(columns[i]);
+            int index = i + 1;
+            if (value == null) {
+                statement.bindNull(index);
+            } else if (value instanceof Long || value instanceof Integer ||
+                    value instanceof Short || value instanceof Byte) {
+                statement.bindLong(index, ((Number) value).longValue());
+            } else if (value instanceof Boolean) {
+                statement.bindLong(index, (Boolean) value ? 1 : 0);
+            } else if (value instanceof Double || value instanceof Float) {
+                statement.bindDouble(index, ((Number) value).doubleValue());
+            } else if (value instanceof byte[]) {
+                statement.bindBlob(index, (byte[]) value);
+            } else {
+                statement.bindString(index, value.toString());
+            }
+        }
+    }
+
+    /**
+     * Compiled insert and update statements for this table, keyed by the
+     * set of columns they write. Only valid for the duration of a batch.
+     */
+    private class StatementCache {
+
+        private final Map<String, SQLiteStatement> statements = new HashMap<>();
+
+        SQLiteStatement get(String[] columns, boolean insert) {
+            StringBuilder sql = new StringBuilder();
+            if (insert) {
+                sql.append("INSERT INTO ").append(table.name).append('(');
+                if (columns.length == 0) {
+                    sql.append(AbstractModel.ID_PROPERTY.name).append(") VALUES (NULL)");
+                } else {
+                    for (int i = 0; i < columns.length; i++) {
+                        sql.append(i > 0 ? "," : "").append(columns[i]);
+                    }
+                    sql.append(") VALUES (");
+                    for (int i = 0; i < columns.length; i++) {
+                        sql.append(i > 0 ? ",?" : "?");
+                    }
+                    sql.append(')');
+                }
+            } else {
+                sql.append("UPDATE ").append(table.name).append(" SET ");
+                for (int i = 0; i < columns.length; i++) {
+                    sql.append(i > 0 ? "," : "").append(columns[i]).append("=?");
+                }
+                sql.append(" WHERE ").append(AbstractModel.ID_PROPERTY.name).append("=?");
+            }
+            String key = sql.toString();
+            SQLiteStatement statement = statements.get(key);
+            if (statement == null) {
+                statement = database.compileStatement(key);
+                statements.put(key, statement);
+            }
+            return statement;
+        }
+
+        void close() {
+            for (SQLiteStatement statement : statements.values()) {
+                statement.close();
+            }
+            statements.clear();
+        }
+    }
+
     // --- helper methods
 
     public int count(Query query) {
@@ -0,0 +1,540 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.andlib.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.DataSetObservable;
+import android.database.DataSetObserver;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteException;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.SparseArray;
+
+import com.todoroo.andlib.data.Property.LongProperty;
+import com.todoroo.andlib.data.Property.StringProperty;
+import com.todoroo.andlib.sql.Functions;
+import com.todoroo.andlib.sql.Query;
+import com.todoroo.andlib.sql.SqlClauses;
+import com.todoroo.astrid.dao.Database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cursor over a sorted query that reads its rows a page at a time. Each page
+ * continues after the sort key of the last row of the previous page instead
+ * of using an OFFSET, so a page deep into the list costs as much as the
+ * first one. Pages next to the current position are fetched in the
+ * background and pages far from it are closed, so a cursor over a huge
+ * filter holds only a few pages in memory.
+ *
+ * The row count grows as pages are fetched. Growth is reported to the
+ * {@link DataSetObserver}s of this cursor on the main thread.
+ *
+ * A page that is not open is fetched on the calling thread, except on the
+ * main thread: there the row reads as a placeholder of nulls, see
+ * {@link #isPlaceholder()}, and observers are told when the page arrives.
+ */
+public class PagedCursor extends AbstractCursor {
+
+    private static final Logger log = LoggerFactory.getLogger(PagedCursor.class);
+
+    /** pages kept open on either side of the current page */
+    private static final int KEEP_PAGES = 2;
+
+    private static final Executor backgroundExecutor = new ThreadPoolExecutor(0, 1, 1, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>());
+
+    private static final Executor mainThreadExecutor = new Executor() {
+        private final Handler handler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(Runnable command) {
+            handler.post(command);
+        }
+    };
+
+    private final Database database;
+    private final KeysetQuery query;
+    private final int pageSize;
+    private final Executor fetchExecutor;
+    private final Executor resultExecutor;
+    private final String[] columnNames;
+
+    /** observers told about rows added by later pages */
+    private final DataSetObservable pageObservable = new DataSetObservable();
+
+    /** start key of every page reached so far, null for the first page */
+    private final List<Object[]> pageKeys = new ArrayList<>();
+
+    /** open pages by index */
+    private final SparseArray<Cursor> pages = new SparseArray<>();
+
+    /** pages being fetched in the background */
+    private final Set<Integer> fetching = new HashSet<>();
+
+    /** pages a placeholder was shown for, observers are told when they arrive */
+    private final Set<Integer> awaited = new HashSet<>();
+
+    /** number of pages whose rows are included in {@link #count} */
+    private int countedPages;
+    private int count;
+    private int currentPage;
+    private Cursor current;
+    private MatrixCursor placeholder;
+    private volatile boolean closed;
+
+    /**
+     * Run the first page of a query on the calling thread.
+     *
+     * @param queryTemplate query template with an optional ORDER BY clause
+     * @return the cursor, or null if the query has clauses that can not be
+     *         paged, like LIMIT
+     */
+    public static PagedCursor create(Database database, Table table, Property<?>[] properties,
+            String queryTemplate, int pageSize) {
+        return create(database, table, properties, queryTemplate, pageSize, backgroundExecutor,
+                mainThreadExecutor);
+    }
+
+    static PagedCursor create(Database database, Table table, Property<?>[] properties,
+            String queryTemplate, int pageSize, Executor fetchExecutor, Executor resultExecutor) {
+        KeysetQuery query = KeysetQuery.parse(table, properties, queryTemplate, System.currentTimeMillis());
+        if (query == null) {
+            return null;
+        }
+        return new PagedCursor(database, query, pageSize, fetchExecutor, resultExecutor);
+    }
+
+    private PagedCursor(Database database, KeysetQuery query, int pageSize, Executor fetchExecutor,
+            Executor resultExecutor) {
+        this.database = database;
+        this.query = query;
+        this.pageSize = pageSize;
+        this.fetchExecutor = fetchExecutor;
+        this.resultExecutor = resultExecutor;
+
+        pageKeys.add(null);
+        Page first = fetch(null);
+        columnNames = first.cursor.getColumnNames();
+        add(0, first);
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return true once the last page was reached and the count is final
+     */
+    public boolean isComplete() {
+        return countedPages == pageKeys.size();
+    }
+
+    /**
+     * @return true if the current row stands in for a page that is still
+     *         fetched in the background. Its columns read as null
+     */
+    public boolean isPlaceholder() {
+        return current != null && current == placeholder;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return columnNames;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        int index = newPosition / pageSize;
+        if (index >= pageKeys.size()) {
+            return false;
+        }
+        Cursor page = pages.get(index);
+        if (page == null) {
+            // closed while scrolling away from it or not fetched yet
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                awaited.add(index);
+                if (!fetching.contains(index)) {
+                    fetchInBackground(index);
+                }
+                page = placeholder();
+            } else {
+                add(index, fetch(pageKeys.get(index)));
+                page = pages.get(index);
+            }
+        }
+        current = page;
+        currentPage = index;
+        release();
+        prefetch();
+        return page == placeholder || page.moveToPosition(newPosition - index * pageSize);
+    }
+
+    private Cursor placeholder() {
+        if (placeholder == null) {
+            placeholder = new MatrixCursor(columnNames, 1);
+            placeholder.addRow(new Object[columnNames.length]);
+            placeholder.moveToFirst();
+        }
+        return placeholder;
+    }
+
+    @Override
+    public String getString(int column) {
+        return current.getString(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return current.getShort(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return current.getInt(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        return current.getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return current.getFloat(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return current.getDouble(column);
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        return current.getBlob(column);
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return current.isNull(column);
+    }
+
+    @Override
+    public void registerDataSetObserver(DataSetObserver observer) {
+        super.registerDataSetObserver(observer);
+        pageObservable.registerObserver(observer);
+    }
+
+    @Override
+    public void unregisterDataSetObserver(DataSetObserver observer) {
+        super.unregisterDataSetObserver(observer);
+        pageObservable.unregisterObserver(observer);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        super.close();
+        for (int i = 0; i < pages.size(); i++) {
+            pages.valueAt(i).close();
+        }
+        pages.clear();
+        if (placeholder != null) {
+            placeholder.close();
+        }
+        current = null;
+    }
+
+    /**
+     * Fetch the neighbours of the current page that are not open yet,
+     * including the next page if the end has not been reached
+     */
+    private void prefetch() {
+        for (int index = currentPage - 1; index <= currentPage + 1; index++) {
+            if (index >= 0 && index < pageKeys.size() && pages.get(index) == null && !fetching.contains(index)) {
+                fetchInBackground(index);
+            }
+        }
+    }
+
+    private void fetchInBackground(final int index) {
+        fetching.add(index);
+        final Object[] key = pageKeys.get(index);
+        fetchExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Page page = null;
+                if (!closed) {
+                    try {
+                        page = fetch(key);
+                    } catch (SQLiteException e) {
+                        log.error(e.getMessage(), e);
+                    }
+                }
+                final Page result = page;
+                resultExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        onFetched(index, result);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onFetched(int index, Page page) {
+        fetching.remove(index);
+        boolean wasAwaited = awaited.remove(index);
+        if (page == null) {
+            return;
+        }
+        if (closed || pages.get(index) != null) {
+            page.cursor.close();
+            return;
+        }
+        int previousCount = count;
+        add(index, page);
+        if (current == placeholder && index == currentPage) {
+            // the cursor stays at the same position, read it from the page now
+            current = page.cursor;
+            current.moveToPosition(mPos - index * pageSize);
+        }
+        release();
+        if (count != previousCount || wasAwaited) {
+            pageObservable.notifyChanged();
+        }
+    }
+
+    private void add(int index, Page page) {
+        pages.put(index, page.cursor);
+        if (index == countedPages) {
+            countedPages++;
+            count += page.rows;
+            if (page.nextKey != null) {
+                pageKeys.add(page.nextKey);
+            }
+        }
+    }
+
+    /**
+     * Close the pages too far from the current one
+     */
+    private void release() {
+        for (int i = pages.size() - 1; i >= 0; i--) {
+            if (Math.abs(pages.keyAt(i) - currentPage) > KEEP_PAGES) {
+                pages.valueAt(i).close();
+                pages.removeAt(i);
+            }
+        }
+    }
+
+    private Page fetch(Object[] startKey) {
+        List<Object> args = new ArrayList<>();
+        String sql = query.page(startKey, pageSize, args);
+        Cursor cursor = database.rawQuery(sql, args.toArray());
+        // fill the cursor window on this thread
+        int rows = cursor.getCount();
+        Object[] nextKey = null;
+        if (rows == pageSize) {
+            cursor.moveToLast();
+            nextKey = query.readKey(cursor);
+        }
+        return new Page(cursor, rows, nextKey);
+    }
+
+    private static final class Page {
+        private final Cursor cursor;
+        private final int rows;
+
+        /** start key of the following page, null if this is the last page */
+        private final Object[] nextKey;
+
+        private Page(Cursor cursor, int rows, Object[] nextKey) {
+            this.cursor = cursor;
+            this.rows = rows;
+            this.nextKey = nextKey;
+        }
+    }
+
+    /**
+     * A query split into the parts needed to continue it after a given row:
+     * its ORDER BY terms, with the row id appended so that every row has a
+     * unique key, and the clauses they are spliced into. Each term is also
+     * selected, together with its type, to read the key of a row.
+     */
+    static final class KeysetQuery {
+
+        private static final String KEY = "_page_key";
+        private static final String TYPE = "_page_type";
+        private static final String ID = "_page_id";
+
+        private final String select;
+        private final String joins;
+        private final String where;
+        private final String groupBy;
+        private final String[] terms;
+        private final boolean[] descending;
+        private final String id;
+
+        private KeysetQuery(String select, String joins, String where, String groupBy, String[] terms,
+                boolean[] descending, String id) {
+            this.select = select;
+            this.joins = joins;
+            this.where = where;
+            this.groupBy = groupBy;
+            this.terms = terms;
+            this.descending = descending;
+            this.id = id;
+        }
+
+        /**
+         * @param now time used in place of the SQL clock, so that sort keys
+         *            based on it do not change between pages
+         * @return the query, or null if it can not be paged
+         */
+        static KeysetQuery parse(Table table, Property<?>[] properties, String template, long now) {
+            if (template != null) {
+                template = template.replace(Functions.now().toString(), Long.toString(now));
+            }
+            SqlClauses clauses = SqlClauses.parse(template);
+            if (clauses == null || clauses.limit != null) {
+                return null;
+            }
+
+            List<String> orderBy = clauses.orderBy == null
+                    ? new ArrayList<String>()
+                    : SqlClauses.splitList(clauses.orderBy);
+            String[] terms = new String[orderBy.size()];
+            boolean[] descending = new boolean[terms.length];
+            for (int i = 0; i < terms.length; i++) {
+                String term = orderBy.get(i);
+                String upper = term.toUpperCase(Locale.US);
+                if (upper.endsWith(" DESC")) {
+                    descending[i] = true;
+                    term = term.substring(0, term.length() - 5).trim();
+                } else if (upper.endsWith(" ASC")) {
+                    term = term.substring(0, term.length() - 4).trim();
+                }
+                if (term.isEmpty() || upper.contains("COLLATE") || upper.contains(" NULLS ")) {
+                    // comparisons would not match the sort order
+                    return null;
+                }
+                terms[i] = term;
+            }
+
+            String id = table.name + "." + AbstractModel.ID_PROPERTY_NAME;
+            List<Property<?>> fields = new ArrayList<>(Arrays.asList(properties));
+            for (int i = 0; i < terms.length; i++) {
+                fields.add(new StringProperty(null, "(" + terms[i] + ")").as(KEY + i));
+                fields.add(new StringProperty(null, "typeof(" + terms[i] + ")").as(TYPE + i));
+            }
+            fields.add(new LongProperty(null, id).as(ID));
+            String select = Query.select(fields.toArray(new Property<?>[fields.size()])).from(table).toString();
+
+            String where = clauses.where == null || clauses.where.isEmpty() ? null : clauses.where;
+            return new KeysetQuery(select, clauses.joins, where, clauses.groupBy, terms, descending, id);
+        }
+
+        /**
+         * @param startKey key of the row before the page, null for the first page
+         * @param args receives the values bound to the query
+         */
+        String page(Object[] startKey, int limit, List<Object> args) {
+            StringBuilder sql = new StringBuilder(select).append(' ').append(joins).append(" WHERE ");
+            sql.append(where == null ? "1" : "(" + where + ")");
+            if (startKey != null) {
+                sql.append(" AND (").append(after(startKey, args)).append(')');
+            }
+            if (groupBy != null) {
+                sql.append(" GROUP BY ").append(groupBy);
+            }
+            sql.append(" ORDER BY ");
+            for (int i = 0; i < terms.length; i++) {
+                sql.append(terms[i]).append(descending[i] ? " DESC, " : " ASC, ");
+            }
+            sql.append(id).append(" ASC LIMIT ").append(limit);
+            return sql.toString();
+        }
+
+        /**
+         * Rows sorted after the key: (a > ?) OR (a = ? AND b > ?) OR ...
+         * SQLite sorts NULL first, so it is only compared with IS.
+         */
+        private String after(Object[] key, List<Object> args) {
+            StringBuilder sql = new StringBuilder();
+            for (int j = 0; j <= terms.length; j++) {
+                boolean last = j == terms.length;
+                if (!last && descending[j] && key[j] == null) {
+                    // nothing but NULL sorts after NULL in descending order
+                    continue;
+                }
+                if (sql.length() > 0) {
+                    sql.append(" OR ");
+                }
+                sql.append('(');
+                for (int i = 0; i < j; i++) {
+                    if (key[i] == null) {
+                        sql.append('(').append(terms[i]).append(") IS NULL AND ");
+                    } else {
+                        sql.append('(').append(terms[i]).append(") = ? AND ");
+                        args.add(key[i]);
+                    }
+                }
+                if (last) {
+                    sql.append(id).append(" > ?");
+                    args.add(key[j]);
+                } else if (key[j] == null) {
+                    sql.append('(').append(terms[j]).append(") IS NOT NULL");
+                } else if (descending[j]) {
+                    sql.append("((").append(terms[j]).append(") < ? OR (").append(terms[j]).append(") IS NULL)");
+                    args.add(key[j]);
+                } else {
+                    sql.append('(').append(terms[j]).append(") > ?");
+                    args.add(key[j]);
+                }
+                sql.append(')');
+            }
+            return sql.toString();
+        }
+
+        /**
+         * @return sort key of the row at the current position of the cursor
+         */
+        Object[] readKey(Cursor cursor) {
+            Object[] key = new Object[terms.length + 1];
+            for (int i = 0; i < terms.length; i++) {
+                int column = cursor.getColumnIndexOrThrow(KEY + i);
+                String type = cursor.getString(cursor.getColumnIndexOrThrow(TYPE + i));
+                if ("integer".equals(type)) {
+                    key[i] = cursor.getLong(column);
+                } else if ("real".equals(type)) {
+                    key[i] = cursor.getDouble(column);
+                } else if ("null".equals(type)) {
+                    key[i] = null;
+                } else {
+                    key[i] = cursor.getString(column);
+                }
+            }
+            key[terms.length] = cursor.getLong(cursor.getColumnIndexOrThrow(ID));
+            return key;
+        }
+    }
+}
@@ -50,6 +50,9 @@ public abstract class Property<TYPE> extends Field implements Cloneable {
 
     public int flags = 0;
 
+    /** Last slot lookup for this property, see {@link TableSchema} */
+    TableSchema.Slot slot;
+
     /**
      * Create a property by table and column name. Uses the default property
      * expression which is derived from default table name
@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.andlib.data;
+
+import android.content.ContentValues;
+
+import com.todoroo.andlib.data.Property.IntegerProperty;
+import com.todoroo.andlib.data.Property.LongProperty;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Assigns a fixed slot to each column of a model. Models that return a
+ * schema from {@link AbstractModel#getSchema()} keep their values in
+ * arrays indexed by these slots instead of {@link ContentValues}.
+ */
+public final class TableSchema {
+
+    static final int KIND_INTEGER = 0;
+    static final int KIND_LONG = 1;
+    static final int KIND_STRING = 2;
+
+    private final String[] columns;
+    private final int[] kinds;
+    private final HashMap<String, Integer> indexes = new HashMap<>();
+
+    /** Defaults converted to slots */
+    private volatile Defaults defaults;
+
+    public TableSchema(Property<?>[] properties) {
+        ArrayList<String> names = new ArrayList<>();
+        ArrayList<Integer> types = new ArrayList<>();
+        for (Property<?> property : properties) {
+            String column = property.getColumnName();
+            if (indexes.containsKey(column)) {
+                continue;
+            }
+            indexes.put(column, names.size());
+            names.add(column);
+            types.add(kindOf(property));
+        }
+        columns = names.toArray(new String[names.size()]);
+        kinds = new int[types.size()];
+        for (int i = 0; i < kinds.length; i++) {
+            kinds[i] = types.get(i);
+        }
+    }
+
+    /**
+     * @return number of slots
+     */
+    public int size() {
+        return columns.length;
+    }
+
+    String getColumn(int index) {
+        return columns[index];
+    }
+
+    int getKind(int index) {
+        return kinds[index];
+    }
+
+    /**
+     * @return slot for the given column, or -1 if the column is not part of
+     *         this schema
+     */
+    int indexOf(String column) {
+        Integer index = indexes.get(column);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @return slot for the given property, or -1 if the property is not part
+     *         of this schema. The result is cached on the property
+     */
+    int indexOf(Property<?> property) {
+        String column = property.getColumnName();
+        Slot slot = property.slot;
+        if (slot != null && slot.schema == this && slot.column == column) {
+            return slot.index;
+        }
+        int index = indexOf(column);
+        property.slot = new Slot(this, column, index);
+        return index;
+    }
+
+    /**
+     * @return the given default values converted to slots
+     */
+    ValueSlots getDefaults(ContentValues defaultValues) {
+        Defaults current = defaults;
+        if (current == null || current.source != defaultValues) {
+            ValueSlots slots = defaultValues == null
+                    ? new ValueSlots(this)
+                    : ValueSlots.fromContentValues(this, defaultValues);
+            current = new Defaults(defaultValues, slots);
+            defaults = current;
+        }
+        return current.slots;
+    }
+
+    private static int kindOf(Property<?> property) {
+        if (property instanceof IntegerProperty) {
+            return KIND_INTEGER;
+        } else if (property instanceof LongProperty) {
+            return KIND_LONG;
+        }
+        return KIND_STRING;
+    }
+
+    private static final class Defaults {
+        private final ContentValues source;
+        private final ValueSlots slots;
+
+        private Defaults(ContentValues source, ValueSlots slots) {
+            this.source = source;
+            this.slots = slots;
+        }
+    }
+
+    /**
+     * Slot of a property in the last schema it was looked up in
+     */
+    static final class Slot {
+        private final TableSchema schema;
+        private final String column;
+        private final int index;
+
+        private Slot(TableSchema schema, String column, int index) {
+            this.schema = schema;
+            this.column = column;
+            this.index = index;
+        }
+    }
+}
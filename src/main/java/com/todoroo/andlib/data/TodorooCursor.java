@@ -10,6 +10,7 @@ import android.database.CursorWrapper;
 
 import com.todoroo.andlib.data.Property.PropertyVisitor;
 
+import java.util.Arrays;
 import java.util.WeakHashMap;
 
 /**
@@ -23,6 +24,9 @@ import java.util.WeakHashMap;
  */
 public class TodorooCursor<TYPE extends AbstractModel> extends CursorWrapper {
 
+    /** Cursor this cursor wraps */
+    private final Cursor cursor;
+
     /** Properties read by this cursor */
     private final Property<?>[] properties;
 
@@ -30,6 +34,15 @@ public class TodorooCursor<TYPE extends AbstractModel> extends CursorWrapper {
      * Because it's a weak hash map, entire keys can be discarded by GC */
     private final WeakHashMap<String, Integer> columnIndexCache;
 
+    /** Column ids of {@link #properties}, resolved on first use */
+    private final int[] propertyColumns;
+
+    /** Model class returned by {@link #asModel()}, may be null */
+    private final Class<TYPE> modelClass;
+
+    /** Model reused for every row by {@link #asModel()} */
+    private TYPE model;
+
     /** Property reading visitor */
     private static final CursorReadingVisitor reader = new CursorReadingVisitor();
 
@@ -40,10 +53,25 @@ public class TodorooCursor<TYPE extends AbstractModel> extends CursorWrapper {
      * @param properties properties read from this cursor
      */
     public TodorooCursor(Cursor cursor, Property<?>[] properties) {
+        this(cursor, properties, null);
+    }
+
+    /**
+     * Create an <code>AstridCursor</code> that can read rows into models of
+     * the given class with {@link #asModel()}
+     *
+     * @param properties properties read from this cursor
+     * @param modelClass model class for {@link #asModel()}
+     */
+    public TodorooCursor(Cursor cursor, Property<?>[] properties, Class<TYPE> modelClass) {
         super(cursor);
 
+        this.cursor = cursor;
         this.properties = properties;
+        this.modelClass = modelClass;
         columnIndexCache = new WeakHashMap<>();
+        propertyColumns = new int[properties.length];
+        Arrays.fill(propertyColumns, -1);
     }
 
     /**
@@ -56,6 +84,42 @@ public class TodorooCursor<TYPE extends AbstractModel> extends CursorWrapper {
         return (PROPERTY_TYPE)property.accept(reader, this);
     }
 
+    /**
+     * Read the current row into a model owned by this cursor. The same
+     * instance is returned for every row, so it is only valid until the
+     * cursor moves. Call {@link AbstractModel#detach()} to keep a row.
+     */
+    public TYPE asModel() {
+        if (model == null) {
+            if (modelClass == null) {
+                throw new IllegalStateException("Cursor was created without a model class"); //$NON-NLS-1$
+            }
+            try {
+                model = modelClass.newInstance();
+            } catch (InstantiationException | IllegalAccessException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        model.readFlyweightFromCursor(this);
+        return model;
+    }
+
+    /**
+     * @return false while more rows are read in the background, see
+     *         {@link PagedCursor}
+     */
+    public boolean isComplete() {
+        return !(cursor instanceof PagedCursor) || ((PagedCursor) cursor).isComplete();
+    }
+
+    /**
+     * @return true if the current row stands in for a page that is still
+     *         read in the background, see {@link PagedCursor}
+     */
+    public boolean isPlaceholder() {
+        return cursor instanceof PagedCursor && ((PagedCursor) cursor).isPlaceholder();
+    }
+
     /**
      * Gets entire property list
      */
@@ -76,6 +140,19 @@ public class TodorooCursor<TYPE extends AbstractModel> extends CursorWrapper {
         return index;
     }
 
+    /**
+     * @return column id of the property at the given position in
+     *         {@link #getProperties()}
+     */
+    int getPropertyColumn(int position) {
+        int column = propertyColumns[position];
+        if (column < 0) {
+            column = getColumnIndexFromCache(properties[position].getColumnName());
+            propertyColumns[position] = column;
+        }
+        return column;
+    }
+
     /**
      * Visitor that reads the given property from a cursor
      *
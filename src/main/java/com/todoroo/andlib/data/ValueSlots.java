@@ -0,0 +1,222 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.andlib.data;
+
+import android.content.ContentValues;
+
+import com.todoroo.andlib.utility.AndroidUtilities;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map.Entry;
+
+/**
+ * One layer of model values stored by {@link TableSchema} slot. Integer and
+ * long columns holding a value of their own type are kept unboxed and only
+ * boxed when read, anything else is kept as an object. Columns outside the
+ * schema fall back to {@link ContentValues}.
+ */
+final class ValueSlots {
+
+    private final TableSchema schema;
+    private final long[] longs;
+    private final Object[] objects;
+
+    /** slots holding a value, possibly null */
+    private final BitSet present;
+
+    /** slots whose value is in {@link #longs}. {@link #objects} may cache the box */
+    private final BitSet primitive;
+
+    /** columns that are not part of the schema */
+    private ContentValues overflow;
+
+    ValueSlots(TableSchema schema) {
+        this.schema = schema;
+        int size = schema.size();
+        longs = new long[size];
+        objects = new Object[size];
+        present = new BitSet(size);
+        primitive = new BitSet(size);
+    }
+
+    ValueSlots(ValueSlots other) {
+        schema = other.schema;
+        longs = other.longs.clone();
+        objects = other.objects.clone();
+        present = (BitSet) other.present.clone();
+        primitive = (BitSet) other.primitive.clone();
+        if (other.overflow != null) {
+            overflow = new ContentValues(other.overflow);
+        }
+    }
+
+    boolean contains(int index) {
+        return present.get(index);
+    }
+
+    boolean containsColumn(String column) {
+        int index = schema.indexOf(column);
+        if (index >= 0) {
+            return present.get(index);
+        }
+        return overflow != null && overflow.containsKey(column);
+    }
+
+    Object get(int index) {
+        Object value = objects[index];
+        if (value == null && primitive.get(index)) {
+            // box on first read and keep the box for later reads
+            if (schema.getKind(index) == TableSchema.KIND_INTEGER) {
+                value = (int) longs[index];
+            } else {
+                value = longs[index];
+            }
+            objects[index] = value;
+        }
+        return value;
+    }
+
+    Object getColumn(String column) {
+        int index = schema.indexOf(column);
+        if (index >= 0) {
+            return get(index);
+        }
+        return overflow == null ? null : overflow.get(column);
+    }
+
+    void put(int index, Object value) {
+        int kind = schema.getKind(index);
+        if ((kind == TableSchema.KIND_LONG && value instanceof Long) ||
+                (kind == TableSchema.KIND_INTEGER && value instanceof Integer)) {
+            longs[index] = ((Number) value).longValue();
+            objects[index] = value;
+            primitive.set(index);
+            present.set(index);
+        } else {
+            objects[index] = value;
+            primitive.clear(index);
+            present.set(index);
+        }
+    }
+
+    /**
+     * Store an unboxed value. Only valid for integer and long slots
+     */
+    void putLong(int index, long value) {
+        longs[index] = value;
+        objects[index] = null;
+        primitive.set(index);
+        present.set(index);
+    }
+
+    void putColumn(String column, Object value) {
+        int index = schema.indexOf(column);
+        if (index >= 0) {
+            put(index, value);
+            return;
+        }
+        if (overflow == null) {
+            overflow = new ContentValues();
+        }
+        putInto(overflow, column, value);
+    }
+
+    void remove(int index) {
+        objects[index] = null;
+        primitive.clear(index);
+        present.clear(index);
+    }
+
+    void removeColumn(String column) {
+        int index = schema.indexOf(column);
+        if (index >= 0) {
+            remove(index);
+        } else if (overflow != null) {
+            overflow.remove(column);
+        }
+    }
+
+    /**
+     * Copy all values from the other layer, replacing existing values
+     */
+    void putAll(ValueSlots other) {
+        for (int i = other.present.nextSetBit(0); i >= 0; i = other.present.nextSetBit(i + 1)) {
+            longs[i] = other.longs[i];
+            objects[i] = other.objects[i];
+            primitive.set(i, other.primitive.get(i));
+            present.set(i);
+        }
+        if (other.overflow != null) {
+            if (overflow == null) {
+                overflow = new ContentValues();
+            }
+            overflow.putAll(other.overflow);
+        }
+    }
+
+    /**
+     * Remove all values, keeping the arrays for reuse
+     */
+    void clear() {
+        Arrays.fill(objects, null);
+        present.clear();
+        primitive.clear();
+        overflow = null;
+    }
+
+    int size() {
+        return present.cardinality() + (overflow == null ? 0 : overflow.size());
+    }
+
+    /**
+     * Write all values of this layer into the given content values
+     */
+    void writeTo(ContentValues target) {
+        for (int i = present.nextSetBit(0); i >= 0; i = present.nextSetBit(i + 1)) {
+            String column = schema.getColumn(i);
+            if (primitive.get(i)) {
+                if (schema.getKind(i) == TableSchema.KIND_INTEGER) {
+                    target.put(column, (int) longs[i]);
+                } else {
+                    target.put(column, longs[i]);
+                }
+            } else {
+                putInto(target, column, objects[i]);
+            }
+        }
+        if (overflow != null) {
+            target.putAll(overflow);
+        }
+    }
+
+    ContentValues toContentValues() {
+        ContentValues values = new ContentValues();
+        writeTo(values);
+        return values;
+    }
+
+    private static void putInto(ContentValues target, String column, Object value) {
+        if (value == null) {
+            target.putNull(column);
+        } else if (value instanceof byte[]) {
+            target.put(column, (byte[]) value);
+        } else {
+            AndroidUtilities.putInto(target, column, value);
+        }
+    }
+
+    static ValueSlots fromContentValues(TableSchema schema, ContentValues values) {
+        if (values == null) {
+            return null;
+        }
+        ValueSlots slots = new ValueSlots(schema);
+        for (Entry<String, Object> entry : values.valueSet()) {
+            slots.putColumn(entry.getKey(), entry.getValue());
+        }
+        return slots;
+    }
+}
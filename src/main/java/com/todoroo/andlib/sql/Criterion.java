@@ -5,6 +5,8 @@
  */
 package com.todoroo.andlib.sql;
 
+import java.util.List;
+
 import static com.todoroo.andlib.sql.SqlConstants.AND;
 import static com.todoroo.andlib.sql.SqlConstants.LEFT_PARENTHESIS;
 import static com.todoroo.andlib.sql.SqlConstants.NOT;
@@ -36,6 +38,15 @@ public abstract class Criterion {
                     sb.append(SPACE).append(AND).append(SPACE).append(c);
                 }
             }
+
+            @Override
+            protected void populate(StringBuilder sb, List<Object> args) {
+                criterion.appendTo(sb, args);
+                for (Criterion c : criterions) {
+                    sb.append(SPACE).append(AND).append(SPACE);
+                    c.appendTo(sb, args);
+                }
+            }
         };
     }
 
@@ -49,6 +60,15 @@ public abstract class Criterion {
                     sb.append(SPACE).append(OR).append(SPACE).append(c.toString());
                 }
             }
+
+            @Override
+            protected void populate(StringBuilder sb, List<Object> args) {
+                criterion.appendTo(sb, args);
+                for (Criterion c : criterions) {
+                    sb.append(SPACE).append(OR).append(SPACE);
+                    c.appendTo(sb, args);
+                }
+            }
         };
     }
 
@@ -60,16 +80,43 @@ public abstract class Criterion {
                 sb.append(NOT).append(SPACE);
                 criterion.populate(sb);
             }
+
+            @Override
+            protected void populate(StringBuilder sb, List<Object> args) {
+                sb.append(NOT).append(SPACE);
+                criterion.populate(sb, args);
+            }
         };
     }
 
     protected abstract void populate(StringBuilder sb);
 
+    /**
+     * Populate with literal values replaced by '?' placeholders, adding the
+     * values to args in order. Values are inlined unless overridden
+     */
+    protected void populate(StringBuilder sb, List<Object> args) {
+        populate(sb);
+    }
+
+    /**
+     * Append this criterion in parentheses. Literal values are inlined if
+     * args is null, otherwise they are bound through args
+     */
+    public void appendTo(StringBuilder sb, List<Object> args) {
+        sb.append(LEFT_PARENTHESIS);
+        if (args == null) {
+            populate(sb);
+        } else {
+            populate(sb, args);
+        }
+        sb.append(RIGHT_PARENTHESIS);
+    }
+
     @Override
     public String toString() {
-        StringBuilder builder = new StringBuilder(LEFT_PARENTHESIS);
-        populate(builder);
-        builder.append(RIGHT_PARENTHESIS);
+        StringBuilder builder = new StringBuilder();
+        appendTo(builder, null);
         return builder.toString();
     }
 
@@ -5,6 +5,8 @@
  */
 package com.todoroo.andlib.sql;
 
+import java.util.List;
+
 import static com.todoroo.andlib.sql.SqlConstants.COMMA;
 import static com.todoroo.andlib.sql.SqlConstants.LEFT_PARENTHESIS;
 import static com.todoroo.andlib.sql.SqlConstants.RIGHT_PARENTHESIS;
@@ -78,6 +80,14 @@ public class Field extends DBObject<Field> {
         return UnaryCriterion.like(this, value, escape);
     }
 
+    /**
+     * Adds the criterion that the full text index named by this field
+     * matches the given query
+     */
+    public Criterion match(String value) {
+        return UnaryCriterion.match(this, value);
+    }
+
     public <T> Criterion in(final Iterable<T> value) {
         final Field field = this;
         return new Criterion(Operator.in) {
@@ -102,6 +112,12 @@ public class Field extends DBObject<Field> {
                 sb.append(field).append(SPACE).append(Operator.in).append(SPACE).append(LEFT_PARENTHESIS).append(query)
                         .append(RIGHT_PARENTHESIS);
             }
+
+            @Override
+            protected void populate(StringBuilder sb, List<Object> args) {
+                sb.append(field).append(SPACE).append(Operator.in).append(SPACE).append(LEFT_PARENTHESIS).append(query.toSql(args))
+                        .append(RIGHT_PARENTHESIS);
+            }
         };
     }
 }
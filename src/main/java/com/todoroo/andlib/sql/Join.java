@@ -5,6 +5,8 @@
  */
 package com.todoroo.andlib.sql;
 
+import java.util.List;
+
 import static com.todoroo.andlib.sql.SqlConstants.AND;
 import static com.todoroo.andlib.sql.SqlConstants.JOIN;
 import static com.todoroo.andlib.sql.SqlConstants.ON;
@@ -32,14 +34,22 @@ public class Join {
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
+        appendTo(sb, null);
+        return sb.toString();
+    }
+
+    /**
+     * Append this join. Literal values are inlined if args is null,
+     * otherwise they are bound through args
+     */
+    public void appendTo(StringBuilder sb, List<Object> args) {
         sb.append(joinType).append(SPACE).append(JOIN).append(SPACE).append(joinTable).append(SPACE).append(ON).append(SPACE).append("(");
         for (int i = 0; i < criterions.length; i++) {
-            sb.append(criterions[i]);
+            criterions[i].appendTo(sb, args);
             if (i < criterions.length - 1) {
                 sb.append(SPACE).append(AND).append(SPACE);
             }
         }
         sb.append(")");
-        return sb.toString();
     }
 }
@@ -8,6 +8,7 @@ package com.todoroo.andlib.sql;
 import com.todoroo.andlib.data.Property;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import static com.todoroo.andlib.sql.SqlConstants.ALL;
 import static com.todoroo.andlib.sql.SqlConstants.COMMA;
@@ -89,13 +90,23 @@ public final class Query {
 
     @Override
     public String toString() {
+        return toSql(null);
+    }
+
+    /**
+     * Build the SQL for this query. If args is null, literal values are
+     * inlined. Otherwise they are replaced by '?' placeholders and added to
+     * args, so queries that only differ in their values share the same SQL
+     * and hit the compiled statement cache.
+     */
+    public String toSql(List<Object> args) {
         StringBuilder sql = new StringBuilder();
         visitSelectClause(sql);
         visitFromClause(sql);
 
-        visitJoinClause(sql);
+        visitJoinClause(sql, args);
         if(queryTemplate == null) {
-            visitWhereClause(sql);
+            visitWhereClause(sql, args);
             visitGroupByClause(sql);
             visitOrderByClause(sql);
             visitLimitClause(sql);
@@ -131,19 +142,22 @@ public final class Query {
         sql.deleteCharAt(sql.length() - 1).append(SPACE);
     }
 
-    private void visitWhereClause(StringBuilder sql) {
+    private void visitWhereClause(StringBuilder sql, List<Object> args) {
         if (criterions.isEmpty()) {
             return;
         }
         sql.append(WHERE);
         for (Criterion criterion : criterions) {
-            sql.append(SPACE).append(criterion).append(SPACE);
+            sql.append(SPACE);
+            criterion.appendTo(sql, args);
+            sql.append(SPACE);
         }
     }
 
-    private void visitJoinClause(StringBuilder sql) {
+    private void visitJoinClause(StringBuilder sql, List<Object> args) {
         for (Join join : joins) {
-            sql.append(join).append(SPACE);
+            join.appendTo(sql, args);
+            sql.append(SPACE);
         }
     }
 
@@ -0,0 +1,194 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.andlib.sql;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A query template, the part of a query following "SELECT ... FROM table",
+ * split into its top level clauses. Keywords inside parentheses and quotes
+ * belong to subqueries or literals and are ignored.
+ */
+public final class SqlClauses {
+
+    /** text in front of the first clause, typically joins */
+    public final String joins;
+
+    /** WHERE predicate, null if there is none */
+    public final String where;
+
+    /** GROUP BY terms including any HAVING clause, null if there are none */
+    public final String groupBy;
+
+    /** ORDER BY terms, null if there are none */
+    public final String orderBy;
+
+    /** LIMIT clause including any OFFSET, null if there is none */
+    public final String limit;
+
+    private SqlClauses(String joins, String where, String groupBy, String orderBy, String limit) {
+        this.joins = joins;
+        this.where = where;
+        this.groupBy = groupBy;
+        this.orderBy = orderBy;
+        this.limit = limit;
+    }
+
+    /**
+     * @return the clauses of the template, or null if it is unbalanced,
+     *         compound or has its clauses out of order
+     */
+    public static SqlClauses parse(String template) {
+        if (template == null) {
+            return new SqlClauses("", null, null, null, null);
+        }
+        String[] keywords = { "WHERE", "GROUP", "ORDER", "LIMIT" };
+        int[] starts = { -1, -1, -1, -1 };
+        int[] bodies = { -1, -1, -1, -1 };
+        int length = template.length();
+        int depth = 0;
+        int last = -1;
+        for (int i = 0; i < length; i++) {
+            char c = template.charAt(i);
+            if (c == '\'' || c == '"') {
+                // skip quoted literal or identifier, quotes are escaped by doubling
+                int close = template.indexOf(c, i + 1);
+                while (close >= 0 && close + 1 < length && template.charAt(close + 1) == c) {
+                    close = template.indexOf(c, close + 2);
+                }
+                if (close < 0) {
+                    return null;
+                }
+                i = close;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (depth == 0 && Character.isLetter(c) && (i == 0 || !isWordPart(template.charAt(i - 1)))) {
+                int wordEnd = wordEnd(template, i);
+                String word = template.substring(i, wordEnd);
+                int next = wordEnd;
+                if ("UNION".equalsIgnoreCase(word) || "EXCEPT".equalsIgnoreCase(word) ||
+                        "INTERSECT".equalsIgnoreCase(word)) {
+                    return null;
+                }
+                if ("HAVING".equalsIgnoreCase(word) && last != 1) {
+                    return null;
+                }
+                for (int k = 0; k < keywords.length; k++) {
+                    if (keywords[k].equalsIgnoreCase(word)) {
+                        if (k <= last) {
+                            return null;
+                        }
+                        last = k;
+                        starts[k] = i;
+                        bodies[k] = wordEnd;
+                        if (k == 1 || k == 2) {
+                            // GROUP and ORDER are followed by BY
+                            int by = skipWhitespace(template, wordEnd);
+                            int byEnd = wordEnd(template, by);
+                            if (!"BY".equalsIgnoreCase(template.substring(by, byEnd))) {
+                                return null;
+                            }
+                            bodies[k] = byEnd;
+                        }
+                        next = bodies[k];
+                    }
+                }
+                i = next - 1;
+            }
+        }
+        if (depth != 0) {
+            return null;
+        }
+
+        String[] clauses = new String[keywords.length];
+        int end = length;
+        for (int k = keywords.length - 1; k >= 0; k--) {
+            if (starts[k] >= 0) {
+                clauses[k] = template.substring(bodies[k], end).trim();
+                end = starts[k];
+            }
+        }
+        return new SqlClauses(template.substring(0, end).trim(), clauses[0], clauses[1], clauses[2], clauses[3]);
+    }
+
+    /**
+     * @return the same clauses ordered by the given terms instead
+     */
+    public SqlClauses withOrderBy(String orderBy) {
+        return new SqlClauses(joins, where, groupBy, orderBy, limit);
+    }
+
+    /**
+     * @return the template with its clauses in order
+     */
+    @Override
+    public String toString() {
+        StringBuilder template = new StringBuilder(joins);
+        append(template, "WHERE", where);
+        append(template, "GROUP BY", groupBy);
+        append(template, "ORDER BY", orderBy);
+        append(template, "LIMIT", limit);
+        return template.toString().trim();
+    }
+
+    private static void append(StringBuilder template, String keyword, String clause) {
+        if (clause != null) {
+            template.append(' ').append(keyword).append(' ').append(clause);
+        }
+    }
+
+    /**
+     * Split a list of terms, e.g. ORDER BY terms, at its top level commas
+     */
+    public static List<String> splitList(String list) {
+        List<String> terms = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        int length = list.length();
+        for (int i = 0; i < length; i++) {
+            char c = list.charAt(i);
+            if (c == '\'' || c == '"') {
+                int close = list.indexOf(c, i + 1);
+                while (close >= 0 && close + 1 < length && list.charAt(close + 1) == c) {
+                    close = list.indexOf(c, close + 2);
+                }
+                i = close < 0 ? length : close;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                terms.add(list.substring(start, i).trim());
+                start = i + 1;
+            }
+        }
+        terms.add(list.substring(start).trim());
+        return terms;
+    }
+
+    private static int wordEnd(String template, int start) {
+        int end = start;
+        while (end < template.length() && isWordPart(template.charAt(end))) {
+            end++;
+        }
+        return end;
+    }
+
+    private static int skipWhitespace(String template, int start) {
+        int end = start;
+        while (end < template.length() && Character.isWhitespace(template.charAt(end))) {
+            end++;
+        }
+        return end;
+    }
+
+    private static boolean isWordPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '.';
+    }
+}
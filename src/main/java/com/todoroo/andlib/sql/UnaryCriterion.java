@@ -5,6 +5,8 @@
  */
 package com.todoroo.andlib.sql;
 
+import java.util.List;
+
 import static com.todoroo.andlib.sql.SqlConstants.SPACE;
 
 public class UnaryCriterion extends Criterion {
@@ -24,6 +26,13 @@ public class UnaryCriterion extends Criterion {
         afterPopulateOperator(sb);
     }
 
+    @Override
+    protected void populate(StringBuilder sb, List<Object> args) {
+        beforePopulateOperator(sb);
+        populateOperator(sb);
+        afterPopulateOperator(sb, args);
+    }
+
     public static Criterion eq(Field expression, Object value) {
         return new UnaryCriterion(expression, Operator.eq, value);
     }
@@ -37,6 +46,10 @@ public class UnaryCriterion extends Criterion {
     }
 
     protected void afterPopulateOperator(StringBuilder sb) {
+        populateValue(sb);
+    }
+
+    private void populateValue(StringBuilder sb) {
         if(value == null) {
             return;
         }
@@ -48,6 +61,19 @@ public class UnaryCriterion extends Criterion {
         }
     }
 
+    /**
+     * Bind string and number values, inline everything else (fields,
+     * functions and sub-expressions)
+     */
+    protected void afterPopulateOperator(StringBuilder sb, List<Object> args) {
+        if(value instanceof String || value instanceof Long || value instanceof Integer) {
+            sb.append('?');
+            args.add(value);
+        } else {
+            populateValue(sb);
+        }
+    }
+
     /**
      * Sanitize the given input for SQL
      */
@@ -98,6 +124,15 @@ public class UnaryCriterion extends Criterion {
         };
     }
 
+    public static Criterion match(Field field, String value) {
+        return new UnaryCriterion(field, Operator.match, value) {
+            @Override
+            protected void populateOperator(StringBuilder sb) {
+                sb.append(SPACE).append(operator).append(SPACE);
+            }
+        };
+    }
+
     public static Criterion like(Field field, String value, final String escape) {
         return new UnaryCriterion(field, Operator.like, value) {
             @Override
@@ -107,6 +142,14 @@ public class UnaryCriterion extends Criterion {
             @Override
             protected void afterPopulateOperator(StringBuilder sb) {
                 super.afterPopulateOperator(sb);
+                populateEscape(sb);
+            }
+            @Override
+            protected void afterPopulateOperator(StringBuilder sb, List<Object> args) {
+                super.afterPopulateOperator(sb, args);
+                populateEscape(sb);
+            }
+            private void populateEscape(StringBuilder sb) {
                 sb.append(SPACE).append("ESCAPE").append(" '").append(sanitize(escape)).append("'");
             }
         };
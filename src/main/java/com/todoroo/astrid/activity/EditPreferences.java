@@ -18,9 +18,13 @@ import android.preference.PreferenceManager;
 import android.preference.PreferenceScreen;
 import android.speech.tts.TextToSpeech;
 import android.text.TextUtils;
+import android.widget.Toast;
 
 import com.todoroo.andlib.utility.AndroidUtilities;
 import com.todoroo.astrid.api.AstridApiConstants;
+import com.todoroo.astrid.backup.BackupConstants;
+import com.todoroo.astrid.dao.Database;
+import com.todoroo.astrid.dao.QueryStatistics;
 import com.todoroo.astrid.data.TaskAttachment;
 import com.todoroo.astrid.files.FileExplore;
 import com.todoroo.astrid.gcal.CalendarAlarmScheduler;
@@ -38,6 +42,11 @@ import org.tasks.R;
 import org.tasks.preferences.Preferences;
 import org.tasks.widget.WidgetHelper;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
@@ -47,6 +56,7 @@ import java.util.Map.Entry;
 import javax.inject.Inject;
 
 import static com.todoroo.andlib.utility.AndroidUtilities.preFroyo;
+import static org.tasks.date.DateTimeUtils.newDate;
 
 /**
  * Displays the preference screen for users to edit their preferences
@@ -69,6 +79,7 @@ public class EditPreferences extends TodorooPreferenceActivity {
     @Inject Preferences preferences;
     @Inject CalendarAlarmScheduler calendarAlarmScheduler;
     @Inject VoiceOutputAssistant voiceOutputAssistant;
+    @Inject Database database;
 
     private class SetResultOnPreferenceChangeListener implements OnPreferenceChangeListener {
         private final int resultCode;
@@ -364,6 +375,22 @@ public class EditPreferences extends TodorooPreferenceActivity {
             }
         });
 
+        findPreference(getString(R.string.p_query_statistics)).setOnPreferenceChangeListener(new OnPreferenceChangeListener() {
+            @Override
+            public boolean onPreferenceChange(Preference preference, Object newValue) {
+                database.setQueryStatistics((boolean) newValue ? new QueryStatistics() : null);
+                return true;
+            }
+        });
+
+        findPreference(getString(R.string.p_export_query_statistics)).setOnPreferenceClickListener(new OnPreferenceClickListener() {
+            @Override
+            public boolean onPreferenceClick(Preference preference) {
+                exportQueryStatistics();
+                return true;
+            }
+        });
+
         if (preFroyo()) {
             searchForAndRemovePreference(getPreferenceScreen(), getString(R.string.p_calendar_reminders));
         } else {
@@ -387,6 +414,32 @@ public class EditPreferences extends TodorooPreferenceActivity {
         });
     }
 
+    private void exportQueryStatistics() {
+        QueryStatistics statistics = database.getQueryStatistics();
+        if (statistics == null) {
+            return;
+        }
+        File directory = BackupConstants.defaultExportDirectory();
+        if (directory == null || !(directory.exists() || directory.mkdir())) {
+            Toast.makeText(this, R.string.DLG_error_sdcard_general, Toast.LENGTH_LONG).show();
+            return;
+        }
+        String date = new SimpleDateFormat("yyMMdd-HHmm").format(newDate());
+        File file = new File(directory, "query-statistics." + date + ".txt");
+        try {
+            Writer writer = new FileWriter(file);
+            try {
+                statistics.writeReport(writer);
+            } finally {
+                writer.close();
+            }
+            Toast.makeText(this, getString(R.string.EPr_export_query_statistics_toast, file.getAbsolutePath()), Toast.LENGTH_LONG).show();
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+            Toast.makeText(this, getString(R.string.DLG_error_sdcard, directory.getAbsolutePath()), Toast.LENGTH_LONG).show();
+        }
+    }
+
     private void onVoiceReminderStatusChanged(final Preference preference, boolean enabled) {
         try {
             if(enabled && !voiceOutputAssistant.isTTSInitialized()) {
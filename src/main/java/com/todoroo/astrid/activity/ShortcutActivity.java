@@ -18,6 +18,7 @@ import com.todoroo.astrid.api.Filter;
 import com.todoroo.astrid.api.FilterWithCustomIntent;
 import com.todoroo.astrid.api.FilterWithUpdate;
 import com.todoroo.astrid.data.Task;
+import com.todoroo.astrid.gtasks.GtasksMetadata;
 
 import org.tasks.R;
 
@@ -102,6 +103,7 @@ public class ShortcutActivity extends Activity {
             String title = extras.getString(TOKEN_FILTER_TITLE);
             String sql = extras.getString(TOKEN_FILTER_SQL);
             sql = sql.replace("tasks.userId=0", "1"); // TODO: replace dirty hack for missing column
+            sql = GtasksMetadata.upgradeLegacySql(sql);
             ContentValues values;
             if(extras.containsKey(TOKEN_FILTER_VALUES)) {
                 values = AndroidUtilities.contentValuesFromString(extras.getString(TOKEN_FILTER_VALUES));
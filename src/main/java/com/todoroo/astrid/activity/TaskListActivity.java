@@ -34,6 +34,7 @@ import com.todoroo.astrid.core.CustomFilterActivity;
 import com.todoroo.astrid.core.DeleteFilterActivity;
 import com.todoroo.astrid.core.SavedFilter;
 import com.todoroo.astrid.dao.TagDataDao;
+import com.todoroo.astrid.dao.TaskSearch;
 import com.todoroo.astrid.data.RemoteModel;
 import com.todoroo.astrid.data.StoreObject;
 import com.todoroo.astrid.data.TagData;
@@ -156,9 +157,7 @@ public class TaskListActivity extends AstridActivity implements OnPageChangeList
                 query = query.trim();
                 String title = getString(R.string.FLA_search_filter, query);
                 Filter savedFilter = new Filter(title, title,
-                        new QueryTemplate().where(Task.TITLE.like(
-                                "%" + //$NON-NLS-1$
-                                        query + "%")), //$NON-NLS-1$
+                        new QueryTemplate().where(TaskSearch.matches(query)),
                         null);
                 onFilterItemClicked(savedFilter);
                 MenuItemCompat.collapseActionView(item);
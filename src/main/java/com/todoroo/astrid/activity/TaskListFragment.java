@@ -13,12 +13,13 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.res.Resources;
-import android.database.Cursor;
+import android.database.DataSetObserver;
 import android.database.sqlite.SQLiteException;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.support.v4.widget.SwipeRefreshLayout;
 import android.text.TextUtils;
+import android.util.DisplayMetrics;
 import android.view.ContextMenu;
 import android.view.ContextMenu.ContextMenuInfo;
 import android.view.KeyEvent;
@@ -37,14 +38,13 @@ import android.widget.ListView;
 import com.faizmalkani.floatingactionbutton.FloatingActionButton;
 import com.todoroo.andlib.data.Property;
 import com.todoroo.andlib.data.TodorooCursor;
-import com.todoroo.andlib.sql.Criterion;
-import com.todoroo.andlib.sql.Field;
-import com.todoroo.andlib.sql.Join;
+import com.todoroo.andlib.sql.SqlClauses;
 import com.todoroo.andlib.utility.AndroidUtilities;
 import com.todoroo.astrid.activity.SortSelectionActivity.OnSortSelectedListener;
 import com.todoroo.astrid.adapter.TaskAdapter;
 import com.todoroo.astrid.adapter.TaskAdapter.OnCompletedTaskListener;
 import com.todoroo.astrid.adapter.TaskAdapter.ViewHolder;
+import com.todoroo.astrid.adapter.TaskRows;
 import com.todoroo.astrid.api.AstridApiConstants;
 import com.todoroo.astrid.api.Filter;
 import com.todoroo.astrid.api.FilterWithCustomIntent;
@@ -52,11 +52,9 @@ import com.todoroo.astrid.core.BuiltInFilterExposer;
 import com.todoroo.astrid.core.SortHelper;
 import com.todoroo.astrid.dao.TaskAttachmentDao;
 import com.todoroo.astrid.dao.TaskListMetadataDao;
-import com.todoroo.astrid.data.Metadata;
 import com.todoroo.astrid.data.RemoteModel;
 import com.todoroo.astrid.data.TagData;
 import com.todoroo.astrid.data.Task;
-import com.todoroo.astrid.data.TaskAttachment;
 import com.todoroo.astrid.data.TaskListMetadata;
 import com.todoroo.astrid.gtasks.GtasksPreferenceService;
 import com.todoroo.astrid.helper.SyncActionHelper;
@@ -67,7 +65,6 @@ import com.todoroo.astrid.service.TaskService;
 import com.todoroo.astrid.subtasks.SubtasksHelper;
 import com.todoroo.astrid.subtasks.SubtasksListFragment;
 import com.todoroo.astrid.subtasks.SubtasksUpdater;
-import com.todoroo.astrid.tags.TaskToTagMetadata;
 import com.todoroo.astrid.timers.TimerPlugin;
 import com.todoroo.astrid.ui.QuickAddBar;
 import com.todoroo.astrid.utility.Flags;
@@ -81,14 +78,19 @@ import org.tasks.injection.InjectingListFragment;
 import org.tasks.injection.Injector;
 import org.tasks.notifications.NotificationManager;
 import org.tasks.preferences.ActivityPreferences;
+import org.tasks.scheduling.RefreshScheduler;
 import org.tasks.ui.NavigationDrawerFragment;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import javax.inject.Inject;
 
+import static org.tasks.date.DateTimeUtils.currentTimeMillis;
 import static org.tasks.intents.NewTaskIntent.getNewTaskIntent;
 
 /**
@@ -107,7 +109,6 @@ public class TaskListFragment extends InjectingListFragment implements OnSortSel
     // --- activities
 
     public static final long AUTOSYNC_INTERVAL = 90000L;
-    private static final long BACKGROUND_REFRESH_INTERVAL = 120000L;
     private static final long WAIT_BEFORE_AUTOSYNC = 2000L;
     public static final int ACTIVITY_EDIT_TASK = 0;
     public static final int ACTIVITY_REQUEST_NEW_FILTER = 5;
@@ -126,6 +127,16 @@ public class TaskListFragment extends InjectingListFragment implements OnSortSel
 
     private static final String TOKEN_EXTRAS = "extras"; //$NON-NLS-1$
 
+    /** Runs task list queries one at a time, off the main thread */
+    private static final ExecutorService loadExecutor = new ThreadPoolExecutor(0, 1, 1, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>());
+
+    /** Rows read per query when the list is paged, see {@link com.todoroo.andlib.data.PagedCursor} */
+    private static final int PAGE_SIZE = 100;
+
+    /** Rows formatted with the query beyond those that fit on screen, see {@link TaskRows} */
+    private static final int ROW_MARGIN = 10;
+
     // --- instance variables
 
     @Inject TaskService taskService;
@@ -139,6 +150,7 @@ public class TaskListFragment extends InjectingListFragment implements OnSortSel
     @Inject TaskAttachmentDao taskAttachmentDao;
     @Inject Injector injector;
     @Inject GtasksPreferenceService gtasksPreferenceService;
+    @Inject RefreshScheduler refreshScheduler;
 
     protected Resources resources;
     protected TaskAdapter taskAdapter = null;
@@ -150,12 +162,40 @@ public class TaskListFragment extends InjectingListFragment implements OnSortSel
     protected int sortSort;
     protected QuickAddBar quickAddBar = new QuickAddBar();
 
-    private Timer backgroundTimer;
+    /** next instant the list can change by itself, see {@link RefreshScheduler} */
+    private volatile long nextRefresh;
     protected Bundle extras;
     protected boolean isInbox;
     protected boolean isTodayFilter;
     protected TaskListMetadata taskListMetadata;
 
+    /** incremented by every load, a load is dropped once it is no longer the latest */
+    private final AtomicInteger loadGeneration = new AtomicInteger();
+    private boolean recreateAdapter = false;
+    private long selectAfterLoad = Task.NO_ID;
+
+    /** paged cursor whose next pages may hold {@link #selectAfterLoad} */
+    private TodorooCursor<Task> selectCursor;
+
+    private final DataSetObserver selectOnNextPage = new DataSetObserver() {
+        @Override
+        public void onChanged() {
+            View view = getView();
+            if (view == null) {
+                return;
+            }
+            // after the adapter has seen the new rows
+            view.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (selectCursor != null && selectAfterLoad != Task.NO_ID) {
+                        selectLoaded(selectCursor);
+                    }
+                }
+            });
+        }
+    };
+
     // --- fragment handling variables
     protected OnTaskListItemClickedListener mListener;
     private boolean mDualFragments = false;
@@ -463,30 +503,6 @@ public class TaskListFragment extends InjectingListFragment implements OnSortSel
                 R.anim.slide_left_in, R.anim.slide_left_out);
     }
 
-    private void setUpBackgroundJobs() {
-        backgroundTimer = new Timer();
-
-        // start a thread to refresh periodically
-        backgroundTimer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                // refresh if conditions match
-                Flags.checkAndClear(Flags.REFRESH);
-                getActivity().runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        try {
-                            refresh();
-                        } catch (IllegalStateException e) {
-                            // view may have been destroyed
-                            log.error(e.getMessage(), e);
-                        }
-                    }
-                });
-            }
-        }, BACKGROUND_REFRESH_INTERVAL, BACKGROUND_REFRESH_INTERVAL);
-    }
-
     /*
      * ======================================================================
      * ============================================================ lifecycle
@@ -499,12 +515,11 @@ public class TaskListFragment extends InjectingListFragment implements OnSortSel
 
         getActivity().registerReceiver(refreshReceiver, new IntentFilter(AstridApiConstants.BROADCAST_EVENT_REFRESH));
 
-        if (Flags.checkAndClear(Flags.REFRESH)) {
+        // refresh broadcasts are not received while paused
+        if (Flags.checkAndClear(Flags.REFRESH) || (nextRefresh > 0 && currentTimeMillis() >= nextRefresh)) {
             refresh();
         }
 
-        setUpBackgroundJobs();
-
         refreshFilterCount();
 
         initiateAutomaticSync();
@@ -558,8 +573,6 @@ public class TaskListFragment extends InjectingListFragment implements OnSortSel
         super.onPause();
 
         AndroidUtilities.tryUnregisterReceiver(getActivity(), refreshReceiver);
-
-        backgroundTimer.cancel();
     }
 
     /**
@@ -597,7 +610,14 @@ public class TaskListFragment extends InjectingListFragment implements OnSortSel
         }
         TaskEditFragment taskEditFragment = ((AstridActivity) getActivity()).getTaskEditFragment();
         Task model = taskEditFragment == null ? null : taskEditFragment.model;
-        taskDeleter.deleteTasksWithEmptyTitles(model == null ? null : model.getId());
+        final Long editedTaskId = model == null ? null : model.getId();
+        // queued ahead of the load, so the query no longer sees these tasks
+        loadExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                taskDeleter.deleteTasksWithEmptyTitles(editedTaskId);
+            }
+        });
         loadTaskListContent();
         setSyncOngoing(false);
     }
@@ -609,7 +629,8 @@ public class TaskListFragment extends InjectingListFragment implements OnSortSel
      */
 
     /**
-     * Load or re-load action items and update views
+     * Load or re-load action items and update views. The items are loaded in
+     * the background, see {@link #loadInBackground()}
      */
     public void loadTaskListContent() {
         if (taskAdapter == null) {
@@ -617,19 +638,129 @@ public class TaskListFragment extends InjectingListFragment implements OnSortSel
             return;
         }
 
-        Cursor taskCursor = taskAdapter.getCursor();
+        loadInBackground();
+    }
 
-        taskCursor.requery();
-        taskAdapter.flushCaches();
-        taskAdapter.notifyDataSetChanged();
+    /**
+     * Build and run the task list query on a background thread, then show the
+     * result on the main thread. A newer load cancels this one: it is skipped
+     * if it has not started yet and its cursor is closed instead of shown if
+     * it has.
+     */
+    private void loadInBackground() {
+        if (filter == null) {
+            return;
+        }
+        final int generation = loadGeneration.incrementAndGet();
+        TagData tagData = getActiveTagData();
+        final String activeTag = tagData == null ? null : tagData.getName();
+        final String filterQuery = filter.getSqlQuery();
+        final int flags = sortFlags;
+        final int sort = sortSort;
+        final Property<?>[] properties = taskProperties();
+        // lists sorted by hand move rows by position and need all of them
+        final boolean paged = !isDraggable();
+        // rows on screen and a margin are formatted along with the query
+        final int firstRow = getView() == null ? 0 : Math.max(0, getListView().getFirstVisiblePosition());
+        DisplayMetrics metrics = resources.getDisplayMetrics();
+        final int shownRows = (int) (metrics.heightPixels / (40 * metrics.density)) + ROW_MARGIN;
+
+        loadExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != loadGeneration.get()) {
+                    return;
+                }
+                final String query = buildQuery(filterQuery, flags, sort);
+                final TodorooCursor<Task> cursor;
+                final TaskRows rows;
+                try {
+                    if (paged) {
+                        cursor = taskService.fetchPaged(query, PAGE_SIZE, properties);
+                    } else {
+                        cursor = taskService.fetchFiltered(query, null, properties);
+                    }
+                    // fill the cursor window here instead of on the main thread
+                    cursor.getCount();
+                    nextRefresh = refreshScheduler.nextRefresh();
+                    rows = new TaskRows(context, cursor, activeTag);
+                    rows.load(firstRow, firstRow + shownRows);
+                } catch (SQLiteException e) {
+                    // We don't show this error anymore--seems like this can get triggered
+                    // by a strange bug, but there seems to not be any negative side effect.
+                    // For now, we'll suppress the error
+                    // See http://astrid.com/home#tags-7tsoi/task-1119pk
+                    log.error(e.getMessage(), e);
+                    return;
+                }
+                Activity activity = getActivity();
+                if (activity == null || generation != loadGeneration.get()) {
+                    cursor.close();
+                    return;
+                }
+                activity.runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        onLoadFinished(generation, query, cursor, rows);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onLoadFinished(int generation, String query, TodorooCursor<Task> cursor, TaskRows rows) {
+        if (generation != loadGeneration.get() || getView() == null) {
+            cursor.close();
+            return;
+        }
 
-        if (getView() != null) { // This was happening sometimes
+        sqlQueryTemplate.set(query);
+        if (taskAdapter == null || recreateAdapter) {
+            recreateAdapter = false;
+            if (taskAdapter != null) {
+                taskAdapter.changeCursor(null);
+            }
+            taskAdapter = createTaskAdapter(cursor);
+            taskAdapter.setRows(rows);
+            setListAdapter(taskAdapter);
+        } else {
             int oldListItemSelected = getListView().getSelectedItemPosition();
+            taskAdapter.setRows(rows);
+            taskAdapter.changeCursor(cursor);
+            taskAdapter.flushCaches();
+            taskAdapter.notifyDataSetChanged();
             if (oldListItemSelected != ListView.INVALID_POSITION
-                    && oldListItemSelected < taskCursor.getCount()) {
+                    && oldListItemSelected < cursor.getCount()) {
                 getListView().setSelection(oldListItemSelected);
             }
         }
+
+        stopWaitingForPages();
+        if (selectAfterLoad != Task.NO_ID) {
+            selectLoaded(cursor);
+        }
+    }
+
+    /**
+     * Select the task waiting for the list to load. Keeps waiting only while
+     * a paged list is still reading rows, so later reloads do not jump to it
+     */
+    private void selectLoaded(TodorooCursor<Task> cursor) {
+        stopWaitingForPages();
+        long taskId = selectAfterLoad;
+        selectAfterLoad = Task.NO_ID;
+        if (!select(cursor, taskId) && !cursor.isComplete()) {
+            selectAfterLoad = taskId;
+            selectCursor = cursor;
+            cursor.registerDataSetObserver(selectOnNextPage);
+        }
+    }
+
+    private void stopWaitingForPages() {
+        if (selectCursor != null) {
+            selectCursor.unregisterDataSetObserver(selectOnNextPage);
+            selectCursor = null;
+        }
     }
 
     protected TaskAdapter createTaskAdapter(TodorooCursor<Task> cursor) {
@@ -642,31 +773,19 @@ public class TaskListFragment extends InjectingListFragment implements OnSortSel
                 });
     }
 
-    public static final String TAGS_METADATA_JOIN = "for_tags"; //$NON-NLS-1$
-
-    public  static final String FILE_METADATA_JOIN = "for_actions"; //$NON-NLS-1$
-
-
     /**
-     * Fill in the Task List with current items
+     * Fill in the Task List with current items. The list adapter is created
+     * once the items have been loaded
      */
     public void setUpTaskList() {
         if (filter == null) {
             return;
         }
 
-        TodorooCursor<Task> currentCursor = constructCursor();
-        if (currentCursor == null) {
-            return;
-        }
-
-        // set up list adapters
-        taskAdapter = createTaskAdapter(currentCursor);
-
-        setListAdapter(taskAdapter);
+        recreateAdapter = true;
         registerForContextMenu(getListView());
 
-        loadTaskListContent();
+        loadInBackground();
     }
 
     public Property<?>[] taskProperties() {
@@ -677,62 +796,29 @@ public class TaskListFragment extends InjectingListFragment implements OnSortSel
         return filter;
     }
 
-    private TodorooCursor<Task> constructCursor() {
-        String tagName = null;
-        if (getActiveTagData() != null) {
-            tagName = getActiveTagData().getName();
-        }
-
-        Criterion tagsJoinCriterion = Criterion.and(
-                Field.field(TAGS_METADATA_JOIN + "." + Metadata.KEY.name).eq(TaskToTagMetadata.KEY), //$NON-NLS-1$
-                Field.field(TAGS_METADATA_JOIN + "." + Metadata.DELETION_DATE.name).eq(0),
-                Task.ID.eq(Field.field(TAGS_METADATA_JOIN + "." + Metadata.TASK.name)));
-        if (tagName != null) {
-            tagsJoinCriterion = Criterion.and(tagsJoinCriterion, Field.field(TAGS_METADATA_JOIN + "." + TaskToTagMetadata.TAG_NAME.name).neq(tagName));
-        }
-
-        // TODO: For now, we'll modify the query to join and include the things like tag data here.
-        // Eventually, we might consider restructuring things so that this query is constructed elsewhere.
-        String joinedQuery =
-                Join.left(Metadata.TABLE.as(TAGS_METADATA_JOIN),
-                        tagsJoinCriterion).toString() //$NON-NLS-1$
-                + Join.left(TaskAttachment.TABLE.as(FILE_METADATA_JOIN), Task.UUID.eq(Field.field(FILE_METADATA_JOIN + "." + TaskAttachment.TASK_UUID.name)))
-                + filter.getSqlQuery();
-
-        sqlQueryTemplate.set(SortHelper.adjustQueryForFlagsAndSort(
-                joinedQuery, sortFlags, sortSort));
-
-        String groupedQuery;
-        if (sqlQueryTemplate.get().contains("GROUP BY")) {
-            groupedQuery = sqlQueryTemplate.get();
-        } else if (sqlQueryTemplate.get().contains("ORDER BY")) //$NON-NLS-1$
+    private static String buildQuery(String filterQuery, int sortFlags, int sortSort) {
+        String sortedQuery = SortHelper.adjustQueryForFlagsAndSort(filterQuery, sortFlags, sortSort);
+
+        // tags and attachments are summarized on the task, only joins made
+        // by the filter itself can repeat a task
+        SqlClauses clauses = SqlClauses.parse(sortedQuery);
+        if (clauses != null && (clauses.joins.isEmpty() || clauses.groupBy != null)) {
+            return sortedQuery;
+        } else if (sortedQuery.contains("GROUP BY")) {
+            return sortedQuery;
+        } else if (sortedQuery.contains("ORDER BY")) //$NON-NLS-1$
         {
-            groupedQuery = sqlQueryTemplate.get().replace("ORDER BY", "GROUP BY " + Task.ID + " ORDER BY"); //$NON-NLS-1$
+            return sortedQuery.replace("ORDER BY", "GROUP BY " + Task.ID + " ORDER BY"); //$NON-NLS-1$
         } else {
-            groupedQuery = sqlQueryTemplate.get() + " GROUP BY " + Task.ID;
-        }
-        sqlQueryTemplate.set(groupedQuery);
-
-        // Peform query
-        try {
-            return taskService.fetchFiltered(
-                sqlQueryTemplate.get(), null, taskProperties());
-        } catch (SQLiteException e) {
-            // We don't show this error anymore--seems like this can get triggered
-            // by a strange bug, but there seems to not be any negative side effect.
-            // For now, we'll suppress the error
-            // See http://astrid.com/home#tags-7tsoi/task-1119pk
-            log.error(e.getMessage(), e);
-            return null;
+            return sortedQuery + " GROUP BY " + Task.ID;
         }
     }
 
     public void reconstructCursor() {
-        TodorooCursor<Task> cursor = constructCursor();
-        if (cursor == null || taskAdapter == null) {
+        if (taskAdapter == null) {
             return;
         }
-        taskAdapter.changeCursor(cursor);
+        loadInBackground();
     }
 
     /**
@@ -741,14 +827,27 @@ public class TaskListFragment extends InjectingListFragment implements OnSortSel
      */
     public void selectCustomId(long withCustomId) {
         // if already in the list, select it
-        TodorooCursor<Task> currentCursor = (TodorooCursor<Task>) taskAdapter.getCursor();
-        for (int i = 0; i < currentCursor.getCount(); i++) {
-            currentCursor.moveToPosition(i);
-            if (currentCursor.get(Task.ID) == withCustomId) {
+        TodorooCursor<Task> currentCursor = taskAdapter == null ? null : (TodorooCursor<Task>) taskAdapter.getCursor();
+        if (currentCursor != null && select(currentCursor, withCustomId)) {
+            stopWaitingForPages();
+            selectAfterLoad = Task.NO_ID;
+            return;
+        }
+        // may be part of the list that is being loaded
+        selectAfterLoad = withCustomId;
+    }
+
+    /**
+     * @return true if the task is among the rows read so far and was selected
+     */
+    private boolean select(TodorooCursor<Task> cursor, long taskId) {
+        for (int i = 0; i < cursor.getCount(); i++) {
+            if (cursor.moveToPosition(i) && cursor.get(Task.ID) == taskId) {
                 getListView().setSelection(i);
-                return;
+                return true;
             }
         }
+        return false;
     }
 
     /*
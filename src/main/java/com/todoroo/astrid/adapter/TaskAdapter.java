@@ -26,29 +26,27 @@ import android.view.ViewGroup.LayoutParams;
 import android.view.animation.Animation;
 import android.view.animation.ScaleAnimation;
 import android.widget.CursorAdapter;
+import android.widget.Filter;
 import android.widget.Filterable;
 import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.todoroo.andlib.data.Property;
 import com.todoroo.andlib.data.Property.IntegerProperty;
-import com.todoroo.andlib.data.Property.LongProperty;
-import com.todoroo.andlib.data.Property.StringProperty;
 import com.todoroo.andlib.data.TodorooCursor;
+import com.todoroo.andlib.utility.AndroidUtilities;
 import com.todoroo.andlib.utility.DateUtilities;
 import com.todoroo.andlib.utility.Pair;
 import com.todoroo.astrid.activity.TaskListFragment;
 import com.todoroo.astrid.api.TaskAction;
-import com.todoroo.astrid.core.LinkActionExposer;
 import com.todoroo.astrid.dao.TaskAttachmentDao;
 import com.todoroo.astrid.data.RemoteModel;
+import com.todoroo.astrid.data.TagData;
 import com.todoroo.astrid.data.Task;
-import com.todoroo.astrid.data.TaskAttachment;
 import com.todoroo.astrid.files.FilesAction;
 import com.todoroo.astrid.files.FilesControlSet;
 import com.todoroo.astrid.notes.NotesAction;
 import com.todoroo.astrid.service.TaskService;
-import com.todoroo.astrid.tags.TaskToTagMetadata;
 import com.todoroo.astrid.ui.CheckableImageView;
 
 import org.slf4j.Logger;
@@ -56,13 +54,11 @@ import org.slf4j.LoggerFactory;
 import org.tasks.R;
 import org.tasks.preferences.ActivityPreferences;
 
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static com.todoroo.andlib.utility.AndroidUtilities.atLeastGingerbread;
-import static org.tasks.date.DateTimeUtils.newDate;
 
 /**
  * Adapter for displaying a user's tasks as a list
@@ -78,9 +74,7 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
         public void onCompletedTask(Task item, boolean newState);
     }
 
-    private static final StringProperty TAGS = new StringProperty(null, "group_concat(nullif(" + TaskListFragment.TAGS_METADATA_JOIN + "." + TaskToTagMetadata.TAG_NAME.name + ", '')"+ ", '  |  ')").as("tags");
-    private static final LongProperty FILE_ID_PROPERTY = TaskAttachment.ID.cloneAs(TaskListFragment.FILE_METADATA_JOIN, "fileId");
-    private static final IntegerProperty HAS_NOTES_PROPERTY = new IntegerProperty(null, "length(" + Task.NOTES + ") > 0").as("hasNotes");
+    static final IntegerProperty HAS_NOTES_PROPERTY = new IntegerProperty(null, "length(" + Task.NOTES + ") > 0").as("hasNotes");
 
     // --- other constants
 
@@ -100,8 +94,8 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
         Task.RECURRENCE,
         Task.REMINDER_LAST,
         HAS_NOTES_PROPERTY, // Whether or not the task has notes
-        TAGS, // Concatenated list of tags
-        FILE_ID_PROPERTY // File id
+        Task.TAG_NAMES,
+        Task.HAS_ATTACHMENTS
     };
 
     public static final int[] IMPORTANCE_RESOURCES = new int[] {
@@ -169,7 +163,8 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
 
     protected final int minRowHeight;
 
-    private final Map<Long, TaskAction> taskActionLoader = Collections.synchronizedMap(new HashMap<Long, TaskAction>());
+    /** formatted rows of the current cursor */
+    private TaskRows rows;
 
     public TaskAdapter(Context context, ActivityPreferences preferences, TaskAttachmentDao taskAttachmentDao, TaskService taskService, TaskListFragment fragment,
             Cursor c, AtomicReference<String> query, OnCompletedTaskListener onCompletedTaskListener) {
@@ -227,12 +222,31 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
      * =========================================================== filterable
      * ====================================================================== */
 
+    /** wait for typing to pause before searching */
+    private static final long SEARCH_DELAY = 250;
+
+    /** counts filter requests, the list asks for the filter on each keystroke */
+    private final AtomicInteger filterRequests = new AtomicInteger();
+
+    @Override
+    public Filter getFilter() {
+        filterRequests.incrementAndGet();
+        return super.getFilter();
+    }
+
     @Override
     public Cursor runQueryOnBackgroundThread(CharSequence constraint) {
         if (getFilterQueryProvider() != null) {
             return getFilterQueryProvider().runQuery(constraint);
         }
 
+        int request = filterRequests.get();
+        AndroidUtilities.sleepDeep(SEARCH_DELAY);
+        if (request != filterRequests.get()) {
+            // still typing, keep the current cursor until the last request
+            return null;
+        }
+
         return taskService.fetchFiltered(query.get(), constraint, fragment.taskProperties());
     }
 
@@ -287,17 +301,32 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
         TodorooCursor<Task> cursor = (TodorooCursor<Task>)c;
         ViewHolder viewHolder = ((ViewHolder)view.getTag());
 
-        viewHolder.tagsString = cursor.get(TAGS);
-        viewHolder.hasFiles = cursor.get(FILE_ID_PROPERTY) > 0;
-        viewHolder.hasNotes = cursor.get(HAS_NOTES_PROPERTY) > 0;
-
-        // TODO: see if this is a performance issue
-        viewHolder.task = new Task(cursor);
+        if (rows == null || !rows.isFor(cursor)) {
+            setRows(new TaskRows(context, cursor, getActiveTagName()));
+        }
+        TaskRow row = rows.current();
+        viewHolder.row = row;
+        viewHolder.task = row.task;
 
         setFieldContentsAndVisibility(view);
         setTaskAppearance(viewHolder, viewHolder.task);
     }
 
+    /**
+     * Use rows formatted ahead for the cursor they were read from
+     */
+    public void setRows(TaskRows rows) {
+        this.rows = rows;
+    }
+
+    /**
+     * @return name of the tag whose list is shown, left out of the tags of each row
+     */
+    public String getActiveTagName() {
+        TagData tagData = fragment.getActiveTagData();
+        return tagData == null ? null : tagData.getName();
+    }
+
     public String getItemUuid(int position) {
         TodorooCursor<Task> c = (TodorooCursor<Task>) getCursor();
         if (c != null) {
@@ -328,15 +357,13 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
         public TextView details1, details2;
         public View taskActionContainer;
         public ImageView taskActionIcon;
-        public String tagsString; // From join query, not part of the task model
-        public boolean hasFiles; // From join query, not part of the task model
-        public boolean hasNotes;
+        TaskRow row;
     }
 
     /** Helper method to set the contents and visibility of each field */
     public synchronized void setFieldContentsAndVisibility(View view) {
         ViewHolder viewHolder = (ViewHolder)view.getTag();
-        Task task = viewHolder.task;
+        TaskRow row = rows.refresh(viewHolder.row);
         if (fontSize < 16) {
             viewHolder.rowBody.setMinimumHeight(0);
             viewHolder.completeBox.setMinimumHeight(0);
@@ -347,21 +374,9 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
 
         viewHolder.view.setBackgroundColor(resources.getColor(android.R.color.transparent));
 
-        // name
-        final TextView nameView = viewHolder.nameView; {
-            String nameValue = task.getTitle();
-
-            long hiddenUntil = task.getHideUntil();
-            if(task.getDeletionDate() > 0) {
-                nameValue = resources.getString(R.string.TAd_deletedFormat, nameValue);
-            }
-            if(hiddenUntil > DateUtilities.now()) {
-                nameValue = resources.getString(R.string.TAd_hiddenFormat, nameValue);
-            }
-            nameView.setText(nameValue);
-        }
+        viewHolder.nameView.setText(row.title);
 
-        setupDueDateAndTags(viewHolder, task);
+        setupDueDateAndTags(viewHolder, row);
 
         if(viewHolder.details1 != null) {
             viewHolder.details1.setVisibility(View.GONE);
@@ -371,7 +386,7 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
         // Task action
         ImageView taskAction = viewHolder.taskActionIcon;
         if (taskAction != null) {
-            TaskAction action = getTaskAction(task, viewHolder.hasFiles, viewHolder.hasNotes);
+            TaskAction action = row.action;
             if (action != null) {
                 taskAction.setVisibility(View.VISIBLE);
                 taskAction.setImageDrawable(action.icon);
@@ -383,19 +398,6 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
         }
     }
 
-    private TaskAction getTaskAction(Task task, boolean hasFiles, boolean hasNotes) {
-        if (task.isCompleted()) {
-            return null;
-        }
-        if (taskActionLoader.containsKey(task.getId())) {
-            return taskActionLoader.get(task.getId());
-        } else {
-            TaskAction action = LinkActionExposer.getActionsForTask(context, task, hasFiles, hasNotes);
-            taskActionLoader.put(task.getId(), action);
-            return action;
-        }
-    }
-
     public void onClick(View v) {
         // expand view (unless deleted)
         final ViewHolder viewHolder = (ViewHolder)v.getTag();
@@ -500,24 +502,6 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
      * ============================================================== details
      * ====================================================================== */
 
-    private final HashMap<Long, String> dateCache = new HashMap<>(8);
-
-    private String formatDate(long date) {
-        if(dateCache.containsKey(date)) {
-            return dateCache.get(date);
-        }
-
-        String formatString = "%s %s";
-        String string = DateUtilities.getRelativeDay(fragment.getActivity(), date);
-        if(Task.hasDueTime(date)) {
-            string = String.format(formatString, string, //$NON-NLS-1$
-                    DateUtilities.getTimeString(fragment.getActivity(), newDate(date)));
-        }
-
-        dateCache.put(date, string);
-        return string;
-    }
-
     /* ======================================================================
      * ============================================================== add-ons
      * ====================================================================== */
@@ -581,15 +565,18 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
             return;
         }
         // show item as completed if it was recently checked
-        Boolean value = completedItems.get(task.getUuid());
-        if (value == null) {
-            value = completedItems.get(task.getId());
-        }
-        if(value != null) {
-            task.setCompletionDate(
-                    value ? DateUtilities.now() : 0);
+        if (!completedItems.isEmpty()) {
+            Boolean value = completedItems.get(task.getUuid());
+            if (value == null) {
+                value = completedItems.get(task.getId());
+            }
+            if(value != null && value != task.isCompleted()) {
+                task.setCompletionDate(
+                        value ? DateUtilities.now() : 0);
+            }
         }
-        boolean state = task.isCompleted();
+        TaskRow row = rows.refresh(viewHolder.row);
+        boolean state = row.completed;
 
         TextView name = viewHolder.nameView;
         if(state) {
@@ -601,7 +588,7 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
         }
         name.setTextSize(fontSize);
 
-        setupDueDateAndTags(viewHolder, task);
+        setupDueDateAndTags(viewHolder, row);
 
         float detailTextSize = Math.max(10, fontSize * 14 / 20);
         if(viewHolder.details1 != null) {
@@ -620,71 +607,55 @@ public class TaskAdapter extends CursorAdapter implements Filterable {
         }
         paint.setTextSize(detailTextSize);
 
-        setupCompleteBox(viewHolder);
+        setupCompleteBox(viewHolder, row);
 
     }
 
-    private void setupCompleteBox(ViewHolder viewHolder) {
+    private void setupCompleteBox(ViewHolder viewHolder, TaskRow row) {
      // complete box
-        final Task task = viewHolder.task;
         final CheckableImageView checkBoxView = viewHolder.completeBox; {
-            boolean completed = task.isCompleted();
+            boolean completed = row.completed;
             checkBoxView.setChecked(completed);
             checkBoxView.setEnabled(true);
 
-            int value = task.getImportance();
-            if (value >= IMPORTANCE_RESOURCES.length) {
-                value = IMPORTANCE_RESOURCES.length - 1;
-            }
             Drawable[] boxes;
-            if (!TextUtils.isEmpty(task.getRecurrence())) {
+            if (row.repeating) {
                 boxes = completed ? IMPORTANCE_REPEAT_DRAWABLES_CHECKED : IMPORTANCE_REPEAT_DRAWABLES;
             } else {
                 boxes = completed ? IMPORTANCE_DRAWABLES_CHECKED : IMPORTANCE_DRAWABLES;
             }
-            checkBoxView.setImageDrawable(boxes[value]);
+            checkBoxView.setImageDrawable(boxes[row.importance]);
 
             checkBoxView.setVisibility(View.VISIBLE);
         }
     }
 
-    // Returns due date text width
-    private void setupDueDateAndTags(ViewHolder viewHolder, Task task) {
+    private void setupDueDateAndTags(ViewHolder viewHolder, TaskRow row) {
         // due date / completion date
         final TextView dueDateView = viewHolder.dueDate; {
             Activity activity = fragment.getActivity();
             if (activity != null) {
-                if(!task.isCompleted() && task.hasDueDate()) {
-                    long dueDate = task.getDueDate();
-                    if(task.isOverdue()) {
+                switch (row.dateStyle) {
+                    case TaskRow.DATE_OVERDUE:
                         dueDateView.setTextAppearance(activity, R.style.TextAppearance_TAd_ItemDueDate_Overdue);
-                    } else {
+                        break;
+                    case TaskRow.DATE_DUE:
                         dueDateView.setTextAppearance(activity, R.style.TextAppearance_TAd_ItemDueDate);
-                    }
-                    String dateValue = formatDate(dueDate);
-                    dueDateView.setText(dateValue);
-                    dueDateView.setVisibility(View.VISIBLE);
-                } else if(task.isCompleted()) {
-                    String dateValue = formatDate(task.getCompletionDate());
-                    dueDateView.setText(resources.getString(R.string.TAd_completed, dateValue));
-                    dueDateView.setTextAppearance(activity, R.style.TextAppearance_TAd_ItemDueDate_Completed);
+                        break;
+                    case TaskRow.DATE_COMPLETED:
+                        dueDateView.setTextAppearance(activity, R.style.TextAppearance_TAd_ItemDueDate_Completed);
+                        break;
+                }
+                if (row.dateStyle != TaskRow.DATE_NONE) {
+                    dueDateView.setText(row.dateText);
                     dueDateView.setVisibility(View.VISIBLE);
                 } else {
                     dueDateView.setVisibility(View.GONE);
                 }
 
                 if (viewHolder.tagsView != null) {
-                    String tags = viewHolder.tagsString;
-                    if (tags != null && task.hasDueDate()) {
-                        tags = "  |  " + tags; //$NON-NLS-1$
-                    }
-                    if (!task.isCompleted()) {
-                        viewHolder.tagsView.setText(tags);
-                        viewHolder.tagsView.setVisibility(TextUtils.isEmpty(tags) ? View.GONE : View.VISIBLE);
-                    } else {
-                        viewHolder.tagsView.setText(""); //$NON-NLS-1$
-                        viewHolder.tagsView.setVisibility(View.GONE);
-                    }
+                    viewHolder.tagsView.setText(row.tagText);
+                    viewHolder.tagsView.setVisibility(TextUtils.isEmpty(row.tagText) ? View.GONE : View.VISIBLE);
                 }
             }
         }
@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.adapter;
+
+import com.todoroo.astrid.api.TaskAction;
+import com.todoroo.astrid.data.Task;
+
+/**
+ * What a row of the task list shows, formatted ahead of binding so the
+ * adapter only copies it into the views. See {@link TaskRows}
+ */
+final class TaskRow {
+
+    static final int DATE_NONE = 0;
+    static final int DATE_DUE = 1;
+    static final int DATE_OVERDUE = 2;
+    static final int DATE_COMPLETED = 3;
+
+    final Task task;
+    /** tag names without the tag being viewed */
+    final String tagNames;
+    final boolean hasFiles;
+    final boolean hasNotes;
+
+    // --- formatted by TaskRows
+
+    String title;
+    String dateText;
+    int dateStyle;
+    String tagText;
+    TaskAction action;
+    /** index into the importance drawables */
+    int importance;
+    boolean repeating;
+    boolean completed;
+
+    // --- task values the row was formatted from
+
+    private String formattedTitle;
+    private String formattedRecurrence;
+    private long formattedDueDate;
+    private long formattedCompletionDate;
+    private long formattedDeletionDate;
+    private long formattedHideUntil;
+    private int formattedImportance;
+
+    TaskRow(Task task, String tagNames, boolean hasFiles, boolean hasNotes) {
+        this.task = task;
+        this.tagNames = tagNames;
+        this.hasFiles = hasFiles;
+        this.hasNotes = hasNotes;
+    }
+
+    void formattedFrom(Task task) {
+        formattedTitle = task.getTitle();
+        formattedRecurrence = task.getRecurrence();
+        formattedDueDate = task.getDueDate();
+        formattedCompletionDate = task.getCompletionDate();
+        formattedDeletionDate = task.getDeletionDate();
+        formattedHideUntil = task.getHideUntil();
+        formattedImportance = task.getImportance();
+    }
+
+    /**
+     * @return false if the task was changed in place after formatting,
+     *         e.g. completed from the list
+     */
+    boolean isCurrent() {
+        return formattedDueDate == task.getDueDate() &&
+                formattedCompletionDate == task.getCompletionDate() &&
+                formattedDeletionDate == task.getDeletionDate() &&
+                formattedHideUntil == task.getHideUntil() &&
+                formattedImportance == task.getImportance() &&
+                equal(formattedTitle, task.getTitle()) &&
+                equal(formattedRecurrence, task.getRecurrence());
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
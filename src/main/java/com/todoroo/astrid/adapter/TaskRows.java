@@ -0,0 +1,301 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.adapter;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.text.TextUtils;
+import android.util.SparseArray;
+
+import com.todoroo.andlib.data.TodorooCursor;
+import com.todoroo.andlib.utility.DateUtilities;
+import com.todoroo.astrid.core.LinkActionExposer;
+import com.todoroo.astrid.dao.TaskSummaries;
+import com.todoroo.astrid.data.Task;
+
+import org.tasks.R;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static org.tasks.date.DateTimeUtils.currentTimeMillis;
+import static org.tasks.date.DateTimeUtils.newDate;
+
+/**
+ * The formatted rows of one task list cursor, by position. The first rows
+ * are formatted where the cursor is loaded, see {@link #load(int, int)}, and
+ * binding a row formats the next ones in the background, so the adapter
+ * rarely formats on the main thread. A row is read once, binding a row that
+ * was formatted ahead allocates nothing.
+ *
+ * The count of a paged cursor grows as its pages arrive, so rows are kept
+ * by position rather than in an array sized from the first page.
+ */
+public class TaskRows {
+
+    /** rows formatted ahead of the last row bound */
+    private static final int PREFETCH_MARGIN = 20;
+
+    /** Formats rows one batch at a time, off the main thread */
+    private static final ExecutorService formatExecutor = new ThreadPoolExecutor(0, 1, 1, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>());
+
+    /** shared by all lists, so refreshing a list does not format its dates again */
+    private static final DateTexts dateTexts = new DateTexts();
+
+    private final Context context;
+    private final TodorooCursor<Task> cursor;
+    private final String activeTag;
+    /** formatted rows by position, guarded by itself */
+    private final SparseArray<TaskRow> rows = new SparseArray<>();
+
+    /** rows read on the main thread waiting to be formatted, guarded by rows */
+    private final SparseArray<TaskRow> pending = new SparseArray<>();
+
+    /** whether {@link #formatPending} was handed to the executor, guarded by rows */
+    private boolean formatting;
+
+    /** rows before this position were formatted or handed to the executor */
+    private int requested;
+
+    private final Runnable formatPending = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                int position;
+                TaskRow row;
+                synchronized (rows) {
+                    if (pending.size() == 0) {
+                        formatting = false;
+                        return;
+                    }
+                    position = pending.keyAt(0);
+                    row = pending.valueAt(0);
+                    pending.removeAt(0);
+                }
+                format(row);
+                synchronized (rows) {
+                    if (rows.get(position) == null) {
+                        rows.put(position, row);
+                    }
+                }
+            }
+        }
+    };
+
+    /**
+     * @param activeTag name of the tag whose list is shown, left out of the
+     *                  tags of every row, or null
+     */
+    public TaskRows(Context context, TodorooCursor<Task> cursor, String activeTag) {
+        this.context = context.getApplicationContext();
+        this.cursor = cursor;
+        this.activeTag = activeTag;
+    }
+
+    public boolean isFor(Cursor cursor) {
+        return this.cursor == cursor;
+    }
+
+    /**
+     * Read and format rows from the cursor. Runs on the thread using the
+     * cursor, typically before it is handed to the adapter
+     */
+    public void load(int from, int to) {
+        int end = Math.min(to, cursor.getCount());
+        int position = cursor.getPosition();
+        for (int i = from; i < end; i++) {
+            if (get(i) == null && cursor.moveToPosition(i) && !cursor.isPlaceholder()) {
+                put(i, format(read(cursor)));
+            }
+        }
+        cursor.moveToPosition(position);
+        requested = Math.max(requested, end);
+    }
+
+    /**
+     * @return the row at the cursor's current position, formatted now if
+     *         it was not formatted ahead
+     */
+    TaskRow current() {
+        if (cursor.isPlaceholder()) {
+            // the row is bound again when its page arrives
+            return format(read(cursor));
+        }
+        int position = cursor.getPosition();
+        TaskRow row = get(position);
+        if (row == null) {
+            row = format(read(cursor));
+            put(position, row);
+        } else if (!row.isCurrent()) {
+            format(row);
+        }
+        prefetch(position);
+        return row;
+    }
+
+    /**
+     * Format the row again if its task was changed in place
+     */
+    TaskRow refresh(TaskRow row) {
+        if (!row.isCurrent()) {
+            format(row);
+        }
+        return row;
+    }
+
+    /**
+     * Read the rows following position that were not requested yet, and
+     * format them in the background. Reading is cheap, formatting resolves
+     * links and dates
+     */
+    private void prefetch(int position) {
+        int end = Math.min(position + PREFETCH_MARGIN, cursor.getCount());
+        if (requested >= Math.min(position + PREFETCH_MARGIN / 2, end)) {
+            return;
+        }
+        int from = Math.max(requested, position + 1);
+        if (from >= end) {
+            return;
+        }
+        boolean execute;
+        synchronized (rows) {
+            for (int i = from; i < end; i++) {
+                if (rows.get(i) == null && pending.get(i) == null && cursor.moveToPosition(i)
+                        && !cursor.isPlaceholder()) {
+                    pending.put(i, read(cursor));
+                }
+            }
+            execute = !formatting && pending.size() > 0;
+            formatting |= execute;
+        }
+        cursor.moveToPosition(position);
+        requested = end;
+
+        if (execute) {
+            formatExecutor.execute(formatPending);
+        }
+    }
+
+    private TaskRow get(int position) {
+        synchronized (rows) {
+            return rows.get(position);
+        }
+    }
+
+    private void put(int position, TaskRow row) {
+        synchronized (rows) {
+            rows.put(position, row);
+        }
+    }
+
+    private TaskRow read(TodorooCursor<Task> cursor) {
+        return new TaskRow(new Task(cursor), withoutTag(cursor.get(Task.TAG_NAMES), activeTag),
+                cursor.get(Task.HAS_ATTACHMENTS) > 0, cursor.get(TaskAdapter.HAS_NOTES_PROPERTY) > 0);
+    }
+
+    private TaskRow format(TaskRow row) {
+        Task task = row.task;
+        row.formattedFrom(task);
+
+        String title = task.getTitle();
+        if (task.getDeletionDate() > 0) {
+            title = context.getString(R.string.TAd_deletedFormat, title);
+        }
+        if (task.getHideUntil() > DateUtilities.now()) {
+            title = context.getString(R.string.TAd_hiddenFormat, title);
+        }
+        row.title = title;
+
+        boolean completed = task.isCompleted();
+        if (!completed && task.hasDueDate()) {
+            row.dateStyle = task.isOverdue() ? TaskRow.DATE_OVERDUE : TaskRow.DATE_DUE;
+            row.dateText = dateTexts.format(context, task.getDueDate());
+        } else if (completed) {
+            row.dateStyle = TaskRow.DATE_COMPLETED;
+            row.dateText = context.getString(R.string.TAd_completed,
+                    dateTexts.format(context, task.getCompletionDate()));
+        } else {
+            row.dateStyle = TaskRow.DATE_NONE;
+            row.dateText = null;
+        }
+
+        String tags = row.tagNames;
+        if (tags != null && task.hasDueDate()) {
+            tags = TaskSummaries.TAG_SEPARATOR + tags;
+        }
+        row.tagText = completed ? null : tags;
+
+        row.action = completed ? null : LinkActionExposer.getActionsForTask(context, task, row.hasFiles, row.hasNotes);
+
+        row.importance = Math.min(task.getImportance(), TaskAdapter.IMPORTANCE_RESOURCES.length - 1);
+        row.repeating = !TextUtils.isEmpty(task.getRecurrence());
+        row.completed = completed;
+        return row;
+    }
+
+    /**
+     * @return tag names without the given tag, null if none remain
+     */
+    static String withoutTag(String tagNames, String tag) {
+        if (tagNames == null || tag == null) {
+            return tagNames;
+        }
+        StringBuilder tags = new StringBuilder();
+        for (String name : tagNames.split(Pattern.quote(TaskSummaries.TAG_SEPARATOR))) {
+            if (!name.equals(tag)) {
+                if (tags.length() > 0) {
+                    tags.append(TaskSummaries.TAG_SEPARATOR);
+                }
+                tags.append(name);
+            }
+        }
+        return tags.length() == 0 ? null : tags.toString();
+    }
+
+    /**
+     * Formatted dates. Relative days change at midnight, so the texts are
+     * kept until the end of the day they were formatted on
+     */
+    private static final class DateTexts {
+
+        private final HashMap<Long, String> texts = new HashMap<>();
+        private long startOfDay;
+        private long endOfDay;
+        private Locale locale;
+        private boolean is24HourFormat;
+
+        synchronized String format(Context context, long date) {
+            long now = currentTimeMillis();
+            boolean is24 = DateUtilities.is24HourFormat(context);
+            if (now < startOfDay || now >= endOfDay ||
+                    !Locale.getDefault().equals(locale) || is24 != is24HourFormat) {
+                texts.clear();
+                startOfDay = DateUtilities.getStartOfDay(now);
+                // days are 23 or 25 hours long when daylight saving time changes
+                endOfDay = DateUtilities.getStartOfDay(startOfDay + DateUtilities.ONE_DAY + DateUtilities.ONE_HOUR * 2);
+                locale = Locale.getDefault();
+                is24HourFormat = is24;
+            }
+
+            String text = texts.get(date);
+            if (text == null) {
+                text = DateUtilities.getRelativeDay(context, date);
+                if (Task.hasDueTime(date)) {
+                    text = String.format("%s %s", text, //$NON-NLS-1$
+                            DateUtilities.getTimeString(context, newDate(date)));
+                }
+                texts.put(date, text);
+            }
+            return text;
+        }
+    }
+}
@@ -203,12 +203,12 @@ public class TasksXmlExporter {
             int length = cursor.getCount();
             for(int i = 0; i < length; i++) {
                 cursor.moveToNext();
-                Task task = new Task(cursor);
+                Task task = cursor.asModel();
 
                 setProgress(i, length);
 
                 xml.startTag(null, BackupConstants.TASK_TAG);
-                serializeModel(task, Task.PROPERTIES, Task.ID);
+                serializeModel(task, Task.PROPERTIES, Task.ID, Task.TAG_NAMES, Task.HAS_ATTACHMENTS);
                 serializeMetadata(task);
                 xml.endTag(null, BackupConstants.TASK_TAG);
                 this.exportCount++;
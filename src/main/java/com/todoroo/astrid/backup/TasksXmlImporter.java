@@ -26,9 +26,11 @@ import com.todoroo.andlib.utility.DialogUtilities;
 import com.todoroo.astrid.api.AstridApiConstants;
 import com.todoroo.astrid.dao.MetadataDao;
 import com.todoroo.astrid.dao.TagDataDao;
+import com.todoroo.astrid.dao.TaskSummaries;
 import com.todoroo.astrid.data.Metadata;
 import com.todoroo.astrid.data.TagData;
 import com.todoroo.astrid.data.Task;
+import com.todoroo.astrid.gtasks.GtasksMetadata;
 import com.todoroo.astrid.service.TaskService;
 import com.todoroo.astrid.tags.TaskToTagMetadata;
 
@@ -256,6 +258,8 @@ public class TasksXmlImporter {
 
             // else, make a new task model and add away.
             deserializeModel(currentTask, Task.PROPERTIES);
+            // derived from the metadata and attachments, not from the backup
+            TaskSummaries.clear(currentTask);
 
             if(existingTask > 0) {
                 currentTask.setId(existingTask);
@@ -274,6 +278,7 @@ public class TasksXmlImporter {
             }
             metadata.clear();
             deserializeModel(metadata, Metadata.PROPERTIES);
+            GtasksMetadata.upgradeLegacyValues(metadata);
             metadata.setId(Metadata.NO_ID);
             metadata.setTask(currentTask.getId());
             metadataDao.persist(metadata);
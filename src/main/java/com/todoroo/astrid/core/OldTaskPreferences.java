@@ -95,6 +95,15 @@ public class OldTaskPreferences extends TodorooPreferenceActivity {
             }
         });
 
+        preference = screen.findPreference(getString(R.string.EPr_manage_rebuild_search));
+        preference.setOnPreferenceClickListener(new OnPreferenceClickListener() {
+            @Override
+            public boolean onPreferenceClick(Preference p) {
+                rebuildSearchIndex();
+                return true;
+            }
+        });
+
         preference= screen.findPreference(getString(R.string.EPr_manage_clear_all));
         preference.setOnPreferenceClickListener(new OnPreferenceClickListener() {
             @Override
@@ -122,6 +131,18 @@ public class OldTaskPreferences extends TodorooPreferenceActivity {
                 null);
     }
 
+    /** Index every task again, e.g. if the search index got out of sync */
+    private void rebuildSearchIndex() {
+        pd = DialogUtilities.runWithProgressDialog(this, new Runnable() {
+            @Override
+            public void run() {
+                database.rebuildSearchIndex();
+                DialogUtilities.okDialog(OldTaskPreferences.this,
+                        getString(R.string.EPr_manage_rebuild_search_status), null);
+            }
+        });
+    }
+
     /* (non-Javadoc)
      * @see android.app.Activity#onPause()
      */
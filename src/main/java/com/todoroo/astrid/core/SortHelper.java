@@ -92,15 +92,10 @@ public class SortHelper {
             order = Order.asc(Functions.upper(Task.TITLE));
             break;
         case SORT_DUE:
-            order = Order.asc(Functions.caseStatement(Task.DUE_DATE.eq(0),
-                    Functions.now()  + "*2", adjustedDueDateFunction()) + "+" + Task.IMPORTANCE +
-                    "+3*" + Task.COMPLETION_DATE);
+            order = Order.asc(Task.SORT_DUE);
             break;
         case SORT_IMPORTANCE:
-            order = Order.asc(Task.IMPORTANCE + "*" + (2*DateUtilities.now()) + //$NON-NLS-1$
-                    "+" + Functions.caseStatement(Task.DUE_DATE.eq(0), //$NON-NLS-1$
-                            2 * DateUtilities.now(),
-                            Task.DUE_DATE) + "+8*" + Task.COMPLETION_DATE);
+            order = Order.asc(Task.SORT_IMPORTANCE);
             break;
         case SORT_MODIFIED:
             order = Order.desc(Task.MODIFICATION_DATE);
@@ -122,17 +117,55 @@ public class SortHelper {
      * Returns SQL task ordering that is astrid's default algorithm
      */
     public static Order defaultTaskOrder() {
-        return Order.asc(Functions.caseStatement(Task.DUE_DATE.eq(0),
-                Functions.now() + "*2",
-                adjustedDueDateFunction()) + " + " + (2 * DateUtilities.ONE_DAY) + " * " +
-                Task.IMPORTANCE + " + 2*" + Task.COMPLETION_DATE);
+        return Order.asc(Task.SORT_AUTO);
     }
 
     public static Order defaultWidgetTaskOrder() {
-        return Order.asc(Functions.caseStatement(Task.DUE_DATE.eq(0),
-                Functions.now() + "*2",
-                adjustedDueDateFunction()) + " + " + (2 * DateUtilities.ONE_DAY) + " * " +
-                Task.IMPORTANCE);
+        return Order.asc(Task.SORT_WIDGET);
+    }
+
+    /*
+     * The sort orders are stored with each task so that lists can be read
+     * in index order. Where the orders depend on the current time, the keys
+     * use the epoch they were computed for instead, which TaskDao moves
+     * forward every night. Tasks without a due date sort as if they were due
+     * at twice the epoch, i.e. after all tasks with a due date.
+     */
+
+    /**
+     * Set the sort keys of a task
+     */
+    public static void setSortKeys(Task task, long dueDate, int importance, long completionDate, long epoch) {
+        long dueKey = dueDate == 0 ? 2 * epoch : adjustedDueDate(dueDate);
+        task.setValue(Task.SORT_AUTO, dueKey + 2 * DateUtilities.ONE_DAY * importance + 2 * completionDate);
+        task.setValue(Task.SORT_DUE, dueKey + importance + 3 * completionDate);
+        task.setValue(Task.SORT_IMPORTANCE, importance * 2 * epoch +
+                (dueDate == 0 ? 2 * epoch : dueDate) + 8 * completionDate);
+        task.setValue(Task.SORT_WIDGET, dueKey + 2 * DateUtilities.ONE_DAY * importance);
+    }
+
+    /**
+     * @return SQL assignments computing the same keys as
+     *         {@link #setSortKeys(Task, long, int, long, long)}
+     */
+    public static String sortKeyAssignments(long epoch) {
+        String dueKey = Functions.caseStatement(Task.DUE_DATE.eq(0), 2 * epoch, adjustedDueDateFunction());
+        return Task.SORT_AUTO.name + " = " + dueKey + " + " + (2 * DateUtilities.ONE_DAY) + " * " +
+                Task.IMPORTANCE.name + " + 2 * " + Task.COMPLETION_DATE.name + ", " +
+                Task.SORT_DUE.name + " = " + dueKey + " + " + Task.IMPORTANCE.name + " + 3 * " +
+                Task.COMPLETION_DATE.name + ", " +
+                Task.SORT_IMPORTANCE.name + " = " + Task.IMPORTANCE.name + " * " + (2 * epoch) + " + " +
+                Functions.caseStatement(Task.DUE_DATE.eq(0), 2 * epoch, Task.DUE_DATE.name) + " + 8 * " +
+                Task.COMPLETION_DATE.name + ", " +
+                Task.SORT_WIDGET.name + " = " + dueKey + " + " + (2 * DateUtilities.ONE_DAY) + " * " +
+                Task.IMPORTANCE.name;
+    }
+
+    /**
+     * Due dates without a time sort at the end of their day
+     */
+    private static long adjustedDueDate(long dueDate) {
+        return (dueDate / 1000) % 60 > 0 ? dueDate : dueDate + DateUtilities.ONE_HOUR * 11 + DateUtilities.ONE_MINUTE * 59;
     }
 
     private static String adjustedDueDateFunction() {
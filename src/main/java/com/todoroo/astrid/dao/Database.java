@@ -8,30 +8,50 @@ package com.todoroo.astrid.dao;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.CursorWrapper;
 import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteQuery;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.TextUtils;
 
 import com.todoroo.andlib.data.AbstractModel;
 import com.todoroo.andlib.data.Property;
 import com.todoroo.andlib.data.SqlConstructorVisitor;
 import com.todoroo.andlib.data.Table;
+import com.todoroo.andlib.sql.Criterion;
 import com.todoroo.andlib.utility.AndroidUtilities;
+import com.todoroo.andlib.utility.DateUtilities;
+import com.todoroo.astrid.core.SortHelper;
 import com.todoroo.astrid.data.Metadata;
+import com.todoroo.astrid.data.RemoteModel;
 import com.todoroo.astrid.data.StoreObject;
 import com.todoroo.astrid.data.TagData;
 import com.todoroo.astrid.data.Task;
 import com.todoroo.astrid.data.TaskAttachment;
 import com.todoroo.astrid.data.TaskListMetadata;
 import com.todoroo.astrid.data.UserActivity;
+import com.todoroo.astrid.gtasks.sync.GtasksPushQueue;
+import com.todoroo.astrid.subtasks.SubtasksHelper;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.tasks.BuildConfig;
 import org.tasks.injection.ForApplication;
+import org.tasks.preferences.Preferences;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -46,7 +66,7 @@ import javax.inject.Singleton;
 public class Database {
 
     private static final Logger log = LoggerFactory.getLogger(Database.class);
-    private static final int VERSION = 35;
+    private static final int VERSION = 45;
     private static final String NAME = "database";
     private static final Table[] TABLES =  new Table[] {
             Task.TABLE,
@@ -58,14 +78,33 @@ public class Database {
             TaskListMetadata.TABLE,
     };
 
-    private final ArrayList<DatabaseUpdateListener> listeners = new ArrayList<>();
+    /** changes made within this window are published as one event */
+    private static final long PUBLISH_DELAY = 100L;
+    private static final String ID_SELECTION = AbstractModel.ID_PROPERTY.name + "=?";
+
+    private final List<DatabaseUpdateListener> listeners = new ArrayList<>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Object changeLock = new Object();
+
+    /** writes recorded per table, see {@link #getWriteCount(Table)} */
+    private final ConcurrentHashMap<String, AtomicLong> writeCounts = new ConcurrentHashMap<>();
+    private DatabaseChange pendingChange = new DatabaseChange();
+
+    /** transaction run by the current thread, see {@link #runInTransaction} */
+    private final ThreadLocal<Transaction> transactions = new ThreadLocal<>();
+    private boolean publishScheduled = false;
+    private final Context context;
     private final SQLiteOpenHelper helper;
-    private SQLiteDatabase database;
+    private volatile SQLiteDatabase database;
+    private volatile boolean writeAheadLogging = AndroidUtilities.atLeastJellybean();
+    private volatile QueryPlanAuditor queryPlanAuditor = BuildConfig.DEBUG ? new QueryPlanAuditor() : null;
+    private volatile QueryStatistics queryStatistics;
 
     // --- listeners
 
     @Inject
     public Database(@ForApplication Context context) {
+        this.context = context;
         helper = new DatabaseHelper(context, getName(), VERSION);
     }
 
@@ -75,45 +114,285 @@ public class Database {
         return NAME;
     }
 
+    // --- journal mode
+
+    /**
+     * @return true if write-ahead logging was requested. In this mode readers
+     * use their own connections and see a consistent snapshot of the database
+     * while a writer is active.
+     */
+    public boolean isWriteAheadLoggingEnabled() {
+        return writeAheadLogging;
+    }
+
+    /**
+     * Request write-ahead logging or the rollback journal. Write-ahead logging
+     * requires Jelly Bean, older devices always use the rollback journal.
+     * Takes effect the next time the database is opened.
+     */
+    public void setWriteAheadLoggingEnabled(boolean enabled) {
+        writeAheadLogging = enabled && AndroidUtilities.atLeastJellybean();
+    }
+
+    // --- query plans
+
+    /**
+     * Explain each distinct query once and log full table scans. Enabled by
+     * default in debug builds
+     */
+    public void setQueryPlanAuditingEnabled(boolean enabled) {
+        queryPlanAuditor = enabled ? new QueryPlanAuditor() : null;
+    }
+
+    /**
+     * Time queries, inserts, updates and deletes. Pass null to stop, which
+     * leaves a single field read per statement
+     */
+    public void setQueryStatistics(QueryStatistics statistics) {
+        queryStatistics = statistics;
+    }
+
+    /**
+     * @return statistics being collected, or null if disabled
+     */
+    public QueryStatistics getQueryStatistics() {
+        return queryStatistics;
+    }
+
+    /**
+     * @return detail lines of EXPLAIN QUERY PLAN for the given query
+     */
+    public List<String> explainQueryPlan(String sql, Object[] args) {
+        List<String> plan = new ArrayList<>();
+        Cursor cursor = query("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detail));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan;
+    }
+
+    private void configure(SQLiteDatabase db) {
+        if (db.isReadOnly() || !AndroidUtilities.atLeastHoneycomb()) {
+            return;
+        }
+        // queries built with bind arguments share their SQL, keep more of
+        // them compiled
+        db.setMaxSqlCacheSize(SQLiteDatabase.MAX_SQL_CACHE_SIZE);
+        if (!AndroidUtilities.atLeastJellybean()) {
+            return;
+        }
+        if (writeAheadLogging) {
+            if (!db.enableWriteAheadLogging()) {
+                log.info("Write-ahead logging not available, using rollback journal");
+                writeAheadLogging = false;
+            }
+        } else {
+            db.disableWriteAheadLogging();
+        }
+    }
+
     /**
      * Create indices
      */
     private void onCreateTables() {
-        StringBuilder sql = new StringBuilder();
-        sql.append("CREATE INDEX IF NOT EXISTS md_tid ON ").
-        append(Metadata.TABLE).append('(').
-        append(Metadata.TASK.name).
-        append(')');
-        database.execSQL(sql.toString());
-        sql.setLength(0);
+        database.execSQL(TaskListRanks.CREATE_SQL);
+        database.execSQL(GtasksPushQueue.CREATE_SQL);
+
+        createIndex("md_tid", false, Metadata.TABLE, Metadata.TASK);
+        createIndex("md_tkid", false, Metadata.TABLE, Metadata.TASK, Metadata.KEY);
+        createIndex("so_id", false, StoreObject.TABLE, StoreObject.TYPE, StoreObject.ITEM);
+        createIndex("t_rid", true, Task.TABLE, Task.UUID);
+
+        // active and visible tasks, and not deleted tasks
+        createIndex("t_active", false, Task.TABLE, Task.DELETION_DATE, Task.COMPLETION_DATE, Task.HIDE_UNTIL);
+        createIndex("t_due", false, Task.TABLE, Task.DUE_DATE);
+        // list and widget orders, see SortHelper
+        createIndex("t_sort_auto", false, Task.TABLE, Task.SORT_AUTO, Task.TITLE);
+        createIndex("t_sort_due", false, Task.TABLE, Task.SORT_DUE, Task.TITLE);
+        createIndex("t_sort_importance", false, Task.TABLE, Task.SORT_IMPORTANCE, Task.TITLE);
+        createIndex("t_sort_widget", false, Task.TABLE, Task.SORT_WIDGET, Task.TITLE);
+        // metadata looked up by value, e.g. gtasks id, gtasks list and tag uuid
+        createIndex("md_kv1", false, Metadata.TABLE, Metadata.KEY, Metadata.VALUE1);
+        createIndex("md_kv2", false, Metadata.TABLE, Metadata.KEY, Metadata.VALUE2);
+        // tags joined by task uuid
+        createIndex("md_kv3", false, Metadata.TABLE, Metadata.KEY, Metadata.VALUE3);
+        // gtasks lists scanned in order
+        createIndex("md_kv2i3", false, Metadata.TABLE, Metadata.KEY, Metadata.VALUE2, Metadata.INTEGER3);
+        // attachment summaries, see TaskSummaries
+        createIndex("ta_tid", false, TaskAttachment.TABLE, TaskAttachment.TASK_UUID);
+    }
 
-        sql.append("CREATE INDEX IF NOT EXISTS md_tkid ON ").
-        append(Metadata.TABLE).append('(').
-        append(Metadata.TASK.name).append(',').
-        append(Metadata.KEY.name).
-        append(')');
-        database.execSQL(sql.toString());
-        sql.setLength(0);
+    /**
+     * Rank the tasks of every manually ordered list, see {@link TaskListRanks}
+     */
+    private void rankTaskLists() {
+        Cursor cursor = database.query(TaskListMetadata.TABLE.name, new String[] {
+                TaskListMetadata.TAG_UUID.name, TaskListMetadata.FILTER.name, TaskListMetadata.TASK_IDS.name },
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                String list = RemoteModel.isUuidEmpty(cursor.getString(0)) ? cursor.getString(1) : cursor.getString(0);
+                String tree = cursor.getString(2);
+                if (!TextUtils.isEmpty(list) && !TextUtils.isEmpty(tree)) {
+                    TaskListRanks.write(database, list, tree);
+                }
+            }
+        } catch (SQLiteException e) {
+            log.error(e.getMessage(), e);
+        } finally {
+            cursor.close();
+        }
+    }
 
-        sql.append("CREATE INDEX IF NOT EXISTS so_id ON ").
-        append(StoreObject.TABLE).append('(').
-        append(StoreObject.TYPE.name).append(',').
-        append(StoreObject.ITEM.name).
-        append(')');
-        database.execSQL(sql.toString());
-        sql.setLength(0);
+    /**
+     * Rank the tasks of tags ordered before lists had metadata by their
+     * legacy tree of local ids, so that queries only read ranks
+     */
+    private void rankLegacyTagOrderings() {
+        Cursor cursor = database.rawQuery("SELECT " + TagData.UUID.name + ", " + TagData.TAG_ORDERING.name + //$NON-NLS-1$ //$NON-NLS-2$
+                " FROM " + TagData.TABLE.name + " WHERE " + TagData.TAG_ORDERING.name + " NOT IN ('', '[]')" + //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                " AND " + TagData.UUID.name + " NOT IN (SELECT " + TaskListMetadata.TAG_UUID.name + //$NON-NLS-1$ //$NON-NLS-2$
+                " FROM " + TaskListMetadata.TABLE.name + " WHERE " + TaskListMetadata.TAG_UUID.name + " IS NOT NULL)", null); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        try {
+            while (cursor.moveToNext()) {
+                String list = cursor.getString(0);
+                String localTree = cursor.getString(1);
+                if (!RemoteModel.isUuidEmpty(list)) {
+                    TaskListRanks.write(database, list,
+                            SubtasksHelper.convertTreeToRemoteIds(localTree, uuidsByLocalId(localTree)));
+                }
+            }
+        } catch (SQLiteException e) {
+            log.error(e.getMessage(), e);
+        } finally {
+            cursor.close();
+        }
+    }
 
-        sql.append("CREATE UNIQUE INDEX IF NOT EXISTS t_rid ON ").
-        append(Task.TABLE).append('(').
-        append(Task.UUID.name).
-        append(')');
+    private HashMap<Long, String> uuidsByLocalId(String localTree) {
+        StringBuilder ids = new StringBuilder();
+        for (String id : SubtasksHelper.getStringIdArray(localTree)) {
+            try {
+                long localId = Long.parseLong(id);
+                ids.append(ids.length() > 0 ? "," : "").append(localId); //$NON-NLS-1$ //$NON-NLS-2$
+            } catch (NumberFormatException e) {
+                log.error(e.getMessage(), e);
+            }
+        }
+        HashMap<Long, String> uuids = new HashMap<>();
+        Cursor cursor = database.rawQuery("SELECT " + Task.ID.name + ", " + Task.UUID.name + //$NON-NLS-1$ //$NON-NLS-2$
+                " FROM " + Task.TABLE.name + " WHERE " + Task.ID.name + " IN (" + ids + ")", null); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+        try {
+            while (cursor.moveToNext()) {
+                uuids.put(cursor.getLong(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return uuids;
+    }
+
+    /**
+     * Compute the sort keys of all tasks, which were added with a default of
+     * 0, and start the epoch TaskDao computes keys for from now
+     */
+    private void initializeSortKeys() {
+        long epoch = DateUtilities.now();
+        new Preferences(context).setLong(TaskDao.PREF_SORT_KEY_EPOCH, epoch);
+        tryExecSQL("UPDATE " + Task.TABLE.name + " SET " + SortHelper.sortKeyAssignments(epoch)); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    /**
+     * Create the full text index and its triggers, see {@link TaskSearch}
+     */
+    private void createSearchIndex() {
+        for (String sql : TaskSearch.CREATE_SQL) {
+            tryExecSQL(sql);
+        }
+    }
+
+    /**
+     * Index the title and notes of every task again
+     */
+    public void rebuildSearchIndex() {
+        final SQLiteDatabase db = getDatabase();
+        runInTransaction(new Runnable() {
+            @Override
+            public void run() {
+                for (String sql : TaskSearch.REBUILD_SQL) {
+                    db.execSQL(sql);
+                }
+            }
+        });
+    }
+
+    private void createIndex(String name, boolean unique, Table table, Property<?>... columns) {
+        StringBuilder sql = new StringBuilder();
+        sql.append(unique ? "CREATE UNIQUE INDEX IF NOT EXISTS " : "CREATE INDEX IF NOT EXISTS ").
+        append(name).append(" ON ").
+        append(table).append('(');
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(',');
+            }
+            sql.append(columns[i].name);
+        }
+        sql.append(')');
         database.execSQL(sql.toString());
-        sql.setLength(0);
     }
 
     private boolean onUpgrade(int oldVersion, int newVersion) {
         SqlConstructorVisitor visitor = new SqlConstructorVisitor();
         switch(oldVersion) {
+        case 35:
+        case 36:
+            tryAddColumn(Task.TABLE, Task.SORT_AUTO, "0");
+            tryAddColumn(Task.TABLE, Task.SORT_DUE, "0");
+            tryAddColumn(Task.TABLE, Task.SORT_IMPORTANCE, "0");
+            tryAddColumn(Task.TABLE, Task.SORT_WIDGET, "0");
+            initializeSortKeys();
+        case 37:
+            tryAddColumn(Task.TABLE, Task.TAG_NAMES, null);
+            tryAddColumn(Task.TABLE, Task.HAS_ATTACHMENTS, "0");
+            tryExecSQL(TaskSummaries.updateTagNamesSql(Criterion.all));
+            tryExecSQL(TaskSummaries.updateHasAttachmentsSql(Criterion.all));
+        case 38:
+            createSearchIndex();
+            for (String sql : TaskSearch.REBUILD_SQL) {
+                tryExecSQL(sql);
+            }
+        case 39:
+        case 40:
+            // ranks are rebuilt from the serialized trees, with parents
+            tryExecSQL(TaskListRanks.DROP_SQL);
+            tryExecSQL(TaskListRanks.CREATE_SQL);
+            rankTaskLists();
+            rankLegacyTagOrderings();
+        case 41:
+            // gtasks parent, indent and order move to integer columns
+            tryAddColumn(Metadata.TABLE, Metadata.INTEGER1, null);
+            tryAddColumn(Metadata.TABLE, Metadata.INTEGER2, null);
+            tryAddColumn(Metadata.TABLE, Metadata.INTEGER3, null);
+            tryExecSQL("UPDATE " + Metadata.TABLE.name + " SET " + //$NON-NLS-1$ //$NON-NLS-2$
+                    Metadata.INTEGER1.name + " = CAST(" + Metadata.VALUE3.name + " AS INTEGER), " + //$NON-NLS-1$ //$NON-NLS-2$
+                    Metadata.INTEGER2.name + " = CAST(" + Metadata.VALUE4.name + " AS INTEGER), " + //$NON-NLS-1$ //$NON-NLS-2$
+                    Metadata.INTEGER3.name + " = CAST(" + Metadata.VALUE5.name + " AS INTEGER), " + //$NON-NLS-1$ //$NON-NLS-2$
+                    Metadata.VALUE3.name + " = NULL, " + Metadata.VALUE4.name + " = NULL, " + //$NON-NLS-1$ //$NON-NLS-2$
+                    Metadata.VALUE5.name + " = NULL WHERE " + Metadata.KEY.name + " = 'gtasks'"); //$NON-NLS-1$ //$NON-NLS-2$
+        case 42:
+        case 43:
+            onCreateTables();
+            // ignored if the push queue was just created with them
+            tryExecSQL(GtasksPushQueue.ADD_ATTEMPTS_SQL);
+        case 44:
+            tryExecSQL(GtasksPushQueue.ADD_NOT_BEFORE_SQL);
+
+            return true;
         }
 
         return false;
@@ -169,14 +448,107 @@ public class Database {
         return sql.toString();
     }
 
-    public void addListener(DatabaseUpdateListener listener) {
+    public synchronized void addListener(DatabaseUpdateListener listener) {
         listeners.add(listener);
     }
 
-    private void onDatabaseUpdated() {
-        for(DatabaseUpdateListener listener : listeners) {
-            listener.onDatabaseUpdated();
+    public synchronized void removeListener(DatabaseUpdateListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Record a change. Changes made in a transaction are kept with it until
+     * the outermost transaction commits, and dropped if it rolls back.
+     * Changes made outside of transactions are collected for
+     * {@link #PUBLISH_DELAY}. Either way they are then published to
+     * listeners on the main thread as one event. Called by insert, update
+     * and delete, and by writers that bypass them
+     *
+     * @param id id of the modified row, or 0 if not known
+     * @param columns modified columns, or null if not known
+     */
+    public void onDatabaseUpdated(String table, long id, Collection<String> columns) {
+        writeCount(table).incrementAndGet();
+        Transaction transaction = transactions.get();
+        if (transaction != null) {
+            transaction.change.add(table, id, columns);
+            return;
         }
+        synchronized (changeLock) {
+            pendingChange.add(table, id, columns);
+        }
+        schedulePublish(PUBLISH_DELAY);
+    }
+
+    /**
+     * @return number of changes recorded for the table so far. Counted when
+     *         they are made, not when they are published, so a cache of the
+     *         table can tell right away whether it was written since it was
+     *         read. Changes rolled back later are counted as well
+     */
+    public long getWriteCount(Table table) {
+        return writeCount(table.name).get();
+    }
+
+    private AtomicLong writeCount(String table) {
+        AtomicLong count = writeCounts.get(table);
+        if (count == null) {
+            AtomicLong created = new AtomicLong();
+            count = writeCounts.putIfAbsent(table, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        return count;
+    }
+
+    private void schedulePublish(long delay) {
+        synchronized (changeLock) {
+            if (publishScheduled || pendingChange.isEmpty()) {
+                return;
+            }
+            publishScheduled = true;
+        }
+        handler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                publishChanges();
+            }
+        }, delay);
+    }
+
+    private void publishChanges() {
+        DatabaseChange change;
+        synchronized (changeLock) {
+            change = pendingChange;
+            pendingChange = new DatabaseChange();
+            publishScheduled = false;
+        }
+        if (change.isEmpty()) {
+            return;
+        }
+        List<DatabaseUpdateListener> receivers;
+        synchronized (this) {
+            receivers = new ArrayList<>(listeners);
+        }
+        for(DatabaseUpdateListener listener : receivers) {
+            try {
+                listener.onDatabaseUpdated(change);
+            } catch (Exception e) {
+                log.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    private static long idFromSelection(String whereClause, String[] whereArgs) {
+        if (ID_SELECTION.equals(whereClause) && whereArgs != null && whereArgs.length == 1) {
+            try {
+                return Long.parseLong(whereArgs[0]);
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        return 0;
     }
 
     /**
@@ -201,7 +573,9 @@ public class Database {
         }
 
         try {
-            database = helper.getWritableDatabase();
+            SQLiteDatabase db = helper.getWritableDatabase();
+            configure(db);
+            database = db;
         } catch (NullPointerException e) {
             log.error(e.getMessage(), e);
             throw new IllegalStateException(e);
@@ -239,14 +613,22 @@ public class Database {
     }
 
     /**
-     * @return sql database. opens database if not yet open
+     * @return sql database. opens database if not yet open. Does not block
+     * on this object's monitor once the database is open, so readers are not
+     * held up by writers synchronizing on the database
      */
-    public synchronized final SQLiteDatabase getDatabase() {
-        if(database == null) {
-            AndroidUtilities.sleepDeep(300L);
-            openForWriting();
+    public final SQLiteDatabase getDatabase() {
+        SQLiteDatabase db = database;
+        if (db != null) {
+            return db;
+        }
+        synchronized (this) {
+            if(database == null) {
+                AndroidUtilities.sleepDeep(300L);
+                openForWriting();
+            }
+            return database;
         }
-        return database;
     }
 
     /**
@@ -257,13 +639,99 @@ public class Database {
         return "DB:" + getName();
     }
 
+    // --- transactions
+
+    /**
+     * Runs the given operation inside a single database transaction. Listeners
+     * are notified once after the outermost transaction has committed instead
+     * of once per modified row, and not at all if it was rolled back.
+     * Transactions may be nested.
+     */
+    public void runInTransaction(Runnable runnable) {
+        SQLiteDatabase db = getDatabase();
+        Transaction transaction = transactions.get();
+        if (transaction == null) {
+            transaction = new Transaction();
+            transactions.set(transaction);
+        }
+        transaction.depth++;
+        boolean successful = false;
+        db.beginTransaction();
+        try {
+            try {
+                runnable.run();
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            successful = true;
+        } finally {
+            // a nested transaction that fails rolls back the outermost one
+            transaction.failed |= !successful;
+            if (--transaction.depth == 0) {
+                transactions.remove();
+                if (!transaction.failed) {
+                    synchronized (changeLock) {
+                        pendingChange.addAll(transaction.change);
+                    }
+                    schedulePublish(0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Changes of a transaction, published when it commits
+     */
+    private static final class Transaction {
+        private final DatabaseChange change = new DatabaseChange();
+        private int depth;
+        private boolean failed;
+    }
+
+    /**
+     * Compile a statement for repeated execution. Caller is responsible for
+     * closing the statement.
+     */
+    public SQLiteStatement compileStatement(String sql) {
+        return getDatabase().compileStatement(sql);
+    }
+
     // --- database wrapper
 
     public Cursor rawQuery(String sql) {
-        return getDatabase().rawQuery(sql, null);
+        return rawQuery(sql, null);
+    }
+
+    /**
+     * Run a query with '?' placeholders. Arguments keep their type when
+     * bound, unlike the string selection arguments of
+     * {@link SQLiteDatabase#rawQuery(String, String[])}
+     */
+    public Cursor rawQuery(String sql, Object[] args) {
+        QueryPlanAuditor auditor = queryPlanAuditor;
+        if (auditor != null) {
+            auditor.audit(this, sql, args);
+        }
+        QueryStatistics statistics = queryStatistics;
+        if (statistics == null) {
+            return query(sql, args);
+        }
+        long start = System.nanoTime();
+        Cursor cursor = query(sql, args);
+        return new StatisticsCursor(cursor, statistics, sql, System.nanoTime() - start);
+    }
+
+    private Cursor query(String sql, Object[] args) {
+        if (args == null || args.length == 0) {
+            return getDatabase().rawQuery(sql, null);
+        }
+        return getDatabase().rawQueryWithFactory(new BindingCursorFactory(args), sql, null, null);
     }
 
     public long insert(String table, String nullColumnHack, ContentValues values) {
+        QueryStatistics statistics = queryStatistics;
+        long start = statistics == null ? 0 : System.nanoTime();
         long result;
         try {
             result = getDatabase().insertOrThrow(table, nullColumnHack, values);
@@ -273,24 +741,159 @@ public class Database {
             log.error(e.getMessage(), e);
             result = -1;
         }
-        onDatabaseUpdated();
+        if (statistics != null) {
+            statistics.record("INSERT INTO " + table, System.nanoTime() - start, result >= 0 ? 1 : 0);
+        }
+        if (result >= 0) {
+            onDatabaseUpdated(table, result, values.keySet());
+        }
         return result;
     }
 
     public int delete(String table, String whereClause, String[] whereArgs) {
+        QueryStatistics statistics = queryStatistics;
+        long start = statistics == null ? 0 : System.nanoTime();
         int result = getDatabase().delete(table, whereClause, whereArgs);
-        onDatabaseUpdated();
+        if (statistics != null) {
+            statistics.record("DELETE FROM " + table + " WHERE " + whereClause, System.nanoTime() - start, result);
+        }
+        if (result > 0) {
+            onDatabaseUpdated(table, idFromSelection(whereClause, whereArgs), null);
+        }
         return result;
     }
 
     public int update(String  table, ContentValues  values, String whereClause) {
-        int result = getDatabase().update(table, values, whereClause, null);
-        onDatabaseUpdated();
+        return update(table, values, whereClause, null);
+    }
+
+    public int update(String table, ContentValues values, String whereClause, String[] whereArgs) {
+        QueryStatistics statistics = queryStatistics;
+        long start = statistics == null ? 0 : System.nanoTime();
+        int result = getDatabase().update(table, values, whereClause, whereArgs);
+        if (statistics != null) {
+            statistics.record("UPDATE " + table + " WHERE " + whereClause, System.nanoTime() - start, result);
+        }
+        if (result > 0) {
+            onDatabaseUpdated(table, idFromSelection(whereClause, whereArgs), values.keySet());
+        }
         return result;
     }
 
     // --- helper classes
 
+    /**
+     * Binds typed arguments to a query before the cursor is created
+     */
+    private static class BindingCursorFactory implements SQLiteDatabase.CursorFactory {
+
+        private final Object[] args;
+
+        public BindingCursorFactory(Object[] args) {
+            this.args = args;
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery,
+                String editTable, SQLiteQuery query) {
+            for (int i = 0; i < args.length; i++) {
+                Object arg = args[i];
+                if (arg == null) {
+                    query.bindNull(i + 1);
+                } else if (arg instanceof Long || arg instanceof Integer) {
+                    query.bindLong(i + 1, ((Number) arg).longValue());
+                } else if (arg instanceof Double || arg instanceof Float) {
+                    query.bindDouble(i + 1, ((Number) arg).doubleValue());
+                } else {
+                    query.bindString(i + 1, arg.toString());
+                }
+            }
+            return new SQLiteCursor(db, masterQuery, editTable, query);
+        }
+    }
+
+    /**
+     * SQLite runs a query when the cursor window is first filled. Records the
+     * query at that point, on whichever thread first reads the cursor, instead
+     * of forcing the fill when the query is created
+     */
+    private static class StatisticsCursor extends CursorWrapper {
+
+        private final QueryStatistics statistics;
+        private final String sql;
+        private final long prepareNanos;
+        private boolean recorded;
+
+        public StatisticsCursor(Cursor cursor, QueryStatistics statistics, String sql, long prepareNanos) {
+            super(cursor);
+            this.statistics = statistics;
+            this.sql = sql;
+            this.prepareNanos = prepareNanos;
+        }
+
+        private void fill() {
+            if (!recorded) {
+                recorded = true;
+                long start = System.nanoTime();
+                int rows = super.getCount();
+                statistics.record(sql, prepareNanos + System.nanoTime() - start, rows);
+            }
+        }
+
+        @Override
+        public int getCount() {
+            fill();
+            return super.getCount();
+        }
+
+        @Override
+        public boolean move(int offset) {
+            fill();
+            return super.move(offset);
+        }
+
+        @Override
+        public boolean moveToPosition(int position) {
+            fill();
+            return super.moveToPosition(position);
+        }
+
+        @Override
+        public boolean moveToFirst() {
+            fill();
+            return super.moveToFirst();
+        }
+
+        @Override
+        public boolean moveToLast() {
+            fill();
+            return super.moveToLast();
+        }
+
+        @Override
+        public boolean moveToNext() {
+            fill();
+            return super.moveToNext();
+        }
+
+        @Override
+        public boolean moveToPrevious() {
+            fill();
+            return super.moveToPrevious();
+        }
+
+        @Override
+        public void close() {
+            if (!recorded) {
+                // never read, only the query preparation was paid for
+                recorded = true;
+                statistics.record(sql, prepareNanos, 0);
+            }
+            super.close();
+        }
+    }
+
     /**
      * Default implementation of Astrid database helper
      */
@@ -325,6 +928,7 @@ public class Database {
 
             // post-table-creation
             database = db;
+            createSearchIndex();
             onCreateTables();
         }
 
@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.dao;
+
+import com.todoroo.andlib.data.Table;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Changes made to the database within one transaction or one publishing
+ * window, grouped by table.
+ */
+public class DatabaseChange {
+
+    private final Map<String, TableChange> tables = new HashMap<>();
+
+    /**
+     * Record a change
+     *
+     * @param id id of the modified row, or 0 if the rows are not known
+     * @param columns modified columns, or null if not known
+     */
+    void add(String table, long id, Collection<String> columns) {
+        TableChange change = tables.get(table);
+        if (change == null) {
+            change = new TableChange();
+            tables.put(table, change);
+        }
+        if (id > 0) {
+            change.ids.add(id);
+        } else {
+            change.allRows = true;
+        }
+        if (columns != null) {
+            change.columns.addAll(columns);
+        }
+    }
+
+    /**
+     * Record all changes of another change
+     */
+    void addAll(DatabaseChange other) {
+        for (Map.Entry<String, TableChange> entry : other.tables.entrySet()) {
+            TableChange theirs = entry.getValue();
+            TableChange change = tables.get(entry.getKey());
+            if (change == null) {
+                change = new TableChange();
+                tables.put(entry.getKey(), change);
+            }
+            change.ids.addAll(theirs.ids);
+            change.columns.addAll(theirs.columns);
+            change.allRows |= theirs.allRows;
+        }
+    }
+
+    public boolean isEmpty() {
+        return tables.isEmpty();
+    }
+
+    /**
+     * @return names of the modified tables
+     */
+    public Set<String> getTables() {
+        return Collections.unmodifiableSet(tables.keySet());
+    }
+
+    public boolean affects(Table table) {
+        return tables.containsKey(table.name);
+    }
+
+    /**
+     * @return true if rows of this table were changed without knowing which
+     */
+    public boolean affectsAllRows(Table table) {
+        TableChange change = tables.get(table.name);
+        return change != null && change.allRows;
+    }
+
+    /**
+     * @return ids of the rows known to be modified in this table
+     */
+    public Set<Long> getIds(Table table) {
+        TableChange change = tables.get(table.name);
+        return change == null ? Collections.<Long>emptySet() : Collections.unmodifiableSet(change.ids);
+    }
+
+    /**
+     * @return columns written in this table. Deletes add no columns
+     */
+    public Set<String> getColumns(Table table) {
+        TableChange change = tables.get(table.name);
+        return change == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(change.columns);
+    }
+
+    @Override
+    public String toString() {
+        return "DatabaseChange" + tables;
+    }
+
+    private static class TableChange {
+        private final Set<Long> ids = new HashSet<>();
+        private final Set<String> columns = new HashSet<>();
+        private boolean allRows = false;
+
+        @Override
+        public String toString() {
+            return "{ids=" + (allRows ? "*" : ids) + ", columns=" + columns + "}";
+        }
+    }
+}
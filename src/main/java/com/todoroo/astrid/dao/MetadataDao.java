@@ -14,14 +14,20 @@ import com.todoroo.andlib.sql.Query;
 import com.todoroo.andlib.utility.DateUtilities;
 import com.todoroo.astrid.data.Metadata;
 import com.todoroo.astrid.data.Task;
+import com.todoroo.astrid.tags.TaskToTagMetadata;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
 /**
- * Data Access layer for {@link Metadata}-related operations.
+ * Data Access layer for {@link Metadata}-related operations. Writes to tag
+ * links refresh {@link Task#TAG_NAMES} of the tasks involved.
  *
  * @author Tim Su <tim@todoroo.com>
  *
@@ -29,10 +35,12 @@ import javax.inject.Singleton;
 @Singleton
 public class MetadataDao {
 
+    private final Database database;
     private final DatabaseDao<Metadata> dao;
 
     @Inject
 	public MetadataDao(Database database) {
+        this.database = database;
         dao = new DatabaseDao<>(database, Metadata.class);
     }
 
@@ -49,11 +57,17 @@ public class MetadataDao {
     }
 
     public int update(Criterion where, Metadata template) {
-        return dao.update(where, template);
+        List<Long> tagged = taggedTasks(where);
+        int result = dao.update(where, template);
+        updateTagNames(tagged);
+        return result;
     }
 
     public void createNew(Metadata metadata) {
         dao.createNew(metadata);
+        if (isTagLink(metadata)) {
+            updateTagNames(metadata.getTask());
+        }
     }
 
     public List<Metadata> toList(Query where) {
@@ -61,15 +75,26 @@ public class MetadataDao {
     }
 
     public int deleteWhere(Criterion criterion) {
-        return dao.deleteWhere(criterion);
+        List<Long> tagged = taggedTasks(criterion);
+        int result = dao.deleteWhere(criterion);
+        updateTagNames(tagged);
+        return result;
     }
 
     public boolean delete(long id) {
-        return dao.delete(id);
+        Metadata metadata = dao.fetch(id, Metadata.KEY, Metadata.TASK);
+        boolean result = dao.delete(id);
+        if (result && isTagLink(metadata)) {
+            updateTagNames(metadata.getTask());
+        }
+        return result;
     }
 
     public void saveExisting(Metadata metadata) {
         dao.saveExisting(metadata);
+        if (isTagLink(metadata)) {
+            updateTagNames(metadata.getTask());
+        }
     }
 
     public Metadata fetch(long id, Property<?>... properties) {
@@ -107,7 +132,69 @@ public class MetadataDao {
             item.setCreationDate(DateUtilities.now());
         }
 
-        return dao.persist(item);
+        boolean result = dao.persist(item);
+        if (result && isTagLink(item)) {
+            updateTagNames(item.getTask());
+        }
+        return result;
+    }
+
+    /**
+     * Save all items inside a single transaction
+     *
+     * @return number of items that were written
+     */
+    public int persistAll(Collection<Metadata> items) {
+        for (Metadata item : items) {
+            if(!item.containsNonNullValue(Metadata.TASK)) {
+                throw new IllegalArgumentException("metadata needs to be attached to a task: " + item.getMergedValues()); //$NON-NLS-1$
+            }
+            if(!item.containsValue(Metadata.CREATION_DATE)) {
+                item.setCreationDate(DateUtilities.now());
+            }
+        }
+
+        int result = dao.persistAll(items);
+        Set<Long> tagged = new LinkedHashSet<>();
+        for (Metadata item : items) {
+            if (isTagLink(item)) {
+                tagged.add(item.getTask());
+            }
+        }
+        updateTagNames(tagged);
+        return result;
+    }
+
+    // --- tag summaries
+
+    private static boolean isTagLink(Metadata metadata) {
+        return metadata != null && metadata.containsNonNullValue(Metadata.KEY) &&
+                TaskToTagMetadata.KEY.equals(metadata.getKey()) && metadata.containsNonNullValue(Metadata.TASK);
+    }
+
+    /**
+     * @return tasks with tag links matching the criterion, read before they are changed
+     */
+    private List<Long> taggedTasks(Criterion criterion) {
+        final List<Long> tasks = new ArrayList<>();
+        dao.query(Query.selectDistinct(Metadata.TASK).where(Criterion.and(
+                MetadataCriteria.withKey(TaskToTagMetadata.KEY), criterion)), new Callback<Metadata>() {
+            @Override
+            public void apply(Metadata metadata) {
+                tasks.add(metadata.getTask());
+            }
+        });
+        return tasks;
+    }
+
+    private void updateTagNames(long task) {
+        TaskSummaries.execute(database, TaskSummaries.updateTagNamesSql(Task.ID.eq(task)), Task.TAG_NAMES);
+    }
+
+    private void updateTagNames(Collection<Long> tasks) {
+        if (!tasks.isEmpty()) {
+            TaskSummaries.execute(database, TaskSummaries.updateTagNamesSql(Task.ID.in(tasks)), Task.TAG_NAMES);
+        }
     }
 
     /**
@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.dao;
+
+import android.database.sqlite.SQLiteException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Explains every distinct query run through {@link Database} once and logs
+ * the tables it reads without using an index. Enabled in debug builds.
+ */
+public class QueryPlanAuditor {
+
+    private static final Logger log = LoggerFactory.getLogger(QueryPlanAuditor.class);
+
+    /** stop auditing after this many distinct queries */
+    private static final int MAX_QUERIES = 1000;
+
+    private final Set<String> audited = new HashSet<>();
+
+    /**
+     * Explain the query if it has not been seen before
+     */
+    void audit(Database database, String sql, Object[] args) {
+        if (!isSelect(sql)) {
+            return;
+        }
+        synchronized (audited) {
+            if (audited.size() >= MAX_QUERIES || !audited.add(sql)) {
+                return;
+            }
+        }
+        try {
+            List<String> scans = findFullScans(database.explainQueryPlan(sql, args));
+            if (!scans.isEmpty()) {
+                log.warn("Full table scan {} in {}", scans, sql);
+            }
+        } catch (SQLiteException e) {
+            log.error(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @param plan detail lines of EXPLAIN QUERY PLAN
+     * @return the lines that read a whole table
+     */
+    public static List<String> findFullScans(List<String> plan) {
+        List<String> scans = new ArrayList<>();
+        for (String detail : plan) {
+            if (isFullScan(detail)) {
+                scans.add(detail);
+            }
+        }
+        return scans;
+    }
+
+    /**
+     * Newer SQLite versions report "SCAN tasks", older ones "SCAN TABLE tasks".
+     * Scans of subqueries and constant rows do not touch a table, scans
+     * "USING INDEX" or "USING COVERING INDEX" walk an index in its order
+     */
+    static boolean isFullScan(String detail) {
+        return detail.startsWith("SCAN ") &&
+                !detail.startsWith("SCAN SUBQUERY") &&
+                !detail.startsWith("SCAN CONSTANT ROW") &&
+                !detail.contains(" USING INDEX ") &&
+                !detail.contains(" USING COVERING INDEX ");
+    }
+
+    private static boolean isSelect(String sql) {
+        return sql.trim().regionMatches(true, 0, "SELECT", 0, 6);
+    }
+}
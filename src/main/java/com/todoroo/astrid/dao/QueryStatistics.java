@@ -0,0 +1,259 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.dao;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Collects timings of the statements run through {@link Database}, grouped
+ * by the shape of their SQL, i.e. the SQL with literals replaced by '?'.
+ * Statements slower than the threshold are also kept in a slow query log
+ */
+public class QueryStatistics {
+
+    private static final Logger log = LoggerFactory.getLogger(QueryStatistics.class);
+
+    public static final long DEFAULT_SLOW_QUERY_MILLIS = 50;
+
+    /** latencies kept per shape for percentiles */
+    private static final int SAMPLES = 128;
+
+    /** entries kept in the slow query log */
+    private static final int SLOW_QUERIES = 50;
+
+    /** shapes tracked, further shapes are counted as "other" */
+    private static final int MAX_SHAPES = 500;
+
+    private static final String OTHER = "(other)";
+
+    private final long slowQueryNanos;
+    private final Map<String, Shape> shapes = new HashMap<>();
+    private final ArrayDeque<String> slowQueries = new ArrayDeque<>();
+    private final long started = System.currentTimeMillis();
+
+    public QueryStatistics() {
+        this(DEFAULT_SLOW_QUERY_MILLIS);
+    }
+
+    /**
+     * @param slowQueryMillis statements taking longer are logged
+     */
+    public QueryStatistics(long slowQueryMillis) {
+        slowQueryNanos = slowQueryMillis * 1000000L;
+    }
+
+    /**
+     * Record one execution
+     *
+     * @param sql statement as executed
+     * @param nanos time taken
+     * @param rows rows returned or changed
+     */
+    public void record(String sql, long nanos, int rows) {
+        String shape = normalize(sql);
+        synchronized (this) {
+            Shape stats = shapes.get(shape);
+            if (stats == null) {
+                if (shapes.size() >= MAX_SHAPES) {
+                    shape = OTHER;
+                    stats = shapes.get(OTHER);
+                }
+                if (stats == null) {
+                    stats = new Shape(shape);
+                    shapes.put(shape, stats);
+                }
+            }
+            stats.add(nanos, rows);
+
+            if (nanos >= slowQueryNanos) {
+                if (slowQueries.size() >= SLOW_QUERIES) {
+                    slowQueries.removeFirst();
+                }
+                slowQueries.addLast(String.format(Locale.US, "%tT %6.1fms %5d rows  %s", new Date(), nanos / 1e6, rows, sql));
+            }
+        }
+        if (nanos >= slowQueryNanos) {
+            log.debug("Slow query {}ms: {}", nanos / 1000000L, sql);
+        }
+    }
+
+    public synchronized void clear() {
+        shapes.clear();
+        slowQueries.clear();
+    }
+
+    /**
+     * Write the statistics of every shape, slowest total time first,
+     * followed by the slow query log
+     */
+    public void writeReport(Writer writer) throws IOException {
+        List<Shape> sorted;
+        List<String> slow;
+        synchronized (this) {
+            sorted = new ArrayList<>();
+            for (Shape shape : shapes.values()) {
+                sorted.add(shape.copy());
+            }
+            slow = new ArrayList<>(slowQueries);
+        }
+        Collections.sort(sorted, new Comparator<Shape>() {
+            @Override
+            public int compare(Shape lhs, Shape rhs) {
+                return rhs.totalNanos < lhs.totalNanos ? -1 : (rhs.totalNanos == lhs.totalNanos ? 0 : 1);
+            }
+        });
+
+        PrintWriter out = new PrintWriter(writer);
+        out.printf(Locale.US, "Query statistics since %tF %<tT, slow query threshold %dms%n%n",
+                new Date(started), slowQueryNanos / 1000000L);
+        out.println("   count   total ms     p50 ms     p95 ms     max ms       rows  sql");
+        for (Shape shape : sorted) {
+            out.printf(Locale.US, "%8d %10.1f %10.2f %10.2f %10.2f %10d  %s%n",
+                    shape.count, shape.totalNanos / 1e6, shape.percentile(50) / 1e6,
+                    shape.percentile(95) / 1e6, shape.maxNanos / 1e6, shape.rows, shape.sql);
+        }
+        out.printf(Locale.US, "%nSlow queries (last %d)%n", SLOW_QUERIES);
+        for (String query : slow) {
+            out.println(query);
+        }
+        out.flush();
+        if (out.checkError()) {
+            throw new IOException("Failed to write query statistics");
+        }
+    }
+
+    public String getReport() {
+        StringWriter writer = new StringWriter();
+        try {
+            writeReport(writer);
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Replace string and numeric literals with '?', collapse lists of
+     * placeholders and whitespace so statements differing only in their
+     * values share a shape
+     */
+    static String normalize(String sql) {
+        int length = sql.length();
+        StringBuilder shape = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                int close = sql.indexOf('\'', i + 1);
+                while (close >= 0 && close + 1 < length && sql.charAt(close + 1) == '\'') {
+                    close = sql.indexOf('\'', close + 2);
+                }
+                i = close < 0 ? length : close;
+                appendPlaceholder(shape);
+            } else if (Character.isDigit(c) && (i == 0 || !isIdentifierPart(sql.charAt(i - 1)))) {
+                while (i + 1 < length && (isIdentifierPart(sql.charAt(i + 1)) || sql.charAt(i + 1) == '.')) {
+                    i++;
+                }
+                appendPlaceholder(shape);
+            } else if (c == '?') {
+                appendPlaceholder(shape);
+            } else if (Character.isWhitespace(c)) {
+                if (shape.length() > 0 && shape.charAt(shape.length() - 1) != ' ') {
+                    shape.append(' ');
+                }
+            } else {
+                shape.append(c);
+            }
+        }
+        return shape.toString().trim();
+    }
+
+    /**
+     * Append '?' unless it continues a list of placeholders, which is
+     * collapsed to a single one
+     */
+    private static void appendPlaceholder(StringBuilder shape) {
+        int end = shape.length();
+        while (end > 0 && shape.charAt(end - 1) == ' ') {
+            end--;
+        }
+        if (end > 0 && shape.charAt(end - 1) == ',') {
+            int previous = end - 1;
+            while (previous > 0 && shape.charAt(previous - 1) == ' ') {
+                previous--;
+            }
+            if (previous > 0 && shape.charAt(previous - 1) == '?') {
+                shape.setLength(previous);
+                return;
+            }
+        }
+        shape.append('?');
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    private static final class Shape {
+        private final String sql;
+        private int count;
+        private long totalNanos;
+        private long maxNanos;
+        private long rows;
+        private long[] samples = new long[SAMPLES];
+
+        private Shape(String sql) {
+            this.sql = sql;
+        }
+
+        private void add(long nanos, int rowCount) {
+            samples[count % SAMPLES] = nanos;
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            rows += rowCount;
+        }
+
+        /**
+         * @return percentile of the most recent samples
+         */
+        private long percentile(int percent) {
+            int size = Math.min(count, SAMPLES);
+            if (size == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percent / 100.0 * size) - 1;
+            return sorted[Math.max(0, index)];
+        }
+
+        private Shape copy() {
+            Shape copy = new Shape(sql);
+            copy.count = count;
+            copy.totalNanos = totalNanos;
+            copy.maxNanos = maxNanos;
+            copy.rows = rows;
+            copy.samples = samples.clone();
+            return copy;
+        }
+    }
+}
@@ -20,10 +20,9 @@ public class RemoteModelDao<RTYPE extends RemoteModel> extends DatabaseDao<RTYPE
     }
 
     @Override
-    public boolean createNew(RTYPE item) {
+    protected void beforeCreateNew(RTYPE item) {
         if (!item.containsValue(RemoteModel.UUID_PROPERTY) || RemoteModel.isUuidEmpty(item.getUuidProperty())) {
             item.setUuidProperty(UUIDHelper.newUUID());
         }
-        return super.createNew(item);
     }
 }
@@ -9,16 +9,24 @@ import com.todoroo.andlib.data.Callback;
 import com.todoroo.andlib.data.Property;
 import com.todoroo.andlib.sql.Criterion;
 import com.todoroo.andlib.sql.Query;
+import com.todoroo.astrid.data.RemoteModel;
+import com.todoroo.astrid.data.Task;
 import com.todoroo.astrid.data.TaskAttachment;
 
 import javax.inject.Inject;
 
+/**
+ * Data Access layer for {@link TaskAttachment}. Writes refresh
+ * {@link Task#HAS_ATTACHMENTS} of the task the attachment belongs to.
+ */
 public class TaskAttachmentDao {
 
+    private final Database database;
     private final RemoteModelDao<TaskAttachment> dao;
 
     @Inject
     public TaskAttachmentDao(Database database) {
+        this.database = database;
         dao = new RemoteModelDao<>(database, TaskAttachment.class);
     }
 
@@ -39,14 +47,34 @@ public class TaskAttachmentDao {
 
     public void createNew(TaskAttachment attachment) {
         dao.createNew(attachment);
+        updateHasAttachments(attachment.getValue(TaskAttachment.TASK_UUID));
     }
 
     public void delete(long id) {
+        TaskAttachment attachment = dao.fetch(id, TaskAttachment.TASK_UUID);
         dao.delete(id);
+        if (attachment != null) {
+            updateHasAttachments(attachment.getValue(TaskAttachment.TASK_UUID));
+        }
     }
 
     public void saveExisting(TaskAttachment m) {
         dao.saveExisting(m);
+        if (m.containsNonNullValue(TaskAttachment.TASK_UUID)) {
+            updateHasAttachments(m.getValue(TaskAttachment.TASK_UUID));
+        } else {
+            TaskAttachment attachment = dao.fetch(m.getId(), TaskAttachment.TASK_UUID);
+            if (attachment != null) {
+                updateHasAttachments(attachment.getValue(TaskAttachment.TASK_UUID));
+            }
+        }
+    }
+
+    private void updateHasAttachments(String taskUuid) {
+        if (!RemoteModel.isUuidEmpty(taskUuid)) {
+            TaskSummaries.execute(database, TaskSummaries.updateHasAttachmentsSql(Task.UUID.eq(taskUuid)),
+                    Task.HAS_ATTACHMENTS);
+        }
     }
 }
 
@@ -6,7 +6,9 @@
 package com.todoroo.astrid.dao;
 
 import android.content.ContentValues;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteStatement;
 
 import com.todoroo.andlib.data.AbstractModel;
 import com.todoroo.andlib.data.DatabaseDao;
@@ -16,6 +18,7 @@ import com.todoroo.andlib.sql.Criterion;
 import com.todoroo.andlib.sql.Functions;
 import com.todoroo.andlib.sql.Query;
 import com.todoroo.andlib.utility.DateUtilities;
+import com.todoroo.astrid.core.SortHelper;
 import com.todoroo.astrid.dao.MetadataDao.MetadataCriteria;
 import com.todoroo.astrid.data.RemoteModel;
 import com.todoroo.astrid.data.Task;
@@ -30,8 +33,12 @@ import org.tasks.notifications.NotificationManager;
 import org.tasks.preferences.Preferences;
 
 import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
+import static java.util.Arrays.asList;
+
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -46,8 +53,13 @@ public class TaskDao {
 
     private static final Logger log = LoggerFactory.getLogger(TaskDao.class);
 
+    /** Time used in place of now() by the stored sort keys, see {@link SortHelper} */
+    static final String PREF_SORT_KEY_EPOCH = "sort_key_epoch";
+
     private final RemoteModelDao<Task> dao;
 
+    private final Database database;
+
     private final MetadataDao metadataDao;
     private final Broadcaster broadcaster;
     private final ReminderService reminderService;
@@ -59,6 +71,7 @@ public class TaskDao {
                    ReminderService reminderService, NotificationManager notificationManager,
                    Preferences preferences) {
         dao = new RemoteModelDao<>(database, Task.class);
+        this.database = database;
         this.preferences = preferences;
         this.metadataDao = metadataDao;
         this.broadcaster = broadcaster;
@@ -70,6 +83,10 @@ public class TaskDao {
         return dao.query(query);
     }
 
+    public TodorooCursor<Task> queryPaged(Property<?>[] properties, String queryTemplate, int pageSize) {
+        return dao.queryPaged(properties, queryTemplate, pageSize);
+    }
+
     public Task fetch(long id, Property<?>... properties) {
         return dao.fetch(id, properties);
     }
@@ -83,7 +100,11 @@ public class TaskDao {
     }
 
     public int update(Criterion where, Task template) {
-        return dao.update(where, template);
+        int result = dao.update(where, template);
+        if (result > 0 && affectsSortKeys(template)) {
+            updateSortKeys(where, getSortKeyEpoch());
+        }
+        return result;
     }
 
     public int deleteWhere(Criterion criterion) {
@@ -172,8 +193,6 @@ public class TaskDao {
         // delete all metadata
         metadataDao.deleteWhere(MetadataCriteria.byTask(id));
 
-        broadcastTaskChanged();
-
         return true;
     }
 
@@ -203,11 +222,27 @@ public class TaskDao {
         if (cursor.getCount() > 0) {
             cursor.moveToFirst();
             task.setId(cursor.get(Task.ID));
+            TaskSummaries.clear(task);
             saveExisting(task);
         }
     }
 
     public boolean createNew(Task item) {
+        ContentValues values = beforeCreateNew(item);
+        boolean result = dao.createNew(item);
+        if(result) {
+            afterSave(item, values);
+        }
+
+        return result;
+    }
+
+    /**
+     * Set the dates, defaults, sort keys and UUID of a new task
+     *
+     * @return the values that will be written
+     */
+    private ContentValues beforeCreateNew(Task item) {
         if(!item.containsValue(Task.CREATION_DATE)) {
             item.setCreationDate(DateUtilities.now());
         }
@@ -227,13 +262,14 @@ public class TaskDao {
 
         setDefaultReminders(preferences, item);
 
-        ContentValues values = item.getSetValues();
-        boolean result = dao.createNew(item);
-        if(result) {
-            afterSave(item, values);
-        }
+        SortHelper.setSortKeys(item, item.getDueDate(), item.getImportance(), item.getCompletionDate(),
+                getSortKeyEpoch());
+        // a new task has no links yet, copies must not inherit the summaries
+        TaskSummaries.clear(item);
+        // assign the UUID here so the values handed to listeners include it
+        dao.beforeCreateNew(item);
 
-        return result;
+        return item.getSetValues();
     }
 
     public static void createDefaultHideUntil(Preferences preferences, Task item) {
@@ -262,15 +298,10 @@ public class TaskDao {
     }
 
     public boolean saveExisting(Task item) {
-        ContentValues values = item.getSetValues();
-        if(values == null || values.size() == 0) {
+        ContentValues values = beforeSaveExisting(item);
+        if(values == null) {
             return false;
         }
-        if(!TaskApiDao.insignificantChange(values)) {
-            if(!values.containsKey(Task.MODIFICATION_DATE.name)) {
-                item.setModificationDate(DateUtilities.now());
-            }
-        }
         boolean result = dao.saveExisting(item);
         if(result) {
             afterSave(item, values);
@@ -278,6 +309,139 @@ public class TaskDao {
         return result;
     }
 
+    /**
+     * Set the modification date and sort keys of a changed task
+     *
+     * @return the values that will be written, null if nothing changed
+     */
+    private ContentValues beforeSaveExisting(Task item) {
+        if(item.getSetValueCount() == 0) {
+            return null;
+        }
+        if(!TaskApiDao.insignificantChange(item)) {
+            if(!item.containsSetValue(Task.MODIFICATION_DATE)) {
+                item.setModificationDate(DateUtilities.now());
+            }
+        }
+        if(affectsSortKeys(item)) {
+            setSortKeys(item);
+        }
+        // taken after the values above are set, listeners see what is written
+        return item.getSetValues();
+    }
+
+    /**
+     * Save all given tasks inside a single database transaction, setting
+     * the same values as {@link #createNew} and {@link #saveExisting} and
+     * running the same hooks once the transaction has been committed
+     *
+     * @return number of tasks that were written
+     */
+    public int persistAll(Collection<Task> tasks) {
+        List<Task> changed = new ArrayList<>();
+        List<ContentValues> changedValues = new ArrayList<>();
+        for (Task task : tasks) {
+            ContentValues values = task.getId() == Task.NO_ID ? beforeCreateNew(task) : beforeSaveExisting(task);
+            if (values != null) {
+                changed.add(task);
+                changedValues.add(values);
+            }
+        }
+        int result = dao.persistAll(changed);
+        for (int i = 0; i < changed.size(); i++) {
+            Task task = changed.get(i);
+            // tasks that were not written keep their set values
+            if (task.getSetValueCount() == 0) {
+                afterSave(task, changedValues.get(i));
+            }
+        }
+        return result;
+    }
+
+    // --- sort keys
+
+    private static boolean affectsSortKeys(Task item) {
+        return item.containsSetValue(Task.DUE_DATE) ||
+                item.containsSetValue(Task.IMPORTANCE) ||
+                item.containsSetValue(Task.COMPLETION_DATE);
+    }
+
+    /**
+     * Set the sort keys of a task that is about to be saved, reading the
+     * values they depend on from the database if the task does not have them
+     */
+    private void setSortKeys(Task item) {
+        Task stored = null;
+        if(!item.containsNonNullValue(Task.DUE_DATE) || !item.containsNonNullValue(Task.IMPORTANCE) ||
+                !item.containsNonNullValue(Task.COMPLETION_DATE)) {
+            stored = dao.fetch(item.getId(), Task.DUE_DATE, Task.IMPORTANCE, Task.COMPLETION_DATE);
+            if(stored == null) {
+                return;
+            }
+        }
+        Task dueDate = item.containsNonNullValue(Task.DUE_DATE) ? item : stored;
+        Task importance = item.containsNonNullValue(Task.IMPORTANCE) ? item : stored;
+        Task completionDate = item.containsNonNullValue(Task.COMPLETION_DATE) ? item : stored;
+        SortHelper.setSortKeys(item, dueDate.getDueDate(), importance.getImportance(),
+                completionDate.getCompletionDate(), getSortKeyEpoch());
+    }
+
+    private long getSortKeyEpoch() {
+        long epoch = preferences.getLong(PREF_SORT_KEY_EPOCH, 0);
+        return epoch == 0 ? rolloverSortKeys() : epoch;
+    }
+
+    /**
+     * Recompute the sort keys of all tasks for the current time. Called
+     * every night, and once for databases created before the keys existed
+     *
+     * @return the new epoch of the keys
+     */
+    public long rolloverSortKeys() {
+        long epoch = DateUtilities.now();
+        // tasks saved from here on use the new epoch, the update below
+        // brings the others in line
+        preferences.setLong(PREF_SORT_KEY_EPOCH, epoch);
+        updateSortKeys(Criterion.all, epoch);
+        return epoch;
+    }
+
+    private void updateSortKeys(Criterion where, long epoch) {
+        SQLiteStatement statement = database.compileStatement("UPDATE " + Task.TABLE.name + " SET " +
+                SortHelper.sortKeyAssignments(epoch) + " WHERE " + where);
+        try {
+            statement.execute();
+        } finally {
+            statement.close();
+        }
+        database.onDatabaseUpdated(Task.TABLE.name, 0, asList(Task.SORT_AUTO.name, Task.SORT_DUE.name,
+                Task.SORT_IMPORTANCE.name, Task.SORT_WIDGET.name));
+    }
+
+    /**
+     * Find the first instant after now at which a task list can change by
+     * itself: a task is unhidden, becomes due, or a completed task stops
+     * being shown as recently completed. Each part is a MIN() over an index.
+     *
+     * @return the instant, or 0 if there is none
+     */
+    public long nextTimeBoundary(long now) {
+        String active = Task.DELETION_DATE + " = 0 AND " + Task.COMPLETION_DATE + " = 0";
+        String sql = "SELECT MIN(boundary) FROM (" +
+                "SELECT MIN(" + Task.HIDE_UNTIL + ") AS boundary FROM " + Task.TABLE + " WHERE " + active +
+                " AND " + Task.HIDE_UNTIL + " > ?" +
+                " UNION ALL SELECT MIN(" + Task.DUE_DATE + ") FROM " + Task.TABLE + " WHERE " + active +
+                " AND " + Task.DUE_DATE + " > ?" +
+                " UNION ALL SELECT MIN(" + Task.COMPLETION_DATE + ") + " + DateUtilities.ONE_MINUTE + " FROM " +
+                Task.TABLE + " WHERE " + Task.DELETION_DATE + " = 0 AND " + Task.COMPLETION_DATE + " > ?)";
+        Cursor cursor = database.rawQuery(sql, new Object[] { now, now, now - DateUtilities.ONE_MINUTE });
+        try {
+            return cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
     private static final Property<?>[] SQL_CONSTRAINT_MERGE_PROPERTIES = new Property<?>[] {
         Task.ID,
         Task.UUID,
@@ -376,7 +540,9 @@ public class TaskDao {
     }
 
     /**
-     * Send broadcasts on task change (triggers things like task repeats)
+     * Send broadcasts on task change (triggers things like task repeats).
+     * List and widget refreshes follow the coalesced {@link DatabaseChange}
+     * events published by {@link Database}
      * @param task task that was saved
      * @param values values that were updated
      */
@@ -388,15 +554,6 @@ public class TaskDao {
         if(values.containsKey(Task.COMPLETION_DATE.name) && task.isCompleted()) {
             broadcaster.taskCompleted(task.getId());
         }
-
-        broadcastTaskChanged();
-    }
-
-    /**
-     * Send broadcast when task list changes. Widgets should update.
-     */
-    private void broadcastTaskChanged() {
-        broadcaster.refresh();
     }
 
     /**
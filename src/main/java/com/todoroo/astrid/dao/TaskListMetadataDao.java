@@ -5,11 +5,17 @@
  */
 package com.todoroo.astrid.dao;
 
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
 import com.todoroo.andlib.data.Property;
 import com.todoroo.andlib.sql.Criterion;
 import com.todoroo.andlib.sql.Query;
 import com.todoroo.astrid.data.TagData;
 import com.todoroo.astrid.data.TaskListMetadata;
+import com.todoroo.astrid.subtasks.AstridOrderedListUpdater.Node;
+
+import java.util.List;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -21,10 +27,12 @@ import javax.inject.Singleton;
  */
 public class TaskListMetadataDao {
 
+    private final Database database;
     private final RemoteModelDao<TaskListMetadata> dao;
 
     @Inject
     public TaskListMetadataDao(Database database) {
+        this.database = database;
         dao = new RemoteModelDao<>(database, TaskListMetadata.class);
     }
 
@@ -34,11 +42,86 @@ public class TaskListMetadataDao {
     }
 
     public void createNew(TaskListMetadata taskListMetadata) {
-        dao.createNew(taskListMetadata);
+        String tree = changedTree(taskListMetadata);
+        if (dao.createNew(taskListMetadata) && tree != null) {
+            writeRanks(TaskListRanks.listId(taskListMetadata), tree);
+        }
     }
 
     public void saveExisting(TaskListMetadata list) {
+        String tree = changedTree(list);
+        if (dao.saveExisting(list) && tree != null) {
+            writeRanks(TaskListRanks.listId(list), tree);
+        }
+    }
+
+    /**
+     * Save the serialized tree of a list and write all of its ranks, even
+     * if the tree did not change
+     */
+    public void saveTree(TaskListMetadata list, String serializedTree) {
+        list.setTaskIDs(serializedTree);
+        if (dao.saveExisting(list)) {
+            writeRanks(TaskListRanks.listId(list), serializedTree);
+        }
+    }
+
+    /**
+     * Save the serialized tree of a list without writing its ranks, which
+     * already match it
+     */
+    public void saveSnapshot(TaskListMetadata list, String serializedTree) {
+        list.setTaskIDs(serializedTree);
         dao.saveExisting(list);
     }
+
+    /**
+     * Rank the tasks of a list by a serialized tree, see {@link TaskListRanks}
+     */
+    public void writeRanks(final String list, final String serializedTree) {
+        if (list == null) {
+            return;
+        }
+        final SQLiteDatabase db = database.getDatabase();
+        database.runInTransaction(new Runnable() {
+            @Override
+            public void run() {
+                TaskListRanks.write(db, list, serializedTree);
+            }
+        });
+    }
+
+    /**
+     * Write the rows of tasks that moved in a list, see {@link TaskListRanks}
+     */
+    public void updateRanks(final String list, final List<Node> changed, final List<String> removed) {
+        final SQLiteDatabase db = database.getDatabase();
+        database.runInTransaction(new Runnable() {
+            @Override
+            public void run() {
+                TaskListRanks.update(db, list, changed, removed);
+            }
+        });
+    }
+
+    /**
+     * @return tree of the list read from its ranks, or null if it has none
+     */
+    public Node readRankedTree(String list) {
+        Cursor cursor = database.rawQuery(TaskListRanks.READ_SQL, new Object[] { list });
+        try {
+            return TaskListRanks.read(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static String changedTree(TaskListMetadata list) {
+        if (!list.containsSetValue(TaskListMetadata.TASK_IDS)) {
+            return null;
+        }
+        String tree = list.getTaskIDs();
+        return tree == null ? "[]" : tree; //$NON-NLS-1$
+    }
 }
 
@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.dao;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+
+import com.todoroo.andlib.data.Table;
+import com.todoroo.andlib.sql.Criterion;
+import com.todoroo.andlib.sql.Field;
+import com.todoroo.andlib.sql.Query;
+import com.todoroo.astrid.data.RemoteModel;
+import com.todoroo.astrid.data.Task;
+import com.todoroo.astrid.data.TaskListMetadata;
+import com.todoroo.astrid.subtasks.AstridOrderedListUpdater;
+import com.todoroo.astrid.subtasks.AstridOrderedListUpdater.Node;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Positions of the tasks in manually ordered lists, one row per list and
+ * task holding the parent and rank of the task. Lists sort by looking up
+ * the rank of each task in the primary key index, instead of comparing the
+ * task with every uuid in the list.
+ * <p>
+ * The rows are the tree of the list: moving a task writes the rows of the
+ * tasks that moved, see {@link AstridOrderedListUpdater}. Saving the
+ * serialized tree of the list, {@link TaskListMetadata#TASK_IDS}, writes
+ * every row again.
+ */
+public final class TaskListRanks {
+
+    public static final Table TABLE = new Table("task_list_ranks", null); //$NON-NLS-1$
+
+    private static final Field LIST = Field.field("list"); //$NON-NLS-1$
+    private static final Field TASK = Field.field("task"); //$NON-NLS-1$
+    private static final Field RANK = Field.field("rank"); //$NON-NLS-1$
+
+    static final String CREATE_SQL = "CREATE TABLE IF NOT EXISTS " + TABLE.name + //$NON-NLS-1$
+            " (list TEXT NOT NULL, task TEXT NOT NULL, parent TEXT, rank INTEGER NOT NULL, PRIMARY KEY (list, task))"; //$NON-NLS-1$
+
+    static final String DROP_SQL = "DROP TABLE IF EXISTS " + TABLE.name; //$NON-NLS-1$
+
+    private static final String INSERT_SQL = "INSERT OR REPLACE INTO " + TABLE.name + //$NON-NLS-1$
+            " (list, task, parent, rank) VALUES (?, ?, ?, ?)"; //$NON-NLS-1$
+
+    static final String READ_SQL = "SELECT task, parent, rank FROM " + TABLE.name + //$NON-NLS-1$
+            " WHERE list = ? ORDER BY rank"; //$NON-NLS-1$
+
+    private TaskListRanks() {
+        // static helpers
+    }
+
+    /**
+     * @return identifier of the list ordered by the given metadata, its tag
+     *         uuid or filter id, or null if neither was read
+     */
+    public static String listId(TaskListMetadata list) {
+        if (list.containsNonNullValue(TaskListMetadata.TAG_UUID) && !RemoteModel.isUuidEmpty(list.getTagUUID())) {
+            return list.getTagUUID();
+        }
+        if (list.containsNonNullValue(TaskListMetadata.FILTER) && !TextUtils.isEmpty(list.getFilter())) {
+            return list.getFilter();
+        }
+        return null;
+    }
+
+    /**
+     * @return order term sorting tasks by their rank in the list, tasks
+     *         missing from the list first
+     */
+    public static String orderBy(String list) {
+        Query rank = Query.select(RANK).from(TABLE).where(Criterion.and(LIST.eq(list), TASK.eq(Task.UUID)));
+        return "coalesce((" + rank + "), -1)"; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    /**
+     * Replace the rows of the list with a serialized tree. Call in a transaction
+     */
+    static void write(SQLiteDatabase db, String list, String serializedTree) {
+        db.delete(TABLE.name, LIST + " = ?", new String[] { list }); //$NON-NLS-1$
+        Node root = AstridOrderedListUpdater.buildTreeModel(serializedTree, null);
+        update(db, list, AstridOrderedListUpdater.rankTree(root), null);
+    }
+
+    /**
+     * Write the rows of changed nodes and delete the rows of removed tasks.
+     * Call in a transaction
+     */
+    static void update(SQLiteDatabase db, String list, List<Node> changed, List<String> removed) {
+        SQLiteStatement insert = db.compileStatement(INSERT_SQL);
+        try {
+            for (Node node : changed) {
+                insert.bindString(1, list);
+                insert.bindString(2, node.uuid);
+                if (node.parent == null || node.parent.parent == null) {
+                    insert.bindNull(3);
+                } else {
+                    insert.bindString(3, node.parent.uuid);
+                }
+                insert.bindLong(4, node.rank);
+                insert.executeInsert();
+            }
+        } finally {
+            insert.close();
+        }
+        if (removed != null) {
+            for (String uuid : removed) {
+                db.delete(TABLE.name, LIST + " = ? AND " + TASK + " = ?", new String[] { list, uuid }); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+        }
+    }
+
+    /**
+     * Build a tree from the rows read with {@link #READ_SQL}. Rows are in
+     * list order, so parents come before their children
+     *
+     * @return root of the tree, or null if the list has no rows
+     */
+    static Node read(Cursor cursor) {
+        if (cursor.getCount() == 0) {
+            return null;
+        }
+        Node root = new Node("-1", null, -1); //$NON-NLS-1$
+        HashMap<String, Node> nodes = new HashMap<>();
+        while (cursor.moveToNext()) {
+            Node parent = cursor.isNull(1) ? null : nodes.get(cursor.getString(1));
+            if (parent == null) {
+                parent = root;
+            }
+            Node node = new Node(cursor.getString(0), parent, parent.indent + 1);
+            node.rank = cursor.getLong(2);
+            parent.children.add(node);
+            nodes.put(node.uuid, node);
+        }
+        return root;
+    }
+}
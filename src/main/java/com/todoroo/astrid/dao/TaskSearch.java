@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.dao;
+
+import com.todoroo.andlib.data.Table;
+import com.todoroo.andlib.sql.Criterion;
+import com.todoroo.andlib.sql.Field;
+import com.todoroo.andlib.sql.Functions;
+import com.todoroo.andlib.sql.Query;
+import com.todoroo.astrid.data.Task;
+
+/**
+ * Full text index over task titles and notes. The index is an FTS3 table
+ * whose docid is the task id, kept in sync by triggers on the task table,
+ * so searching looks up words instead of scanning every title.
+ * <p>
+ * Search text matches the tasks having words that start with each of its
+ * words, in the title or the notes.
+ */
+public final class TaskSearch {
+
+    public static final Table TABLE = new Table("task_search", null); //$NON-NLS-1$
+
+    private static final Field DOCID = Field.field("docid"); //$NON-NLS-1$
+    private static final Field INDEX = Field.field(TABLE.name);
+    private static final String TITLE = Task.TITLE.name;
+    private static final String NOTES = Task.NOTES.name;
+
+    /** statements creating the index and the triggers maintaining it */
+    static final String[] CREATE_SQL = new String[] {
+        "CREATE VIRTUAL TABLE " + TABLE.name + " USING fts3(" + TITLE + ", " + NOTES + ")", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+        "CREATE TRIGGER IF NOT EXISTS " + TABLE.name + "_insert AFTER INSERT ON " + Task.TABLE.name + //$NON-NLS-1$ //$NON-NLS-2$
+                " BEGIN INSERT INTO " + TABLE.name + "(docid, " + TITLE + ", " + NOTES + ")" + //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+                " VALUES (new._id, new." + TITLE + ", new." + NOTES + "); END", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        "CREATE TRIGGER IF NOT EXISTS " + TABLE.name + "_update AFTER UPDATE OF " + TITLE + ", " + NOTES + //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                " ON " + Task.TABLE.name + " BEGIN UPDATE " + TABLE.name + //$NON-NLS-1$ //$NON-NLS-2$
+                " SET " + TITLE + " = new." + TITLE + ", " + NOTES + " = new." + NOTES + //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+                " WHERE docid = new._id; END", //$NON-NLS-1$
+        "CREATE TRIGGER IF NOT EXISTS " + TABLE.name + "_delete AFTER DELETE ON " + Task.TABLE.name + //$NON-NLS-1$ //$NON-NLS-2$
+                " BEGIN DELETE FROM " + TABLE.name + " WHERE docid = old._id; END", //$NON-NLS-1$ //$NON-NLS-2$
+    };
+
+    /** statements indexing every task again, e.g. after upgrading */
+    static final String[] REBUILD_SQL = new String[] {
+        "DELETE FROM " + TABLE.name, //$NON-NLS-1$
+        "INSERT INTO " + TABLE.name + "(docid, " + TITLE + ", " + NOTES + ") SELECT _id, " + //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+                TITLE + ", " + NOTES + " FROM " + Task.TABLE.name, //$NON-NLS-1$ //$NON-NLS-2$
+    };
+
+    private TaskSearch() {
+        // static helpers
+    }
+
+    /**
+     * @return criterion for tasks matching the search text. Text without
+     *         words, e.g. only punctuation, falls back to a title substring
+     */
+    public static Criterion matches(String text) {
+        String query = matchQuery(text, null);
+        if (query == null) {
+            return Functions.upper(Task.TITLE).like("%" + text.toUpperCase() + "%"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        return Task.ID.in(search(query));
+    }
+
+    /**
+     * @return order term listing tasks whose title matches the search text
+     *         before those only matching in their notes, or null if the
+     *         text has no words
+     */
+    public static String titleMatchesFirst(String text) {
+        String query = matchQuery(text, TITLE);
+        if (query == null) {
+            return null;
+        }
+        return "CASE WHEN " + Task.ID.in(search(query)) + " THEN 0 ELSE 1 END"; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    private static Query search(String query) {
+        return Query.select(DOCID).from(TABLE).where(INDEX.match(query));
+    }
+
+    /**
+     * Build a MATCH expression requiring a word starting with each word of
+     * the text. Words are split like the simple tokenizer does: letters and
+     * digits, ASCII lower cased, and any character outside ASCII
+     *
+     * @param column column to search, or null for all columns
+     * @return expression, or null if the text has no words
+     */
+    static String matchQuery(String text, String column) {
+        StringBuilder query = new StringBuilder();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (c >= 128 || Character.isLetterOrDigit(c)) {
+                word.append(c < 128 ? Character.toLowerCase(c) : c);
+            } else if (word.length() > 0) {
+                if (query.length() > 0) {
+                    query.append(' ');
+                }
+                if (column != null) {
+                    query.append(column).append(':');
+                }
+                query.append(word).append('*');
+                word.setLength(0);
+            }
+        }
+        return query.length() == 0 ? null : query.toString();
+    }
+}
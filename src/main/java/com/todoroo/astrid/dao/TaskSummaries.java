@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.dao;
+
+import android.database.sqlite.SQLiteStatement;
+
+import com.todoroo.andlib.data.Property;
+import com.todoroo.andlib.sql.Criterion;
+import com.todoroo.andlib.sql.Field;
+import com.todoroo.andlib.sql.Query;
+import com.todoroo.astrid.data.Metadata;
+import com.todoroo.astrid.data.Task;
+import com.todoroo.astrid.data.TaskAttachment;
+import com.todoroo.astrid.tags.TaskToTagMetadata;
+
+import java.util.Collections;
+
+/**
+ * Statements maintaining the task columns that summarize linked rows,
+ * {@link Task#TAG_NAMES} and {@link Task#HAS_ATTACHMENTS}, so the task list
+ * reads them without joining metadata and attachments.
+ * <p>
+ * {@link MetadataDao} and {@link TaskAttachmentDao} refresh the summaries of
+ * the tasks whose links they write.
+ */
+public final class TaskSummaries {
+
+    public static final String TAG_SEPARATOR = "  |  "; //$NON-NLS-1$
+
+    /**
+     * Columns derived from linked rows. Copies, imports and backups leave
+     * them out, as the links are not copied with the task
+     */
+    public static final Property<?>[] COLUMNS = { Task.TAG_NAMES, Task.HAS_ATTACHMENTS };
+
+    private TaskSummaries() {
+        // static helpers
+    }
+
+    /**
+     * @return statement recomputing the tag names of the tasks matching the criterion
+     */
+    public static String updateTagNamesSql(Criterion tasks) {
+        Query tagNames = Query.select(Field.field("group_concat(nullif(" + TaskToTagMetadata.TAG_NAME + ", ''), '" //$NON-NLS-1$
+                + TAG_SEPARATOR + "')").as(Task.TAG_NAMES.name)).from(Metadata.TABLE).where(Criterion.and( //$NON-NLS-1$
+                Metadata.KEY.eq(TaskToTagMetadata.KEY),
+                Metadata.DELETION_DATE.eq(0),
+                Metadata.TASK.eq(Task.ID)));
+        return update(Task.TAG_NAMES, tagNames, tasks);
+    }
+
+    /**
+     * @return statement recomputing the attachment flag of the tasks matching the criterion
+     */
+    public static String updateHasAttachmentsSql(Criterion tasks) {
+        Query attachments = Query.select(Field.field("count(*) > 0").as(Task.HAS_ATTACHMENTS.name)) //$NON-NLS-1$
+                .from(TaskAttachment.TABLE).where(Criterion.and(
+                        TaskAttachment.TASK_UUID.eq(Task.UUID),
+                        TaskAttachment.DELETED_AT.eq(0)));
+        return update(Task.HAS_ATTACHMENTS, attachments, tasks);
+    }
+
+    /**
+     * Drop the summaries from a task about to be written, so the stored ones
+     * are kept or, for a new task, start empty
+     */
+    public static void clear(Task task) {
+        for (Property<?> column : COLUMNS) {
+            task.clearValue(column);
+        }
+    }
+
+    /**
+     * Run a statement built here and notify listeners of the changed column
+     */
+    static void execute(Database database, String sql, Property<?> column) {
+        SQLiteStatement statement = database.compileStatement(sql);
+        try {
+            statement.execute();
+        } finally {
+            statement.close();
+        }
+        database.onDatabaseUpdated(Task.TABLE.name, 0, Collections.<String>singletonList(column.name));
+    }
+
+    private static String update(Property<?> column, Query value, Criterion tasks) {
+        return "UPDATE " + Task.TABLE.name + " SET " + column.name + " = (" + value + ") WHERE " + tasks; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+    }
+}
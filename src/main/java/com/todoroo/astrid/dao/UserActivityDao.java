@@ -1,7 +1,5 @@
 package com.todoroo.astrid.dao;
 
-import android.content.ContentValues;
-
 import com.todoroo.andlib.data.Callback;
 import com.todoroo.andlib.sql.Criterion;
 import com.todoroo.andlib.sql.Order;
@@ -28,8 +26,7 @@ public class UserActivityDao {
     }
 
     public boolean saveExisting(UserActivity item) {
-        ContentValues values = item.getSetValues();
-        if (values == null || values.size() == 0) {
+        if (item.getSetValueCount() == 0) {
             return false;
         }
         return dao.saveExisting(item);
@@ -73,6 +73,18 @@ public class Metadata extends AbstractModel {
     public static final StringProperty VALUE7 = new StringProperty(
             TABLE, "value7");
 
+    /** Metadata Integer Value Column 1 */
+    public static final LongProperty INTEGER1 = new LongProperty(
+            TABLE, "integer1");
+
+    /** Metadata Integer Value Column 2 */
+    public static final LongProperty INTEGER2 = new LongProperty(
+            TABLE, "integer2");
+
+    /** Metadata Integer Value Column 3, indexed with the key and value 2 */
+    public static final LongProperty INTEGER3 = new LongProperty(
+            TABLE, "integer3");
+
     /** Unixtime Metadata was created */
     public static final LongProperty CREATION_DATE = new LongProperty(
             TABLE, "created");
@@ -5,7 +5,6 @@
  */
 package com.todoroo.astrid.data;
 
-import android.content.ContentValues;
 import android.net.Uri;
 import android.text.TextUtils;
 
@@ -58,24 +57,18 @@ abstract public class RemoteModel extends AbstractModel {
     }
 
     protected String getUuidHelper(StringProperty uuid) {
-        if(setValues != null && setValues.containsKey(uuid.name)) {
-            return setValues.getAsString(uuid.name);
-        } else if(values != null && values.containsKey(uuid.name)) {
-            return values.getAsString(uuid.name);
-        } else {
+        if(!containsValue(uuid)) {
             return NO_UUID;
         }
+        Object value = getStoredValue(uuid);
+        return value == null ? null : value.toString();
     }
 
     public void setUuid(String uuid) {
-        if (setValues == null) {
-            setValues = new ContentValues();
-        }
-
         if(NO_UUID.equals(uuid)) {
             clearValue(UUID_PROPERTY);
         } else {
-            setValues.put(UUID_PROPERTY_NAME, uuid);
+            putStoredValue(UUID_PROPERTY, uuid);
         }
     }
 
@@ -15,6 +15,7 @@ import com.todoroo.andlib.data.Property.IntegerProperty;
 import com.todoroo.andlib.data.Property.LongProperty;
 import com.todoroo.andlib.data.Property.StringProperty;
 import com.todoroo.andlib.data.Table;
+import com.todoroo.andlib.data.TableSchema;
 import com.todoroo.andlib.data.TodorooCursor;
 import com.todoroo.andlib.utility.DateUtilities;
 import com.todoroo.astrid.api.AstridApiConstants;
@@ -118,6 +119,30 @@ public class Task extends RemoteModel {
     public static final StringProperty CALENDAR_URI = new StringProperty(
             TABLE, "calendarUri");
 
+    // --- sort keys, maintained by TaskDao, see SortHelper
+
+    public static final LongProperty SORT_AUTO = new LongProperty(
+            TABLE, "sortAuto");
+
+    public static final LongProperty SORT_DUE = new LongProperty(
+            TABLE, "sortDue");
+
+    public static final LongProperty SORT_IMPORTANCE = new LongProperty(
+            TABLE, "sortImportance");
+
+    public static final LongProperty SORT_WIDGET = new LongProperty(
+            TABLE, "sortWidget");
+
+    // --- summaries of linked rows, maintained by the daos, see TaskSummaries
+
+    /** Names of the task's tags separated by TaskSummaries.TAG_SEPARATOR, null if untagged */
+    public static final StringProperty TAG_NAMES = new StringProperty(
+            TABLE, "tagNames", Property.PROP_FLAG_NULLABLE);
+
+    /** 1 if the task has attachments that are not deleted */
+    public static final IntegerProperty HAS_ATTACHMENTS = new IntegerProperty(
+            TABLE, "hasAttachments");
+
     // --- for astrid.com
 
     /** Remote id */
@@ -127,6 +152,9 @@ public class Task extends RemoteModel {
     /** List of all properties for this model */
     public static final Property<?>[] PROPERTIES = generateProperties(Task.class);
 
+    /** Slot layout for task values */
+    private static final TableSchema SCHEMA = new TableSchema(PROPERTIES);
+
     // --- notification flags
 
     /** whether to send a reminder at deadline */
@@ -188,6 +216,11 @@ public class Task extends RemoteModel {
         defaultValues.put(ELAPSED_SECONDS.name, 0);
         defaultValues.put(NOTES.name, "");
         defaultValues.put(TIMER_START.name, 0);
+        defaultValues.put(SORT_AUTO.name, 0L);
+        defaultValues.put(SORT_DUE.name, 0L);
+        defaultValues.put(SORT_IMPORTANCE.name, 0L);
+        defaultValues.put(SORT_WIDGET.name, 0L);
+        defaultValues.put(HAS_ATTACHMENTS.name, 0);
         defaultValues.put(UUID.name, NO_UUID);
     }
 
@@ -196,6 +229,16 @@ public class Task extends RemoteModel {
         return defaultValues;
     }
 
+    @Override
+    protected TableSchema getSchema() {
+        return SCHEMA;
+    }
+
+    @Override
+    public Task detach() {
+        return (Task) super.detach();
+    }
+
     // --- data access boilerplate
 
     public Task() {
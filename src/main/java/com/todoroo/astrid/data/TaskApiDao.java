@@ -55,4 +55,16 @@ public class TaskApiDao {
         return false;
     }
 
+    /** @return true if task change shouldn't be broadcast */
+    public static boolean insignificantChange(Task task) {
+        int size = task.getSetValueCount();
+        if(size == 0) {
+            return true;
+        }
+
+        return size <= 2 && (task.containsSetValue(Task.REMINDER_LAST) ||
+                task.containsSetValue(Task.REMINDER_SNOOZE) ||
+                task.containsSetValue(Task.TIMER_START));
+    }
+
 }
@@ -88,10 +88,18 @@ public final class TaskListMetadata extends RemoteModel {
         setValue(TASK_IDS, taskIds);
     }
 
+    public String getTagUUID() {
+        return getValue(TAG_UUID);
+    }
+
     public void setTagUUID(String tagUuid) {
         setValue(TAG_UUID, tagUuid);
     }
 
+    public String getFilter() {
+        return getValue(FILTER);
+    }
+
     public void setFilter(String filter) {
         setValue(FILTER, filter);
     }
@@ -173,14 +173,13 @@ public class GCalControlSet extends PopupControlSet {
                 ContentValues updateValues = new ContentValues();
 
                 // check if we need to update the item
-                ContentValues setValues = task.getSetValues();
-                if(setValues.containsKey(Task.TITLE.name)) {
+                if(task.containsSetValue(Task.TITLE)) {
                     updateValues.put("title", task.getTitle());
                 }
-                if(setValues.containsKey(Task.NOTES.name)) {
+                if(task.containsSetValue(Task.NOTES)) {
                     updateValues.put("description", task.getNotes());
                 }
-                if(setValues.containsKey(Task.DUE_DATE.name) || setValues.containsKey(Task.ESTIMATED_SECONDS.name)) {
+                if(task.containsSetValue(Task.DUE_DATE) || task.containsSetValue(Task.ESTIMATED_SECONDS)) {
                     gcal.createStartAndEndDate(task, updateValues);
                 }
 
@@ -9,9 +9,13 @@ import com.todoroo.andlib.data.AbstractModel;
 import com.todoroo.andlib.data.Property.IntegerProperty;
 import com.todoroo.andlib.data.Property.LongProperty;
 import com.todoroo.andlib.data.Property.StringProperty;
+import com.todoroo.andlib.sql.Functions;
 import com.todoroo.andlib.utility.DateUtilities;
 import com.todoroo.astrid.data.Metadata;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -23,6 +27,8 @@ import javax.inject.Singleton;
 @Singleton
 public class GtasksMetadata {
 
+    private static final Logger log = LoggerFactory.getLogger(GtasksMetadata.class);
+
     /** metadata key */
     public static final String METADATA_KEY = "gtasks"; //$NON-NLS-1$
 
@@ -35,19 +41,24 @@ public class GtasksMetadata {
 
     /** parent task id, or 0 if top level task */
     public static final LongProperty PARENT_TASK = new LongProperty(Metadata.TABLE,
-            Metadata.VALUE3.name);
+            Metadata.INTEGER1.name);
 
     public static final IntegerProperty INDENT = new IntegerProperty(Metadata.TABLE,
-            Metadata.VALUE4.name);
+            Metadata.INTEGER2.name);
 
+    /** position in the list, indexed with the list id */
     public static final LongProperty ORDER = new LongProperty(Metadata.TABLE,
-            Metadata.VALUE5.name);
+            Metadata.INTEGER3.name);
 
     public static final LongProperty GTASKS_ORDER = new LongProperty(Metadata.TABLE,
             Metadata.VALUE6.name);
 
     public static final LongProperty LAST_SYNC = new LongProperty(Metadata.TABLE,
             Metadata.VALUE7.name);
+
+    /** order of lists in filters saved before orders were stored as integers */
+    private static final String LEGACY_ORDER = Functions.cast(Metadata.VALUE5, "LONG").toString(); //$NON-NLS-1$
+
     private final GtasksPreferenceService gtasksPreferenceService;
 
     @Inject
@@ -78,4 +89,38 @@ public class GtasksMetadata {
         }
         return metadata;
     }
+
+    /**
+     * Update the sql of a list filter saved before parent, indent and order
+     * were stored as integers, e.g. by a widget or a shortcut
+     */
+    public static String upgradeLegacySql(String sql) {
+        return sql.replace(LEGACY_ORDER, ORDER.toString());
+    }
+
+    /**
+     * Move parent, indent and order stored as text before they were stored
+     * as integers, e.g. in old backups or in the values of saved filters
+     */
+    public static void upgradeLegacyValues(Metadata metadata) {
+        if (!METADATA_KEY.equals(metadata.getKey()) || metadata.containsNonNullValue(ORDER)) {
+            return;
+        }
+        try {
+            if (metadata.containsNonNullValue(Metadata.VALUE3)) {
+                metadata.setValue(PARENT_TASK, Long.parseLong(metadata.getValue(Metadata.VALUE3)));
+                metadata.clearValue(Metadata.VALUE3);
+            }
+            if (metadata.containsNonNullValue(Metadata.VALUE4)) {
+                metadata.setValue(INDENT, Integer.parseInt(metadata.getValue(Metadata.VALUE4)));
+                metadata.clearValue(Metadata.VALUE4);
+            }
+            if (metadata.containsNonNullValue(Metadata.VALUE5)) {
+                metadata.setValue(ORDER, Long.parseLong(metadata.getValue(Metadata.VALUE5)));
+                metadata.clearValue(Metadata.VALUE5);
+            }
+        } catch (NumberFormatException e) {
+            log.error(e.getMessage(), e);
+        }
+    }
 }
@@ -8,11 +8,11 @@ package com.todoroo.astrid.gtasks;
 import android.content.ContentValues;
 import android.text.TextUtils;
 
-import com.todoroo.andlib.data.AbstractModel;
 import com.todoroo.andlib.data.Callback;
+import com.todoroo.andlib.data.Property;
+import com.todoroo.andlib.data.TodorooCursor;
 import com.todoroo.andlib.sql.Criterion;
-import com.todoroo.andlib.sql.Field;
-import com.todoroo.andlib.sql.Functions;
+import com.todoroo.andlib.sql.Join;
 import com.todoroo.andlib.sql.Order;
 import com.todoroo.andlib.sql.Query;
 import com.todoroo.astrid.dao.MetadataDao;
@@ -20,11 +20,15 @@ import com.todoroo.astrid.dao.MetadataDao.MetadataCriteria;
 import com.todoroo.astrid.dao.TaskDao;
 import com.todoroo.astrid.data.Metadata;
 import com.todoroo.astrid.data.Task;
+import com.todoroo.astrid.gtasks.sync.GtasksIdResolver;
+import com.todoroo.astrid.gtasks.sync.GtasksIdResolver.Match;
 import com.todoroo.astrid.gtasks.sync.GtasksTaskContainer;
 import com.todoroo.astrid.gtasks.OrderedMetadataListUpdater.OrderedListIterator;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -42,6 +46,16 @@ import javax.inject.Singleton;
 @Singleton
 public final class GtasksMetadataService {
 
+    /** metadata columns, and the task columns read when writing remote tasks */
+    private static final Property<?>[] RESOLVER_PROPERTIES = new Property<?>[Metadata.PROPERTIES.length + 3];
+
+    static {
+        System.arraycopy(Metadata.PROPERTIES, 0, RESOLVER_PROPERTIES, 0, Metadata.PROPERTIES.length);
+        RESOLVER_PROPERTIES[Metadata.PROPERTIES.length] = Task.UUID;
+        RESOLVER_PROPERTIES[Metadata.PROPERTIES.length + 1] = Task.DUE_DATE;
+        RESOLVER_PROPERTIES[Metadata.PROPERTIES.length + 2] = Task.COMPLETION_DATE;
+    }
+
     private final TaskDao taskDao;
     private final MetadataDao metadataDao;
 
@@ -111,10 +125,14 @@ public final class GtasksMetadataService {
         });
 
         // everything that remains shall be written
+        List<Metadata> newMetadata = new ArrayList<>();
         for(ContentValues values : newMetadataValues) {
             Metadata item = new Metadata();
             item.mergeWith(values);
-            metadataDao.persist(item);
+            newMetadata.add(item);
+        }
+        if (!newMetadata.isEmpty()) {
+            metadataDao.persistAll(newMetadata);
         }
     }
 
@@ -122,21 +140,60 @@ public final class GtasksMetadataService {
         return GtasksMetadata.METADATA_KEY;
     }
 
-    public synchronized void findLocalMatch(GtasksTaskContainer remoteTask) {
-        if(remoteTask.task.getId() != Task.NO_ID) {
-            return;
+    /**
+     * Load the local tasks of a list by their remote id, with the task
+     * columns merged when writing remote tasks, in one query
+     */
+    public GtasksIdResolver getIdResolver(String listId) {
+        HashMap<String, Match> matches = new HashMap<>();
+        TodorooCursor<Metadata> cursor = metadataDao.query(Query.select(RESOLVER_PROPERTIES)
+                .join(Join.left(Task.TABLE, Task.ID.eq(Metadata.TASK)))
+                .where(Criterion.and(
+                        MetadataCriteria.withKey(getMetadataKey()),
+                        GtasksMetadata.LIST_ID.eq(listId))));
+        try {
+            // reads only the metadata columns into the metadata
+            TodorooCursor<Metadata> metadataCursor = new TodorooCursor<>(cursor, Metadata.PROPERTIES, Metadata.class);
+            for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+                Metadata metadata = (Metadata) metadataCursor.asModel().detach();
+                String gtaskId = metadata.getValue(GtasksMetadata.ID);
+                if (TextUtils.isEmpty(gtaskId)) {
+                    continue;
+                }
+                matches.put(gtaskId, new Match(metadata, readTask(cursor, metadata.getTask())));
+            }
+        } finally {
+            cursor.close();
         }
-        Metadata metadata = getMetadataByGtaskId(remoteTask.gtaskMetadata.getValue(GtasksMetadata.ID));
-        if (metadata != null) {
-            remoteTask.task.setId(metadata.getValue(Metadata.TASK));
-            remoteTask.task.setUuid(taskDao.uuidFromLocalId(remoteTask.task.getId()));
-            remoteTask.gtaskMetadata = metadata;
+        return new GtasksIdResolver(this, matches);
+    }
+
+    /**
+     * Look up the local task of a remote id missing from the list loaded by
+     * {@link #getIdResolver(String)}
+     *
+     * @return match, or null if no local task has the remote id
+     */
+    public Match getMatch(String gtaskId) {
+        Metadata metadata = getMetadataByGtaskId(gtaskId);
+        if (metadata == null) {
+            return null;
         }
+        return new Match(metadata, taskDao.fetch(metadata.getTask(), Task.UUID, Task.DUE_DATE, Task.COMPLETION_DATE));
     }
 
-    public long localIdForGtasksId(String gtasksId) {
-        Metadata metadata = getMetadataByGtaskId(gtasksId);
-        return metadata == null ? AbstractModel.NO_ID : metadata.getTask();
+    private static Task readTask(TodorooCursor<Metadata> cursor, long taskId) {
+        String uuid = cursor.get(Task.UUID);
+        if (uuid == null) {
+            // left join found no task
+            return null;
+        }
+        Task task = new Task();
+        task.setId(taskId);
+        task.setUuid(uuid);
+        task.setDueDate(cursor.get(Task.DUE_DATE));
+        task.setCompletionDate(cursor.get(Task.COMPLETION_DATE));
+        return task;
     }
 
     private Metadata getMetadataByGtaskId(String gtaskId) {
@@ -153,10 +210,9 @@ public final class GtasksMetadataService {
     }
 
     private void iterateThroughList(String listId, final OrderedListIterator iterator, long startAtOrder, boolean reverse) {
-        Field orderField = Functions.cast(GtasksMetadata.ORDER, "LONG");
-        Order order = reverse ? Order.desc(orderField) : Order.asc(orderField);
-        Criterion startAtCriterion = reverse ?  Functions.cast(GtasksMetadata.ORDER, "LONG").lt(startAtOrder) :
-            Functions.cast(GtasksMetadata.ORDER, "LONG").gt(startAtOrder - 1);
+        Order order = reverse ? Order.desc(GtasksMetadata.ORDER) : Order.asc(GtasksMetadata.ORDER);
+        Criterion startAtCriterion = reverse ? GtasksMetadata.ORDER.lt(startAtOrder) :
+            GtasksMetadata.ORDER.gt(startAtOrder - 1);
 
         Query query = Query.select(Metadata.PROPERTIES).where(Criterion.and(
                         MetadataCriteria.withKey(GtasksMetadata.METADATA_KEY),
@@ -167,11 +223,7 @@ public final class GtasksMetadataService {
         metadataDao.query(query, new Callback<Metadata>() {
             @Override
             public void apply(Metadata entry) {
-                long taskId = entry.getValue(Metadata.TASK);
-                Metadata metadata = getTaskMetadata(taskId);
-                if(metadata != null) {
-                    iterator.processTask(taskId, metadata);
-                }
+                iterator.processTask(entry.getTask(), entry);
             }
         });
     }
@@ -6,6 +6,7 @@
 package com.todoroo.astrid.gtasks;
 
 import com.todoroo.andlib.utility.DateUtilities;
+import com.todoroo.astrid.gtasks.api.GtasksInvoker;
 
 import org.tasks.R;
 import org.tasks.preferences.Preferences;
@@ -28,6 +29,10 @@ public class GtasksPreferenceService {
 
     private static final String PREF_DEFAULT_LIST = IDENTIFIER + "_defaultlist"; //$NON-NLS-1$
     private static final String PREF_USER_NAME = IDENTIFIER + "_user"; //$NON-NLS-1$
+    private static final String PREF_PUSH_CONCURRENCY = IDENTIFIER + "_push_concurrency"; //$NON-NLS-1$
+    private static final String PREF_PAGE_SIZE = IDENTIFIER + "_page_size"; //$NON-NLS-1$
+    private static final String PREF_PAGE_TOKEN = IDENTIFIER + "_page_token_"; //$NON-NLS-1$
+    private static final String PREF_PAGE_UPDATED = IDENTIFIER + "_page_updated_"; //$NON-NLS-1$
 
     @Inject
     public GtasksPreferenceService(Preferences preferences) {
@@ -58,6 +63,52 @@ public class GtasksPreferenceService {
         preferences.setString(PREF_USER_NAME, userName);
     }
 
+    /**
+     * Creates and moves read the remote ids of the parent and prior sibling,
+     * which another thread may still be creating, so changes are pushed by
+     * one thread unless set otherwise. Updates are batched either way
+     *
+     * @return number of queued changes pushed at the same time
+     */
+    public int getPushConcurrency() {
+        return Math.max(1, preferences.getInt(PREF_PUSH_CONCURRENCY, 1));
+    }
+
+    /**
+     * @return remote tasks fetched per request
+     */
+    public int getPageSize() {
+        int pageSize = preferences.getInt(PREF_PAGE_SIZE, GtasksInvoker.MAX_PAGE_SIZE);
+        return Math.max(1, Math.min(GtasksInvoker.MAX_PAGE_SIZE, pageSize));
+    }
+
+    /**
+     * @return token of the next page to fetch for an interrupted sync of
+     *         the list, or null to start at the first page
+     */
+    public String getPageToken(String listId) {
+        return preferences.getStringValue(PREF_PAGE_TOKEN + listId);
+    }
+
+    /**
+     * @return latest update time of the remote tasks written by an
+     *         interrupted sync of the list
+     */
+    public long getPageUpdated(String listId) {
+        return preferences.getLong(PREF_PAGE_UPDATED + listId, 0);
+    }
+
+    /** Record the pages of the list written so far */
+    public void setPageProgress(String listId, String pageToken, long updated) {
+        preferences.setString(PREF_PAGE_TOKEN + listId, pageToken);
+        preferences.setLong(PREF_PAGE_UPDATED + listId, updated);
+    }
+
+    public void clearPageProgress(String listId) {
+        preferences.clear(PREF_PAGE_TOKEN + listId);
+        preferences.clear(PREF_PAGE_UPDATED + listId);
+    }
+
     protected static final String PREF_TOKEN = "_token"; //$NON-NLS-1$
 
     protected static final String PREF_LAST_SYNC = "_last_sync"; //$NON-NLS-1$
@@ -14,6 +14,7 @@ import com.todoroo.andlib.sql.Criterion;
 import com.todoroo.andlib.sql.Functions;
 import com.todoroo.andlib.sql.Order;
 import com.todoroo.andlib.sql.Query;
+import com.todoroo.astrid.dao.Database;
 import com.todoroo.astrid.dao.MetadataDao;
 import com.todoroo.astrid.data.Metadata;
 import com.todoroo.astrid.data.Task;
@@ -52,9 +53,9 @@ public class GtasksTaskListUpdater extends OrderedMetadataListUpdater<GtasksList
     private final GtasksMetadata gtasksMetadata;
 
     @Inject
-    public GtasksTaskListUpdater(GtasksListService gtasksListService, GtasksMetadataService gtasksMetadataService,
+    public GtasksTaskListUpdater(Database database, GtasksListService gtasksListService, GtasksMetadataService gtasksMetadataService,
                                  GtasksSyncService gtasksSyncService, MetadataDao metadataDao, GtasksMetadata gtasksMetadata) {
-        super(metadataDao);
+        super(database, metadataDao);
         this.gtasksListService = gtasksListService;
         this.gtasksMetadataService = gtasksMetadataService;
         this.gtasksSyncService = gtasksSyncService;
@@ -90,6 +91,11 @@ public class GtasksTaskListUpdater extends OrderedMetadataListUpdater<GtasksList
         return metadata;
     }
 
+    @Override
+    protected String getListId(GtasksList list) {
+        return list.getRemoteId();
+    }
+
     @Override
     protected void beforeIndent(GtasksList list) {
         updateParentSiblingMapsFor(list);
@@ -141,11 +147,13 @@ public class GtasksTaskListUpdater extends OrderedMetadataListUpdater<GtasksList
                 previousIndent.set(indent);
             }
         });
+        invalidate(listId);
     }
 
     public void correctOrderAndIndentForList(String listId) {
         orderAndIndentHelper(listId, new AtomicLong(0L), Task.NO_ID, 0,
                 new HashSet<Long>());
+        invalidate(listId);
     }
 
     private void orderAndIndentHelper(final String listId, final AtomicLong order, final long parent, final int indentLevel, final Set<Long> alreadyChecked) {
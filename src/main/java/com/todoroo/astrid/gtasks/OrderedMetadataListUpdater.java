@@ -7,19 +7,30 @@ package com.todoroo.astrid.gtasks;
 
 import com.todoroo.andlib.data.Property.IntegerProperty;
 import com.todoroo.andlib.data.Property.LongProperty;
+import com.todoroo.astrid.dao.Database;
 import com.todoroo.astrid.dao.MetadataDao;
 import com.todoroo.astrid.data.Metadata;
 import com.todoroo.astrid.data.Task;
 
 import java.util.ArrayList;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.HashMap;
+import java.util.List;
 
+/**
+ * Orders, indents and parents of the tasks in a list, stored in metadata.
+ * The tree of each list is read with one query and cached until metadata
+ * is written by someone else, which is checked against the write count of
+ * the metadata table before each use, see {@link Database#getWriteCount}.
+ * Operations write only the metadata whose values changed, in one
+ * transaction.
+ */
 abstract public class OrderedMetadataListUpdater<LIST> {
 
-    private MetadataDao metadataDao;
+    private final Database database;
+    private final MetadataDao metadataDao;
+
+    /** trees of the lists read so far, by list id */
+    private final HashMap<String, CachedTree> trees = new HashMap<>();
 
     public interface OrderedListIterator {
         public void processTask(long taskId, Metadata metadata);
@@ -39,7 +50,13 @@ abstract public class OrderedMetadataListUpdater<LIST> {
 
     abstract protected Metadata createEmptyMetadata(LIST list, long taskId);
 
-    public OrderedMetadataListUpdater(MetadataDao metadataDao) {
+    /**
+     * @return id the tree of the list is cached by
+     */
+    abstract protected String getListId(LIST list);
+
+    public OrderedMetadataListUpdater(Database database, MetadataDao metadataDao) {
+        this.database = database;
         this.metadataDao = metadataDao;
     }
 
@@ -51,102 +68,109 @@ abstract public class OrderedMetadataListUpdater<LIST> {
         //
     }
 
+    // --- cached trees
+
+    private static final class CachedTree {
+        private Node root;
+
+        /** write count of the metadata table the tree is current for */
+        private long writes;
+
+        private CachedTree(Node root, long writes) {
+            this.root = root;
+            this.writes = writes;
+        }
+    }
+
+    /**
+     * Forget the cached tree of a list, e.g. after rewriting its metadata
+     */
+    protected synchronized void invalidate(String listId) {
+        trees.remove(listId);
+    }
+
+    /**
+     * @return tree of the list, read again if metadata was written since
+     *         it was cached
+     */
+    private CachedTree getTree(LIST list) {
+        String listId = getListId(list);
+        // counted before reading, a write made meanwhile is seen next time
+        long writes = database.getWriteCount(Metadata.TABLE);
+        CachedTree tree = trees.get(listId);
+        if (tree == null || tree.writes != writes) {
+            tree = new CachedTree(buildTreeModel(list), writes);
+            trees.put(listId, tree);
+        }
+        return tree;
+    }
+
     // --- task indenting
 
     /**
      * Indent a task and all its children
      */
-    public void indent(final LIST list, final long targetTaskId, final int delta) {
+    public synchronized void indent(final LIST list, final long targetTaskId, final int delta) {
         if(list == null) {
             return;
         }
 
         beforeIndent(list);
 
-        final AtomicInteger targetTaskIndent = new AtomicInteger(-1);
-        final AtomicInteger previousIndent = new AtomicInteger(-1);
-        final AtomicLong previousTask = new AtomicLong(Task.NO_ID);
-        final AtomicLong globalOrder = new AtomicLong(-1);
-
-        iterateThroughList(list, new OrderedListIterator() {
-            @Override
-            public void processTask(long taskId, Metadata metadata) {
-                if(!metadata.isSaved()) {
-                    metadata = createEmptyMetadata(list, taskId);
-                }
-                int indent = metadata.containsNonNullValue(indentProperty()) ?
-                        metadata.getValue(indentProperty()) : 0;
-
-                long order = globalOrder.incrementAndGet();
-                metadata.setValue(orderProperty(), order);
-
-                if(targetTaskId == taskId) {
-                    // if indenting is warranted, indent me and my children
-                    if(indent + delta <= previousIndent.get() + 1 && indent + delta >= 0) {
-                        targetTaskIndent.set(indent);
-                        metadata.setValue(indentProperty(), indent + delta);
-
-                        if(parentProperty() != null) {
-                            long newParent = computeNewParent(list,
-                                    taskId, indent + delta - 1);
-                            if (newParent == taskId) {
-                                metadata.setValue(parentProperty(), Task.NO_ID);
-                            } else {
-                                metadata.setValue(parentProperty(), newParent);
-                            }
-                        }
-                        saveAndUpdateModifiedDate(metadata);
+        CachedTree tree = getTree(list);
+        List<Node> nodes = new ArrayList<>();
+        inOrder(tree.root, nodes);
+
+        Node target = null;
+        int targetTaskIndent = -1;
+        int previousIndent = -1;
+        long order = 0;
+        List<Metadata> metadata = new ArrayList<>();
+        for(int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get(i);
+            int indent = getIndent(node.metadata);
+            node.metadata.setValue(orderProperty(), order++);
+
+            if(targetTaskId == node.taskId) {
+                target = node;
+                // if indenting is warranted, indent me and my children
+                if(indent + delta <= previousIndent + 1 && indent + delta >= 0) {
+                    targetTaskIndent = indent;
+                    node.metadata.setValue(indentProperty(), indent + delta);
+
+                    if(parentProperty() != null) {
+                        node.metadata.setValue(parentProperty(), computeNewParent(nodes, i, indent + delta - 1));
                     }
-                } else if(targetTaskIndent.get() > -1) {
-                    // found first task that is not beneath target
-                    if(indent <= targetTaskIndent.get()) {
-                        targetTaskIndent.set(-1);
-                    } else {
-                        metadata.setValue(indentProperty(), indent + delta);
-                        saveAndUpdateModifiedDate(metadata);
-                    }
-                } else {
-                    previousIndent.set(indent);
-                    previousTask.set(taskId);
                 }
-
-                if(!metadata.isSaved()) {
-                    saveAndUpdateModifiedDate(metadata);
+            } else if(targetTaskIndent > -1) {
+                // found first task that is not beneath target
+                if(indent <= targetTaskIndent) {
+                    targetTaskIndent = -1;
+                } else {
+                    node.metadata.setValue(indentProperty(), indent + delta);
                 }
+            } else {
+                previousIndent = indent;
             }
+            metadata.add(node.metadata);
+        }
 
-        });
-        onMovedOrIndented(getTaskMetadata(targetTaskId));
+        write(list, tree, metadata);
+        tree.root = buildTree(metadata);
+        onMovedOrIndented(target == null ? null : copy(target));
     }
 
     /**
-     * Helper function to iterate through a list and compute a new parent for the target task
-     * based on the target parent's indent
+     * Compute a new parent for the task at the given position: the last task
+     * before it having the parent's indent
      */
-    private long computeNewParent(LIST list, long targetTaskId, int targetParentIndent) {
-        final AtomicInteger desiredParentIndent = new AtomicInteger(targetParentIndent);
-        final AtomicLong targetTask = new AtomicLong(targetTaskId);
-        final AtomicLong lastPotentialParent = new AtomicLong(Task.NO_ID);
-        final AtomicBoolean computedParent = new AtomicBoolean(false);
-
-        iterateThroughList(list, new OrderedListIterator() {
-            @Override
-            public void processTask(long taskId, Metadata metadata) {
-                if (targetTask.get() == taskId) {
-                    computedParent.set(true);
-                }
-
-                int indent = metadata.getValue(indentProperty());
-                if (!computedParent.get() && indent == desiredParentIndent.get()) {
-                    lastPotentialParent.set(taskId);
-                }
+    private long computeNewParent(List<Node> nodes, int targetIndex, int targetParentIndent) {
+        for(int i = targetIndex - 1; i >= 0; i--) {
+            if(getIndent(nodes.get(i).metadata) == targetParentIndent) {
+                return nodes.get(i).taskId;
             }
-        });
-
-        if (lastPotentialParent.get() == Task.NO_ID) {
-            return Task.NO_ID;
         }
-        return lastPotentialParent.get();
+        return Task.NO_ID;
     }
 
     // --- task moving
@@ -155,13 +179,14 @@ abstract public class OrderedMetadataListUpdater<LIST> {
      * Move a task and all its children to the position right above
      * taskIdToMoveto. Will change the indent level to match taskIdToMoveTo.
      */
-    public void moveTo(LIST list, final long targetTaskId,
+    public synchronized void moveTo(LIST list, final long targetTaskId,
             final long moveBeforeTaskId) {
         if(list == null) {
             return;
         }
 
-        Node root = buildTreeModel(list);
+        CachedTree tree = getTree(list);
+        Node root = tree.root;
         Node target = findNode(root, targetTaskId);
 
         if(target != null && target.parent != null) {
@@ -186,8 +211,8 @@ abstract public class OrderedMetadataListUpdater<LIST> {
             }
         }
 
-        traverseTreeAndWriteValues(list, root, new AtomicLong(0), -1);
-        onMovedOrIndented(getTaskMetadata(targetTaskId));
+        writeTree(list, tree);
+        onMovedOrIndented(target == null || target.metadata == null ? null : copy(target));
     }
 
     private boolean ancestorOf(Node ancestor, Node descendant) {
@@ -204,6 +229,8 @@ abstract public class OrderedMetadataListUpdater<LIST> {
         public final long taskId;
         public Node parent;
         public final ArrayList<Node> children = new ArrayList<>();
+        /** metadata of the task, null for the root */
+        Metadata metadata;
 
         public Node(long taskId, Node parent) {
             this.taskId = taskId;
@@ -211,31 +238,81 @@ abstract public class OrderedMetadataListUpdater<LIST> {
         }
     }
 
-    protected void traverseTreeAndWriteValues(LIST list, Node node, AtomicLong order, int indent) {
-        if(node.taskId != Task.NO_ID) {
-            Metadata metadata = getTaskMetadata(node.taskId);
-            if(metadata == null) {
-                metadata = createEmptyMetadata(list, node.taskId);
-            }
-            metadata.setValue(orderProperty(), order.getAndIncrement());
-            metadata.setValue(indentProperty(), indent);
-            boolean parentChanged = false;
-            if(parentProperty() != null && metadata.getValue(parentProperty()) !=
-                    node.parent.taskId) {
-                parentChanged = true;
-                metadata.setValue(parentProperty(), node.parent.taskId);
-            }
-            saveAndUpdateModifiedDate(metadata);
-            if(parentChanged) {
-                onMovedOrIndented(metadata);
+    /**
+     * Set order, indent and parent of every task from its position in the
+     * tree, and write the metadata that changed
+     */
+    private void writeTree(LIST list, CachedTree tree) {
+        List<Metadata> metadata = new ArrayList<>();
+        List<Node> moved = new ArrayList<>();
+        traverseTreeAndSetValues(tree.root, 0, -1, metadata, moved);
+        write(list, tree, metadata);
+        for(Node node : moved) {
+            onMovedOrIndented(copy(node));
+        }
+    }
+
+    private long traverseTreeAndSetValues(Node node, long order, int indent, List<Metadata> metadata, List<Node> moved) {
+        if(node.metadata != null) {
+            node.metadata.setValue(orderProperty(), order++);
+            node.metadata.setValue(indentProperty(), indent);
+            if(parentProperty() != null && !Long.valueOf(node.parent.taskId).equals(
+                    node.metadata.getValue(parentProperty()))) {
+                node.metadata.setValue(parentProperty(), node.parent.taskId);
+                moved.add(node);
             }
+            metadata.add(node.metadata);
         }
 
         for(Node child : node.children) {
-            traverseTreeAndWriteValues(list, child, order, indent + 1);
+            order = traverseTreeAndSetValues(child, order, indent + 1, metadata, moved);
+        }
+        return order;
+    }
+
+    /**
+     * Save the metadata having changed values in one transaction. The tree
+     * stays cached only if no one else wrote metadata since it was read
+     */
+    private void write(LIST list, CachedTree tree, List<Metadata> metadata) {
+        List<Metadata> changed = new ArrayList<>();
+        for(Metadata item : metadata) {
+            if(item.getSetValueCount() > 0) {
+                changed.add(item);
+            }
+        }
+        if(changed.isEmpty()) {
+            return;
+        }
+        int count;
+        try {
+            count = metadataDao.persistAll(changed);
+        } catch (RuntimeException e) {
+            // cached metadata holds values that were not written
+            trees.clear();
+            throw e;
+        }
+        long writes = database.getWriteCount(Metadata.TABLE);
+        if(writes - tree.writes == count) {
+            tree.writes = writes;
+        } else {
+            trees.remove(getListId(list));
         }
     }
 
+    private int getIndent(Metadata metadata) {
+        return metadata.containsNonNullValue(indentProperty()) ?
+                metadata.getValue(indentProperty()) : 0;
+    }
+
+    /**
+     * @return copy of the metadata of a node, for readers outside of this
+     *         updater
+     */
+    private static Metadata copy(Node node) {
+        return (Metadata) node.metadata.clone();
+    }
+
     protected Node findNode(Node node, long taskId) {
         if(node.taskId == taskId) {
             return node;
@@ -249,49 +326,57 @@ abstract public class OrderedMetadataListUpdater<LIST> {
         return null;
     }
 
-    protected Node buildTreeModel(LIST list) {
-        final Node root = new Node(Task.NO_ID, null);
-        final AtomicInteger previoustIndent = new AtomicInteger(-1);
-        final AtomicReference<Node> currentNode = new AtomicReference<>(root);
+    private static void inOrder(Node node, List<Node> nodes) {
+        for(Node child : node.children) {
+            nodes.add(child);
+            inOrder(child, nodes);
+        }
+    }
 
+    protected Node buildTreeModel(LIST list) {
+        final List<Metadata> metadata = new ArrayList<>();
         iterateThroughList(list, new OrderedListIterator() {
             @Override
-            public void processTask(long taskId, Metadata metadata) {
-                int indent = metadata.getValue(indentProperty());
-
-                int previousIndentValue = previoustIndent.get();
-                if(indent == previousIndentValue) { // sibling
-                    Node parent = currentNode.get().parent;
-                    currentNode.set(new Node(taskId, parent));
-                    parent.children.add(currentNode.get());
-                } else if(indent > previousIndentValue) { // child
-                    Node parent = currentNode.get();
-                    currentNode.set(new Node(taskId, parent));
-                    parent.children.add(currentNode.get());
-                } else { // in a different tree
-                    Node node = currentNode.get().parent;
-                    for(int i = indent; i < previousIndentValue; i++) {
-                        node = node.parent;
-                        if(node == null) {
-                            node = root;
-                            break;
-                        }
-                    }
-                    currentNode.set(new Node(taskId, node));
-                    node.children.add(currentNode.get());
-                }
-
-                previoustIndent.set(indent);
+            public void processTask(long taskId, Metadata item) {
+                metadata.add(item);
             }
         });
-        return root;
+        return buildTree(metadata);
     }
 
-    protected void saveAndUpdateModifiedDate(Metadata metadata) {
-        if(metadata.getSetValues().size() == 0) {
-            return;
+    /**
+     * Build a tree from metadata in list order, nesting tasks by indent
+     */
+    private Node buildTree(List<Metadata> metadata) {
+        Node root = new Node(Task.NO_ID, null);
+        Node currentNode = root;
+        int previousIndent = -1;
+
+        for(Metadata item : metadata) {
+            int indent = getIndent(item);
+
+            Node parent;
+            if(indent == previousIndent) { // sibling
+                parent = currentNode.parent;
+            } else if(indent > previousIndent) { // child
+                parent = currentNode;
+            } else { // in a different tree
+                parent = currentNode.parent;
+                for(int i = indent; i < previousIndent; i++) {
+                    parent = parent.parent;
+                    if(parent == null) {
+                        parent = root;
+                        break;
+                    }
+                }
+            }
+            currentNode = new Node(item.getTask(), parent);
+            currentNode.metadata = item;
+            parent.children.add(currentNode);
+
+            previousIndent = indent;
         }
-        metadataDao.persist(metadata);
+        return root;
     }
 
     // --- task cascading operations
@@ -305,34 +390,29 @@ abstract public class OrderedMetadataListUpdater<LIST> {
      */
     public void applyToChildren(LIST list, long targetTaskId,
             OrderedListNodeVisitor visitor) {
-
-        Node root = buildTreeModel(list);
-        Node target = findNode(root, targetTaskId);
-
-        if(target != null) {
-            for (Node child : target.children) {
-                applyVisitor(child, visitor);
+        List<Node> children = new ArrayList<>();
+        synchronized (this) {
+            Node target = findNode(getTree(list).root, targetTaskId);
+            if(target != null) {
+                inOrder(target, children);
             }
         }
-    }
 
-    private void applyVisitor(Node node, OrderedListNodeVisitor visitor) {
-        visitor.visitNode(node);
-        for(Node child : node.children) {
-            applyVisitor(child, visitor);
+        for(Node child : children) {
+            visitor.visitNode(child);
         }
     }
 
     /**
      * Removes a task from the order hierarchy and un-indent children
      */
-    public void onDeleteTask(LIST list, final long targetTaskId) {
+    public synchronized void onDeleteTask(LIST list, final long targetTaskId) {
         if(list == null) {
             return;
         }
 
-        Node root = buildTreeModel(list);
-        Node target = findNode(root, targetTaskId);
+        CachedTree tree = getTree(list);
+        Node target = findNode(tree.root, targetTaskId);
 
         if(target != null && target.parent != null) {
             int targetIndex = target.parent.children.indexOf(target);
@@ -343,6 +423,8 @@ abstract public class OrderedMetadataListUpdater<LIST> {
             }
         }
 
-        traverseTreeAndWriteValues(list, root, new AtomicLong(0), -1);
+        writeTree(list, tree);
+        // the metadata of the deleted task is kept, so the list read again differs
+        trees.remove(getListId(list));
     }
 }
@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.gtasks.api;
+
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.services.tasks.TasksRequest;
+import com.google.api.services.tasks.model.Task;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Operations sent together in multipart batch requests, so pushing many
+ * tasks takes a request per batch instead of a request per task. Queuing
+ * an operation sends the batch once it is full, {@link #execute()} sends
+ * the rest.
+ * <p>
+ * Each operation reports to its own callback, so one failing does not fail
+ * the others. Google may run the operations of a batch in any order, so
+ * queue only operations that do not depend on each other.
+ *
+ * @see GtasksInvoker#newBatch()
+ */
+public class GtasksBatch {
+
+    private static final Logger log = LoggerFactory.getLogger(GtasksBatch.class);
+
+    /**
+     * Result of one operation, called on the thread sending the batch
+     */
+    public interface Callback<T> {
+        void onSuccess(T result) throws IOException;
+
+        /**
+         * @param e {@link HttpNotFoundException} if the task or list does
+         *          not exist, {@link GoogleTasksException} for other errors
+         */
+        void onFailure(IOException e) throws IOException;
+    }
+
+    private final GtasksInvoker invoker;
+    private final int size;
+    private final List<Operation<?>> operations = new ArrayList<>();
+
+    GtasksBatch(GtasksInvoker invoker, int size) {
+        this.invoker = invoker;
+        this.size = size;
+    }
+
+    /**
+     * Queue an update, which replaces the whole remote task. Fields left
+     * null are cleared, so pass the task with every field it should keep
+     */
+    public void updateGtask(String listId, Task task, Callback<Task> callback) throws IOException {
+        add(invoker.tasks()
+                .update(listId, task.getId(), task), callback);
+    }
+
+    /**
+     * @return operations queued and not sent yet
+     */
+    public int size() {
+        return operations.size();
+    }
+
+    private <T> void add(TasksRequest<T> request, Callback<T> callback) throws IOException {
+        operations.add(new Operation<>(request, callback));
+        if (operations.size() >= size) {
+            execute();
+        }
+    }
+
+    /**
+     * Send the queued operations and call their callbacks. Operations
+     * rejected for the auth token are sent again once after revalidating it
+     *
+     * @throws IOException if the batch request itself failed twice. The
+     *                     callbacks of the operations not answered yet
+     *                     are not called
+     */
+    public void execute() throws IOException {
+        if (operations.isEmpty()) {
+            return;
+        }
+        List<Operation<?>> pending = new ArrayList<>(operations);
+        operations.clear();
+
+        List<Operation<?>> unauthorized = send(pending, true);
+        if (!unauthorized.isEmpty()) {
+            invoker.revalidateToken();
+            send(unauthorized, false);
+        }
+    }
+
+    private List<Operation<?>> send(List<Operation<?>> pending, boolean retryUnauthorized) throws IOException {
+        List<Operation<?>> unauthorized = new ArrayList<>();
+        try {
+            execute(pending, unauthorized, retryUnauthorized);
+        } catch (IOException e) {
+            invoker.handleException(e);
+            // the response may have been read in part, callbacks already called are not called again
+            List<Operation<?>> unanswered = new ArrayList<>();
+            for (Operation<?> operation : pending) {
+                if (!operation.answered) {
+                    unanswered.add(operation);
+                }
+            }
+            execute(unanswered, unauthorized, retryUnauthorized);
+        }
+        return unauthorized;
+    }
+
+    private void execute(List<Operation<?>> pending, List<Operation<?>> unauthorized, boolean retryUnauthorized) throws IOException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        BatchRequest batch = invoker.batchRequest();
+        for (Operation<?> operation : pending) {
+            operation.queue(batch, invoker.getKey(), unauthorized, retryUnauthorized);
+        }
+        log.debug("batch request: {} operations", batch.size());
+        batch.execute();
+    }
+
+    private static class Operation<T> {
+        private final TasksRequest<T> request;
+        private final Callback<T> callback;
+
+        /** true once the response to the last request sending it was read */
+        private boolean answered;
+
+        Operation(TasksRequest<T> request, Callback<T> callback) {
+            this.request = request;
+            this.callback = callback;
+        }
+
+        void queue(BatchRequest batch, String key, final List<Operation<?>> unauthorized,
+                   final boolean retryUnauthorized) throws IOException {
+            answered = false;
+            request.setKey(key).queue(batch, new JsonBatchCallback<T>() {
+                @Override
+                public void onSuccess(T result, HttpHeaders responseHeaders) throws IOException {
+                    answered = true;
+                    callback.onSuccess(result);
+                }
+
+                @Override
+                public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders) throws IOException {
+                    answered = true;
+                    int code = error.getCode();
+                    if ((code == 401 || code == 403) && retryUnauthorized) {
+                        unauthorized.add(Operation.this);
+                    } else if (code == 404) {
+                        callback.onFailure(new HttpNotFoundException(error.getMessage()));
+                    } else {
+                        callback.onFailure(new GoogleTasksException(code + ": " + error.getMessage()));
+                    }
+                }
+            });
+        }
+    }
+}
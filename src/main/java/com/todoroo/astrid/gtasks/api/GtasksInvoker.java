@@ -4,9 +4,11 @@ import android.content.Context;
 
 import com.google.api.client.extensions.android.http.AndroidHttp;
 import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
+import com.google.api.client.googleapis.batch.BatchRequest;
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpRequestInitializer;
 import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpTransport;
 import com.google.api.client.json.GenericJson;
 import com.google.api.client.json.gson.GsonFactory;
 import com.google.api.services.tasks.Tasks;
@@ -35,6 +37,7 @@ public class GtasksInvoker {
     private final Context context;
     private final GtasksTokenValidator gtasksTokenValidator;
     private Tasks service;
+    private final HttpRequestInitializer httpRequestInitializer;
     private GoogleCredential credential = new GoogleCredential();
     private String token;
 
@@ -42,35 +45,42 @@ public class GtasksInvoker {
 
     public static final String AUTH_TOKEN_TYPE = "Manage your tasks"; //"oauth2:https://www.googleapis.com/auth/tasks";
 
+    /** most tasks the api returns per page */
+    public static final int MAX_PAGE_SIZE = 100;
+
+    /** operations sent in one batch request, see {@link #newBatch()} */
+    public static final int BATCH_SIZE = 50;
+
     public GtasksInvoker(Context context, GtasksTokenValidator gtasksTokenValidator, String authToken) {
+        this(context, gtasksTokenValidator, authToken, AndroidHttp.newCompatibleTransport());
+    }
+
+    public GtasksInvoker(Context context, GtasksTokenValidator gtasksTokenValidator, String authToken, HttpTransport transport) {
         this.context = context;
         this.gtasksTokenValidator = gtasksTokenValidator;
         this.token = authToken;
 
         key = context.getString(R.string.gapi_key);
         credential.setAccessToken(authToken);
-        HttpRequestInitializer httpRequestInitializer = new HttpRequestInitializer() {
+        httpRequestInitializer = new HttpRequestInitializer() {
             @Override
             public void initialize(HttpRequest request) throws IOException {
                 credential.initialize(request);
                 request.setReadTimeout(0); // infinite
             }
         };
-        service = new Tasks.Builder(AndroidHttp.newCompatibleTransport(), new GsonFactory(), httpRequestInitializer)
+        service = new Tasks.Builder(transport, new GsonFactory(), httpRequestInitializer)
                 .setApplicationName("Tasks")
                 .build();
     }
 
     //If we get a 401 or 403, try revalidating the auth token before bailing
-    private synchronized void handleException(IOException e) throws IOException {
+    synchronized void handleException(IOException e) throws IOException {
         if (e instanceof HttpResponseException) {
             HttpResponseException h = (HttpResponseException) e;
             int statusCode = h.getStatusCode();
             if (statusCode == 401 || statusCode == 403) {
-                token = gtasksTokenValidator.validateAuthToken(context, token);
-                if (token != null) {
-                    credential.setAccessToken(token);
-                }
+                revalidateToken();
             } else if (statusCode == 400 || statusCode == 500) {
                 throw h;
             } else if (statusCode == 404) {
@@ -84,6 +94,13 @@ public class GtasksInvoker {
         }
     }
 
+    synchronized void revalidateToken() throws IOException {
+        token = gtasksTokenValidator.validateAuthToken(context, token);
+        if (token != null) {
+            credential.setAccessToken(token);
+        }
+    }
+
     /**
      * A simple service query that will throw an exception if anything goes wrong.
      * Useful for checking if token needs revalidating or if there are network problems--
@@ -110,13 +127,20 @@ public class GtasksInvoker {
                 .get(id));
     }
 
-    public com.google.api.services.tasks.model.Tasks getAllGtasksFromListId(String listId, boolean includeDeleted, boolean includeHidden, long lastSyncDate) throws IOException {
+    /**
+     * @param pageToken next page token of the previous page, or null for the first page
+     * @param pageSize  tasks per page, at most {@link #MAX_PAGE_SIZE}
+     */
+    public com.google.api.services.tasks.model.Tasks getAllGtasksFromListId(String listId, boolean includeDeleted, boolean includeHidden,
+                                                                             long lastSyncDate, String pageToken, int pageSize) throws IOException {
         return execute(service
                 .tasks()
                 .list(listId)
                 .setShowDeleted(includeDeleted)
                 .setShowHidden(includeHidden)
-                .setUpdatedMin(GtasksApiUtilities.unixTimeToGtasksCompletionTime(lastSyncDate).toStringRfc3339()));
+                .setUpdatedMin(GtasksApiUtilities.unixTimeToGtasksCompletionTime(lastSyncDate).toStringRfc3339())
+                .setPageToken(pageToken)
+                .setMaxResults((long) pageSize));
     }
 
     public Task createGtask(String listId, Task task, String parent, String priorSiblingId) throws IOException {
@@ -127,6 +151,9 @@ public class GtasksInvoker {
                 .setPrevious(priorSiblingId));
     }
 
+    /**
+     * Replace the remote task, see {@link GtasksBatch#updateGtask}
+     */
     public void updateGtask(String listId, Task task) throws IOException {
         execute(service
                 .tasks()
@@ -147,6 +174,25 @@ public class GtasksInvoker {
                 .delete(listId, taskId));
     }
 
+    /**
+     * @return batch sending up to {@link #BATCH_SIZE} operations per request
+     */
+    public GtasksBatch newBatch() {
+        return new GtasksBatch(this, BATCH_SIZE);
+    }
+
+    Tasks.TasksOperations tasks() {
+        return service.tasks();
+    }
+
+    BatchRequest batchRequest() {
+        return service.batch(httpRequestInitializer);
+    }
+
+    String getKey() {
+        return key;
+    }
+
     private <T> T execute(TasksRequest<T> request) throws IOException {
         String caller = getCaller();
         log.debug("{} request: {}", caller, request);
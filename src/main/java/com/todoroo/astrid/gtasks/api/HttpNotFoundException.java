@@ -8,4 +8,8 @@ public class HttpNotFoundException extends IOException {
     public HttpNotFoundException(HttpResponseException e) {
         super(e.getMessage());
     }
+
+    public HttpNotFoundException(String message) {
+        super(message);
+    }
 }
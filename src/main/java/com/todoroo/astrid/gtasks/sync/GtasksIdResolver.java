@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.gtasks.sync;
+
+import com.todoroo.andlib.data.AbstractModel;
+import com.todoroo.astrid.data.Metadata;
+import com.todoroo.astrid.data.Task;
+import com.todoroo.astrid.gtasks.GtasksMetadata;
+import com.todoroo.astrid.gtasks.GtasksMetadataService;
+
+import java.util.HashMap;
+
+/**
+ * Local tasks of a list by their Google Tasks id, loaded in one query
+ * before the remote tasks of the list are written, so matching each remote
+ * task and its parent is a lookup instead of several queries. Remote ids
+ * missing from the list, e.g. of tasks moved from another list, are looked
+ * up one at a time.
+ *
+ * @see GtasksMetadataService#getIdResolver(String)
+ */
+public class GtasksIdResolver {
+
+    /**
+     * Local task matching a remote task
+     */
+    public static final class Match {
+        /** gtasks metadata of the task */
+        public final Metadata metadata;
+        /** id, uuid, due date and completion date, or null if the task was deleted */
+        public final Task task;
+
+        public Match(Metadata metadata, Task task) {
+            this.metadata = metadata;
+            this.task = task;
+        }
+    }
+
+    private final GtasksMetadataService gtasksMetadataService;
+    private final HashMap<String, Match> matches;
+
+    public GtasksIdResolver(GtasksMetadataService gtasksMetadataService, HashMap<String, Match> matches) {
+        this.gtasksMetadataService = gtasksMetadataService;
+        this.matches = matches;
+    }
+
+    /**
+     * @return match for the remote id, or null if no local task has it
+     */
+    public Match get(String gtaskId) {
+        if (gtaskId == null) {
+            return null;
+        }
+        if (!matches.containsKey(gtaskId)) {
+            matches.put(gtaskId, gtasksMetadataService.getMatch(gtaskId));
+        }
+        return matches.get(gtaskId);
+    }
+
+    /**
+     * Point the remote task at its local task, if there is one
+     *
+     * @return local task, or null if the remote task is new or its local
+     *         task was deleted
+     */
+    public Task findLocalMatch(GtasksTaskContainer remoteTask) {
+        if (remoteTask.task.getId() != Task.NO_ID) {
+            return null;
+        }
+        Match match = get(remoteTask.gtaskMetadata.getValue(GtasksMetadata.ID));
+        if (match == null) {
+            return null;
+        }
+        remoteTask.task.setId(match.metadata.getTask());
+        remoteTask.task.setUuid(match.task == null ? Task.NO_UUID : match.task.getUuid());
+        remoteTask.gtaskMetadata = match.metadata;
+        return match.task;
+    }
+
+    /**
+     * @return local id of the task with the remote id, or
+     *         {@link AbstractModel#NO_ID}
+     */
+    public long localIdForGtasksId(String gtaskId) {
+        Match match = get(gtaskId);
+        return match == null ? AbstractModel.NO_ID : match.metadata.getTask();
+    }
+
+    /**
+     * Remember a remote task after it was written, so its children and
+     * later pages find it
+     */
+    public void saved(GtasksTaskContainer remoteTask) {
+        if (!remoteTask.task.isSaved()) {
+            return;
+        }
+        Task task = new Task();
+        task.setId(remoteTask.task.getId());
+        task.setUuid(remoteTask.task.getUuid());
+        task.setDueDate(remoteTask.task.getDueDate());
+        task.setCompletionDate(remoteTask.task.getCompletionDate());
+        Metadata metadata = (Metadata) remoteTask.gtaskMetadata.clone();
+        metadata.setTask(task.getId());
+        matches.put(metadata.getValue(GtasksMetadata.ID), new Match(metadata, task));
+    }
+}
@@ -0,0 +1,229 @@
+/**
+ * Copyright (c) 2012 Todoroo Inc
+ *
+ * See the file "LICENSE" for the full license governing this code.
+ */
+package com.todoroo.astrid.gtasks.sync;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+
+import com.todoroo.andlib.utility.DateUtilities;
+import com.todoroo.astrid.dao.Database;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Local changes waiting to be pushed to Google Tasks, one row per task.
+ * Changing a task again before it was pushed merges the changed columns
+ * into its row, so the task is pushed once with every change. Rows are
+ * stored in the database, so changes made before the process was killed
+ * are pushed when it starts again. A push failing {@link #MAX_ATTEMPTS}
+ * times is dropped.
+ * <p>
+ * A change can be claimed {@link #SETTLE_DELAY} after it was added, so the
+ * writes following it, e.g. the list metadata of a new task, are pushed
+ * with it.
+ */
+@Singleton
+public class GtasksPushQueue {
+
+    public static final String TABLE = "gtasks_push_queue"; //$NON-NLS-1$
+
+    public static final String CREATE_SQL = "CREATE TABLE IF NOT EXISTS " + TABLE + //$NON-NLS-1$
+            " (task INTEGER PRIMARY KEY, columns TEXT NOT NULL, move INTEGER NOT NULL, version INTEGER NOT NULL, " + //$NON-NLS-1$
+            "attempts INTEGER NOT NULL DEFAULT 0, not_before INTEGER NOT NULL DEFAULT 0)"; //$NON-NLS-1$
+
+    public static final String ADD_ATTEMPTS_SQL = "ALTER TABLE " + TABLE + //$NON-NLS-1$
+            " ADD attempts INTEGER NOT NULL DEFAULT 0"; //$NON-NLS-1$
+
+    public static final String ADD_NOT_BEFORE_SQL = "ALTER TABLE " + TABLE + //$NON-NLS-1$
+            " ADD not_before INTEGER NOT NULL DEFAULT 0"; //$NON-NLS-1$
+
+    /** milliseconds a change waits for the writes following it */
+    public static final long SETTLE_DELAY = 1000L;
+
+    /** failed pushes of a change before it is dropped */
+    public static final int MAX_ATTEMPTS = 5;
+
+    private static final String SEPARATOR = ","; //$NON-NLS-1$
+
+    /**
+     * A pending push
+     */
+    public static final class Push {
+        public final long task;
+        /** task columns changed since the task was last pushed */
+        public final Set<String> columns;
+        /** true if the task was moved or indented */
+        public final boolean move;
+        /** changing the task again changes the version */
+        private final long version;
+
+        private Push(long task, Set<String> columns, boolean move, long version) {
+            this.task = task;
+            this.columns = columns;
+            this.move = move;
+            this.version = version;
+        }
+    }
+
+    private final Database database;
+    private final long settleDelay;
+
+    /** tasks being pushed */
+    private final Set<Long> claimed = new HashSet<>();
+
+    @Inject
+    public GtasksPushQueue(Database database) {
+        this(database, SETTLE_DELAY);
+    }
+
+    GtasksPushQueue(Database database, long settleDelay) {
+        this.database = database;
+        this.settleDelay = settleDelay;
+    }
+
+    /**
+     * Merge a change into the pending push of the task. The push is tried
+     * {@link #MAX_ATTEMPTS} times again from then on, and can be claimed
+     * once the settle delay passed
+     *
+     * @param columns task columns that changed
+     * @param move true if the task was moved or indented
+     */
+    public synchronized void add(final long task, final Collection<String> columns, final boolean move) {
+        database.runInTransaction(new Runnable() {
+            @Override
+            public void run() {
+                SQLiteDatabase db = database.getDatabase();
+                Set<String> merged = new HashSet<>(columns);
+                boolean moved = move;
+                Cursor cursor = db.rawQuery("SELECT columns, move FROM " + TABLE + " WHERE task = ?", //$NON-NLS-1$ //$NON-NLS-2$
+                        new String[] { Long.toString(task) });
+                try {
+                    if (cursor.moveToFirst()) {
+                        merged.addAll(split(cursor.getString(0)));
+                        moved |= cursor.getInt(1) > 0;
+                    }
+                } finally {
+                    cursor.close();
+                }
+
+                ContentValues values = new ContentValues();
+                values.put("task", task); //$NON-NLS-1$
+                values.put("columns", TextUtils.join(SEPARATOR, merged)); //$NON-NLS-1$
+                values.put("move", moved ? 1 : 0); //$NON-NLS-1$
+                values.put("version", nextVersion(db)); //$NON-NLS-1$
+                values.put("not_before", DateUtilities.now() + settleDelay); //$NON-NLS-1$
+                db.insertWithOnConflict(TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+        });
+    }
+
+    /**
+     * Claim the push of the task changed least recently that is not being
+     * pushed already and whose settle delay passed. Call
+     * {@link #release(Push)} when done
+     *
+     * @param skip tasks not to claim, e.g. those that failed to push
+     * @return push, or null if no push can be claimed
+     */
+    public synchronized Push next(Set<Long> skip) {
+        Cursor cursor = database.getDatabase().rawQuery(
+                "SELECT task, columns, move, version FROM " + TABLE + " WHERE not_before <= ? ORDER BY version", //$NON-NLS-1$ //$NON-NLS-2$
+                new String[] { Long.toString(DateUtilities.now()) });
+        try {
+            while (cursor.moveToNext()) {
+                long task = cursor.getLong(0);
+                if (!claimed.contains(task) && !skip.contains(task)) {
+                    claimed.add(task);
+                    return new Push(task, split(cursor.getString(1)), cursor.getInt(2) > 0, cursor.getLong(3));
+                }
+            }
+            return null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @param skip tasks not to claim
+     * @return time the next push still settling can be claimed, or 0 if
+     *         no push is settling
+     */
+    public synchronized long nextDue(Set<Long> skip) {
+        Cursor cursor = database.getDatabase().rawQuery(
+                "SELECT task, not_before FROM " + TABLE + " WHERE not_before > ? ORDER BY not_before", //$NON-NLS-1$ //$NON-NLS-2$
+                new String[] { Long.toString(DateUtilities.now()) });
+        try {
+            while (cursor.moveToNext()) {
+                long task = cursor.getLong(0);
+                if (!claimed.contains(task) && !skip.contains(task)) {
+                    return cursor.getLong(1);
+                }
+            }
+            return 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Remove a push that was done, unless the task changed again meanwhile
+     */
+    public synchronized void remove(Push push) {
+        database.getDatabase().delete(TABLE, "task = ? AND version = ?", //$NON-NLS-1$
+                new String[] { Long.toString(push.task), Long.toString(push.version) });
+    }
+
+    /**
+     * Count a failed attempt of a push, and drop it if it failed too often,
+     * unless the task changed again meanwhile
+     *
+     * @return true if the push was dropped
+     */
+    public synchronized boolean fail(Push push) {
+        SQLiteDatabase db = database.getDatabase();
+        String[] args = { Long.toString(push.task), Long.toString(push.version) };
+        db.execSQL("UPDATE " + TABLE + " SET attempts = attempts + 1 WHERE task = ? AND version = ?", args); //$NON-NLS-1$ //$NON-NLS-2$
+        return db.delete(TABLE, "task = ? AND version = ? AND attempts >= " + MAX_ATTEMPTS, args) > 0; //$NON-NLS-1$
+    }
+
+    public synchronized void release(Push push) {
+        claimed.remove(push.task);
+    }
+
+    /**
+     * Forget every pending push, e.g. after signing out
+     */
+    public synchronized void clear() {
+        database.getDatabase().delete(TABLE, null, null);
+    }
+
+    private static long nextVersion(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT max(version) FROM " + TABLE, null); //$NON-NLS-1$
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) + 1 : 1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static Set<String> split(String columns) {
+        if (TextUtils.isEmpty(columns)) {
+            return Collections.emptySet();
+        }
+        Set<String> result = new HashSet<>();
+        Collections.addAll(result, columns.split(SEPARATOR));
+        return result;
+    }
+}
@@ -11,7 +11,6 @@ import android.text.TextUtils;
 
 import com.todoroo.andlib.data.DatabaseDao.ModelUpdateListener;
 import com.todoroo.andlib.data.Property;
-import com.todoroo.andlib.utility.AndroidUtilities;
 import com.todoroo.andlib.utility.DateUtilities;
 import com.todoroo.astrid.dao.MetadataDao;
 import com.todoroo.astrid.dao.TaskDao;
@@ -22,10 +21,12 @@ import com.todoroo.astrid.gtasks.GtasksMetadata;
 import com.todoroo.astrid.gtasks.GtasksMetadataService;
 import com.todoroo.astrid.gtasks.GtasksPreferenceService;
 import com.todoroo.astrid.gtasks.api.GtasksApiUtilities;
+import com.todoroo.astrid.gtasks.api.GtasksBatch;
 import com.todoroo.astrid.gtasks.api.GtasksInvoker;
 import com.todoroo.astrid.gtasks.api.HttpNotFoundException;
 import com.todoroo.astrid.gtasks.api.MoveRequest;
 import com.todoroo.astrid.gtasks.auth.GtasksTokenValidator;
+import com.todoroo.astrid.gtasks.sync.GtasksPushQueue.Push;
 import com.todoroo.astrid.service.TaskService;
 
 import org.slf4j.Logger;
@@ -33,8 +34,17 @@ import org.slf4j.LoggerFactory;
 import org.tasks.injection.ForApplication;
 
 import java.io.IOException;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.Semaphore;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -53,12 +63,22 @@ public class GtasksSyncService {
     private final GtasksPreferenceService gtasksPreferenceService;
     private final GtasksTokenValidator gtasksTokenValidator;
     private final GtasksMetadata gtasksMetadataFactory;
-    private final LinkedBlockingQueue<SyncOnSaveOperation> operationQueue = new LinkedBlockingQueue<>();
+    private final GtasksPushQueue pushQueue;
+    private final ExecutorService pushExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 30, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>());
+    private final ScheduledExecutorService pushScheduler = Executors.newSingleThreadScheduledExecutor();
+
+    /** threads pushing queued changes, at most {@link GtasksPreferenceService#getPushConcurrency()} */
+    private int pushThreads = 0;
+
+    /** time pushing starts again for changes still settling, or 0 */
+    private long scheduledStart = 0;
 
     @Inject
     public GtasksSyncService(@ForApplication Context context, MetadataDao metadataDao, GtasksMetadataService gtasksMetadataService,
                              TaskDao taskDao, GtasksPreferenceService gtasksPreferenceService,
-                             GtasksTokenValidator gtasksTokenValidator, GtasksMetadata gtasksMetadataFactory) {
+                             GtasksTokenValidator gtasksTokenValidator, GtasksMetadata gtasksMetadataFactory,
+                             GtasksPushQueue pushQueue) {
         this.context = context;
         this.metadataDao = metadataDao;
         this.gtasksMetadataService = gtasksMetadataService;
@@ -66,58 +86,10 @@ public class GtasksSyncService {
         this.gtasksPreferenceService = gtasksPreferenceService;
         this.gtasksTokenValidator = gtasksTokenValidator;
         this.gtasksMetadataFactory = gtasksMetadataFactory;
-    }
-
-    private abstract class SyncOnSaveOperation {
-        abstract public void op(GtasksInvoker invoker) throws IOException;
-    }
-
-    private class TaskPushOp extends SyncOnSaveOperation {
-        protected Task model;
-        protected long creationDate = DateUtilities.now();
-
-        public TaskPushOp(Task model) {
-            this.model = model;
-        }
-
-        @Override
-        public void op(GtasksInvoker invoker) throws IOException {
-            if(DateUtilities.now() - creationDate < 1000) {
-                AndroidUtilities.sleepDeep(1000 - (DateUtilities.now() - creationDate));
-            }
-            pushTaskOnSave(model, model.getMergedValues(), invoker);
-        }
-    }
-
-    private class MoveOp extends SyncOnSaveOperation {
-        protected Metadata metadata;
-
-        public MoveOp(Metadata metadata) {
-            this.metadata = metadata;
-        }
-
-        @Override
-        public void op(GtasksInvoker invoker) throws IOException {
-            pushMetadataOnSave(metadata, invoker);
-        }
-    }
-
-    private class NotifyOp extends SyncOnSaveOperation {
-        private final Semaphore sema;
-
-        public NotifyOp(Semaphore sema) {
-            this.sema = sema;
-        }
-
-        @Override
-        public void op(GtasksInvoker invoker) throws IOException {
-            sema.release();
-        }
+        this.pushQueue = pushQueue;
     }
 
     public void initialize() {
-        new OperationPushThread(operationQueue).start();
-
         taskDao.addListener(new ModelUpdateListener<Task>() {
             @Override
             public void onModelUpdated(final Task model) {
@@ -127,72 +99,211 @@ public class GtasksSyncService {
                 if (gtasksPreferenceService.isOngoing() && !model.checkTransitory(TaskService.TRANS_REPEAT_COMPLETE)) { //Don't try and sync changes that occur during a normal sync
                     return;
                 }
-                final ContentValues setValues = model.getSetValues();
-                if(setValues == null || !checkForToken()) {
+                if(model.getSetValueCount() == 0 || !checkForToken()) {
                     return;
                 }
-                if (!checkValuesForProperties(setValues, TASK_PROPERTIES)) { //None of the properties we sync were updated
+                List<String> changed = changedProperties(model, TASK_PROPERTIES);
+                if (changed.isEmpty()) { //None of the properties we sync were updated
                     return;
                 }
 
-                Task toPush = taskDao.fetch(model.getId(), TASK_PROPERTIES);
-                operationQueue.offer(new TaskPushOp(toPush));
+                queue(model.getId(), changed, false);
             }
         });
+
+        // changes queued before the app was stopped
+        if (checkForToken()) {
+            startPushing();
+        }
     }
 
-    private class OperationPushThread extends Thread {
-        private final LinkedBlockingQueue<SyncOnSaveOperation> queue;
+    private void queue(long taskId, List<String> columns, boolean move) {
+        pushQueue.add(taskId, columns, move);
+        startPushing();
+    }
 
-        public OperationPushThread(LinkedBlockingQueue<SyncOnSaveOperation> queue) {
-            this.queue = queue;
+    /**
+     * Start pushing when the next change settled, unless pushing starts
+     * earlier already
+     */
+    private synchronized void schedulePushing(long due) {
+        if (scheduledStart > 0 && scheduledStart <= due) {
+            return;
+        }
+        scheduledStart = due;
+        pushScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (GtasksSyncService.this) {
+                    scheduledStart = 0;
+                    startPushing();
+                }
+            }
+        }, Math.max(0, due - DateUtilities.now()), TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void startPushing() {
+        if (pushThreads >= gtasksPreferenceService.getPushConcurrency()) {
+            return;
         }
+        pushThreads++;
+        pushExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                pushQueued();
+            }
+        });
+    }
 
-        @Override
-        public void run() {
-            while (true) {
-                SyncOnSaveOperation op;
-                try {
-                    op = queue.take();
-                } catch (InterruptedException e) {
-                    log.error(e.getMessage(), e);
-                    continue;
+    /**
+     * Push queued changes until none is left, up to a batch of them at a
+     * time. Changes failing to push stay queued, and are tried again when
+     * something else is queued, until they failed
+     * {@link GtasksPushQueue#MAX_ATTEMPTS} times. Pushing starts again once
+     * the changes still settling can be claimed
+     */
+    private void pushQueued() {
+        Set<Long> failed = new HashSet<>();
+        GtasksInvoker invoker = null;
+        while (true) {
+            List<Push> pushes = new ArrayList<>();
+            synchronized (this) {
+                if (checkForToken()) {
+                    Push push;
+                    while (pushes.size() < GtasksInvoker.BATCH_SIZE && (push = pushQueue.next(failed)) != null) {
+                        pushes.add(push);
+                    }
                 }
-                try {
-                    GtasksInvoker invoker = new GtasksInvoker(context, gtasksTokenValidator, gtasksPreferenceService.getToken());
-                    op.op(invoker);
-                } catch (IOException e) {
-                    log.error(e.getMessage(), e);
+                if (pushes.isEmpty()) {
+                    long due = checkForToken() ? pushQueue.nextDue(failed) : 0;
+                    if (due > 0) {
+                        schedulePushing(due);
+                    }
+                    pushThreads--;
+                    notifyAll();
+                    return;
+                }
+            }
+            try {
+                if (invoker == null) {
+                    invoker = new GtasksInvoker(context, gtasksTokenValidator, gtasksPreferenceService.getToken());
+                }
+                push(pushes, invoker, failed);
+            } finally {
+                for (Push push : pushes) {
+                    pushQueue.release(push);
                 }
             }
         }
     }
 
-    public void waitUntilEmpty() {
-        Semaphore sema = new Semaphore(0);
-        operationQueue.offer(new NotifyOp(sema));
+    /**
+     * Push claimed changes, sending the updates of tasks that already are in
+     * Google Tasks in one batch request. Pushes that went through leave the
+     * queue, the others count a failed attempt and their tasks are added to
+     * failed
+     */
+    private void push(List<Push> pushes, GtasksInvoker invoker, Set<Long> failed) {
+        GtasksBatch batch = invoker.newBatch();
+        final Set<Push> done = new HashSet<>();
+        List<Push> batched = new ArrayList<>();
+        for (final Push push : pushes) {
+            try {
+                boolean inBatch = push(push, invoker, batch, new Runnable() {
+                    @Override
+                    public void run() {
+                        done.add(push);
+                    }
+                });
+                if (inBatch) {
+                    batched.add(push);
+                } else {
+                    done.add(push);
+                }
+            } catch (Exception e) {
+                log.error(e.getMessage(), e);
+                failed.add(push.task);
+            }
+        }
         try {
-            sema.acquire();
-        } catch (InterruptedException e) {
-            // Ignored
+            batch.execute();
+        } catch (Exception e) {
             log.error(e.getMessage(), e);
         }
+        for (Push push : batched) {
+            if (!done.contains(push)) {
+                failed.add(push.task);
+            }
+        }
+        for (Push push : pushes) {
+            if (failed.contains(push.task)) {
+                if (pushQueue.fail(push)) {
+                    log.error("Dropped push of task {} after {} failed attempts", push.task, GtasksPushQueue.MAX_ATTEMPTS); //$NON-NLS-1$
+                }
+            } else if (done.contains(push)) {
+                pushQueue.remove(push);
+            }
+        }
+    }
+
+    /**
+     * @param onBatchedPush run once the update queued in the batch went through
+     * @return true if the update of the task was queued in the batch
+     */
+    private boolean push(Push push, GtasksInvoker invoker, GtasksBatch batch, Runnable onBatchedPush) throws IOException {
+        boolean inBatch = false;
+        if (!push.columns.isEmpty()) {
+            Task task = taskDao.fetch(push.task, TASK_PROPERTIES);
+            if (task == null) {
+                return false;
+            }
+            // the update replaces the remote task, so it carries every synced property
+            inBatch = pushTaskOnSave(task, task.getMergedValues(), invoker, batch, onBatchedPush);
+        }
+        if (push.move) {
+            Metadata metadata = gtasksMetadataService.getTaskMetadata(push.task);
+            if (metadata != null) {
+                pushMetadataOnSave(metadata, invoker);
+            }
+        }
+        return inBatch;
+    }
+
+    /**
+     * Wait until the changes queued so far were pushed
+     */
+    public synchronized void waitUntilEmpty() {
+        while (pushThreads > 0 || scheduledStart > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                log.error(e.getMessage(), e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Forget queued changes, e.g. after signing out
+     */
+    public void clearQueue() {
+        pushQueue.clear();
     }
 
     private static final Property<?>[] TASK_PROPERTIES = { Task.ID, Task.TITLE,
             Task.NOTES, Task.DUE_DATE, Task.COMPLETION_DATE, Task.DELETION_DATE };
 
     /**
-     * Checks to see if any of the values changed are among the properties we sync
-     * @return false if none of the properties we sync were changed, true otherwise
+     * @return names of the properties we sync among the values changed
      */
-    private boolean checkValuesForProperties(ContentValues values, Property<?>[] properties) {
+    private List<String> changedProperties(Task task, Property<?>[] properties) {
+        List<String> changed = new ArrayList<>();
         for (Property<?> property : properties) {
-            if (property != Task.ID && values.containsKey(property.name)) {
-                return true;
+            if (property != Task.ID && task.containsSetValue(property)) {
+                changed.add(property.name);
             }
         }
-        return false;
+        return changed;
     }
 
 
@@ -215,13 +326,35 @@ public class GtasksSyncService {
             return;
         }
 
-        operationQueue.offer(new MoveOp(metadata));
+        queue(metadata.getTask(), Collections.<String>emptyList(), true);
     }
 
     /**
      * Synchronize with server when data changes
      */
     public void pushTaskOnSave(Task task, ContentValues values, GtasksInvoker invoker) throws IOException {
+        pushTaskOnSave(task, values, invoker, null);
+    }
+
+    /**
+     * Push a task, queuing its update in the batch if the task already is in
+     * Google Tasks. New tasks are created right away, as their parent and
+     * prior sibling may be created just before them. The task must have
+     * every property we sync, as updates replace the remote task
+     *
+     * @param batch batch sent by the caller, or null to update right away
+     */
+    public void pushTaskOnSave(Task task, ContentValues values, GtasksInvoker invoker, GtasksBatch batch) throws IOException {
+        pushTaskOnSave(task, values, invoker, batch, null);
+    }
+
+    /**
+     * @param onBatchedPush run if the update queued in the batch went
+     *                      through or the task was not found, or null
+     * @return true if the update was queued in the batch
+     */
+    private boolean pushTaskOnSave(final Task task, ContentValues values, GtasksInvoker invoker, GtasksBatch batch,
+                                   final Runnable onBatchedPush) throws IOException {
         Metadata gtasksMetadata = gtasksMetadataService.getTaskMetadata(task.getId());
         com.google.api.services.tasks.model.Task remoteModel;
         boolean newlyCreated = false;
@@ -256,45 +389,70 @@ public class GtasksSyncService {
             remoteModel.setId(remoteId);
         }
 
+        if (newlyCreated) {
+            // created with all of its values, not only those changed
+            values = task.getMergedValues();
+        }
+
         //If task was newly created but without a title, don't sync--we're in the middle of
         //creating a task which may end up being cancelled. Also don't sync new but already
         //deleted tasks
         if (newlyCreated &&
                 (!values.containsKey(Task.TITLE.name) || TextUtils.isEmpty(task.getTitle()) || task.getDeletionDate() > 0)) {
-            return;
+            return false;
         }
 
-        //Update the remote model's changed properties
-        if (values.containsKey(Task.DELETION_DATE.name) && task.isDeleted()) {
+        //Update replaces the remote task, so set every property we sync, changed or not
+        if (task.isDeleted()) {
             remoteModel.setDeleted(true);
         }
 
-        if (values.containsKey(Task.TITLE.name)) {
-            remoteModel.setTitle(task.getTitle());
-        }
-        if (values.containsKey(Task.NOTES.name)) {
-            remoteModel.setNotes(task.getNotes());
-        }
-        if (values.containsKey(Task.DUE_DATE.name) && task.hasDueDate()) {
+        remoteModel.setTitle(task.getTitle());
+        remoteModel.setNotes(task.getNotes());
+        if (task.hasDueDate()) {
             remoteModel.setDue(GtasksApiUtilities.unixTimeToGtasksDueDate(task.getDueDate()));
         }
-        if (values.containsKey(Task.COMPLETION_DATE.name)) {
-            if (task.isCompleted()) {
-                remoteModel.setCompleted(GtasksApiUtilities.unixTimeToGtasksCompletionTime(task.getCompletionDate()));
-                remoteModel.setStatus("completed"); //$NON-NLS-1$
-            } else {
-                remoteModel.setCompleted(null);
-                remoteModel.setStatus("needsAction"); //$NON-NLS-1$
-            }
+        if (task.isCompleted()) {
+            remoteModel.setCompleted(GtasksApiUtilities.unixTimeToGtasksCompletionTime(task.getCompletionDate()));
+            remoteModel.setStatus("completed"); //$NON-NLS-1$
+        } else {
+            remoteModel.setCompleted(null);
+            remoteModel.setStatus("needsAction"); //$NON-NLS-1$
+        }
+
+        if (!newlyCreated && batch != null) {
+            final Metadata metadata = gtasksMetadata;
+            batch.updateGtask(listId, remoteModel, new GtasksBatch.Callback<com.google.api.services.tasks.model.Task>() {
+                @Override
+                public void onSuccess(com.google.api.services.tasks.model.Task result) {
+                    onPushed(task, metadata);
+                    if (onBatchedPush != null) {
+                        onBatchedPush.run();
+                    }
+                }
+
+                @Override
+                public void onFailure(IOException e) {
+                    if (e instanceof HttpNotFoundException) {
+                        onNotFound(metadata);
+                        if (onBatchedPush != null) {
+                            onBatchedPush.run();
+                        }
+                    } else {
+                        // still modified after its last sync, pushed again next time
+                        log.error(e.getMessage(), e);
+                    }
+                }
+            });
+            return true;
         }
 
         if (!newlyCreated) {
             try {
                 invoker.updateGtask(listId, remoteModel);
             } catch(HttpNotFoundException e) {
-                log.error("Received 404 response, deleting {}", gtasksMetadata);
-                metadataDao.delete(gtasksMetadata.getId());
-                return;
+                onNotFound(gtasksMetadata);
+                return false;
             }
         } else {
             String parent = gtasksMetadataService.getRemoteParentId(gtasksMetadata);
@@ -307,10 +465,15 @@ public class GtasksSyncService {
                 gtasksMetadata.setValue(GtasksMetadata.ID, created.getId());
                 gtasksMetadata.setValue(GtasksMetadata.LIST_ID, listId);
             } else {
-                return;
+                return false;
             }
         }
 
+        onPushed(task, gtasksMetadata);
+        return false;
+    }
+
+    private void onPushed(Task task, Metadata gtasksMetadata) {
         task.setModificationDate(DateUtilities.now());
         gtasksMetadata.setValue(GtasksMetadata.LAST_SYNC, DateUtilities.now() + 1000L);
         metadataDao.persist(gtasksMetadata);
@@ -318,9 +481,12 @@ public class GtasksSyncService {
         taskDao.saveExistingWithSqlConstraintCheck(task);
     }
 
-    public void pushMetadataOnSave(Metadata model, GtasksInvoker invoker) throws IOException {
-        AndroidUtilities.sleepDeep(1000L);
+    private void onNotFound(Metadata gtasksMetadata) {
+        log.error("Received 404 response, deleting {}", gtasksMetadata);
+        metadataDao.delete(gtasksMetadata.getId());
+    }
 
+    public void pushMetadataOnSave(Metadata model, GtasksInvoker invoker) throws IOException {
         String taskId = model.getValue(GtasksMetadata.ID);
         String listId = model.getValue(GtasksMetadata.LIST_ID);
         String parent = gtasksMetadataService.getRemoteParentId(model);
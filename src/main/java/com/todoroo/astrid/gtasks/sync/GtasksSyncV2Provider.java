@@ -8,6 +8,7 @@ package com.todoroo.astrid.gtasks.sync;
 import android.content.Context;
 import android.text.TextUtils;
 
+import com.google.api.client.http.HttpResponseException;
 import com.google.api.services.tasks.model.TaskLists;
 import com.google.api.services.tasks.model.Tasks;
 import com.todoroo.andlib.data.AbstractModel;
@@ -16,6 +17,7 @@ import com.todoroo.andlib.sql.Criterion;
 import com.todoroo.andlib.sql.Join;
 import com.todoroo.andlib.sql.Query;
 import com.todoroo.andlib.utility.DateUtilities;
+import com.todoroo.astrid.dao.Database;
 import com.todoroo.astrid.dao.MetadataDao.MetadataCriteria;
 import com.todoroo.astrid.dao.StoreObjectDao;
 import com.todoroo.astrid.dao.TaskDao;
@@ -29,6 +31,7 @@ import com.todoroo.astrid.gtasks.GtasksMetadataService;
 import com.todoroo.astrid.gtasks.GtasksPreferenceService;
 import com.todoroo.astrid.gtasks.GtasksTaskListUpdater;
 import com.todoroo.astrid.gtasks.api.GoogleTasksException;
+import com.todoroo.astrid.gtasks.api.GtasksBatch;
 import com.todoroo.astrid.gtasks.api.GtasksInvoker;
 import com.todoroo.astrid.gtasks.auth.GtasksTokenValidator;
 import com.todoroo.astrid.service.TaskService;
@@ -42,9 +45,12 @@ import org.tasks.preferences.Preferences;
 import org.tasks.sync.SyncExecutor;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -63,6 +69,11 @@ public class GtasksSyncV2Provider {
 
     private final SyncExceptionHandler handler = new SyncExceptionHandler();
 
+    /** remote list id -> lock held while synchronizing the list */
+    private final Map<String, Object> listLocks = new HashMap<>();
+
+    private final Object pushLock = new Object();
+
     private void finishSync(SyncResultCallback callback) {
         getUtilities().recordSuccessfulSync();
         callback.finished();
@@ -87,12 +98,14 @@ public class GtasksSyncV2Provider {
     private final GtasksTokenValidator gtasksTokenValidator;
     private final GtasksMetadata gtasksMetadataFactory;
     private final SyncExecutor executor;
+    private final Database database;
 
     @Inject
     public GtasksSyncV2Provider(TaskService taskService, StoreObjectDao storeObjectDao, GtasksPreferenceService gtasksPreferenceService,
                                 GtasksSyncService gtasksSyncService, GtasksListService gtasksListService, GtasksMetadataService gtasksMetadataService,
                                 GtasksTaskListUpdater gtasksTaskListUpdater, @ForApplication Context context, Preferences preferences,
-                                GtasksTokenValidator gtasksTokenValidator, GtasksMetadata gtasksMetadata, SyncExecutor executor) {
+                                GtasksTokenValidator gtasksTokenValidator, GtasksMetadata gtasksMetadata, SyncExecutor executor,
+                                Database database) {
         this.taskService = taskService;
         this.storeObjectDao = storeObjectDao;
         this.gtasksPreferenceService = gtasksPreferenceService;
@@ -105,6 +118,7 @@ public class GtasksSyncV2Provider {
         this.gtasksTokenValidator = gtasksTokenValidator;
         this.gtasksMetadataFactory = gtasksMetadata;
         this.executor = executor;
+        this.database = database;
     }
 
     private String getName() {
@@ -116,10 +130,15 @@ public class GtasksSyncV2Provider {
     }
 
     public void signOut() {
+        executor.cancel();
+        for (GtasksList list : gtasksListService.getLists()) {
+            gtasksPreferenceService.clearPageProgress(list.getRemoteId());
+        }
         gtasksPreferenceService.clearLastSyncDate();
         gtasksPreferenceService.setToken(null);
         gtasksPreferenceService.setUserName(null);
         gtasksMetadataService.clearMetadata();
+        gtasksSyncService.clearQueue();
     }
 
     public boolean isActive() {
@@ -150,25 +169,25 @@ public class GtasksSyncV2Provider {
 
                     List<GtasksList> listsToUpdate = gtasksListService.getListsToUpdate(remoteLists);
 
-                    if (listsToUpdate.isEmpty()) {
-                        finishSync(callback);
-                        return;
-                    }
-
-                    final AtomicInteger finisher = new AtomicInteger(listsToUpdate.size());
-
+                    List<Runnable> lists = new ArrayList<>();
                     for (final GtasksList list : listsToUpdate) {
-                        executor.execute(callback, new Runnable() {
+                        lists.add(new Runnable() {
                             @Override
                             public void run() {
                                 synchronizeListHelper(list, invoker, handler);
-                                if (finisher.decrementAndGet() == 0) {
-                                    pushUpdated(invoker);
-                                    finishSync(callback);
-                                }
                             }
                         });
                     }
+                    boolean listsSynced = executor.runAll(lists);
+                    pushUpdated(invoker);
+                    if (listsSynced) {
+                        finishSync(callback);
+                    } else {
+                        callback.finished();
+                    }
+                } catch (InterruptedException e) {
+                    log.info("gtasks sync cancelled"); //$NON-NLS-1$
+                    callback.finished();
                 } catch(Exception e) {
                     handler.handleException("gtasks-sync=io", e); //$NON-NLS-1$
                     callback.finished();
@@ -177,23 +196,38 @@ public class GtasksSyncV2Provider {
         });
     }
 
-    private synchronized void pushUpdated(GtasksInvoker invoker) {
+    private void pushUpdated(GtasksInvoker invoker) {
         TodorooCursor<Task> queued = taskService.query(Query.select(Task.PROPERTIES).
                 join(Join.left(Metadata.TABLE, Criterion.and(MetadataCriteria.withKey(GtasksMetadata.METADATA_KEY), Task.ID.eq(Metadata.TASK)))).where(
                         Criterion.or(Task.MODIFICATION_DATE.gt(GtasksMetadata.LAST_SYNC), Metadata.KEY.isNull())));
         pushTasks(queued, invoker);
     }
 
-    private synchronized void pushTasks(TodorooCursor<Task> queued, GtasksInvoker invoker) {
+    /**
+     * Push the tasks, sending updates in batches of {@link GtasksInvoker#BATCH_SIZE}.
+     * Lists push one at a time, so a new task is never created twice
+     */
+    private void pushTasks(TodorooCursor<Task> queued, GtasksInvoker invoker) {
+        synchronized (pushLock) {
+            pushTasksLocked(queued, invoker);
+        }
+    }
+
+    private void pushTasksLocked(TodorooCursor<Task> queued, GtasksInvoker invoker) {
+        GtasksBatch batch = invoker.newBatch();
         try {
             for (queued.moveToFirst(); !queued.isAfterLast(); queued.moveToNext()) {
+                // updated when its batch is sent, after the cursor moved on
                 Task task = new Task(queued);
                 try {
-                    gtasksSyncService.pushTaskOnSave(task, task.getMergedValues(), invoker);
+                    gtasksSyncService.pushTaskOnSave(task, task.getMergedValues(), invoker, batch);
                 } catch (IOException e) {
                     handler.handleException("gtasks-sync-io", e); //$NON-NLS-1$
                 }
             }
+            batch.execute();
+        } catch (IOException e) {
+            handler.handleException("gtasks-sync-io", e); //$NON-NLS-1$
         } finally {
             queued.close();
         }
@@ -231,7 +265,32 @@ public class GtasksSyncV2Provider {
         return authToken;
     }
 
-    private synchronized void synchronizeListHelper(GtasksList list, GtasksInvoker invoker,
+    /**
+     * @return lock held while synchronizing the list
+     */
+    private Object listLock(String listId) {
+        synchronized (listLocks) {
+            Object lock = listLocks.get(listId);
+            if (lock == null) {
+                lock = new Object();
+                listLocks.put(listId, lock);
+            }
+            return lock;
+        }
+    }
+
+    /**
+     * Synchronize one list. Different lists synchronize in parallel, a list
+     * synchronized twice at once waits for the first to finish
+     */
+    private void synchronizeListHelper(GtasksList list, GtasksInvoker invoker,
+            SyncExceptionHandler errorHandler) {
+        synchronized (listLock(list.getRemoteId())) {
+            synchronizeListLocked(list, invoker, errorHandler);
+        }
+    }
+
+    private void synchronizeListLocked(GtasksList list, GtasksInvoker invoker,
             SyncExceptionHandler errorHandler) {
         String listId = list.getRemoteId();
         long lastSyncDate = list.getLastSync();
@@ -251,21 +310,49 @@ public class GtasksSyncV2Provider {
         pushTasks(qs, invoker);
 
         boolean includeDeletedAndHidden = lastSyncDate != 0;
+        // an interrupted sync resumes at the page it stopped at
+        String pageToken = gtasksPreferenceService.getPageToken(listId);
+        long lastUpdate = pageToken == null ? lastSyncDate : Math.max(lastSyncDate, gtasksPreferenceService.getPageUpdated(listId));
+        int pageSize = gtasksPreferenceService.getPageSize();
+        // pages written before the sync was interrupted
+        boolean received = pageToken != null;
         try {
-            Tasks taskList = invoker.getAllGtasksFromListId(listId, includeDeletedAndHidden,
-                    includeDeletedAndHidden, lastSyncDate + 1000L);
-            List<com.google.api.services.tasks.model.Task> tasks = taskList.getItems();
-            if (tasks != null) {
-                for (com.google.api.services.tasks.model.Task t : tasks) {
-                    GtasksTaskContainer container = new GtasksTaskContainer(t, listId, gtasksMetadataFactory.createEmptyMetadata(AbstractModel.NO_ID));
-                    gtasksMetadataService.findLocalMatch(container);
-                    container.gtaskMetadata.setValue(GtasksMetadata.GTASKS_ORDER, Long.parseLong(t.getPosition()));
-                    container.gtaskMetadata.setValue(GtasksMetadata.PARENT_TASK, gtasksMetadataService.localIdForGtasksId(t.getParent()));
-                    container.gtaskMetadata.setValue(GtasksMetadata.LAST_SYNC, DateUtilities.now() + 1000L);
-                    write(container);
-                    lastSyncDate = Math.max(lastSyncDate, container.getUpdateTime());
+            GtasksIdResolver resolver = gtasksMetadataService.getIdResolver(listId);
+            do {
+                Tasks page;
+                try {
+                    page = invoker.getAllGtasksFromListId(listId, includeDeletedAndHidden,
+                            includeDeletedAndHidden, lastSyncDate + 1000L, pageToken, pageSize);
+                } catch (HttpResponseException e) {
+                    if (pageToken == null || e.getStatusCode() != 400) {
+                        throw e;
+                    }
+                    log.info("Page token of {} was rejected, starting over", listId);
+                    gtasksPreferenceService.clearPageProgress(listId);
+                    pageToken = null;
+                    lastUpdate = lastSyncDate;
+                    received = false;
+                    page = invoker.getAllGtasksFromListId(listId, includeDeletedAndHidden,
+                            includeDeletedAndHidden, lastSyncDate + 1000L, null, pageSize);
                 }
-                list.setLastSync(lastSyncDate);
+                List<com.google.api.services.tasks.model.Task> tasks = page.getItems();
+                if (tasks != null && !tasks.isEmpty()) {
+                    lastUpdate = writePage(listId, tasks, resolver, lastUpdate);
+                    received = true;
+                }
+                pageToken = page.getNextPageToken();
+                if (pageToken != null) {
+                    gtasksPreferenceService.setPageProgress(listId, pageToken, lastUpdate);
+                    if (Thread.currentThread().isInterrupted()) {
+                        log.info("Sync of {} cancelled, resuming next time", listId);
+                        return;
+                    }
+                }
+            } while (pageToken != null);
+
+            gtasksPreferenceService.clearPageProgress(listId);
+            if (received) {
+                list.setLastSync(lastUpdate);
                 storeObjectDao.persist(list);
                 gtasksTaskListUpdater.correctOrderAndIndentForList(listId);
             }
@@ -278,11 +365,40 @@ public class GtasksSyncV2Provider {
         }
     }
 
-    private void write(GtasksTaskContainer task) {
+    /**
+     * Write a page of remote tasks in one transaction
+     *
+     * @return latest update time of the tasks written so far
+     */
+    private long writePage(final String listId, final List<com.google.api.services.tasks.model.Task> tasks,
+                           final GtasksIdResolver resolver, long lastUpdateTime) {
+        final AtomicLong lastUpdate = new AtomicLong(lastUpdateTime);
+        database.runInTransaction(new Runnable() {
+            @Override
+            public void run() {
+                for (com.google.api.services.tasks.model.Task t : tasks) {
+                    GtasksTaskContainer container = new GtasksTaskContainer(t, listId, gtasksMetadataFactory.createEmptyMetadata(AbstractModel.NO_ID));
+                    Task local = resolver.findLocalMatch(container);
+                    container.gtaskMetadata.setValue(GtasksMetadata.GTASKS_ORDER, Long.parseLong(t.getPosition()));
+                    container.gtaskMetadata.setValue(GtasksMetadata.PARENT_TASK, resolver.localIdForGtasksId(t.getParent()));
+                    container.gtaskMetadata.setValue(GtasksMetadata.LAST_SYNC, DateUtilities.now() + 1000L);
+                    write(container, local);
+                    resolver.saved(container);
+                    lastUpdate.set(Math.max(lastUpdate.get(), container.getUpdateTime()));
+                }
+            }
+        });
+        return lastUpdate.get();
+    }
+
+    /**
+     * @param local due and completion date of the local task, see
+     *              {@link GtasksIdResolver#findLocalMatch(GtasksTaskContainer)}
+     */
+    private void write(GtasksTaskContainer task, Task local) {
         //  merge astrid dates with google dates
 
         if(task.task.isSaved()) {
-            Task local = taskService.fetchById(task.task.getId(), Task.DUE_DATE, Task.COMPLETION_DATE);
             if (local == null) {
                 task.task.clearValue(Task.ID);
                 task.task.clearValue(Task.UUID);
@@ -21,6 +21,7 @@ import com.todoroo.andlib.data.DatabaseDao;
 import com.todoroo.astrid.api.AstridApiConstants;
 import com.todoroo.astrid.dao.Database;
 import com.todoroo.astrid.dao.RemoteModelDao;
+import com.todoroo.astrid.dao.TaskDao;
 import com.todoroo.astrid.data.Metadata;
 import com.todoroo.astrid.data.StoreObject;
 import com.todoroo.astrid.data.Task;
@@ -28,9 +29,7 @@ import com.todoroo.astrid.data.UserActivity;
 
 import org.tasks.injection.InjectingContentProvider;
 
-import java.util.HashSet;
 import java.util.Map.Entry;
-import java.util.Set;
 
 import javax.inject.Inject;
 
@@ -82,6 +81,7 @@ public class Astrid3ContentProvider extends InjectingContentProvider {
 
     private boolean open;
     @Inject Lazy<Database> database;
+    @Inject Lazy<TaskDao> taskDao;
 
     static {
         uriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
@@ -144,7 +144,18 @@ public class Astrid3ContentProvider extends InjectingContentProvider {
     private UriHelper<?> generateHelper(Uri uri, boolean populateModel) {
         final Database db = getDatabase();
         if(uri.toString().startsWith(Task.CONTENT_URI.toString())) {
-            UriHelper<Task> helper = new UriHelper<>();
+            // tasks are written through TaskDao, which sets their sort keys
+            UriHelper<Task> helper = new UriHelper<Task>() {
+                @Override
+                public boolean create() {
+                    return taskDao.get().createNew(model);
+                }
+
+                @Override
+                public void update() {
+                    taskDao.get().saveExisting(model);
+                }
+            };
             helper.model = populateModel ? new Task() : null;
             helper.dao = new RemoteModelDao<>(db, Task.class);
             return helper;
@@ -247,8 +258,7 @@ public class Astrid3ContentProvider extends InjectingContentProvider {
         // valid operations
 
         case URI_DIR: {
-            helper.model.mergeWith(values);
-            readTransitoriesFromModelContentValues(helper.model);
+            mergeWithTransitories(helper.model, values);
             if(!helper.create()) {
                 throw new SQLException("Could not insert row into database (constraint failed?)");
             }
@@ -305,8 +315,7 @@ public class Astrid3ContentProvider extends InjectingContentProvider {
         try {
             for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
                 long id = cursor.getLong(0);
-                helper.model.mergeWith(values);
-                readTransitoriesFromModelContentValues(helper.model);
+                mergeWithTransitories(helper.model, values);
                 helper.model.setId(id);
                 helper.update();
                 helper.model.clear();
@@ -319,25 +328,21 @@ public class Astrid3ContentProvider extends InjectingContentProvider {
         }
     }
 
-    private void readTransitoriesFromModelContentValues(AbstractModel model) {
-        ContentValues setValues = model.getSetValues();
-        if (setValues != null) {
-            Set<Entry<String, Object>> entries = setValues.valueSet();
-            Set<String> keysToRemove = new HashSet<>();
-            for (Entry<String, Object> entry: entries) {
-                String key = entry.getKey();
-                if (key.startsWith(AbstractModel.RETAIN_TRANSITORY_PREFIX)) {
-                    String newKey = key.substring(AbstractModel.RETAIN_TRANSITORY_PREFIX.length());
-                    Object value = setValues.get(key);
-                    model.putTransitory(newKey, value);
-                    keysToRemove.add(key);
-                }
-            }
-
-            for (String key : keysToRemove) {
-                setValues.remove(key);
+    /**
+     * Merges values into the model. Keys starting with
+     * {@link AbstractModel#RETAIN_TRANSITORY_PREFIX} become transitories
+     */
+    private void mergeWithTransitories(AbstractModel model, ContentValues values) {
+        ContentValues modelValues = new ContentValues(values);
+        for (Entry<String, Object> entry : values.valueSet()) {
+            String key = entry.getKey();
+            if (key.startsWith(AbstractModel.RETAIN_TRANSITORY_PREFIX)) {
+                String newKey = key.substring(AbstractModel.RETAIN_TRANSITORY_PREFIX.length());
+                model.putTransitory(newKey, entry.getValue());
+                modelValues.remove(key);
             }
         }
+        model.mergeWith(modelValues);
     }
 
     /* ======================================================================
@@ -125,8 +125,7 @@ public final class ReminderService  {
         try {
             now = DateUtilities.now(); // Before mass scheduling, initialize now variable
             for(cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
-                Task task = new Task(cursor);
-                scheduleAlarm(task, null);
+                scheduleAlarm(cursor.asModel(), null);
             }
         } catch (Exception e) {
             // suppress
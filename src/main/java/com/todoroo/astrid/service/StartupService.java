@@ -6,7 +6,6 @@
 package com.todoroo.astrid.service;
 
 import android.app.Activity;
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
@@ -21,7 +20,6 @@ import com.todoroo.andlib.utility.DialogUtilities;
 import com.todoroo.astrid.backup.BackupConstants;
 import com.todoroo.astrid.backup.TasksXmlImporter;
 import com.todoroo.astrid.dao.Database;
-import com.todoroo.astrid.dao.DatabaseUpdateListener;
 import com.todoroo.astrid.dao.MetadataDao;
 import com.todoroo.astrid.dao.MetadataDao.MetadataCriteria;
 import com.todoroo.astrid.dao.TagDataDao;
@@ -30,8 +28,6 @@ import com.todoroo.astrid.data.TagData;
 import com.todoroo.astrid.gcal.CalendarAlarmScheduler;
 import com.todoroo.astrid.gtasks.GtasksPreferenceService;
 import com.todoroo.astrid.gtasks.sync.GtasksSyncService;
-import com.todoroo.astrid.provider.Astrid2TaskProvider;
-import com.todoroo.astrid.provider.Astrid3ContentProvider;
 import com.todoroo.astrid.tags.TaskToTagMetadata;
 import com.todoroo.astrid.utility.Constants;
 
@@ -102,14 +98,6 @@ public class StartupService {
             return;
         }
 
-        database.addListener(new DatabaseUpdateListener() {
-            @Override
-            public void onDatabaseUpdated() {
-                Astrid2TaskProvider.notifyDatabaseModification(activity);
-                Astrid3ContentProvider.notifyDatabaseModification(activity);
-            }
-        });
-
         try {
             database.openForWriting();
         } catch (SQLiteException e) {
@@ -191,14 +179,11 @@ public class StartupService {
         tagDataDao.addListener(new ModelUpdateListener<TagData>() {
             @Override
             public void onModelUpdated(TagData model) {
-                ContentValues values = model.getSetValues();
-                Metadata m = new Metadata();
-                if (values != null) {
-                    if (values.containsKey(TagData.NAME.name)) {
-                        m.setValue(TaskToTagMetadata.TAG_NAME, model.getName());
-                        metadataDao.update(Criterion.and(MetadataCriteria.withKey(TaskToTagMetadata.KEY),
-                                TaskToTagMetadata.TAG_UUID.eq(model.getUUID())), m);
-                    }
+                if (model.containsSetValue(TagData.NAME)) {
+                    Metadata m = new Metadata();
+                    m.setValue(TaskToTagMetadata.TAG_NAME, model.getName());
+                    metadataDao.update(Criterion.and(MetadataCriteria.withKey(TaskToTagMetadata.KEY),
+                            TaskToTagMetadata.TAG_UUID.eq(model.getUUID())), m);
                 }
             }
         });
@@ -6,22 +6,26 @@
 package com.todoroo.astrid.service;
 
 import android.content.ContentValues;
+import android.text.TextUtils;
 
 import com.todoroo.andlib.data.Property;
 import com.todoroo.andlib.data.TodorooCursor;
 import com.todoroo.andlib.sql.Criterion;
-import com.todoroo.andlib.sql.Functions;
+import com.todoroo.andlib.sql.Order;
 import com.todoroo.andlib.sql.Query;
+import com.todoroo.andlib.sql.SqlClauses;
 import com.todoroo.andlib.utility.AndroidUtilities;
 import com.todoroo.andlib.utility.DateUtilities;
 import com.todoroo.astrid.api.PermaSql;
 import com.todoroo.astrid.dao.MetadataDao;
 import com.todoroo.astrid.dao.TagDataDao;
 import com.todoroo.astrid.dao.TaskDao;
+import com.todoroo.astrid.dao.TaskSearch;
 import com.todoroo.astrid.data.Metadata;
 import com.todoroo.astrid.data.RemoteModel;
 import com.todoroo.astrid.data.TagData;
 import com.todoroo.astrid.data.Task;
+import com.todoroo.astrid.gtasks.GtasksMetadata;
 import com.todoroo.astrid.tags.TagService;
 import com.todoroo.astrid.tags.TaskToTagMetadata;
 import com.todoroo.astrid.utility.TitleParser;
@@ -128,16 +132,20 @@ public class TaskService {
     public TodorooCursor<Task> fetchFiltered(String queryTemplate, CharSequence constraint,
             Property<?>... properties) {
         Criterion whereConstraint = null;
-        if(constraint != null) {
-            whereConstraint = Functions.upper(Task.TITLE).like("%" +
-                    constraint.toString().toUpperCase() + "%");
+        String titleMatchesFirst = null;
+        if(!TextUtils.isEmpty(constraint)) {
+            whereConstraint = TaskSearch.matches(constraint.toString());
+            titleMatchesFirst = TaskSearch.titleMatchesFirst(constraint.toString());
         }
 
         if(queryTemplate == null) {
             if(whereConstraint == null) {
                 return taskDao.query(Query.selectDistinct(properties));
-            } else {
+            } else if(titleMatchesFirst == null) {
                 return taskDao.query(Query.selectDistinct(properties).where(whereConstraint));
+            } else {
+                return taskDao.query(Query.selectDistinct(properties).where(whereConstraint)
+                        .orderBy(Order.asc(titleMatchesFirst)));
             }
         }
 
@@ -151,12 +159,47 @@ public class TaskService {
         } else {
             sql = queryTemplate;
         }
+        if(titleMatchesFirst != null) {
+            sql = orderFirstBy(sql, titleMatchesFirst);
+        }
 
         sql = PermaSql.replacePlaceholders(sql);
 
         return taskDao.query(Query.select(properties).withQueryTemplate(sql));
     }
 
+    /**
+     * Put the given order term ahead of the filter's own order, keeping the
+     * filter's order among equally ranked tasks. Templates that can not be
+     * parsed, or that are limited without an order, keep their order
+     */
+    private static String orderFirstBy(String sql, String term) {
+        SqlClauses clauses = SqlClauses.parse(sql);
+        if(clauses == null) {
+            return sql;
+        }
+        if(clauses.orderBy != null) {
+            return clauses.withOrderBy(term + ", " + clauses.orderBy).toString();
+        }
+        if(clauses.limit != null) {
+            return sql;
+        }
+        return clauses.withOrderBy(term).toString();
+    }
+
+    /**
+     * Fetch tasks for the given filter a page at a time, or all at once if
+     * the query can not be paged
+     */
+    public TodorooCursor<Task> fetchPaged(String queryTemplate, int pageSize, Property<?>... properties) {
+        String sql = PermaSql.replacePlaceholders(queryTemplate);
+        TodorooCursor<Task> cursor = taskDao.queryPaged(properties, sql, pageSize);
+        if (cursor == null) {
+            cursor = taskDao.query(Query.select(properties).withQueryTemplate(sql));
+        }
+        return cursor;
+    }
+
     /**
      * @return how many tasks are matched by this query
      */
@@ -300,6 +343,7 @@ public class TaskService {
             Metadata metadata = new Metadata();
             metadata.setTask(task.getId());
             metadata.mergeWith(forMetadata);
+            GtasksMetadata.upgradeLegacyValues(metadata);
             if (TaskToTagMetadata.KEY.equals(metadata.getKey())) {
                 if (metadata.containsNonNullValue(TaskToTagMetadata.TAG_UUID) && !RemoteModel.NO_UUID.equals(metadata.getValue(TaskToTagMetadata.TAG_UUID))) {
                     // This is more efficient
@@ -247,18 +247,12 @@ public class AstridOrderedListFragmentHelper<LIST> implements OrderedListFragmen
                     Criterion.and(Task.UUID.in(chained.toArray(new String[chained.size()])),
                                    Task.RECURRENCE.isNotNull(), Functions.length(Task.RECURRENCE).gt(0))));
             try {
-                boolean madeChanges = false;
                 for (recurring.moveToFirst(); !recurring.isAfterLast(); recurring.moveToNext()) {
                     Task t = new Task(recurring);
                     if (!TextUtils.isEmpty(t.getRecurrence())) {
-                        updater.moveToParentOf(t.getUuid(), itemId);
-                        madeChanges = true;
+                        updater.moveToParentOf(list, t.getUuid(), itemId);
                     }
                 }
-
-                if (madeChanges) {
-                    updater.writeSerialization(list, updater.serializeTree(), true);
-                }
             } finally {
                 recurring.close();
             }
@@ -278,6 +272,13 @@ public class AstridOrderedListFragmentHelper<LIST> implements OrderedListFragmen
         this.list = list;
     }
 
+    /**
+     * Write the serialized tree of the list when leaving it
+     */
+    public void onPause() {
+        updater.writeSnapshot();
+    }
+
     @Override
     public void onCreateTask(Task task) {
         updater.onCreateTask(list, getFilter(), task.getUuid());
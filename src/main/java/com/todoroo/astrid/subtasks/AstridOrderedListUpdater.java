@@ -6,23 +6,40 @@ import com.todoroo.astrid.data.RemoteModel;
 import com.todoroo.astrid.data.Task;
 import com.todoroo.astrid.service.TaskService;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+/**
+ * Tree of a manually ordered list. Every node has a rank, its position in
+ * the list, and changes write the parent and rank of the nodes that moved
+ * instead of the whole tree, see {@link #writeRanks}. Ranks are spaced
+ * {@link #RANK_GAP} apart so nodes fit between their new neighbours, the
+ * whole tree is written again when there is no room left.
+ *
+ * The ranks are authoritative. The serialized tree is a snapshot of them,
+ * read when a list has no ranks yet, e.g. after an upgrade rebuilt the rank
+ * table. It is written again every {@link #SNAPSHOT_INTERVAL} rank writes
+ * and by {@link #writeSnapshot()}, so it trails the ranks by a few changes
+ * at most.
+ */
 public abstract class AstridOrderedListUpdater<LIST> {
 
-    private static final Logger log = LoggerFactory.getLogger(AstridOrderedListUpdater.class);
+    /** distance between the ranks of consecutive nodes when the tree is ranked */
+    public static final long RANK_GAP = 1L << 32;
+
+    /** rank writes after which the serialized tree is written again */
+    static final int SNAPSHOT_INTERVAL = 20;
 
     private final TaskService taskService;
 
+    /** list whose ranks changed since its serialized tree was written, or null */
+    private LIST staleList;
+    private int rankWrites;
+
     public AstridOrderedListUpdater(TaskService taskService) {
         this.taskService = taskService;
         idToNode = new HashMap<>();
@@ -36,6 +53,7 @@ public abstract class AstridOrderedListUpdater<LIST> {
         public String uuid;
         public Node parent;
         public int indent;
+        public long rank;
         public final ArrayList<Node> children = new ArrayList<>();
 
         public Node(String uuid, Node parent, int indent) {
@@ -51,7 +69,23 @@ public abstract class AstridOrderedListUpdater<LIST> {
 
     protected abstract String getSerializedTree(LIST list);
     protected abstract void writeSerialization(LIST list, String serialized, boolean shouldQueueSync);
-    protected abstract void applyToFilter(Filter filter);
+    protected abstract void applyToFilter(LIST list, Filter filter);
+
+    /**
+     * @return tree of the list read from its stored ranks, or null if the
+     *         list has none and should be read from its serialized tree
+     */
+    protected abstract Node readRankedTree(LIST list);
+
+    /**
+     * Store the parent and rank of changed nodes and forget removed ones
+     */
+    protected abstract void writeRanks(LIST list, List<Node> changed, List<String> removed);
+
+    /**
+     * Store the serialized tree of a list whose ranks already match it
+     */
+    protected abstract void writeSnapshot(LIST list, String serialized);
 
     public int getIndentForTask(String targetTaskId) {
         Node n = idToNode.get(targetTaskId);
@@ -62,10 +96,22 @@ public abstract class AstridOrderedListUpdater<LIST> {
     }
 
     public void initialize(LIST list, Filter filter) {
-        initializeFromSerializedTree(list, filter, getSerializedTree(list));
+        writeSnapshot();
+        Node root = readRankedTree(list);
+        if (root == null) {
+            initializeFromSerializedTree(list, filter, getSerializedTree(list));
+            return;
+        }
+        idToNode.clear();
+        treeRoot = root;
+        for (Node node : inOrder(root)) {
+            idToNode.put(node.uuid, node);
+        }
+        verifyTreeModel(list, filter);
     }
 
     public void initializeFromSerializedTree(LIST list, Filter filter, String serializedTree) {
+        writeSnapshot();
         idToNode.clear();
         treeRoot = buildTreeModel(serializedTree, new JSONTreeModelBuilder() {
             @Override
@@ -73,10 +119,18 @@ public abstract class AstridOrderedListUpdater<LIST> {
                 idToNode.put(node.uuid, node);
             }
         });
-        verifyTreeModel(list, filter);
+        if (!verifyTreeModel(list, filter)) {
+            // rank the list, it is read from its ranks from now on
+            writeTree(list, false);
+        }
     }
 
-    private void verifyTreeModel(LIST list, Filter filter) {
+    /**
+     * Add tasks missing from the tree and remove tasks no longer in the list
+     *
+     * @return true if the tree changed and was written
+     */
+    private boolean verifyTreeModel(LIST list, Filter filter) {
         boolean changedThings = false;
         Set<String> keySet = idToNode.keySet();
         Set<String> currentIds = new HashSet<>();
@@ -110,8 +164,9 @@ public abstract class AstridOrderedListUpdater<LIST> {
             tasks.close();
         }
         if (changedThings) {
-            writeSerialization(list, serializeTree(), false);
+            writeTree(list, false);
         }
+        return changedThings;
     }
 
     private void removeNodes(Set<String> idsToRemove) {
@@ -136,41 +191,6 @@ public abstract class AstridOrderedListUpdater<LIST> {
         return idToNode.get(taskId);
     }
 
-    private String[] getOrderedIds() {
-        ArrayList<String> ids = new ArrayList<>();
-        orderedIdHelper(treeRoot, ids);
-        return ids.toArray(new String[ids.size()]);
-    }
-
-    public String getOrderString() {
-        String[] ids = getOrderedIds();
-        return buildOrderString(ids);
-    }
-
-    public static String buildOrderString(String[] ids) {
-        StringBuilder builder = new StringBuilder();
-        if (ids.length == 0) {
-            return "(1)"; //$NON-NLS-1$
-        }
-        for (int i = ids.length - 1; i >= 0; i--) {
-            builder.append(Task.UUID.eq(ids[i]).toString());
-            if (i > 0) {
-                builder.append(", "); //$NON-NLS-1$
-            }
-        }
-        return builder.toString();
-    }
-
-    private void orderedIdHelper(Node node, List<String> ids) {
-        if (node != treeRoot) {
-            ids.add(node.uuid);
-        }
-
-        for (Node child : node.children) {
-            orderedIdHelper(child, ids);
-        }
-    }
-
     public void applyToDescendants(String taskId, OrderedListNodeVisitor visitor) {
         Node n = idToNode.get(taskId);
         if (n == null) {
@@ -216,6 +236,8 @@ public abstract class AstridOrderedListUpdater<LIST> {
             node.parent = newParent;
             newParent.children.add(node);
             setNodeIndent(node, newParent.indent + 1);
+            // the node stays in place, only its parent changed
+            updateRanks(list, Collections.singletonList(node), Collections.<String>emptyList());
         } else if (delta < 0) {
             if (parent == treeRoot) // Can't deindent a top level item
             {
@@ -235,10 +257,11 @@ public abstract class AstridOrderedListUpdater<LIST> {
             node.parent = newParent;
             setNodeIndent(node, newParent.indent + 1);
             newSiblings.add(insertAfter + 1, node);
+            // later siblings stay children of the old parent, the node follows them
+            writeMoved(list, node);
         }
 
-        writeSerialization(list, serializeTree(), true);
-        applyToFilter(filter);
+        applyToFilter(list, filter);
     }
 
     private void setNodeIndent(Node node, int indent) {
@@ -277,7 +300,7 @@ public abstract class AstridOrderedListUpdater<LIST> {
         moveHelper(list, filter, target, before);
     }
 
-    public void moveToParentOf(String moveThis, String toParentOfThis) {
+    public void moveToParentOf(LIST list, String moveThis, String toParentOfThis) {
         Node target = idToNode.get(toParentOfThis);
         if (target == null) {
             return;
@@ -295,6 +318,7 @@ public abstract class AstridOrderedListUpdater<LIST> {
         toMove.parent = newParent;
         newParent.children.add(toMove);
         setNodeIndent(toMove, toMove.parent.indent + 1);
+        writeMoved(list, toMove);
     }
 
     private void moveHelper(LIST list, Filter filter, Node moveThis, Node beforeThis) {
@@ -322,8 +346,8 @@ public abstract class AstridOrderedListUpdater<LIST> {
             beforeIndex--;
         }
         newSiblings.add(beforeIndex, moveThis);
-        writeSerialization(list, serializeTree(), true);
-        applyToFilter(filter);
+        writeMoved(list, moveThis);
+        applyToFilter(list, filter);
     }
 
     // Returns true if desc is a descendant of parent
@@ -344,8 +368,8 @@ public abstract class AstridOrderedListUpdater<LIST> {
         treeRoot.children.add(moveThis);
         moveThis.parent = treeRoot;
         setNodeIndent(moveThis, 0);
-        writeSerialization(list, serializeTree(), true);
-        applyToFilter(filter);
+        writeMoved(list, moveThis);
+        applyToFilter(list, filter);
     }
 
     public void onCreateTask(LIST list, Filter filter, String uuid) {
@@ -356,8 +380,8 @@ public abstract class AstridOrderedListUpdater<LIST> {
         Node newNode = new Node(uuid, treeRoot, 0);
         treeRoot.children.add(0, newNode);
         idToNode.put(uuid, newNode);
-        writeSerialization(list, serializeTree(), true);
-        applyToFilter(filter);
+        writeMoved(list, newNode);
+        applyToFilter(list, filter);
     }
 
     public void onDeleteTask(LIST list, Filter filter, String taskId) {
@@ -381,44 +405,178 @@ public abstract class AstridOrderedListUpdater<LIST> {
         }
         idToNode.remove(taskId);
 
-        writeSerialization(list, serializeTree(), true);
-        applyToFilter(filter);
+        // children take the place of the task and keep their ranks
+        updateRanks(list, task.children, Collections.singletonList(taskId));
+        applyToFilter(list, filter);
+    }
+
+    /**
+     * Rank the node and its descendants between the nodes now before and
+     * after them, and write their rows. Writes the whole tree when the
+     * neighbours have no room left between their ranks
+     */
+    private void writeMoved(LIST list, Node node) {
+        List<Node> moved = inOrder(node);
+        moved.add(0, node);
+        Node previous = previousInOrder(node);
+        Node next = nextAfterDescendants(node);
+        long low = previous == null ? 0 : previous.rank;
+        long high = next == null ? low + RANK_GAP * (moved.size() + 1) : next.rank;
+        long step = (high - low) / (moved.size() + 1);
+        if (step < 1) {
+            writeTree(list, true);
+            return;
+        }
+        for (int i = 0; i < moved.size(); i++) {
+            moved.get(i).rank = low + step * (i + 1);
+        }
+        updateRanks(list, moved, Collections.<String>emptyList());
     }
 
-    private interface JSONTreeModelBuilder {
-        void afterAddNode(Node node);
+    /**
+     * Rank the whole tree again and write it
+     */
+    private void writeTree(LIST list, boolean shouldQueueSync) {
+        rankTree(treeRoot);
+        writeSerialization(list, serializeTree(), shouldQueueSync);
+        staleList = null;
+        rankWrites = 0;
     }
 
-    public static Node buildTreeModel(String serializedTree, JSONTreeModelBuilder callback) {
-        Node root = new Node("-1", null, -1); //$NON-NLS-1$
-        try {
-            JSONArray tree = new JSONArray(serializedTree);
-            recursivelyBuildChildren(root, tree, callback);
-        } catch (JSONException e) {
-            log.error(e.getMessage(), e);
+    private void updateRanks(LIST list, List<Node> changed, List<String> removed) {
+        writeRanks(list, changed, removed);
+        staleList = list;
+        if (++rankWrites >= SNAPSHOT_INTERVAL) {
+            writeSnapshot();
         }
-        return root;
     }
 
-    private static void recursivelyBuildChildren(Node node, JSONArray children, JSONTreeModelBuilder callback) throws JSONException {
-        for (int i = 1; i < children.length(); i++) {
-            JSONArray subarray = children.optJSONArray(i);
-            String uuid;
-            if (subarray == null) {
-                uuid = children.getString(i);
-            } else {
-                uuid = subarray.getString(0);
-            }
+    /**
+     * Write the serialized tree if the ranks changed since it was last
+     * written, e.g. when the list is closed
+     */
+    public void writeSnapshot() {
+        if (staleList != null) {
+            writeSnapshot(staleList, serializeTree());
+            staleList = null;
+            rankWrites = 0;
+        }
+    }
+
+    private Node previousInOrder(Node node) {
+        ArrayList<Node> siblings = node.parent.children;
+        int index = siblings.indexOf(node);
+        if (index <= 0) {
+            return node.parent == treeRoot ? null : node.parent;
+        }
+        Node previous = siblings.get(index - 1);
+        while (!previous.children.isEmpty()) {
+            previous = previous.children.get(previous.children.size() - 1);
+        }
+        return previous;
+    }
 
-            Node child = new Node(uuid, node, node.indent + 1);
-            if (subarray != null) {
-                recursivelyBuildChildren(child, subarray, callback);
+    private Node nextAfterDescendants(Node node) {
+        for (Node current = node; current != treeRoot && current.parent != null; current = current.parent) {
+            ArrayList<Node> siblings = current.parent.children;
+            int index = siblings.indexOf(current);
+            if (index + 1 < siblings.size()) {
+                return siblings.get(index + 1);
             }
-            node.children.add(child);
-            if (callback != null) {
-                callback.afterAddNode(child);
+        }
+        return null;
+    }
+
+    /**
+     * Number the nodes of a tree in list order, {@link #RANK_GAP} apart
+     *
+     * @return the ranked nodes in list order, without the root
+     */
+    public static List<Node> rankTree(Node root) {
+        List<Node> nodes = inOrder(root);
+        for (int i = 0; i < nodes.size(); i++) {
+            nodes.get(i).rank = RANK_GAP * (i + 1);
+        }
+        return nodes;
+    }
+
+    /**
+     * @return descendants of the node in list order
+     */
+    private static List<Node> inOrder(Node node) {
+        List<Node> nodes = new ArrayList<>();
+        addInOrder(node, nodes);
+        return nodes;
+    }
+
+    private static void addInOrder(Node node, List<Node> nodes) {
+        for (Node child : node.children) {
+            nodes.add(child);
+            addInOrder(child, nodes);
+        }
+    }
+
+    private interface JSONTreeModelBuilder {
+        void afterAddNode(Node node);
+    }
+
+    /**
+     * Read a serialized tree in one pass. The tree is an array holding the
+     * id of its node followed by its children, leaves as ids and branches
+     * as arrays, e.g. ["-1", "a", ["b", "c"]]
+     */
+    public static Node buildTreeModel(String serializedTree, JSONTreeModelBuilder callback) {
+        Node root = new Node("-1", null, -1); //$NON-NLS-1$
+        Node parent = null;
+        boolean branchId = false;
+        int length = serializedTree.length();
+        for (int i = 0; i < length; i++) {
+            char c = serializedTree.charAt(i);
+            if (c == '[') {
+                branchId = true;
+            } else if (c == ']') {
+                if (parent == null || parent == root) {
+                    break;
+                }
+                if (callback != null) {
+                    callback.afterAddNode(parent);
+                }
+                parent = parent.parent;
+            } else if (c != ',' && !Character.isWhitespace(c)) {
+                int end;
+                String uuid;
+                if (c == '"') {
+                    end = serializedTree.indexOf('"', i + 1);
+                    if (end < 0) {
+                        break;
+                    }
+                    uuid = serializedTree.substring(i + 1, end);
+                } else {
+                    end = i;
+                    while (end + 1 < length && ",[]".indexOf(serializedTree.charAt(end + 1)) < 0
+                            && !Character.isWhitespace(serializedTree.charAt(end + 1))) {
+                        end++;
+                    }
+                    uuid = serializedTree.substring(i, end + 1);
+                }
+                i = end;
+
+                if (parent == null) {
+                    // id of the root
+                    parent = root;
+                } else {
+                    Node child = new Node(uuid, parent, parent.indent + 1);
+                    parent.children.add(child);
+                    if (branchId) {
+                        parent = child;
+                    } else if (callback != null) {
+                        callback.afterAddNode(child);
+                    }
+                }
+                branchId = false;
             }
         }
+        return root;
     }
 
     protected String serializeTree() {
@@ -426,26 +584,30 @@ public abstract class AstridOrderedListUpdater<LIST> {
     }
 
     public static String serializeTree(Node root) {
-        JSONArray tree = new JSONArray();
+        StringBuilder tree = new StringBuilder();
         if (root == null) {
-            return tree.toString();
+            return "[]"; //$NON-NLS-1$
         }
 
         recursivelySerialize(root, tree);
         return tree.toString();
     }
 
-    private static void recursivelySerialize(Node node, JSONArray serializeTo) {
-        ArrayList<Node> children = node.children;
-        serializeTo.put(node.uuid);
-        for (Node child : children) {
+    private static void recursivelySerialize(Node node, StringBuilder serializeTo) {
+        serializeTo.append('[');
+        appendId(node.uuid, serializeTo);
+        for (Node child : node.children) {
+            serializeTo.append(',');
             if (child.children.size() > 0) {
-                JSONArray branch = new JSONArray();
-                recursivelySerialize(child, branch);
-                serializeTo.put(branch);
+                recursivelySerialize(child, serializeTo);
             } else {
-                serializeTo.put(child.uuid);
+                appendId(child.uuid, serializeTo);
             }
         }
+        serializeTo.append(']');
+    }
+
+    private static void appendId(String uuid, StringBuilder serializeTo) {
+        serializeTo.append('"').append(uuid).append('"');
     }
 }
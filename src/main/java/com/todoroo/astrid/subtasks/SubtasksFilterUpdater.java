@@ -3,10 +3,13 @@ package com.todoroo.astrid.subtasks;
 import android.text.TextUtils;
 
 import com.todoroo.astrid.dao.TaskListMetadataDao;
+import com.todoroo.astrid.dao.TaskListRanks;
 import com.todoroo.astrid.data.SyncFlags;
 import com.todoroo.astrid.data.TaskListMetadata;
 import com.todoroo.astrid.service.TaskService;
 
+import java.util.List;
+
 import javax.inject.Inject;
 
 public class SubtasksFilterUpdater extends SubtasksUpdater<TaskListMetadata> {
@@ -34,14 +37,39 @@ public class SubtasksFilterUpdater extends SubtasksUpdater<TaskListMetadata> {
         return order;
     }
 
+    @Override
+    protected String getListId(TaskListMetadata list) {
+        return list == null ? null : TaskListRanks.listId(list);
+    }
+
+    @Override
+    protected Node readRankedTree(TaskListMetadata list) {
+        String listId = getListId(list);
+        return listId == null ? null : taskListMetadataDao.readRankedTree(listId);
+    }
+
+    @Override
+    protected void writeRanks(TaskListMetadata list, List<Node> changed, List<String> removed) {
+        String listId = getListId(list);
+        if (listId != null) {
+            taskListMetadataDao.updateRanks(listId, changed, removed);
+        }
+    }
+
+    @Override
+    protected void writeSnapshot(TaskListMetadata list, String serialized) {
+        if (list != null) {
+            taskListMetadataDao.saveSnapshot(list, serialized);
+        }
+    }
+
     @Override
     protected void writeSerialization(TaskListMetadata list, String serialized, boolean shouldQueueSync) {
         if (list != null) {
-            list.setTaskIDs(serialized);
             if (!shouldQueueSync) {
                 list.putTransitory(SyncFlags.ACTFM_SUPPRESS_OUTSTANDING_ENTRIES, true);
             }
-            taskListMetadataDao.saveExisting(list);
+            taskListMetadataDao.saveTree(list, serialized);
         }
     }
 }
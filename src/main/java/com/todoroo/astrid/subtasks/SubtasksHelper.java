@@ -13,6 +13,7 @@ import com.todoroo.astrid.core.SortHelper;
 import com.todoroo.astrid.dao.TagDataDao;
 import com.todoroo.astrid.dao.TaskDao.TaskCriteria;
 import com.todoroo.astrid.dao.TaskListMetadataDao;
+import com.todoroo.astrid.dao.TaskListRanks;
 import com.todoroo.astrid.data.RemoteModel;
 import com.todoroo.astrid.data.TagData;
 import com.todoroo.astrid.data.Task;
@@ -37,15 +38,13 @@ public class SubtasksHelper {
 
     private final Context context;
     private final Preferences preferences;
-    private final TaskService taskService;
     private final TagDataDao tagDataDao;
     private final TaskListMetadataDao taskListMetadataDao;
 
     @Inject
-    public SubtasksHelper(@ForApplication Context context, Preferences preferences, TaskService taskService, TagDataDao tagDataDao, TaskListMetadataDao taskListMetadataDao) {
+    public SubtasksHelper(@ForApplication Context context, Preferences preferences, TagDataDao tagDataDao, TaskListMetadataDao taskListMetadataDao) {
         this.context = context;
         this.preferences = preferences;
-        this.taskService = taskService;
         this.tagDataDao = tagDataDao;
         this.taskListMetadataDao = taskListMetadataDao;
     }
@@ -71,19 +70,20 @@ public class SubtasksHelper {
         if (shouldUseSubtasksFragmentForFilter(filter)) {
             // care for manual ordering
             TagData tagData = tagDataDao.getTagByName(tagName, TagData.UUID, TagData.TAG_ORDERING);
-            TaskListMetadata tlm = null;
+            String listId = null;
             if (tagData != null) {
-                tlm = taskListMetadataDao.fetchByTagId(tagData.getUuid(), TaskListMetadata.TASK_IDS);
+                listId = tagData.getUuid();
             } else if (BuiltInFilterExposer.isInbox(context, filter)) {
-                tlm = taskListMetadataDao.fetchByTagId(TaskListMetadata.FILTER_ID_ALL, TaskListMetadata.TASK_IDS);
+                listId = TaskListMetadata.FILTER_ID_ALL;
             } else if (BuiltInFilterExposer.isTodayFilter(context, filter)) {
-                tlm = taskListMetadataDao.fetchByTagId(TaskListMetadata.FILTER_ID_TODAY, TaskListMetadata.TASK_IDS);
+                listId = TaskListMetadata.FILTER_ID_TODAY;
             }
+            TaskListMetadata tlm = listId == null ? null : taskListMetadataDao.fetchByTagId(listId, TaskListMetadata.ID);
 
             query = query.replaceAll("ORDER BY .*", "");
             query = query + String.format(" ORDER BY %s, %s, %s, %s",
                     Task.DELETION_DATE, Task.COMPLETION_DATE,
-                    getOrderString(tagData, tlm), Task.CREATION_DATE);
+                    getOrderString(tagData, tlm, listId), Task.CREATION_DATE);
             if (limit > 0) {
                 query = query + " LIMIT " + limit;
             }
@@ -95,17 +95,12 @@ public class SubtasksHelper {
         return query;
     }
 
-    private String getOrderString(TagData tagData, TaskListMetadata tlm) {
-        String serialized;
-        if (tlm != null) {
-            serialized = tlm.getTaskIDs();
-        } else if (tagData != null) {
-            serialized = convertTreeToRemoteIds(taskService, tagData.getTagOrdering());
-        } else {
-            serialized = "[]"; //$NON-NLS-1$
+    private String getOrderString(TagData tagData, TaskListMetadata tlm, String listId) {
+        // tags ordered before lists had metadata were ranked on upgrade
+        if (tlm == null && tagData == null) {
+            return "(1)"; //$NON-NLS-1$
         }
-
-        return AstridOrderedListUpdater.buildOrderString(getStringIdArray(serialized));
+        return TaskListRanks.orderBy(listId);
     }
 
     @Deprecated
@@ -140,7 +135,14 @@ public class SubtasksHelper {
      */
     public static String convertTreeToRemoteIds(TaskService taskService, String localTree) {
         List<Long> localIds = getIdList(localTree);
-        HashMap<Long, String> idMap = getIdMap(taskService, localIds, Task.ID, Task.UUID);
+        return convertTreeToRemoteIds(localTree, getIdMap(taskService, localIds, Task.ID, Task.UUID));
+    }
+
+    /**
+     * Remaps a subtasks string containing local ids to one containing the
+     * UUIDs they map to. Ids missing from the map are dropped
+     */
+    public static String convertTreeToRemoteIds(String localTree, HashMap<Long, String> idMap) {
         idMap.put(-1L, "-1"); //$NON-NLS-1$
 
         Node tree = AstridOrderedListUpdater.buildTreeModel(localTree, null);
@@ -80,6 +80,9 @@ public class SubtasksListFragment extends TaskListFragment {
     @Override
     public void onPause() {
         super.onPause();
+        if (helper instanceof AstridOrderedListFragmentHelper) {
+            ((AstridOrderedListFragmentHelper<?>) helper).onPause();
+        }
         lastVisibleIndex = getListView().getFirstVisiblePosition();
     }
 
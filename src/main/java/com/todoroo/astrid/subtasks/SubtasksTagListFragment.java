@@ -73,6 +73,7 @@ public class SubtasksTagListFragment extends TagViewFragment {
     @Override
     public void onPause() {
         super.onPause();
+        helper.onPause();
         lastVisibleIndex = getListView().getFirstVisiblePosition();
     }
 
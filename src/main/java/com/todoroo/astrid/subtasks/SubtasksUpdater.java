@@ -8,6 +8,7 @@ package com.todoroo.astrid.subtasks;
 import com.todoroo.andlib.sql.Criterion;
 import com.todoroo.astrid.api.Filter;
 import com.todoroo.astrid.dao.TaskDao.TaskCriteria;
+import com.todoroo.astrid.dao.TaskListRanks;
 import com.todoroo.astrid.data.Task;
 import com.todoroo.astrid.service.TaskService;
 
@@ -20,20 +21,27 @@ public abstract class SubtasksUpdater<T> extends AstridOrderedListUpdater<T> {
         super(taskService);
     }
 
+    /**
+     * @return identifier of the list whose ranks order its tasks, see
+     *         {@link TaskListRanks}, or null if the list is not ranked
+     */
+    protected abstract String getListId(T list);
+
     @Override
     public void initialize(T list, Filter filter) {
         super.initialize(list, filter);
-        applyToFilter(filter);
+        applyToFilter(list, filter);
     }
 
     @Override
-    public void applyToFilter(Filter filter) {
+    public void applyToFilter(T list, Filter filter) {
         String query = filter.getSqlQuery();
+        String listId = getListId(list);
 
         query = query.replaceAll("ORDER BY .*", "");
         query = query + String.format(" ORDER BY %s, %s, %s, %s",
                 Task.DELETION_DATE, Task.COMPLETION_DATE,
-                getOrderString(), Task.CREATION_DATE);
+                listId == null ? "(1)" : TaskListRanks.orderBy(listId), Task.CREATION_DATE); //$NON-NLS-1$
         query = query.replace(TaskCriteria.isVisible().toString(),
                 Criterion.all.toString());
 
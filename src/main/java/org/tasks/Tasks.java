@@ -1,18 +1,25 @@
 package org.tasks;
 
 import com.todoroo.astrid.dao.Database;
+import com.todoroo.astrid.dao.DatabaseChange;
+import com.todoroo.astrid.dao.DatabaseUpdateListener;
 import com.todoroo.astrid.dao.MetadataDao;
+import com.todoroo.astrid.dao.QueryStatistics;
 import com.todoroo.astrid.dao.StoreObjectDao;
 import com.todoroo.astrid.dao.TagDataDao;
 import com.todoroo.astrid.dao.TaskAttachmentDao;
 import com.todoroo.astrid.dao.TaskDao;
 import com.todoroo.astrid.dao.TaskListMetadataDao;
 import com.todoroo.astrid.dao.UserActivityDao;
+import com.todoroo.astrid.data.Metadata;
+import com.todoroo.astrid.data.Task;
 import com.todoroo.astrid.gtasks.GtasksListService;
 import com.todoroo.astrid.gtasks.GtasksMetadataService;
 import com.todoroo.astrid.gtasks.GtasksPreferenceService;
 import com.todoroo.astrid.gtasks.GtasksTaskListUpdater;
 import com.todoroo.astrid.gtasks.sync.GtasksSyncService;
+import com.todoroo.astrid.provider.Astrid2TaskProvider;
+import com.todoroo.astrid.provider.Astrid3ContentProvider;
 import com.todoroo.astrid.service.SyncV2Service;
 import com.todoroo.astrid.service.TaskService;
 import com.todoroo.astrid.service.UpgradeService;
@@ -57,5 +64,20 @@ public class Tasks extends InjectingApplication {
         super.onCreate();
 
         preferences.setupLogger();
+
+        if (preferences.getBoolean(R.string.p_query_statistics, false)) {
+            database.setQueryStatistics(new QueryStatistics());
+        }
+
+        database.addListener(new DatabaseUpdateListener() {
+            @Override
+            public void onDatabaseUpdated(DatabaseChange change) {
+                Astrid2TaskProvider.notifyDatabaseModification(Tasks.this);
+                Astrid3ContentProvider.notifyDatabaseModification(Tasks.this);
+                if (change.affects(Task.TABLE) || change.affects(Metadata.TABLE)) {
+                    broadcaster.refresh();
+                }
+            }
+        });
     }
 }
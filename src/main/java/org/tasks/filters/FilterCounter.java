@@ -1,13 +1,23 @@
 package org.tasks.filters;
 
-import com.todoroo.andlib.data.TodorooCursor;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
+
+import com.todoroo.andlib.data.Property.IntegerProperty;
 import com.todoroo.andlib.sql.Query;
+import com.todoroo.andlib.sql.SqlClauses;
 import com.todoroo.astrid.api.Filter;
 import com.todoroo.astrid.api.FilterListItem;
 import com.todoroo.astrid.api.PermaSql;
-import com.todoroo.astrid.dao.TaskDao;
+import com.todoroo.astrid.dao.Database;
 import com.todoroo.astrid.data.Task;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
@@ -20,6 +30,12 @@ import javax.inject.Singleton;
 
 @Singleton
 public class FilterCounter {
+
+    private static final Logger log = LoggerFactory.getLogger(FilterCounter.class);
+
+    /** Upper bound of filters counted by a single query */
+    static final int MAX_FILTERS_PER_QUERY = 200;
+
     // Previous solution involved a queue of filters and a filterSizeLoadingThread. The filterSizeLoadingThread had
     // a few problems: how to make sure that the thread is resumed when the controlling activity is resumed, and
     // how to make sure that the the filterQueue does not accumulate filters without being processed. I am replacing
@@ -31,28 +47,53 @@ public class FilterCounter {
 
     private final Map<Filter, Integer> filterCounts = new ConcurrentHashMap<>();
 
-    private final TaskDao taskDao;
+    private final Database database;
+
+    /** Callbacks of the refresh that is queued but not started yet, null if there is none */
+    private List<Runnable> pendingCallbacks;
 
     @Inject
-    public FilterCounter(TaskDao taskDao) {
-        this(taskDao, new ThreadPoolExecutor(0, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>()));
+    public FilterCounter(Database database) {
+        this(database, new ThreadPoolExecutor(0, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>()));
     }
 
-    FilterCounter(TaskDao taskDao, ExecutorService executorService) {
-        this.taskDao = taskDao;
+    FilterCounter(Database database, ExecutorService executorService) {
+        this.database = database;
         this.executorService = executorService;
     }
 
+    /**
+     * Recount all registered filters. Requests made while a refresh is still
+     * queued are folded into that refresh, so a burst of saves only causes a
+     * single recount.
+     */
     public void refreshFilterCounts(final Runnable onComplete) {
+        synchronized (this) {
+            if (pendingCallbacks != null) {
+                if (onComplete != null) {
+                    pendingCallbacks.add(onComplete);
+                }
+                return;
+            }
+            pendingCallbacks = new ArrayList<>();
+            if (onComplete != null) {
+                pendingCallbacks.add(onComplete);
+            }
+        }
         executorService.submit(new Runnable() {
             @Override
             public void run() {
-                for (Filter filter : filterCounts.keySet()) {
-                    int size = countTasks(filter);
-                    filterCounts.put(filter, size);
+                List<Runnable> callbacks;
+                synchronized (FilterCounter.this) {
+                    callbacks = pendingCallbacks;
+                    pendingCallbacks = null;
                 }
-                if (onComplete != null) {
-                    onComplete.run();
+                try {
+                    countFilters(new ArrayList<>(filterCounts.keySet()));
+                } finally {
+                    for (Runnable callback : callbacks) {
+                        callback.run();
+                    }
                 }
             }
         });
@@ -70,14 +111,108 @@ public class FilterCounter {
         return filterCounts.get(filter);
     }
 
-    private int countTasks(Filter filter) {
-        String queryTemplate = PermaSql.replacePlaceholders(filter.getSqlQuery());
-        TodorooCursor<Task> cursor = taskDao.query(
-                Query.select(Task.ID).withQueryTemplate(queryTemplate));
+    /**
+     * Filters whose template is a plain WHERE clause, optionally after joins
+     * and before an ORDER BY, are grouped by their joins and each group is
+     * counted in one scan with a SUM(CASE WHEN ...) column per filter. Any
+     * other filter is counted on its own with COUNT(*).
+     */
+    private void countFilters(List<Filter> filters) {
+        Map<String, List<Filter>> groups = new LinkedHashMap<>();
+        Map<Filter, String> predicates = new LinkedHashMap<>();
+        for (Filter filter : filters) {
+            String sql = PermaSql.replacePlaceholders(filter.getSqlQuery());
+            SplitTemplate template = SplitTemplate.parse(sql);
+            if (template == null) {
+                countSeparately(filter, sql);
+                continue;
+            }
+            List<Filter> group = groups.get(template.joins);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(template.joins, group);
+            }
+            group.add(filter);
+            predicates.put(filter, template.predicate);
+        }
+
+        for (Map.Entry<String, List<Filter>> group : groups.entrySet()) {
+            List<Filter> members = group.getValue();
+            for (int start = 0; start < members.size(); start += MAX_FILTERS_PER_QUERY) {
+                List<Filter> chunk = members.subList(start, Math.min(members.size(), start + MAX_FILTERS_PER_QUERY));
+                try {
+                    countTogether(group.getKey(), chunk, predicates);
+                } catch (SQLiteException e) {
+                    // one broken custom filter should not cost the others their count
+                    log.error(e.getMessage(), e);
+                    for (Filter filter : chunk) {
+                        countSeparately(filter, PermaSql.replacePlaceholders(filter.getSqlQuery()));
+                    }
+                }
+            }
+        }
+    }
+
+    private void countTogether(String joins, List<Filter> filters, Map<Filter, String> predicates) {
+        IntegerProperty[] counts = new IntegerProperty[filters.size()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new IntegerProperty(null, "SUM(CASE WHEN (" + predicates.get(filters.get(i)) + ") THEN 1 ELSE 0 END)")
+                    .as("count" + i);
+        }
+        String sql = Query.select(counts).from(Task.TABLE).withQueryTemplate(joins).toString();
+        Cursor cursor = database.rawQuery(sql);
         try {
-            return cursor.getCount();
+            cursor.moveToFirst();
+            for (int i = 0; i < counts.length; i++) {
+                filterCounts.put(filters.get(i), cursor.getInt(i));
+            }
         } finally {
             cursor.close();
         }
     }
+
+    private void countSeparately(Filter filter, String queryTemplate) {
+        String sql = "SELECT COUNT(*) FROM (" + //$NON-NLS-1$
+                Query.select(Task.ID).from(Task.TABLE).withQueryTemplate(queryTemplate) + ")"; //$NON-NLS-1$
+        Cursor cursor = null;
+        try {
+            cursor = database.rawQuery(sql);
+            cursor.moveToFirst();
+            filterCounts.put(filter, cursor.getInt(0));
+        } catch (SQLiteException e) {
+            log.error(e.getMessage(), e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * A filter query template split into the joins in front of its WHERE
+     * clause and the WHERE predicate itself
+     */
+    static final class SplitTemplate {
+
+        final String joins;
+        final String predicate;
+
+        private SplitTemplate(String joins, String predicate) {
+            this.joins = joins;
+            this.predicate = predicate;
+        }
+
+        /**
+         * @return the split template, or null if the template has clauses
+         *         that change the number of rows, like GROUP BY or LIMIT
+         */
+        static SplitTemplate parse(String template) {
+            SqlClauses clauses = SqlClauses.parse(template);
+            if (clauses == null || clauses.groupBy != null || clauses.limit != null) {
+                return null;
+            }
+            String predicate = clauses.where == null || clauses.where.isEmpty() ? "1" : clauses.where;
+            return new SplitTemplate(clauses.joins, predicate);
+        }
+    }
 }
@@ -1,5 +1,7 @@
 package org.tasks.scheduling;
 
+import com.todoroo.astrid.dao.TaskDao;
+
 import org.tasks.Broadcaster;
 
 import javax.inject.Inject;
@@ -7,6 +9,7 @@ import javax.inject.Inject;
 public class MidnightRefreshService extends MidnightIntentService {
 
     @Inject Broadcaster broadcaster;
+    @Inject TaskDao taskDao;
 
     public MidnightRefreshService() {
         super(MidnightRefreshService.class.getSimpleName());
@@ -14,6 +17,7 @@ public class MidnightRefreshService extends MidnightIntentService {
 
     @Override
     void run() {
+        taskDao.rolloverSortKeys();
         broadcaster.refresh();
     }
 
@@ -5,10 +5,6 @@ import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
 
-import com.todoroo.andlib.data.Property;
-import com.todoroo.andlib.data.TodorooCursor;
-import com.todoroo.andlib.sql.Criterion;
-import com.todoroo.andlib.sql.Query;
 import com.todoroo.astrid.dao.TaskDao;
 import com.todoroo.astrid.data.Task;
 
@@ -22,16 +18,19 @@ import static android.app.PendingIntent.FLAG_UPDATE_CURRENT;
 import static com.todoroo.andlib.utility.DateUtilities.ONE_MINUTE;
 import static org.tasks.date.DateTimeUtils.currentTimeMillis;
 
+/**
+ * Keeps a single alarm at the next instant a task list can change by itself,
+ * see {@link TaskDao#nextTimeBoundary(long)}. {@link RefreshReceiver} refreshes
+ * the lists when it goes off and schedules the following one.
+ */
 @Singleton
 public class RefreshScheduler {
 
     private final TaskDao taskDao;
     private final Context context;
 
-    private static final Property<?>[] REFRESH_PROPERTIES = new Property<?>[]{
-            Task.DUE_DATE,
-            Task.HIDE_UNTIL
-    };
+    /** time of the scheduled refresh, 0 if unknown */
+    private long scheduled;
 
     @Inject
     public RefreshScheduler(TaskDao taskDao, @ForApplication Context context) {
@@ -39,47 +38,60 @@ public class RefreshScheduler {
         this.context = context;
     }
 
-    public void scheduleApplicationRefreshes() {
-        TodorooCursor<Task> cursor = getTasks();
-        try {
-            for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
-                Task task = new Task(cursor);
-                scheduleRefresh(task);
-            }
-        } finally {
-            cursor.close();
-        }
+    public synchronized void scheduleApplicationRefreshes() {
+        schedule(nextRefresh());
     }
 
-    public void scheduleRefresh(Task task) {
+    /**
+     * Move the refresh forward if the task changes before it. A refresh made
+     * too early by the task is harmless, it schedules the next one
+     */
+    public synchronized void scheduleRefresh(Task task) {
+        long now = currentTimeMillis();
+        long next = Long.MAX_VALUE;
         if (task.containsValue(Task.DUE_DATE)) {
-            scheduleRefresh(task.getDueDate());
+            next = earliest(next, task.getDueDate(), now);
         }
         if (task.containsValue(Task.HIDE_UNTIL)) {
-            scheduleRefresh(task.getHideUntil());
+            next = earliest(next, task.getHideUntil(), now);
         }
-        if (task.containsValue(Task.COMPLETION_DATE)) {
-            scheduleRefresh(task.getCompletionDate() + ONE_MINUTE);
+        if (task.containsValue(Task.COMPLETION_DATE) && task.getCompletionDate() > 0) {
+            next = earliest(next, task.getCompletionDate() + ONE_MINUTE, now);
         }
-    }
-
-    private void scheduleRefresh(Long dueDate) {
-        if (currentTimeMillis() > dueDate) {
+        if (next == Long.MAX_VALUE) {
             return;
         }
+        if (scheduled == 0) {
+            // the process was restarted, there may be an earlier alarm
+            scheduleApplicationRefreshes();
+        } else if (next < scheduled || scheduled < now) {
+            schedule(next);
+        }
+    }
+
+    /**
+     * @return the next instant a task list can change, 0 if there is none
+     */
+    public long nextRefresh() {
+        return taskDao.nextTimeBoundary(currentTimeMillis());
+    }
+
+    private static long earliest(long next, long time, long now) {
+        return time > now ? Math.min(next, time) : next;
+    }
 
-        dueDate += 1000; // this is ghetto
+    private void schedule(long time) {
         Intent intent = new Intent(context, RefreshReceiver.class);
-        intent.setAction(Long.toString(dueDate));
         AlarmManager am = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
         PendingIntent pendingIntent = PendingIntent.getBroadcast(context, 0, intent, FLAG_UPDATE_CURRENT);
-        am.set(AlarmManager.RTC, dueDate, pendingIntent);
-    }
+        if (time == 0) {
+            am.cancel(pendingIntent);
+            scheduled = Long.MAX_VALUE;
+            return;
+        }
 
-    private TodorooCursor<Task> getTasks() {
-        long now = currentTimeMillis();
-        return taskDao.query(Query.select(REFRESH_PROPERTIES).where(Criterion.and(
-                TaskDao.TaskCriteria.isActive(),
-                Criterion.or(Task.HIDE_UNTIL.gt(now), Task.DUE_DATE.gt(now)))));
+        scheduled = time;
+        // go off after the boundary, so queries comparing with now() see it passed
+        am.set(AlarmManager.RTC, time + 1000, pendingIntent);
     }
 }
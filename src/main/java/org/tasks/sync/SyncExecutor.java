@@ -2,38 +2,128 @@ package org.tasks.sync;
 
 import com.todoroo.astrid.sync.SyncResultCallback;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
+import javax.inject.Singleton;
 
-import static java.util.concurrent.ThreadPoolExecutor.DiscardPolicy;
-
+/**
+ * Runs sync jobs in the background. A job may split its work into parts
+ * that run in parallel, see {@link #runAll(Collection)}, at most
+ * {@link #PARALLELISM} at a time for all jobs together.
+ */
+@Singleton
 public class SyncExecutor {
 
-    private final ExecutorService executor = new ThreadPoolExecutor(
+    private static final Logger log = LoggerFactory.getLogger(SyncExecutor.class);
+
+    /** parts of jobs running at the same time */
+    static final int PARALLELISM = 4;
+
+    /** jobs wait for their parts, so parts run on their own threads */
+    private final ExecutorService jobs = new ThreadPoolExecutor(
             0, Integer.MAX_VALUE,
             60L, TimeUnit.SECONDS,
-            new SynchronousQueue<Runnable>(),
-            new DiscardPolicy());
+            new SynchronousQueue<Runnable>());
+
+    private final ThreadPoolExecutor parts = new ThreadPoolExecutor(
+            PARALLELISM, PARALLELISM,
+            60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>());
+
+    private final Set<Future<?>> running = new HashSet<>();
 
     @Inject
     public SyncExecutor() {
+        parts.allowCoreThreadTimeOut(true);
     }
 
+    /**
+     * Run a job in the background. The callback is finished if the job
+     * fails or is cancelled
+     */
     public void execute(final SyncResultCallback callback, final Runnable command) {
-        executor.execute(new Runnable() {
-            @Override
-            public void run() {
-                try {
+        final Future<?>[] future = new Future<?>[1];
+        synchronized (running) {
+            future[0] = jobs.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        command.run();
+                    } catch (Exception e) {
+                        log.error(e.getMessage(), e);
+                        callback.finished();
+                    } finally {
+                        synchronized (running) {
+                            running.remove(future[0]);
+                        }
+                    }
+                }
+            });
+            if (!future[0].isDone()) {
+                running.add(future[0]);
+            }
+        }
+    }
+
+    /**
+     * Run the parts of a job in parallel and wait until all of them are
+     * done. A part failing does not stop the others
+     *
+     * @return true if every part ran without throwing
+     * @throws InterruptedException if the job was cancelled. Parts not
+     *                              started yet do not run
+     */
+    public boolean runAll(Collection<? extends Runnable> commands) throws InterruptedException {
+        List<Callable<Void>> callables = new ArrayList<>();
+        for (final Runnable command : commands) {
+            callables.add(new Callable<Void>() {
+                @Override
+                public Void call() {
                     command.run();
-                } catch (Exception e) {
-                    executor.shutdownNow();
-                    callback.finished();
+                    return null;
                 }
+            });
+        }
+        boolean successful = true;
+        for (Future<Void> future : parts.invokeAll(callables)) {
+            try {
+                future.get();
+            } catch (ExecutionException | CancellationException e) {
+                log.error(e.getMessage(), e);
+                successful = false;
+            }
+        }
+        return successful;
+    }
+
+    /**
+     * Interrupt the running jobs, e.g. when signing out. Jobs waiting in
+     * {@link #runAll(Collection)} stop, and their parts not started yet
+     * do not run
+     */
+    public void cancel() {
+        synchronized (running) {
+            for (Future<?> future : running) {
+                future.cancel(true);
             }
-        });
+            running.clear();
+        }
     }
 }
@@ -24,6 +24,7 @@ import com.todoroo.astrid.api.PermaSql;
 import com.todoroo.astrid.core.BuiltInFilterExposer;
 import com.todoroo.astrid.dao.TagDataDao;
 import com.todoroo.astrid.data.TagData;
+import com.todoroo.astrid.gtasks.GtasksMetadata;
 import com.todoroo.astrid.tags.TagFilterExposer;
 import com.todoroo.astrid.utility.Constants;
 import com.todoroo.astrid.widget.TasksWidget;
@@ -152,6 +153,7 @@ public class WidgetHelper {
         String sql = preferences.getStringValue(WidgetConfigActivity.PREF_SQL + widgetId);
         if (sql != null) {
             sql = sql.replace("tasks.userId=0", "1"); // TODO: replace dirty hack for missing column
+            sql = GtasksMetadata.upgradeLegacySql(sql);
             filter.setSqlQuery(sql);
         }
         String title = preferences.getStringValue(WidgetConfigActivity.PREF_TITLE + widgetId);